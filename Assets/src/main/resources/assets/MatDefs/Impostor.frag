@@ -0,0 +1,16 @@
+uniform sampler2D m_ColorMap;
+uniform float m_AlphaDiscardThreshold;
+
+varying vec2 texCoord;
+varying float hidden;
+
+void main()
+{
+    vec4 color = texture2D(m_ColorMap, texCoord);
+
+    // trees fade in one by one, impostors stay in the opaque bucket and need no sorting
+    if (color.a < m_AlphaDiscardThreshold || hidden > 0.5) {
+        discard;
+    }
+    gl_FragColor = vec4(color.rgb, 1.0);
+}
@@ -0,0 +1,40 @@
+uniform mat4 g_WorldMatrix;
+uniform mat4 g_ViewProjectionMatrix;
+uniform vec3 g_CameraPosition;
+
+uniform float m_Views;
+uniform float m_Fade;
+
+// bottom center of the tree
+attribute vec3 inPosition;
+// corner of the quad: x -0.5..0.5, y 0..1
+attribute vec2 inTexCoord;
+// width, height and rotation of the tree around the vertical axis, fade at which the tree turns into an impostor
+attribute vec4 inTexCoord2;
+
+varying vec2 texCoord;
+varying float hidden;
+
+const float TWO_PI = 6.2831853;
+
+void main()
+{
+    vec3 base = (g_WorldMatrix * vec4(inPosition, 1.0)).xyz;
+    vec3 toCamera = g_CameraPosition - base;
+    toCamera.y = 0.0;
+    float distance = length(toCamera);
+    vec3 direction = distance > 0.0 ? toCamera / distance : vec3(0.0, 0.0, 1.0);
+
+    // quad turns around the vertical axis only, so trees stay upright
+    vec3 right = vec3(direction.z, 0.0, -direction.x);
+    vec3 position = base + right * inTexCoord.x * inTexCoord2.x + vec3(0.0, inTexCoord.y * inTexCoord2.y, 0.0);
+    gl_Position = g_ViewProjectionMatrix * vec4(position, 1.0);
+
+    // view rendered from the azimuth closest to the camera, in the space of the tree
+    float azimuth = atan(direction.x, direction.z) - inTexCoord2.z;
+    float view = mod(floor(azimuth / TWO_PI * m_Views + 0.5), m_Views);
+    texCoord = vec2((view + inTexCoord.x + 0.5) / m_Views, inTexCoord.y);
+
+    // the mesh of the tree is drawn until the chunk fades past its threshold
+    hidden = m_Fade < inTexCoord2.w ? 1.0 : 0.0;
+}
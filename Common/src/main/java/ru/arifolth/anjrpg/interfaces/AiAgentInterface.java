@@ -0,0 +1,48 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+/**
+ * Character whose update is split into steps, so AiScheduler can spread them over frames and threads.
+ */
+public interface AiAgentInterface {
+    AiLevelEnum getAiLevel();
+
+    /**
+     * Adds frame time to the time accumulated for the next tick. Render thread.
+     */
+    void elapse(float tpf);
+
+    /**
+     * Takes a snapshot of everything the decision needs from the scene and physics. Render thread.
+     * @return false when there is nothing to decide about
+     */
+    boolean sense();
+
+    /**
+     * Decides on the snapshot, using the time accumulated since the last tick.
+     * Runs on any thread, must not touch the scene, physics or audio.
+     */
+    void think();
+
+    /**
+     * Applies the decision to physics, animation and audio. Render thread.
+     */
+    void act();
+}
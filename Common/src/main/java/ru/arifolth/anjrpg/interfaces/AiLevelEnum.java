@@ -0,0 +1,48 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+/**
+ * AI level of detail of an NPC, picked by its distance to the player.
+ */
+public enum AiLevelEnum {
+    /** full update every frame */
+    FULL,
+    /** ticks a few times a second with simplified movement */
+    REDUCED,
+    /** out of physics, animation paused */
+    FROZEN;
+
+    /**
+     * Level for an NPC at the given distance from the player.
+     * Current level band is widened by the hysteresis, so NPCs on a border do not flip back and forth.
+     */
+    public static AiLevelEnum forDistance(float distance, AiLevelEnum current) {
+        float fullLimit = Constants.AI_FULL_DISTANCE + (current == FULL ? Constants.AI_LOD_HYSTERESIS : -Constants.AI_LOD_HYSTERESIS);
+        float reducedLimit = Constants.AI_REDUCED_DISTANCE + (current == FROZEN ? -Constants.AI_LOD_HYSTERESIS : Constants.AI_LOD_HYSTERESIS);
+
+        if (distance < fullLimit) {
+            return FULL;
+        }
+        if (distance < reducedLimit) {
+            return REDUCED;
+        }
+        return FROZEN;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spreads NPC thinking over frames and threads.
+ * Agents with full AI tick every frame, reduced ones are split into buckets ticking round-robin, one bucket per frame,
+ * frozen ones do not tick at all. Frame time keeps accumulating on every agent in between its ticks.
+ * Ticked agents sense on the render thread, think in parallel on the fork-join pool and act on the render thread again.
+ */
+public class AiScheduler {
+    final private static Logger LOGGER = Logger.getLogger(AiScheduler.class.getName());
+
+    //agents thought about by a single fork-join task, fewer ones are not worth a thread hop
+    private static final int BATCH_SIZE = 32;
+    private static final float AVERAGE_SMOOTHING = 0.05f;
+
+    private final int buckets;
+    private final ForkJoinPool pool;
+
+    private AiAgentInterface[] ticked = new AiAgentInterface[64];
+    private int tickedCount;
+    private int bucket;
+    private float aiTime;
+    private float averageAiTime;
+    private float maxAiTime;
+
+    /**
+     * @param buckets frames it takes every reduced agent to tick once
+     */
+    public AiScheduler(int buckets, ForkJoinPool pool) {
+        this.buckets = buckets;
+        this.pool = pool;
+    }
+
+    /**
+     * Must be called on the render thread. Characters which are not agents get a plain update.
+     */
+    public void update(EntityRegistry<? extends CharacterInterface> characters, float tpf) {
+        long start = System.nanoTime();
+
+        tickedCount = 0;
+        int reducedIndex = 0;
+        for (int i = 0; i < characters.size(); i++) {
+            CharacterInterface character = characters.getAt(i);
+            if (!(character instanceof AiAgentInterface agent)) {
+                character.update(tpf);
+                continue;
+            }
+
+            AiLevelEnum aiLevel = agent.getAiLevel();
+            if (aiLevel == AiLevelEnum.FROZEN) {
+                continue;
+            }
+            agent.elapse(tpf);
+
+            boolean due = aiLevel == AiLevelEnum.FULL || reducedIndex++ % buckets == bucket;
+            if (due && agent.sense()) {
+                if (tickedCount == ticked.length) {
+                    ticked = Arrays.copyOf(ticked, tickedCount * 2);
+                }
+                ticked[tickedCount++] = agent;
+            }
+        }
+        bucket = (bucket + 1) % buckets;
+
+        if (tickedCount > BATCH_SIZE) {
+            pool.invoke(new ThinkTask(0, tickedCount));
+        } else {
+            think(0, tickedCount);
+        }
+
+        for (int i = 0; i < tickedCount; i++) {
+            try {
+                ticked[i].act();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "NPC update failed", e);
+            }
+            ticked[i] = null;
+        }
+
+        aiTime = (System.nanoTime() - start) / 1_000_000f;
+        averageAiTime += (aiTime - averageAiTime) * AVERAGE_SMOOTHING;
+        maxAiTime = Math.max(maxAiTime, aiTime);
+    }
+
+    private void think(int from, int to) {
+        for (int i = from; i < to; i++) {
+            //a failing agent must neither stop its batch nor the acting of the others
+            try {
+                ticked[i].think();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "NPC update failed", e);
+            }
+        }
+    }
+
+    /**
+     * @return milliseconds the last frame spent on AI, sensing, thinking and acting included
+     */
+    public float getAiTime() {
+        return aiTime;
+    }
+
+    public float getAverageAiTime() {
+        return averageAiTime;
+    }
+
+    public float getMaxAiTime() {
+        return maxAiTime;
+    }
+
+    /**
+     * @return agents ticked in the last frame
+     */
+    public int getTickedAgents() {
+        return tickedCount;
+    }
+
+    private class ThinkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        ThinkTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                think(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ThinkTask(from, middle), new ThinkTask(middle, to));
+            }
+        }
+    }
+}
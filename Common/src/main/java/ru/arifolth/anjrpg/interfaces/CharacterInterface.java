@@ -103,4 +103,8 @@ public interface CharacterInterface {
     boolean isInitializing();
 
     boolean isInCombat();
+
+    AiLevelEnum getAiLevel();
+
+    void setAiLevel(AiLevelEnum aiLevel);
 }
@@ -18,6 +18,7 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
+import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.jme3.post.ssao.SSAOFilter;
 
@@ -25,11 +26,30 @@ import java.util.logging.Level;
 
 public class Constants {
     public static final Vector3f PLAYER_START_LOCATION = new Vector3f(0, 150, 0);
+    public static final long WORLD_SEED = 0x414E4A527067L;
 
     public static final float DAMAGE = 25f;
 
-    public static final int NPC_AMOUNT = 1;
+    public static final int NPC_AMOUNT = 500;
     public static final int NPC_LOCATION_RANGE = 250;
+    public static final float AI_FULL_DISTANCE = 96f;
+    public static final float AI_REDUCED_DISTANCE = 192f;
+    public static final float AI_LOD_HYSTERESIS = 16f;
+    public static final int AI_REDUCED_BUCKETS = 15;
+    public static final int AI_REDUCED_ANIMATION_INTERVAL = 4;
+    public static final float SPATIAL_GRID_CELL_SIZE = 64f;
+    public static final float VEGETATION_GRID_CELL_SIZE = 128f;
+    public static final float NAV_CELL_SIZE = 4f;
+    public static final int NAV_CHUNK_LIMIT = 36;
+    //height difference per world unit, 45 degrees
+    public static final float NAV_MAX_SLOPE = 1f;
+    public static final float NAV_TREE_RADIUS = 2f;
+    public static final int NAV_NODE_BUDGET = 2000;
+    public static final int NAV_SEARCH_WINDOW = 128;
+    public static final float NAV_PATH_CACHE_TIME = 1f;
+    public static final int FLOW_FIELD_SIZE = 128;
+    public static final int FLOW_FIELD_BUDGET = 4000;
+    public static final float FLOW_FIELD_DIRECT_DISTANCE = 8f;
 
     public static final int WATER_LEVEL_HEIGHT = -70;
 
@@ -39,6 +59,16 @@ public class Constants {
     public static final int MUSIC_VOLUME_MULTIPLIER = 6;
 
     public static final float SOUND_PITCH = 0.5f;
+    public static final int MAX_VOICES = 32;
+    public static final int FOOTSTEPS_VOICES = 8;
+    public static final float FOOTSTEPS_NEAR_DISTANCE = 15f;
+    public static final int MUSIC_BUSES = 2;
+    public static final float MUSIC_CROSSFADE_TIME = 1f;
+    public static final float MUSIC_RESPAWN_FADE_TIME = 3f;
+    public static final float MUSIC_DUCK_LEVEL = 0.5f;
+    public static final float MUSIC_DUCK_ATTACK = 0.05f;
+    public static final float MUSIC_DUCK_HOLD = 0.4f;
+    public static final float MUSIC_DUCK_RELEASE = 0.6f;
     public static final SSAOFilter SSAO_FILTER_BASIC = new SSAOFilter(1f, 1.5f, 5.8f, 0.9f);
     public static final String DEBUG = "Debug";
     public static final String POM_XML = "pom.xml";
@@ -58,10 +88,22 @@ public class Constants {
     public static final int DISTANCE_TO_STARS = 9000;
     public static final String VERSION_PROPERTIES = "version.properties";
     public static final int STENCIL_BITS = 8;
-    public static final int RIGID_BODIES_SIZE = 4;
+    public static final float PHYSICS_RESIDENCY_RADIUS = 512f;
     public static final String QUAD_GRASS = "quadGrass";
     public static final String QUAD_FOREST = "quadForest";
+    public static final String TREE_TYPE = "treeType";
+    public static final String ENTITY_ID = "entityId";
+    public static final String TERRAIN_CACHE_DIRECTORY = ".anjrpg/terrain";
+    public static final long TERRAIN_CACHE_SIZE_LIMIT = 512L * 1024 * 1024;
+    public static final String LOD_CACHE_DIRECTORY = ".anjrpg/lod";
+    public static final float TREE_IMPOSTOR_DISTANCE = 384f;
+    public static final float TREE_IMPOSTOR_FADE = 128f;
+    public static final float MAIN_THREAD_BUDGET = 2f;
+    public static final int MAIN_THREAD_QUEUE_CAPACITY = 64;
     public static float MELEE_DISTANCE_LIMIT = 15f;
+    public static final float MELEE_HALF_ANGLE = FastMath.QUARTER_PI;
+    public static final float CHARACTER_RADIUS = 1.5f;
+    public static final float CHARACTER_HEIGHT = 6f;
 
     //HKEY_CURRENT_USER\Software\JavaSoft\Prefs\
 
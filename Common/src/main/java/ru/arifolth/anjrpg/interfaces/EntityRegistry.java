@@ -0,0 +1,200 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+import com.jme3.scene.Spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Live entities under stable int ids.
+ * Entities are kept densely packed for iteration, index loops over size() and getAt() do not allocate,
+ * removal swaps the last entity into the freed slot. Ids of removed entities get reused.
+ * The id is stored as user data on every spatial of the entity, so a picked geometry leads straight to its entity.
+ * Not thread safe, meant to be used from the render thread.
+ */
+public class EntityRegistry<T> implements Iterable<T> {
+    private static final int NONE = -1;
+
+    public interface Listener<T> {
+        void spawned(int id, T entity);
+
+        void despawned(int id, T entity);
+    }
+
+    private final Function<T, Spatial> spatialOf;
+    private final List<Listener<T>> listeners = new ArrayList<>();
+
+    //dense, by index
+    private Object[] entities;
+    private int[] ids;
+    private int size;
+
+    //sparse, by id
+    private int[] indices;
+    private int[] freeIds;
+    private int freeCount;
+    private int idCount;
+
+    public EntityRegistry(Function<T, Spatial> spatialOf, int initialCapacity) {
+        this.spatialOf = spatialOf;
+
+        int capacity = Math.max(initialCapacity, 16);
+        entities = new Object[capacity];
+        ids = new int[capacity];
+        indices = new int[capacity];
+        freeIds = new int[capacity];
+    }
+
+    public void addListener(Listener<T> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return id of the entity
+     */
+    public int add(T entity) {
+        int id = nextId();
+
+        if (size == entities.length) {
+            entities = Arrays.copyOf(entities, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        entities[size] = entity;
+        ids[size] = id;
+        indices[id] = size++;
+
+        spatialOf.apply(entity).depthFirstTraversal(spatial -> spatial.setUserData(Constants.ENTITY_ID, id));
+
+        for (Listener<T> listener : listeners) {
+            listener.spawned(id, entity);
+        }
+        return id;
+    }
+
+    private int nextId() {
+        if (freeCount > 0) {
+            return freeIds[--freeCount];
+        }
+        if (idCount == indices.length) {
+            indices = Arrays.copyOf(indices, idCount * 2);
+            freeIds = Arrays.copyOf(freeIds, idCount * 2);
+        }
+        return idCount++;
+    }
+
+    public boolean remove(int id) {
+        if (!contains(id)) {
+            return false;
+        }
+        T entity = get(id);
+
+        int index = indices[id];
+        int last = --size;
+        entities[index] = entities[last];
+        ids[index] = ids[last];
+        indices[ids[index]] = index;
+        entities[last] = null;
+        indices[id] = NONE;
+        freeIds[freeCount++] = id;
+
+        spatialOf.apply(entity).depthFirstTraversal(spatial -> spatial.setUserData(Constants.ENTITY_ID, null));
+
+        for (Listener<T> listener : listeners) {
+            listener.despawned(id, entity);
+        }
+        return true;
+    }
+
+    public boolean remove(T entity) {
+        int id = getId(entity);
+        return id != NONE && get(id) == entity && remove(id);
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < idCount && indices[id] != NONE;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        return contains(id) ? (T) entities[indices[id]] : null;
+    }
+
+    /**
+     * @return id of a registered entity, -1 otherwise
+     */
+    public int getId(T entity) {
+        Integer id = spatialOf.apply(entity).getUserData(Constants.ENTITY_ID);
+        return id != null ? id : NONE;
+    }
+
+    /**
+     * Entity the spatial belongs to, spatials attached after the entity was added are found through their parents.
+     */
+    public T find(Spatial spatial) {
+        for (; spatial != null; spatial = spatial.getParent()) {
+            Integer id = spatial.getUserData(Constants.ENTITY_ID);
+            if (id != null) {
+                return get(id);
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index 0 until size(), entities move between indices on removal
+     */
+    @SuppressWarnings("unchecked")
+    public T getAt(int index) {
+        return (T) entities[index];
+    }
+
+    public int getIdAt(int index) {
+        return ids[index];
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public T next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return getAt(index++);
+            }
+        };
+    }
+}
@@ -25,10 +25,10 @@ import com.jme3.input.FlyByCamera;
 import com.jme3.input.InputManager;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
 import com.jme3.ui.Picture;
 import ru.arifolth.anjrpg.interfaces.weather.EmitterInterface;
 
-import java.util.Map;
 import java.util.Set;
 
 public interface GameLogicCoreInterface {
@@ -42,7 +42,10 @@ public interface GameLogicCoreInterface {
 
     void reInitialize();
 
-    Map<Node,CharacterInterface> getCharacterMap();
+    /**
+     * NPCs, the player is not registered.
+     */
+    EntityRegistry<CharacterInterface> getCharacterRegistry();
 
     MovementControllerInterface getMovementController();
 
@@ -54,6 +57,11 @@ public interface GameLogicCoreInterface {
 
     void update(float tpf);
 
+    /**
+     * Stops the background work on the world, called once when the application shuts down.
+     */
+    void cleanup();
+
     Set<EmitterInterface> getWeatherEffectsSet();
 
     BulletAppState getBulletAppState();
@@ -83,4 +91,27 @@ public interface GameLogicCoreInterface {
     SkyInterface getSky();
 
     void setSky(SkyInterface sky);
+
+    WorldSeed getWorldSeed();
+
+    WorldTaskScheduler getWorldTaskScheduler();
+
+    MainThreadQueue getMainThreadQueue();
+
+    /**
+     * Player and NPCs by their location, updated once per frame before the characters.
+     */
+    SpatialHashGrid<CharacterInterface> getCharacterGrid();
+
+    /**
+     * Forest and grass chunks of the attached tiles by their center, they enter and leave it along with the scene.
+     */
+    SpatialHashGrid<Spatial> getVegetationGrid();
+
+    AiScheduler getAiScheduler();
+
+    /**
+     * Walkability of the loaded terrain, filled in as tiles and their trees get generated.
+     */
+    NavigationGrid getNavigationGrid();
 }
@@ -18,8 +18,6 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
-import com.jme3.audio.AudioSource;
-
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +27,8 @@ public class GameStateManager implements GameStateManagerInterface {
     private GameLogicCoreInterface gameLogicCore;
     private GameState currentGameState = GameState.MENU;;
     private GameState nextGameState;
+    private int prefetchHours = -1;
+    private boolean musicFinished;
 
     public GameStateManager(GameLogicCoreInterface gameLogicCore) {
         this.gameLogicCore = gameLogicCore;
@@ -36,13 +36,15 @@ public class GameStateManager implements GameStateManagerInterface {
 
     @Override
     public void update(float tpf) {
+        prefetchMusic();
+
         if(nextGameState != null) {
             LOGGER.log(Level.INFO, "next GameState:" + nextGameState);
 
             switch (nextGameState) {
                 case CALM: {
                     checkTime();
-                    changeState(0.3f);
+                    changeState(Constants.MUSIC_CROSSFADE_TIME);
                     break;
                 }
                 case NIGHT:
@@ -51,24 +53,24 @@ public class GameStateManager implements GameStateManagerInterface {
                 case DUSK:
                 case DEATH:
                 {
-                    changeState(0.3f);
+                    changeState(Constants.MUSIC_CROSSFADE_TIME);
                     break;
                 }
                 case BATTLE: {
-                    changeState(0.3f);
+                    changeState(Constants.MUSIC_CROSSFADE_TIME);
                     break;
                 }
                 default: {
-                    if(AudioSource.Status.Stopped.equals(gameLogicCore.getSoundManager().getCurrentMusicNode().getStatus())) {
+                    if(musicFinished) {
                         checkTime();
-                        changeState(0.3f);
+                        changeState(Constants.MUSIC_CROSSFADE_TIME);
                     }
                 }
             }
         } else {
-            if(AudioSource.Status.Stopped.equals(gameLogicCore.getSoundManager().getCurrentMusicNode().getStatus())) {
+            if(musicFinished) {
                 checkTime();
-                changeState(0.3f);
+                changeState(Constants.MUSIC_CROSSFADE_TIME);
             }
         }
     }
@@ -89,11 +91,19 @@ public class GameStateManager implements GameStateManagerInterface {
     }
 
     @Override
-    public void changeState(float tpf) {
+    public void onMusicFinished() {
+        musicFinished = true;
+    }
+
+    @Override
+    public void changeState(float fadeTime) {
         if(nextGameState == null)
             return;
 
-        gameLogicCore.getSoundManager().fadeMusicOut(tpf, nextGameState.getMusicType());
+        MusicTypeEnum musicType = nextGameState.getMusicType();
+        gameLogicCore.getSoundManager().crossfadeMusic(musicType, fadeTime);
+        //without music there is nothing to wait for
+        musicFinished = musicType == null;
         currentGameState = nextGameState;
         LOGGER.log(Level.INFO, "change GameState:" + currentGameState);
         nextGameState = null;
@@ -102,17 +112,34 @@ public class GameStateManager implements GameStateManagerInterface {
     public void checkTime() {
         int hours = gameLogicCore.getSky().getHours();
 
-        GameStateManagerInterface gameStateManager = gameLogicCore.getGameStateManager();
+        gameLogicCore.getGameStateManager().setGameState(getTimeOfDay(hours));
+    }
+
+    //music of the next time of day gets opened in the background during the last hour of the current one
+    private void prefetchMusic() {
+        int hours = gameLogicCore.getSky().getHours();
+        if (hours == prefetchHours) {
+            return;
+        }
+        prefetchHours = hours;
+
+        GameState upcoming = getTimeOfDay((hours + 1) % 24);
+        if (upcoming != getTimeOfDay(hours)) {
+            gameLogicCore.getSoundManager().prefetchMusic(upcoming.getMusicType());
+        }
+    }
+
+    private static GameState getTimeOfDay(int hours) {
         if (Utils.isBetween(hours, 0, 6)) {
-            gameStateManager.setGameState(GameState.NIGHT);
+            return GameState.NIGHT;
         } else if (Utils.isBetween(hours, 7, 8)) {
-            gameStateManager.setGameState(GameState.DAWN);
+            return GameState.DAWN;
         } else if (Utils.isBetween(hours, 9, 18)) {
-            gameStateManager.setGameState(GameState.DAY);
+            return GameState.DAY;
         } else if (Utils.isBetween(hours, 19, 21)) {
-            gameStateManager.setGameState(GameState.DUSK);
+            return GameState.DUSK;
         } else if (Utils.isBetween(hours, 22, 23)) {
-            gameStateManager.setGameState(GameState.NIGHT);
+            return GameState.NIGHT;
         } else {
             throw new RuntimeException("checkTime");
         }
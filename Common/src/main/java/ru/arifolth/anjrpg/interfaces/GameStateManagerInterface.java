@@ -18,14 +18,14 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
-public interface GameStateManagerInterface {
+public interface GameStateManagerInterface extends MusicListener {
     void update(float tpf);
 
     void setGameState(GameState gameState);
 
     GameState getCurrentGameState();
 
-    void changeState(float tpf);
+    void changeState(float fadeTime);
 
     void checkTime();
 }
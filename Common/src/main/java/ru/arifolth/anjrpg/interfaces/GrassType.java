@@ -18,9 +18,9 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
-import com.jme3.scene.Node;
+import com.jme3.scene.Geometry;
 
 public interface GrassType {
     void init();
-    Node getGrass();
+    Geometry getBlade();
 }
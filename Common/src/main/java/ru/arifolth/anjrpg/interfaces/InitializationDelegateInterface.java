@@ -18,12 +18,12 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
-import com.jme3.scene.Node;
+import com.jme3.math.Vector3f;
 import com.jme3.scene.Spatial;
 import com.jme3.terrain.geomipmap.TerrainQuad;
 
 import java.util.List;
-import java.util.Map;
+import java.util.SplittableRandom;
 
 public interface InitializationDelegateInterface {
     void initialize(boolean positionCharacters);
@@ -32,21 +32,23 @@ public interface InitializationDelegateInterface {
 
     void initializePlayer(boolean positionCharacters);
 
-    List<Spatial> setupTrees();
-
-    List<Spatial> setupGrass();
+    List<Spatial> setupTrees(SplittableRandom random);
 
     void update();
 
-    void positionGrass(TerrainQuad quad);
+    void positionGrass(Vector3f cell, TerrainQuad quad);
+
+    void removeGrass(TerrainQuad quad);
+
+    void positionTrees(Vector3f cell, TerrainQuad quad);
 
-    void positionTrees(TerrainQuad quad);
+    void removeTrees(TerrainQuad quad);
 
     void positionPlayer();
 
     void initializeNPCs(boolean positionCharacters);
 
-    void positionNPCs(Map<Node, CharacterInterface> characterMap);
+    void positionNPCs(EntityRegistry<CharacterInterface> characterRegistry);
 
     void detachNPCs();
 
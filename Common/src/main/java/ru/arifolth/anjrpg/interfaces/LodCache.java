@@ -0,0 +1,185 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Disk cache of baked LOD index buffers.
+ * Every mesh gets its own small file, named by the hash of its vertex positions, indices and LOD parameters,
+ * so an edited model or changed reduction values never pick up stale levels.
+ */
+public class LodCache {
+    final private static Logger LOGGER = Logger.getLogger(LodCache.class.getName());
+
+    private static final int MAGIC = 0x414E4A4C; //"ANJL"
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".lod";
+
+    private final Path directory;
+
+    public LodCache(Path directory) {
+        this.directory = directory;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to create LOD cache at " + directory, e);
+        }
+    }
+
+    /**
+     * Sets cached LOD levels to the mesh.
+     * @return false if there are none for this mesh and parameters
+     */
+    public boolean load(Mesh mesh, String parameters) {
+        Path file = directory.resolve(getKey(mesh, parameters) + EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.log(Level.WARNING, "LOD cache file {0} has unknown format, discarding it", file);
+                delete(file);
+                return false;
+            }
+
+            VertexBuffer[] lodLevels = new VertexBuffer[in.readInt()];
+            for (int level = 0; level < lodLevels.length; level++) {
+                lodLevels[level] = readLevel(in);
+            }
+            mesh.setLodLevels(lodLevels);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to read LOD cache file " + file, e);
+            delete(file);
+            return false;
+        }
+    }
+
+    public void store(Mesh mesh, String parameters) {
+        Path file = directory.resolve(getKey(mesh, parameters) + EXTENSION);
+
+        Path temp = null;
+        try {
+            //write into a temporary file first, so a concurrent reader never sees a partially written file
+            temp = Files.createTempFile(directory, null, null);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(mesh.getNumLodLevels());
+                for (int level = 0; level < mesh.getNumLodLevels(); level++) {
+                    writeLevel(out, mesh.getLodLevel(level));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to write LOD cache file " + file, e);
+            if (temp != null) {
+                delete(temp);
+            }
+        }
+    }
+
+    private static VertexBuffer readLevel(DataInputStream in) throws IOException {
+        VertexBuffer.Format format = VertexBuffer.Format.values()[in.readInt()];
+        int components = in.readInt();
+        int[] indices = new int[in.readInt()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = in.readInt();
+        }
+
+        Buffer data;
+        if (format == VertexBuffer.Format.UnsignedInt) {
+            data = BufferUtils.createIntBuffer(indices);
+        } else {
+            short[] shortIndices = new short[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                shortIndices[i] = (short) indices[i];
+            }
+            data = BufferUtils.createShortBuffer(shortIndices);
+        }
+
+        VertexBuffer lodLevel = new VertexBuffer(VertexBuffer.Type.Index);
+        lodLevel.setupData(VertexBuffer.Usage.Static, components, format, data);
+        return lodLevel;
+    }
+
+    private static void writeLevel(DataOutputStream out, VertexBuffer lodLevel) throws IOException {
+        IndexBuffer indices = IndexBuffer.wrapIndexBuffer(lodLevel.getData());
+        out.writeInt(lodLevel.getFormat().ordinal());
+        out.writeInt(lodLevel.getNumComponents());
+        out.writeInt(indices.size());
+        for (int i = 0; i < indices.size(); i++) {
+            out.writeInt(indices.get(i));
+        }
+    }
+
+    private static String getKey(Mesh mesh, String parameters) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+
+            FloatBuffer positions = mesh.getFloatBuffer(VertexBuffer.Type.Position);
+            IndexBuffer indices = mesh.getIndexBuffer();
+            ByteBuffer bytes = ByteBuffer.allocate((positions.limit() + indices.size()) * Integer.BYTES);
+            for (int i = 0; i < positions.limit(); i++) {
+                bytes.putFloat(positions.get(i));
+            }
+            for (int i = 0; i < indices.size(); i++) {
+                bytes.putInt(indices.get(i));
+            }
+            bytes.flip();
+            digest.update(bytes);
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to delete LOD cache file " + path, e);
+        }
+    }
+}
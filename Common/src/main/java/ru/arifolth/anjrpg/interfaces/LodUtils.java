@@ -19,14 +19,27 @@
 package ru.arifolth.anjrpg.interfaces;
 
 import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.scene.control.LodControl;
 import jme3tools.optimize.LodGenerator;
 
+import java.nio.file.Paths;
+import java.util.Arrays;
+
 public class LodUtils {
+    private static final LodGenerator.TriangleReductionMethod REDUCTION_METHOD = LodGenerator.TriangleReductionMethod.PROPORTIONAL;
+    private static final float[] REDUCTION_VALUES = {0.25f, 0.50f, 0.75f, 1.0f};
+
+    private static LodCache lodCache = new LodCache(Paths.get(System.getProperty("user.home"), Constants.LOD_CACHE_DIRECTORY));
+
     private LodUtils() {}
 
+    public static void setLodCache(LodCache lodCache) {
+        LodUtils.lodCache = lodCache;
+    }
+
     public static void setUpModelLod(Spatial model) {
         (((Node) model)).getChildren().forEach(LodUtils::createModelLod);
     }
@@ -42,8 +55,14 @@ public class LodUtils {
     }
 
     private static void createModelLod(Spatial geometry) {
-        LodGenerator lod = new LodGenerator((Geometry) geometry);
-        lod.bakeLods(LodGenerator.TriangleReductionMethod.PROPORTIONAL, 0.25f, 0.50f, 0.75f, 1.0f);
+        //levels never change for the same mesh, so they are baked once and loaded from the cache afterwards
+        Mesh mesh = ((Geometry) geometry).getMesh();
+        String parameters = REDUCTION_METHOD + Arrays.toString(REDUCTION_VALUES);
+        if (!lodCache.load(mesh, parameters)) {
+            LodGenerator lod = new LodGenerator((Geometry) geometry);
+            lod.bakeLods(REDUCTION_METHOD, REDUCTION_VALUES);
+            lodCache.store(mesh, parameters);
+        }
         LodControl lc = new LodControl();
         geometry.addControl(lc);
     }
@@ -0,0 +1,203 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scene graph work of world streaming, run on the render thread within a time budget per frame.
+ * Tasks run by priority, in submission order within the same priority. At least one task runs every frame.
+ * Worker threads block once their priority has too much work pending, the render thread never blocks.
+ * Runs as an app state, so streaming goes on while the game is still loading.
+ */
+public class MainThreadQueue extends BaseAppState {
+    final private static Logger LOGGER = Logger.getLogger(MainThreadQueue.class.getName());
+
+    public enum Priority {
+        COLLISION,
+        TERRAIN,
+        TREES,
+        GRASS
+    }
+
+    //frame is a spike when it takes this many times longer than the average frame
+    private static final float SPIKE_FACTOR = 1.5f;
+    private static final float AVERAGE_SMOOTHING = 0.05f;
+
+    private final long budgetNanos;
+    private final int capacity;
+    private final Thread renderThread;
+    private final Deque<Runnable>[] queues;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    private boolean workedLastFrame;
+    private float averageFrameTime;
+    private float averageWorkTime;
+    private float maxWorkTime;
+    private int streamingSpikes;
+    private int framesOverBudget;
+
+    /**
+     * Must be created on the render thread.
+     * @param budget milliseconds per frame
+     * @param capacity pending tasks per priority before worker threads get blocked
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MainThreadQueue(float budget, int capacity) {
+        this.budgetNanos = (long) (budget * 1_000_000);
+        this.capacity = capacity;
+        this.renderThread = Thread.currentThread();
+        this.queues = new Deque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    public void enqueue(Priority priority, Runnable task) {
+        lock.lock();
+        try {
+            Deque<Runnable> queue = queues[priority.ordinal()];
+            if (Thread.currentThread() != renderThread) {
+                while (queue.size() >= capacity) {
+                    notFull.awaitUninterruptibly();
+                }
+            }
+            queue.add(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void update(float tpf) {
+        trackFrameTime(tpf);
+
+        long start = System.nanoTime();
+        long elapsed = 0;
+        Runnable task;
+        while (elapsed < budgetNanos && (task = poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Main thread task failed", e);
+            }
+            elapsed = System.nanoTime() - start;
+        }
+
+        workedLastFrame = elapsed > 0;
+        if (workedLastFrame) {
+            float workTime = elapsed / 1_000_000f;
+            averageWorkTime += (workTime - averageWorkTime) * AVERAGE_SMOOTHING;
+            maxWorkTime = Math.max(maxWorkTime, workTime);
+            if (elapsed > budgetNanos) {
+                framesOverBudget++;
+            }
+        }
+    }
+
+    //a slow frame right after streaming work is counted against streaming
+    private void trackFrameTime(float tpf) {
+        float frameTime = tpf * 1000;
+        if (workedLastFrame && averageFrameTime > 0 && frameTime > averageFrameTime * SPIKE_FACTOR) {
+            streamingSpikes++;
+            LOGGER.log(Level.FINE, "Streaming frame spike: {0} ms, average {1} ms", new Object[]{frameTime, averageFrameTime});
+        }
+        averageFrameTime += (frameTime - averageFrameTime) * AVERAGE_SMOOTHING;
+    }
+
+    private Runnable poll() {
+        lock.lock();
+        try {
+            for (Deque<Runnable> queue : queues) {
+                Runnable task = queue.poll();
+                if (task != null) {
+                    notFull.signalAll();
+                    return task;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth(Priority priority) {
+        lock.lock();
+        try {
+            return queues[priority.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Priority priority : Priority.values()) {
+            depth += getQueueDepth(priority);
+        }
+        return depth;
+    }
+
+    /**
+     * @return frames that took over 1.5 times the average frame time right after a frame with streaming work
+     */
+    public int getStreamingSpikes() {
+        return streamingSpikes;
+    }
+
+    /**
+     * @return frames in which the work ran past the budget, a single task can not be interrupted
+     */
+    public int getFramesOverBudget() {
+        return framesOverBudget;
+    }
+
+    public float getAverageWorkTime() {
+        return averageWorkTime;
+    }
+
+    public float getMaxWorkTime() {
+        return maxWorkTime;
+    }
+
+    @Override
+    protected void initialize(Application app) {
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+    }
+
+    @Override
+    protected void onEnable() {
+    }
+
+    @Override
+    protected void onDisable() {
+    }
+}
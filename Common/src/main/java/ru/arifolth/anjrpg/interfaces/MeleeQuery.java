@@ -0,0 +1,102 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Resolves a melee swing against characters kept in a spatial hash grid.
+ * Every character is an upright cylinder proxy, the swing hits the closest one that reaches into its horizontal arc.
+ * Cost depends on the characters around the attacker only, not on how many there are in the world.
+ * Not thread safe, meant to be used from the render thread.
+ */
+public class MeleeQuery<T> {
+    private final SpatialHashGrid<T> grid;
+    private final float range;
+    private final float halfAngle;
+    private final float proxyRadius;
+    private final float proxyHeight;
+    private int[] candidates = new int[64];
+
+    /**
+     * @param range reach of the weapon from the attacker's location
+     * @param halfAngle half of the swing arc in radians
+     * @param proxyRadius radius of a character proxy
+     * @param proxyHeight largest height difference between the attacker and a character it can hit
+     */
+    public MeleeQuery(SpatialHashGrid<T> grid, float range, float halfAngle, float proxyRadius, float proxyHeight) {
+        this.grid = grid;
+        this.range = range;
+        this.halfAngle = halfAngle;
+        this.proxyRadius = proxyRadius;
+        this.proxyHeight = proxyHeight;
+    }
+
+    /**
+     * @param forward direction of the swing, only its horizontal part matters
+     * @param filter characters that could be hit, the attacker itself has to be filtered out
+     * @return the closest character hit, null when the swing misses
+     */
+    public T findTarget(Vector3f origin, Vector3f forward, Predicate<? super T> filter) {
+        float forwardLength = FastMath.sqrt(forward.x * forward.x + forward.z * forward.z);
+        if (forwardLength == 0) {
+            return null;
+        }
+        float forwardX = forward.x / forwardLength;
+        float forwardZ = forward.z / forwardLength;
+
+        T target = null;
+        float targetDistance = Float.MAX_VALUE;
+        int count = grid.queryRadius(origin.x, origin.z, range + proxyRadius, candidates);
+        //a full store may have left out the closest one, a crowd that big keeps the larger store from then on
+        while (count == candidates.length) {
+            candidates = Arrays.copyOf(candidates, count * 2);
+            count = grid.queryRadius(origin.x, origin.z, range + proxyRadius, candidates);
+        }
+        for (int i = 0; i < count; i++) {
+            int handle = candidates[i];
+            float dx = grid.getX(handle) - origin.x;
+            float dz = grid.getZ(handle) - origin.z;
+            float distance = FastMath.sqrt(dx * dx + dz * dz);
+
+            if (distance >= targetDistance || FastMath.abs(grid.getY(handle) - origin.y) > proxyHeight) {
+                continue;
+            }
+            //proxies overlapping the attacker are always hit, others have to reach into the arc
+            if (distance > proxyRadius) {
+                float cosine = (dx * forwardX + dz * forwardZ) / distance;
+                float arc = halfAngle + FastMath.asin(proxyRadius / distance);
+                if (arc < FastMath.PI && cosine < FastMath.cos(arc)) {
+                    continue;
+                }
+            }
+
+            T candidate = grid.get(handle);
+            if (filter.test(candidate)) {
+                target = candidate;
+                targetDistance = distance;
+            }
+        }
+        return target;
+    }
+}
@@ -18,17 +18,13 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
-import com.jme3.asset.AssetManager;
-import com.jme3.audio.AudioData;
-import com.jme3.audio.AudioNode;
+import java.util.Arrays;
 
 public enum MusicTypeEnum implements AudioType {
     MENU {
         @Override
         public void init() {
-            createAudioNode(this,
+            addTrack(this,
                     "Sounds/music/menu/sb_jade.ogg"
                 );
         }
@@ -37,7 +33,7 @@ public enum MusicTypeEnum implements AudioType {
         @Override
         public void init() {
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/calm/sb_dragonslullabye.ogg"
                 );
             }
@@ -46,7 +42,7 @@ public enum MusicTypeEnum implements AudioType {
     MOUNTAINS {
         @Override
         public void init() {
-            createAudioNode(this,
+            addTrack(this,
                     "Sounds/music/mountains/sb_inflection.ogg"
             );
         }
@@ -54,7 +50,7 @@ public enum MusicTypeEnum implements AudioType {
     VILLAGE {
         @Override
         public void init() {
-            createAudioNode(this,
+            addTrack(this,
                     "Sounds/music/village/sb_legendofkvothe.ogg"
             );
         }
@@ -62,7 +58,7 @@ public enum MusicTypeEnum implements AudioType {
     SNOW {
         @Override
         public void init() {
-            createAudioNode(this,
+            addTrack(this,
                     "Sounds/music/snow/FirstSnow.ogg"
             );
         }
@@ -70,7 +66,7 @@ public enum MusicTypeEnum implements AudioType {
     DAWN {
         @Override
         public void init() {
-            createAudioNode(this,
+            addTrack(this,
                     "Sounds/music/dawn/HymnToTheDawn.ogg"
             );
         }
@@ -78,7 +74,7 @@ public enum MusicTypeEnum implements AudioType {
     DUSK {
         @Override
         public void init() {
-            createAudioNode(this,
+            addTrack(this,
                     "Sounds/music/dusk/PathThroughTheMountains.ogg"
             );
         }
@@ -86,7 +82,7 @@ public enum MusicTypeEnum implements AudioType {
     EXPLORATION {
         @Override
         public void init() {
-            createAudioNode(this,
+            addTrack(this,
                     "Sounds/music/exploration/Inbound.ogg"
             );
         }
@@ -95,7 +91,7 @@ public enum MusicTypeEnum implements AudioType {
         @Override
         public void init() {
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/battle/Legionnaire2022.ogg"
                 );
             }
@@ -105,32 +101,32 @@ public enum MusicTypeEnum implements AudioType {
         @Override
         public void init() {
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/day/sb_iha_confessions.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/day/sb_iha_desperation.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/day/sb_iha_junkyard.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/day/sb_iha_specialops.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/day/sb_iha_quirkylane.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/day/sb_worldofmagic.ogg"
                 );
             }
@@ -140,12 +136,12 @@ public enum MusicTypeEnum implements AudioType {
         @Override
         public void init() {
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/death/sb_annastheme.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/death/sb_thesummoning.ogg"
                 );
             }
@@ -155,56 +151,41 @@ public enum MusicTypeEnum implements AudioType {
         @Override
         public void init() {
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/night/LightInDarkPlaces2019.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/night/sb_beautifuloblivion.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/night/sb_celestial.ogg"
                 );
             }
             {
-                createAudioNode(this,
+                addTrack(this,
                         "Sounds/music/night/sb_helios.ogg"
                 );
             }
         }
     };
 
-    private static AudioData.DataType buffer = AudioData.DataType.Stream;
-    private static Float pitch = null;
-    private static boolean positional = false;
-    private static Boolean looping = false;
-
-    private static AssetManager assetManager;
-
-    public static void setAssetManager(AssetManager assetManager) {
-        MusicTypeEnum.assetManager = assetManager;
-    }
-
-    public static AudioNode getClone(AudioType musicType) {
-        return Utils.getRandomObject(musicMap.get(musicType)).clone();
+    /**
+     * Asset names of every track of the music type, streams get opened only when a track is played.
+     */
+    public static String[] getTracks(MusicTypeEnum musicType) {
+        return tracks[musicType.ordinal()];
     }
 
-    public static AudioNode getOriginal(AudioType musicType) {
-        return Utils.getSingleObject(musicMap.get(musicType));
+    public static void addTrack(MusicTypeEnum musicType, String name) {
+        String[] typeTracks = Arrays.copyOf(tracks[musicType.ordinal()], tracks[musicType.ordinal()].length + 1);
+        typeTracks[typeTracks.length - 1] = name;
+        tracks[musicType.ordinal()] = typeTracks;
     }
 
-    public static void createAudioNode(AudioType musicType, String name) {
-        AudioNode audioNode = new AudioNode(assetManager, name, AudioData.DataType.Stream);
-        audioNode.setVolume(Constants.SOUND_VOLUME / 6);
-        audioNode.setPositional(false);
-        musicMap.put(musicType, audioNode);
-    }
-
-    public static void reInitialize(float volume) {
-        musicMap.values().forEach(audioNode -> audioNode.setVolume(volume));
-    }
-    private static final Multimap<AudioType, AudioNode> musicMap = ArrayListMultimap.create();
+    //tracks of every music type indexed by ordinal
+    private static final String[][] tracks = new String[values().length][0];
 }
@@ -0,0 +1,210 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package ru.arifolth.anjrpg.interfaces;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Walkability of the ground plane, split into square chunks of bitmaps.
+ * Cells are rasterized from terrain heights as tiles get generated: cells under water or too steep are blocked,
+ * obstacles like trees get blocked on top of that. Cells never rasterized are unknown and count as blocked.
+ * Chunks farthest from the last rasterized area are dropped once there are too many of them.
+ * Writes may come from any thread, reads are lock free and may see a freshly blocked cell a little late.
+ */
+public class NavigationGrid {
+    private final float cellSize;
+    private final float inverseCellSize;
+    private final int chunkLimit;
+    private final Map<Long, Chunk> chunks = new ConcurrentHashMap<>();
+
+    /**
+     * Source of terrain heights in world coordinates.
+     */
+    public interface HeightSource {
+        float getHeight(float worldX, float worldZ);
+    }
+
+    public NavigationGrid(float cellSize, int chunkLimit) {
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+        this.chunkLimit = chunkLimit;
+    }
+
+    /**
+     * Rasterizes cells whose centers lie within the area. Cells rasterized before, along with their obstacles, are kept.
+     * @param maxSlope height difference per world unit across a cell, steeper cells are blocked
+     */
+    public void addArea(float minX, float minZ, float maxX, float maxZ, HeightSource heights, float maxSlope) {
+        int minCellX = (int) Math.ceil(minX * inverseCellSize - 0.5f);
+        int minCellZ = (int) Math.ceil(minZ * inverseCellSize - 0.5f);
+        int maxCellX = (int) Math.floor(maxX * inverseCellSize - 0.5f);
+        int maxCellZ = (int) Math.floor(maxZ * inverseCellSize - 0.5f);
+        float half = cellSize / 2;
+        float maxDifference = maxSlope * cellSize;
+
+        for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+            float z = getCenter(cellZ);
+            Chunk chunk = null;
+            for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                if (chunk == null || (cellX & Chunk.MASK) == 0) {
+                    chunk = getOrCreateChunk(cellX, cellZ);
+                }
+                int localX = cellX & Chunk.MASK;
+                int localZ = cellZ & Chunk.MASK;
+                if (chunk.isKnown(localX, localZ)) {
+                    continue;
+                }
+
+                float x = getCenter(cellX);
+                boolean walkable = heights.getHeight(x, z) > Constants.WATER_LEVEL_HEIGHT &&
+                        Math.abs(heights.getHeight(x + half, z) - heights.getHeight(x - half, z)) <= maxDifference &&
+                        Math.abs(heights.getHeight(x, z + half) - heights.getHeight(x, z - half)) <= maxDifference;
+                chunk.set(localX, localZ, walkable);
+            }
+        }
+
+        evict(getChunkCoordinate((minCellX + maxCellX) / 2), getChunkCoordinate((minCellZ + maxCellZ) / 2));
+    }
+
+    /**
+     * Blocks cells whose centers lie within the radius of the point, and always the cell containing the point.
+     */
+    public void block(float x, float z, float radius) {
+        //a radius below the cell size may reach no cell center at all
+        int trunkX = getCell(x);
+        int trunkZ = getCell(z);
+        getOrCreateChunk(trunkX, trunkZ).set((trunkX & Chunk.MASK), (trunkZ & Chunk.MASK), false);
+
+        int minCellX = (int) Math.ceil((x - radius) * inverseCellSize - 0.5f);
+        int minCellZ = (int) Math.ceil((z - radius) * inverseCellSize - 0.5f);
+        int maxCellX = (int) Math.floor((x + radius) * inverseCellSize - 0.5f);
+        int maxCellZ = (int) Math.floor((z + radius) * inverseCellSize - 0.5f);
+        float radiusSquared = radius * radius;
+
+        for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+            float dz = getCenter(cellZ) - z;
+            for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                float dx = getCenter(cellX) - x;
+                if (dx * dx + dz * dz <= radiusSquared) {
+                    getOrCreateChunk(cellX, cellZ).set((cellX & Chunk.MASK), (cellZ & Chunk.MASK), false);
+                }
+            }
+        }
+    }
+
+    public boolean isWalkable(int cellX, int cellZ) {
+        Chunk chunk = getChunk(getChunkCoordinate(cellX), getChunkCoordinate(cellZ));
+        return chunk != null && chunk.isWalkable((cellX & Chunk.MASK), (cellZ & Chunk.MASK));
+    }
+
+    /**
+     * Stores walkability of a rectangle of cells row by row, looking every chunk up only once per row.
+     */
+    public void getWalkable(int minCellX, int minCellZ, int width, int height, boolean[] store) {
+        for (int z = 0; z < height; z++) {
+            int cellZ = minCellZ + z;
+            Chunk chunk = null;
+            for (int x = 0; x < width; x++) {
+                int cellX = minCellX + x;
+                if (x == 0 || (cellX & Chunk.MASK) == 0) {
+                    chunk = getChunk(getChunkCoordinate(cellX), getChunkCoordinate(cellZ));
+                }
+                store[z * width + x] = chunk != null && chunk.isWalkable(cellX & Chunk.MASK, cellZ & Chunk.MASK);
+            }
+        }
+    }
+
+    public int getCell(float coordinate) {
+        return (int) Math.floor(coordinate * inverseCellSize);
+    }
+
+    public float getCenter(int cell) {
+        return (cell + 0.5f) * cellSize;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    static int getChunkCoordinate(int cell) {
+        return cell >> Chunk.SHIFT;
+    }
+
+    Chunk getChunk(int chunkX, int chunkZ) {
+        return chunks.get(getKey(chunkX, chunkZ));
+    }
+
+    private Chunk getOrCreateChunk(int cellX, int cellZ) {
+        return chunks.computeIfAbsent(getKey(getChunkCoordinate(cellX), getChunkCoordinate(cellZ)), key -> new Chunk());
+    }
+
+    private synchronized void evict(int chunkX, int chunkZ) {
+        while (chunks.size() > chunkLimit) {
+            long farthestKey = 0;
+            long farthestDistance = -1;
+            for (Long key : chunks.keySet()) {
+                long dx = (int) (key >> 32) - chunkX;
+                long dz = key.intValue() - chunkZ;
+                if (dx * dx + dz * dz > farthestDistance) {
+                    farthestDistance = dx * dx + dz * dz;
+                    farthestKey = key;
+                }
+            }
+            chunks.remove(farthestKey);
+        }
+    }
+
+    private static long getKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    static class Chunk {
+        static final int SHIFT = 9;
+        static final int SIZE = 1 << SHIFT;
+        static final int MASK = SIZE - 1;
+        private static final int WORDS = SIZE * SIZE / Long.SIZE;
+
+        private final long[] known = new long[WORDS];
+        private final long[] walkable = new long[WORDS];
+
+        boolean isWalkable(int localX, int localZ) {
+            int bit = localZ * SIZE + localX;
+            return (walkable[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        boolean isKnown(int localX, int localZ) {
+            int bit = localZ * SIZE + localX;
+            return (known[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        synchronized void set(int localX, int localZ, boolean isWalkable) {
+            int bit = localZ * SIZE + localX;
+            known[bit >>> 6] |= 1L << bit;
+            if (isWalkable) {
+                walkable[bit >>> 6] |= 1L << bit;
+            } else {
+                walkable[bit >>> 6] &= ~(1L << bit);
+            }
+        }
+    }
+}
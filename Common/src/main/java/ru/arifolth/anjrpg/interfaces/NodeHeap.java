@@ -0,0 +1,114 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package ru.arifolth.anjrpg.interfaces;
+
+/**
+ * Binary min-heap of int nodes 0..capacity-1 keyed by float, with decrease-key.
+ * Backed by arrays sized once, for graph searches that must not allocate per node.
+ */
+public class NodeHeap {
+    private final int[] heap;
+    private final int[] heapIndex;
+    private final float[] keys;
+    private int size;
+
+    public NodeHeap(int capacity) {
+        heap = new int[capacity];
+        heapIndex = new int[capacity];
+        keys = new float[capacity];
+    }
+
+    /**
+     * Node must not be in the heap already.
+     */
+    public void push(int node, float key) {
+        keys[node] = key;
+        heap[size] = node;
+        heapIndex[node] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Node must be in the heap, with a key not lower than the new one.
+     */
+    public void decreaseKey(int node, float key) {
+        keys[node] = key;
+        siftUp(heapIndex[node]);
+    }
+
+    public int pop() {
+        int top = heap[0];
+        heap[0] = heap[--size];
+        heapIndex[heap[0]] = 0;
+        siftDown(0);
+        return top;
+    }
+
+    public float getKey(int node) {
+        return keys[node];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private void siftUp(int index) {
+        int node = heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            int parentNode = heap[parentIndex];
+            if (keys[parentNode] <= keys[node]) {
+                break;
+            }
+            heap[index] = parentNode;
+            heapIndex[parentNode] = index;
+            index = parentIndex;
+        }
+        heap[index] = node;
+        heapIndex[node] = index;
+    }
+
+    private void siftDown(int index) {
+        int node = heap[index];
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            if (keys[heap[child]] >= keys[node]) {
+                break;
+            }
+            heap[index] = heap[child];
+            heapIndex[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = node;
+        heapIndex[node] = index;
+    }
+}
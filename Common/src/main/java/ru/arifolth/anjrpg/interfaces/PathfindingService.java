@@ -0,0 +1,540 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package ru.arifolth.anjrpg.interfaces;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * A* over the navigation grid, time sliced on the render thread: every frame expands at most a budget of nodes,
+ * a search left unfinished goes on the next frame. Requests return at once and get resolved later.
+ * Searches run from the goal back to the start, so the search tree holds the shortest path to the goal
+ * from every node it closed. When other pending requests share the goal, the search runs as Dijkstra
+ * and those requests go next, carrying on with the same tree instead of searching on their own.
+ * Later requests are answered from recently found paths running through their start cell.
+ * Searches are limited to a square window centered on the goal and never allocate per node.
+ * Not thread safe, requests must be made on the render thread.
+ */
+public class PathfindingService extends BaseAppState {
+    private static final float DIAGONAL_COST = FastMath.sqrt(2);
+    private static final int[] NEIGHBOUR_X = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] NEIGHBOUR_Z = {0, 0, 1, -1, 1, -1, 1, -1};
+    private static final float METRICS_PERIOD = 1f;
+    private static final int CACHE_LIMIT = 64;
+
+    public enum Status {
+        PENDING,
+        FOUND,
+        FAILED,
+        CANCELLED
+    }
+
+    private final NavigationGrid grid;
+    private final int nodeBudget;
+    private final int window;
+    private final int windowShift;
+    private final int windowMask;
+    private final float cacheTime;
+    private final Deque<Request> pending = new ArrayDeque<>();
+    private final Deque<Request> cache = new ArrayDeque<>();
+
+    //search state, indexed by window cell
+    private final float[] cost;
+    private final int[] parent;
+    private final int[] visited;
+    private final int[] closed;
+    private final NodeHeap open;
+    private final NavigationGrid.Chunk[] chunks = new NavigationGrid.Chunk[4];
+    private int searchStamp;
+    private int windowX;
+    private int windowZ;
+    private int chunkX;
+    private int chunkZ;
+    private Request current;
+    private int currentGoal;
+    private int currentExpansions;
+    private boolean hasTree;
+    //searches for a goal other pending requests share run as Dijkstra, so the tree does not depend on the start
+    private boolean isShared;
+    private int treeGoalX;
+    private int treeGoalZ;
+    private float treeTime;
+
+    private float time;
+    private float metricsTime;
+    private int periodPaths;
+    private float pathsPerSecond;
+    private long searches;
+    private long totalExpansions;
+    private long cacheHits;
+    private int expansionsLastFrame;
+
+    /**
+     * @param nodeBudget nodes expanded per frame
+     * @param window side of the square searches are limited to, in cells, start and goal may be half of it apart
+     * @param cacheTime seconds found paths are reused for
+     */
+    public PathfindingService(NavigationGrid grid, int nodeBudget, int window, float cacheTime) {
+        this.grid = grid;
+        this.nodeBudget = nodeBudget;
+        //power of two, so window cells are found with shifts
+        this.window = Integer.highestOneBit(Math.min(window, NavigationGrid.Chunk.SIZE));
+        this.windowShift = Integer.numberOfTrailingZeros(this.window);
+        this.windowMask = this.window - 1;
+        this.cacheTime = cacheTime;
+
+        int nodes = this.window * this.window;
+        cost = new float[nodes];
+        parent = new int[nodes];
+        visited = new int[nodes];
+        closed = new int[nodes];
+        open = new NodeHeap(nodes);
+    }
+
+    /**
+     * Queues a path search, or resolves it right away from the cache.
+     */
+    public Request request(Vector3f start, Vector3f goal) {
+        Request request = new Request(grid.getCell(start.x), grid.getCell(start.z), grid.getCell(goal.x), grid.getCell(goal.z), goal.x, goal.z);
+        if (!resolveFromCache(request)) {
+            pending.add(request);
+        }
+        return request;
+    }
+
+    @Override
+    public void update(float tpf) {
+        time += tpf;
+        updateMetrics(tpf);
+
+        int budget = nodeBudget;
+        while (budget > 0) {
+            if (current == null && !startNext()) {
+                break;
+            }
+            budget -= step(budget);
+        }
+        expansionsLastFrame = nodeBudget - budget;
+    }
+
+    private void updateMetrics(float tpf) {
+        metricsTime += tpf;
+        if (metricsTime >= METRICS_PERIOD) {
+            pathsPerSecond = periodPaths / metricsTime;
+            periodPaths = 0;
+            metricsTime = 0;
+        }
+    }
+
+    private boolean startNext() {
+        Request request;
+        while ((request = pollNext()) != null) {
+            if (request.status != Status.PENDING || resolveFromCache(request)) {
+                continue;
+            }
+            if (resume(request) || begin(request)) {
+                return true;
+            }
+            fail(request);
+        }
+        return false;
+    }
+
+    //requests sharing the goal of the last search go first, while its tree is still there to carry on with
+    private Request pollNext() {
+        if (hasTree) {
+            for (Iterator<Request> iterator = pending.iterator(); iterator.hasNext(); ) {
+                Request request = iterator.next();
+                if (request.goalX == treeGoalX && request.goalZ == treeGoalZ) {
+                    iterator.remove();
+                    return request;
+                }
+            }
+        }
+        return pending.poll();
+    }
+
+    private boolean begin(Request request) {
+        int dx = Math.abs(request.startX - request.goalX);
+        int dz = Math.abs(request.startZ - request.goalZ);
+        if (dx >= window / 2 || dz >= window / 2) {
+            return false;
+        }
+
+        //window is centered on the goal, so the tree serves starts all around it
+        windowX = request.goalX - window / 2;
+        windowZ = request.goalZ - window / 2;
+        //window is not larger than a chunk, so it spans 2x2 chunks at most
+        chunkX = NavigationGrid.getChunkCoordinate(windowX);
+        chunkZ = NavigationGrid.getChunkCoordinate(windowZ);
+        chunks[0] = grid.getChunk(chunkX, chunkZ);
+        chunks[1] = grid.getChunk(chunkX + 1, chunkZ);
+        chunks[2] = grid.getChunk(chunkX, chunkZ + 1);
+        chunks[3] = grid.getChunk(chunkX + 1, chunkZ + 1);
+
+        if (++searchStamp == 0) {
+            Arrays.fill(visited, 0);
+            Arrays.fill(closed, 0);
+            searchStamp = 1;
+        }
+        open.clear();
+        currentExpansions = 0;
+        current = request;
+        searches++;
+        hasTree = true;
+        isShared = isGoalShared(request);
+        treeGoalX = request.goalX;
+        treeGoalZ = request.goalZ;
+        treeTime = time;
+
+        currentGoal = getNode(request.goalX, request.goalZ);
+        visited[currentGoal] = searchStamp;
+        cost[currentGoal] = 0;
+        parent[currentGoal] = -1;
+        open.push(currentGoal, getHeuristic(request.goalX, request.goalZ, request));
+        return true;
+    }
+
+    private boolean isGoalShared(Request request) {
+        for (Request other : pending) {
+            if (other.goalX == request.goalX && other.goalZ == request.goalZ && other.status == Status.PENDING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Carries on with the tree of the last shared search for another start, closed nodes keep their shortest paths.
+     */
+    private boolean resume(Request request) {
+        if (!hasTree || !isShared || request.goalX != treeGoalX || request.goalZ != treeGoalZ || time - treeTime > cacheTime ||
+                Math.abs(request.startX - treeGoalX) >= window / 2 || Math.abs(request.startZ - treeGoalZ) >= window / 2) {
+            return false;
+        }
+
+        //a blocked start could only be reached by the nodes expanded from now on
+        int start = getNode(request.startX, request.startZ);
+        if (closed[start] != searchStamp && !isWalkable(start, -1)) {
+            return false;
+        }
+
+        current = request;
+        currentExpansions = 0;
+        return true;
+    }
+
+    /**
+     * @return nodes expanded, at least 1 for a request resolved without expansions
+     */
+    private int step(int budget) {
+        Request request = current;
+        int start = getNode(request.startX, request.startZ);
+        int expansions = 0;
+
+        while (closed[start] != searchStamp && expansions < budget) {
+            if (request.status != Status.PENDING || open.isEmpty()) {
+                currentExpansions += expansions;
+                finish(false);
+                return Math.max(expansions, 1);
+            }
+
+            int node = open.pop();
+            closed[node] = searchStamp;
+            expansions++;
+            //a blocked start is a dead end for later requests sharing the tree
+            if (node != start || isWalkable(node, -1)) {
+                expand(node, start, request);
+            }
+        }
+
+        currentExpansions += expansions;
+        if (closed[start] == searchStamp) {
+            finish(true);
+        }
+        return Math.max(expansions, 1);
+    }
+
+    private void expand(int node, int start, Request request) {
+        int x = node & windowMask;
+        int z = node >> windowShift;
+        for (int i = 0; i < NEIGHBOUR_X.length; i++) {
+            int neighbourX = x + NEIGHBOUR_X[i];
+            int neighbourZ = z + NEIGHBOUR_Z[i];
+            if (neighbourX < 0 || neighbourZ < 0 || neighbourX >= window || neighbourZ >= window) {
+                continue;
+            }
+            int neighbour = (neighbourZ << windowShift) + neighbourX;
+            if (closed[neighbour] == searchStamp || !isWalkable(neighbour, start)) {
+                continue;
+            }
+
+            float stepCost = 1f;
+            if (i >= 4) {
+                //no cutting corners of blocked cells
+                if (!isWalkable((z << windowShift) + neighbourX, start) || !isWalkable((neighbourZ << windowShift) + x, start)) {
+                    continue;
+                }
+                stepCost = DIAGONAL_COST;
+            }
+
+            float neighbourCost = cost[node] + stepCost;
+            if (visited[neighbour] != searchStamp) {
+                visited[neighbour] = searchStamp;
+                cost[neighbour] = neighbourCost;
+                parent[neighbour] = node;
+                open.push(neighbour, neighbourCost + getHeuristic(windowX + neighbourX, windowZ + neighbourZ, request));
+            } else if (neighbourCost < cost[neighbour]) {
+                cost[neighbour] = neighbourCost;
+                parent[neighbour] = node;
+                open.decreaseKey(neighbour, neighbourCost + getHeuristic(windowX + neighbourX, windowZ + neighbourZ, request));
+            }
+        }
+    }
+
+    private void finish(boolean found) {
+        Request request = current;
+        current = null;
+        totalExpansions += currentExpansions;
+        if (currentExpansions == 0) {
+            cacheHits++;
+        }
+
+        if (found) {
+            resolve(request, getNode(request.startX, request.startZ));
+        } else if (request.status == Status.PENDING) {
+            fail(request);
+        }
+    }
+
+    //walks the parents from the start node to the goal, keeping the cells where the direction changes
+    private void resolve(Request request, int start) {
+        int length = 0;
+        for (int node = start; node != -1; node = parent[node]) {
+            length++;
+        }
+
+        int[] cells = new int[length * 2];
+        int i = 0;
+        for (int node = start; node != -1; node = parent[node]) {
+            cells[i++] = windowX + (node & windowMask);
+            cells[i++] = windowZ + (node >> windowShift);
+        }
+        complete(request, cells, 0);
+        if (cache.size() == CACHE_LIMIT) {
+            cache.poll();
+        }
+        cache.add(request);
+    }
+
+    private void complete(Request request, int[] cells, int offset) {
+        int count = (cells.length - offset) / 2;
+        float[] waypoints = new float[count * 2];
+        int waypointCount = 0;
+        for (int i = 0; i < count; i++) {
+            int index = offset + i * 2;
+            boolean turn = i == 0 || i == count - 1 ||
+                    cells[index + 2] - cells[index] != cells[index] - cells[index - 2] ||
+                    cells[index + 3] - cells[index + 1] != cells[index + 1] - cells[index - 1];
+            if (turn) {
+                waypoints[waypointCount * 2] = grid.getCenter(cells[index]);
+                waypoints[waypointCount * 2 + 1] = grid.getCenter(cells[index + 1]);
+                waypointCount++;
+            }
+        }
+
+        request.cells = cells;
+        request.offset = offset;
+        request.waypoints = Arrays.copyOf(waypoints, waypointCount * 2);
+        request.time = time;
+        request.status = Status.FOUND;
+        periodPaths++;
+    }
+
+    private void fail(Request request) {
+        request.status = Status.FAILED;
+        periodPaths++;
+    }
+
+    private boolean resolveFromCache(Request request) {
+        while (!cache.isEmpty() && time - cache.peek().time > cacheTime) {
+            cache.poll();
+        }
+
+        for (Request cached : cache) {
+            if (cached.goalX != request.goalX || cached.goalZ != request.goalZ) {
+                continue;
+            }
+            int[] cells = cached.cells;
+            for (int i = cached.offset; i < cells.length; i += 2) {
+                if (cells[i] == request.startX && cells[i + 1] == request.startZ) {
+                    complete(request, cells, i);
+                    cacheHits++;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    //start and goal are walkable whatever the grid says, characters may stand on the edge of an obstacle
+    private boolean isWalkable(int node, int start) {
+        if (node == start || node == currentGoal) {
+            return true;
+        }
+        int cellX = windowX + (node & windowMask);
+        int cellZ = windowZ + (node >> windowShift);
+        int chunk = (NavigationGrid.getChunkCoordinate(cellX) - chunkX) + (NavigationGrid.getChunkCoordinate(cellZ) - chunkZ) * 2;
+        NavigationGrid.Chunk walkability = chunks[chunk];
+        return walkability != null && walkability.isWalkable(cellX & NavigationGrid.Chunk.MASK, cellZ & NavigationGrid.Chunk.MASK);
+    }
+
+    //octile distance to the start, searches run backwards
+    private float getHeuristic(int cellX, int cellZ, Request request) {
+        if (isShared) {
+            return 0;
+        }
+        int dx = Math.abs(cellX - request.startX);
+        int dz = Math.abs(cellZ - request.startZ);
+        return Math.max(dx, dz) + (DIAGONAL_COST - 1f) * Math.min(dx, dz);
+    }
+
+    private int getNode(int cellX, int cellZ) {
+        return ((cellZ - windowZ) << windowShift) + (cellX - windowX);
+    }
+
+    public int getQueueDepth() {
+        return pending.size() + (current != null ? 1 : 0);
+    }
+
+    /**
+     * @return paths found or failed per second, cache hits included
+     */
+    public float getPathsPerSecond() {
+        return pathsPerSecond;
+    }
+
+    /**
+     * @return nodes expanded per search, including the expansions of requests that carried on with its tree
+     */
+    public float getAverageExpansions() {
+        return searches > 0 ? (float) totalExpansions / searches : 0;
+    }
+
+    public long getSearches() {
+        return searches;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public int getExpansionsLastFrame() {
+        return expansionsLastFrame;
+    }
+
+    @Override
+    protected void initialize(Application app) {
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+    }
+
+    @Override
+    protected void onEnable() {
+    }
+
+    @Override
+    protected void onDisable() {
+    }
+
+    /**
+     * Path of cells from the start to the goal, simplified to the cells where it turns.
+     * Status is written last, once it is FOUND the waypoints may be read from any thread.
+     */
+    public static class Request {
+        private final int startX;
+        private final int startZ;
+        private final int goalX;
+        private final int goalZ;
+        private final float goalWorldX;
+        private final float goalWorldZ;
+        private volatile Status status = Status.PENDING;
+        private int[] cells;
+        private int offset;
+        private float[] waypoints;
+        private float time;
+
+        Request(int startX, int startZ, int goalX, int goalZ, float goalWorldX, float goalWorldZ) {
+            this.startX = startX;
+            this.startZ = startZ;
+            this.goalX = goalX;
+            this.goalZ = goalZ;
+            this.goalWorldX = goalWorldX;
+            this.goalWorldZ = goalWorldZ;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public void cancel() {
+            if (status == Status.PENDING) {
+                status = Status.CANCELLED;
+            }
+        }
+
+        public int getWaypointCount() {
+            return waypoints != null ? waypoints.length / 2 : 0;
+        }
+
+        public float getWaypointX(int index) {
+            return waypoints[index * 2];
+        }
+
+        public float getWaypointZ(int index) {
+            return waypoints[index * 2 + 1];
+        }
+
+        /**
+         * @return cells the path runs through, start and goal included
+         */
+        public int getLength() {
+            return cells != null ? (cells.length - offset) / 2 : 0;
+        }
+
+        /**
+         * @return x coordinate of the goal the path was requested for
+         */
+        public float getGoalX() {
+            return goalWorldX;
+        }
+
+        public float getGoalZ() {
+            return goalWorldZ;
+        }
+    }
+}
@@ -33,4 +33,6 @@ public interface RolePlayingGameInterface extends Application {
     void setTerrainManager(TerrainManagerInterface terrainManager);
 
     String getVersion();
+
+    WorldSeed getWorldSeed();
 }
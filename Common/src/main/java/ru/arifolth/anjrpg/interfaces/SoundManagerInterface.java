@@ -19,6 +19,7 @@
 package ru.arifolth.anjrpg.interfaces;
 
 import com.jme3.audio.AudioNode;
+import com.jme3.math.Vector3f;
 
 public interface SoundManagerInterface {
     AudioNode getMenuNode();
@@ -31,13 +32,51 @@ public interface SoundManagerInterface {
 
     void reInitialize(GameLogicCoreInterface gameLogicCore);
 
-    AudioNode getSoundNode(AudioType soundType);
+    AudioNode getSoundNode(SoundTypeEnum soundType);
 
-    AudioNode getCurrentMusicNode();
+    /**
+     * Plays the sound on a pooled voice at the end of the frame, unless it is out of hearing
+     * or every voice is busy with more important sounds.
+     * Only sounds of characters are pooled, others have to be played through getSoundNode.
+     */
+    void playSound(SoundTypeEnum soundType, Vector3f location);
 
-    void fadeMusicOut(float tpf, MusicTypeEnum nextMusicType);
+    /**
+     * @return emitter foot steps of a character get reported for
+     */
+    int addSoundEmitter();
+
+    void removeSoundEmitter(int emitter);
+
+    /**
+     * Keeps foot steps of the emitter going at the location, called every frame it walks.
+     */
+    void playFootsteps(int emitter, Vector3f location, float pitch);
+
+    void stopFootsteps(int emitter);
+
+    int getActiveVoices();
+
+    long getStolenVoices();
+
+    long getDroppedVoices();
+
+    long getCulledSounds();
+
+    /**
+     * Fades the music of the type in over fadeTime seconds while the music playing now fades out.
+     * No music type fades the music out.
+     */
+    void crossfadeMusic(MusicTypeEnum nextMusicType, float fadeTime);
+
+    void setMusicListener(MusicListener musicListener);
 
     void initialize();
 
-    AudioNode getMusicNode(AudioType musicType);
+    AudioNode getMusicNode(MusicTypeEnum musicType);
+
+    /**
+     * Opens a track of the music type in the background, so switching to it later does not wait for the decoder.
+     */
+    void prefetchMusic(MusicTypeEnum musicType);
 }
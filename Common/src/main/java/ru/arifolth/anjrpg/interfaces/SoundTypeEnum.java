@@ -18,14 +18,15 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
 import com.jme3.asset.AssetManager;
 import com.jme3.audio.AudioData;
 import com.jme3.audio.AudioNode;
 
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
 public enum SoundTypeEnum implements AudioType {
-    WIND {
+    WIND(0, Float.POSITIVE_INFINITY) {
         private AudioData.DataType stream = AudioData.DataType.Stream;
         private Float pitch = null;
         private boolean positional = false;
@@ -42,13 +43,13 @@ public enum SoundTypeEnum implements AudioType {
         }
 
     },
-    WEATHER {
+    WEATHER(0, Float.POSITIVE_INFINITY) {
         @Override
         public void init() {
 
         }
     },
-    FOOTSTEPS {
+    FOOTSTEPS(1, 40f) {
         private AudioData.DataType buffer = AudioData.DataType.Buffer;
         private float pitch = 0.65f;
         private Boolean positional = null;
@@ -65,7 +66,7 @@ public enum SoundTypeEnum implements AudioType {
             );
         }
 
-        public static void createAudioNode(AudioType audioType, String name, AudioData.DataType dataType, Boolean looping, Boolean positional, Float pitch) {
+        public static void createAudioNode(SoundTypeEnum audioType, String name, AudioData.DataType dataType, Boolean looping, Boolean positional, Float pitch) {
             AudioNode audioNode = new AudioNode(assetManager, name, dataType);
             audioNode.setVolume(Constants.SOUND_VOLUME / 6);
             audioNode.setMaxDistance(15);
@@ -77,10 +78,10 @@ public enum SoundTypeEnum implements AudioType {
             if(pitch != null)
                 audioNode.setPitch(pitch);
 
-            soundMap.put(audioType, audioNode);
+            addSample(audioType, audioNode);
         }
     },
-    SWORD_SWING {
+    SWORD_SWING(2, 60f) {
 
         private AudioData.DataType buffer = AudioData.DataType.Buffer;
         private float pitch = Constants.SOUND_PITCH;
@@ -154,7 +155,7 @@ public enum SoundTypeEnum implements AudioType {
             }
         }
     },
-    SWORD_HIT {
+    SWORD_HIT(3, 80f) {
         private AudioData.DataType buffer = AudioData.DataType.Buffer;
         private float pitch = Constants.SOUND_PITCH;
         private Boolean positional = null;
@@ -173,7 +174,7 @@ public enum SoundTypeEnum implements AudioType {
             }
         }
     },
-    MENU {
+    MENU(3, Float.POSITIVE_INFINITY) {
         private AudioData.DataType buffer = AudioData.DataType.Buffer;
         private Float pitch = null;
         private boolean positional = false;
@@ -190,7 +191,7 @@ public enum SoundTypeEnum implements AudioType {
             );
         }
     },
-    SWORD_BLOCK {
+    SWORD_BLOCK(3, 80f) {
         private AudioData.DataType buffer = AudioData.DataType.Buffer;
         private float pitch = Constants.SOUND_PITCH;
         private Boolean positional = null;
@@ -230,19 +231,45 @@ public enum SoundTypeEnum implements AudioType {
 
     private static AssetManager assetManager;
 
+    //higher priority voices steal sources from lower priority ones when the voice pool is full
+    private final int priority;
+    //positional sounds farther from the listener are not played at all
+    private final float audibleDistance;
+
+    SoundTypeEnum(int priority, float audibleDistance) {
+        this.priority = priority;
+        this.audibleDistance = audibleDistance;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public float getAudibleDistance() {
+        return audibleDistance;
+    }
+
     public static void setAssetManager(AssetManager assetManager) {
         SoundTypeEnum.assetManager = assetManager;
     }
 
-    public static AudioNode getClone(AudioType audioType) {
-        return Utils.getRandomObject(soundMap.get(audioType)).clone();
+    public static AudioNode getClone(SoundTypeEnum audioType) {
+        AudioNode[] typeSamples = getSamples(audioType);
+        return typeSamples[ThreadLocalRandom.current().nextInt(typeSamples.length)].clone();
     }
 
-    public static AudioNode getOriginal(AudioType audioType) {
-        return Utils.getSingleObject(soundMap.get(audioType));
+    public static AudioNode getOriginal(SoundTypeEnum audioType) {
+        return getSamples(audioType)[0];
     }
 
-    public static void createAudioNode(AudioType audioType, String name, AudioData.DataType dataType, Boolean looping, Boolean positional, Float pitch) {
+    /**
+     * Original nodes of every sample of the sound type, shared by every caller.
+     */
+    public static AudioNode[] getSamples(SoundTypeEnum audioType) {
+        return samples[audioType.ordinal()];
+    }
+
+    public static void createAudioNode(SoundTypeEnum audioType, String name, AudioData.DataType dataType, Boolean looping, Boolean positional, Float pitch) {
         AudioNode audioNode = new AudioNode(assetManager, name, dataType);
         audioNode.setVolume(Constants.SOUND_VOLUME);
 
@@ -253,11 +280,23 @@ public enum SoundTypeEnum implements AudioType {
         if(pitch != null)
             audioNode.setPitch(pitch);
 
-        soundMap.put(audioType, audioNode);
+        addSample(audioType, audioNode);
+    }
+
+    private static void addSample(SoundTypeEnum audioType, AudioNode audioNode) {
+        AudioNode[] typeSamples = Arrays.copyOf(samples[audioType.ordinal()], samples[audioType.ordinal()].length + 1);
+        typeSamples[typeSamples.length - 1] = audioNode;
+        samples[audioType.ordinal()] = typeSamples;
     }
 
     public static void reInitialize(float volume) {
-        soundMap.values().forEach(audioNode -> audioNode.setVolume(volume));
+        for (AudioNode[] typeSamples : samples) {
+            for (AudioNode audioNode : typeSamples) {
+                audioNode.setVolume(volume);
+            }
+        }
     }
-    private static final Multimap<AudioType, AudioNode> soundMap = ArrayListMultimap.create();
+
+    //samples of every sound type indexed by ordinal
+    private static final AudioNode[][] samples = new AudioNode[values().length][0];
 }
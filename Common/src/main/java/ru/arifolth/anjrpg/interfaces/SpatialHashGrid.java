@@ -0,0 +1,339 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the ground plane for "what is near this point" queries.
+ * Entries live in primitive arrays and are linked into per-cell lists, cells are found through an open addressing table.
+ * Entries are addressed by the int handle returned from insert, handles of removed entries get reused.
+ * Queries write handles into a caller supplied array and never allocate, the arrays grow only on insert.
+ * Not thread safe, meant to be used from the render thread.
+ */
+public class SpatialHashGrid<T> {
+    private static final int NONE = -1;
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private final float cellSize;
+    private final float inverseCellSize;
+
+    //entries
+    private Object[] items;
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private int[] cellOf;
+    private int[] next;
+    private int[] previous;
+    private int[] freeHandles;
+    private int freeCount;
+    private int handleCount;
+    private int size;
+
+    //cells, each one keeps the head of its entry list
+    private long[] cellKeys;
+    private int[] cellHeads;
+    private int usedCells;
+    //previous table arrays, reused by the next rehash of the same size
+    private long[] spareKeys;
+    private int[] spareHeads;
+
+    public SpatialHashGrid(float cellSize, int initialCapacity) {
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+
+        int capacity = Math.max(initialCapacity, 16);
+        items = new Object[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+        cellOf = new int[capacity];
+        next = new int[capacity];
+        previous = new int[capacity];
+        freeHandles = new int[capacity];
+
+        int cells = Integer.highestOneBit(capacity * 2 - 1) * 2;
+        cellKeys = new long[cells];
+        cellHeads = new int[cells];
+        Arrays.fill(cellKeys, EMPTY_KEY);
+    }
+
+    /**
+     * @return handle of the entry
+     */
+    public int insert(T item, float px, float py, float pz) {
+        int handle;
+        if (freeCount > 0) {
+            handle = freeHandles[--freeCount];
+        } else {
+            if (handleCount == items.length) {
+                growEntries();
+            }
+            handle = handleCount++;
+        }
+
+        items[handle] = item;
+        x[handle] = px;
+        y[handle] = py;
+        z[handle] = pz;
+        link(handle, getCell(px, pz));
+        size++;
+        return handle;
+    }
+
+    public void move(int handle, float px, float py, float pz) {
+        x[handle] = px;
+        y[handle] = py;
+        z[handle] = pz;
+
+        long key = getKey(px, pz);
+        if (cellKeys[cellOf[handle]] != key) {
+            unlink(handle);
+            link(handle, getCell(key));
+        }
+    }
+
+    public void remove(int handle) {
+        unlink(handle);
+        items[handle] = null;
+        cellOf[handle] = NONE;
+        freeHandles[freeCount++] = handle;
+        size--;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int handle) {
+        return (T) items[handle];
+    }
+
+    public float getX(int handle) {
+        return x[handle];
+    }
+
+    public float getY(int handle) {
+        return y[handle];
+    }
+
+    public float getZ(int handle) {
+        return z[handle];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds entries within the radius on the ground plane.
+     * @return number of handles written to the store, at most its length
+     */
+    public int queryRadius(float px, float pz, float radius, int[] store) {
+        int count = 0;
+        float radiusSquared = radius * radius;
+        int minCellX = toCell(px - radius);
+        int maxCellX = toCell(px + radius);
+        int minCellZ = toCell(pz - radius);
+        int maxCellZ = toCell(pz + radius);
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                int cell = findCell(getKey(cellX, cellZ));
+                if (cell == NONE) {
+                    continue;
+                }
+                for (int handle = cellHeads[cell]; handle != NONE; handle = next[handle]) {
+                    float dx = x[handle] - px;
+                    float dz = z[handle] - pz;
+                    if (dx * dx + dz * dz <= radiusSquared) {
+                        if (count == store.length) {
+                            return count;
+                        }
+                        store[count++] = handle;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds entries within the rectangle on the ground plane.
+     * @return number of handles written to the store, at most its length
+     */
+    public int queryBox(float minX, float minZ, float maxX, float maxZ, int[] store) {
+        int count = 0;
+        int minCellX = toCell(minX);
+        int maxCellX = toCell(maxX);
+        int minCellZ = toCell(minZ);
+        int maxCellZ = toCell(maxZ);
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                int cell = findCell(getKey(cellX, cellZ));
+                if (cell == NONE) {
+                    continue;
+                }
+                for (int handle = cellHeads[cell]; handle != NONE; handle = next[handle]) {
+                    if (x[handle] >= minX && x[handle] <= maxX && z[handle] >= minZ && z[handle] <= maxZ) {
+                        if (count == store.length) {
+                            return count;
+                        }
+                        store[count++] = handle;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private void link(int handle, int cell) {
+        int head = cellHeads[cell];
+        cellOf[handle] = cell;
+        previous[handle] = NONE;
+        next[handle] = head;
+        if (head != NONE) {
+            previous[head] = handle;
+        }
+        cellHeads[cell] = handle;
+    }
+
+    private void unlink(int handle) {
+        int cell = cellOf[handle];
+        if (previous[handle] != NONE) {
+            next[previous[handle]] = next[handle];
+        } else {
+            cellHeads[cell] = next[handle];
+        }
+        if (next[handle] != NONE) {
+            previous[next[handle]] = previous[handle];
+        }
+    }
+
+    private int toCell(float coordinate) {
+        return (int) Math.floor(coordinate * inverseCellSize);
+    }
+
+    private long getKey(float px, float pz) {
+        return getKey(toCell(px), toCell(pz));
+    }
+
+    private static long getKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    private int getCell(float px, float pz) {
+        return getCell(getKey(px, pz));
+    }
+
+    //finds the cell of the key, adding it if missing
+    private int getCell(long key) {
+        int cell = findCell(key);
+        if (cell != NONE) {
+            return cell;
+        }
+
+        //empty cells are left behind by moving entries, drop them before growing the table
+        if ((usedCells + 1) * 2 > cellKeys.length) {
+            rehash();
+        }
+        int mask = cellKeys.length - 1;
+        for (cell = hash(key) & mask; cellKeys[cell] != EMPTY_KEY; cell = (cell + 1) & mask) {
+        }
+        cellKeys[cell] = key;
+        cellHeads[cell] = NONE;
+        usedCells++;
+        return cell;
+    }
+
+    private int findCell(long key) {
+        int mask = cellKeys.length - 1;
+        for (int cell = hash(key) & mask; cellKeys[cell] != EMPTY_KEY; cell = (cell + 1) & mask) {
+            if (cellKeys[cell] == key) {
+                return cell;
+            }
+        }
+        return NONE;
+    }
+
+    private void rehash() {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+
+        int occupied = 0;
+        for (int cell = 0; cell < oldKeys.length; cell++) {
+            if (oldKeys[cell] != EMPTY_KEY && oldHeads[cell] != NONE) {
+                occupied++;
+            }
+        }
+        int length = oldKeys.length;
+        while ((occupied + 1) * 4 > length) {
+            length *= 2;
+        }
+        if (spareKeys == null || spareKeys.length != length) {
+            spareKeys = new long[length];
+            spareHeads = new int[length];
+        }
+        cellKeys = spareKeys;
+        cellHeads = spareHeads;
+        spareKeys = oldKeys;
+        spareHeads = oldHeads;
+        Arrays.fill(cellKeys, EMPTY_KEY);
+        usedCells = 0;
+
+        int mask = cellKeys.length - 1;
+        for (int oldCell = 0; oldCell < oldKeys.length; oldCell++) {
+            long key = oldKeys[oldCell];
+            int head = oldHeads[oldCell];
+            if (key == EMPTY_KEY || head == NONE) {
+                continue;
+            }
+            int cell = hash(key) & mask;
+            while (cellKeys[cell] != EMPTY_KEY) {
+                cell = (cell + 1) & mask;
+            }
+            cellKeys[cell] = key;
+            cellHeads[cell] = head;
+            usedCells++;
+            for (int handle = head; handle != NONE; handle = next[handle]) {
+                cellOf[handle] = cell;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void growEntries() {
+        int capacity = items.length * 2;
+        items = Arrays.copyOf(items, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        next = Arrays.copyOf(next, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+        freeHandles = Arrays.copyOf(freeHandles, capacity);
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+}
@@ -18,6 +18,7 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
+import com.jme3.math.Vector3f;
 import com.jme3.terrain.geomipmap.TerrainQuad;
 
 public interface TerrainInterface {
@@ -27,5 +28,8 @@ public interface TerrainInterface {
 
     void update();
 
-    int getRigidBodiesSize();
+    /**
+     * @return true once the land under the location can be stood on
+     */
+    boolean isCollisionReady(Vector3f location);
 }
@@ -18,6 +18,7 @@
 
 package ru.arifolth.anjrpg.interfaces;
 
+import com.jme3.math.Vector3f;
 import com.jme3.terrain.geomipmap.TerrainQuad;
 
 public interface TerrainManagerInterface {
@@ -29,5 +30,8 @@ public interface TerrainManagerInterface {
 
     TerrainQuad getTerrain();
 
-    int getRigidBodiesSize();
+    /**
+     * @return true once the land under the location can be stood on
+     */
+    boolean isCollisionReady(Vector3f location);
 }
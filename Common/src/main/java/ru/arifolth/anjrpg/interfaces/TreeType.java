@@ -20,9 +20,11 @@ package ru.arifolth.anjrpg.interfaces;
 
 import com.jme3.scene.Node;
 
+import java.util.SplittableRandom;
+
 public interface TreeType {
     void init();
-    Node getTree();
+    Node getTree(SplittableRandom random);
 
     int getProbability();
 }
@@ -31,6 +31,10 @@ public class Utils {
     }
 
     public static boolean getRandom(int probability) {
+        return getRandom(random, probability);
+    }
+
+    public static boolean getRandom(SplittableRandom random, int probability) {
         return random.nextInt(1, 101) <= probability;
     }
 
@@ -39,7 +43,11 @@ public class Utils {
     }
 
     public static float getRandomNumberInRange(float min, float max) {
-        return (float) random.doubles(min, max).findAny().getAsDouble();
+        return getRandomNumberInRange(random, min, max);
+    }
+
+    public static float getRandomNumberInRange(SplittableRandom random, float min, float max) {
+        return (float) random.nextDouble(min, max);
     }
 
     public static void enableEntityPhysics(CharacterInterface character) {
@@ -0,0 +1,87 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+import com.jme3.math.Vector3f;
+
+import java.util.SplittableRandom;
+
+/**
+ * Seed of the procedurally generated world.
+ * Every generation step of a cell gets its own random generator derived from the seed, the cell and the layer,
+ * so the content of a cell does not depend on the order in which cells are generated.
+ */
+public class WorldSeed {
+    public enum Layer {
+        TERRAIN,
+        TREES,
+        GRASS,
+        NPC
+    }
+
+    //range of the noise slices used by different seeds
+    private static final int NOISE_OFFSET_RANGE = 1 << 12;
+
+    private final long seed;
+
+    public WorldSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long deriveSeed(int cellX, int cellZ, Layer layer, long index) {
+        long hash = mix(seed);
+        hash = mix(hash ^ cellX);
+        hash = mix(hash ^ cellZ);
+        hash = mix(hash ^ layer.ordinal());
+        return mix(hash ^ index);
+    }
+
+    public SplittableRandom getRandom(int cellX, int cellZ, Layer layer) {
+        return new SplittableRandom(deriveSeed(cellX, cellZ, layer, 0));
+    }
+
+    public SplittableRandom getRandom(Vector3f cell, Layer layer) {
+        return getRandom(cell, layer, 0);
+    }
+
+    /**
+     * @param index distinguishes repeated generation steps of the same cell and layer, e.g. NPC spawn waves
+     */
+    public SplittableRandom getRandom(Vector3f cell, Layer layer, long index) {
+        return new SplittableRandom(deriveSeed((int) cell.x, (int) cell.z, layer, index));
+    }
+
+    /**
+     * @return offset along the third noise axis, each seed samples its own 2D slice of the 3D terrain noise
+     */
+    public float getNoiseOffset() {
+        return Math.floorMod(deriveSeed(0, 0, Layer.TERRAIN, 0), NOISE_OFFSET_RANGE);
+    }
+
+    //SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
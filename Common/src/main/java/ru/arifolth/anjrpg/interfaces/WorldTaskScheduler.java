@@ -0,0 +1,197 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.interfaces;
+
+import com.jme3.math.Vector3f;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of daemon workers for CPU heavy world generation work, like planting vegetation of a tile.
+ * Queued tasks run nearest to the player first. Every task belongs to an owner, e.g. a terrain tile,
+ * so all work of a tile can be cancelled once the tile gets detached.
+ * Results must be handed back to the render thread by the task itself, workers never touch the scene graph.
+ */
+public class WorldTaskScheduler {
+    final private static Logger LOGGER = Logger.getLogger(WorldTaskScheduler.class.getName());
+
+    //player has to move this far before queued tasks get reordered
+    private static final float REPRIORITIZE_DISTANCE = 64f;
+    //weight of the latest sample in the average latency
+    private static final float LATENCY_SMOOTHING = 0.1f;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Object, Set<WorldTask>> tasksByOwner = new ConcurrentHashMap<>();
+    private final Vector3f playerLocation = new Vector3f();
+    private final Vector3f lastPrioritizedLocation = new Vector3f();
+
+    private volatile float averageLatency;
+    private volatile float maxLatency;
+    private final AtomicInteger completedTasks = new AtomicInteger();
+
+    public WorldTaskScheduler(String name, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name + " " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+    }
+
+    /**
+     * Queues the work, ordered by the distance of its location to the player.
+     */
+    public Future<?> submit(Object owner, Vector3f location, Runnable work) {
+        WorldTask task = new WorldTask(owner, location.clone(), work);
+        task.priority = getPriority(task.location);
+        tasksByOwner.compute(owner, (key, tasks) -> {
+            Set<WorldTask> ownerTasks = tasks != null ? tasks : new HashSet<>();
+            ownerTasks.add(task);
+            return ownerTasks;
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancels all queued tasks of the owner, running ones are interrupted.
+     */
+    public void cancel(Object owner) {
+        Set<WorldTask> tasks = tasksByOwner.remove(owner);
+        if (tasks == null) {
+            return;
+        }
+        for (WorldTask task : tasks) {
+            task.cancel(true);
+            executor.remove(task);
+        }
+    }
+
+    /**
+     * Must be called with the player location every frame, reorders the queue once the player moved far enough.
+     */
+    public void update(Vector3f location) {
+        synchronized (playerLocation) {
+            playerLocation.set(location);
+        }
+        if (executor.getQueue().isEmpty() || lastPrioritizedLocation.distanceSquared(location) < REPRIORITIZE_DISTANCE * REPRIORITIZE_DISTANCE) {
+            return;
+        }
+        lastPrioritizedLocation.set(location);
+
+        List<Runnable> pending = new ArrayList<>();
+        executor.getQueue().drainTo(pending);
+        for (Runnable runnable : pending) {
+            WorldTask task = (WorldTask) runnable;
+            task.priority = getPriority(task.location);
+            executor.execute(task);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return smoothed milliseconds tasks spend in the queue before a worker picks them up
+     */
+    public float getAverageLatency() {
+        return averageLatency;
+    }
+
+    public float getMaxLatency() {
+        return maxLatency;
+    }
+
+    public int getCompletedTasks() {
+        return completedTasks.get();
+    }
+
+    private float getPriority(Vector3f location) {
+        synchronized (playerLocation) {
+            return playerLocation.distanceSquared(location);
+        }
+    }
+
+    private void recordLatency(float latency) {
+        averageLatency += (latency - averageLatency) * LATENCY_SMOOTHING;
+        maxLatency = Math.max(maxLatency, latency);
+        if (completedTasks.incrementAndGet() % 100 == 0) {
+            LOGGER.log(Level.FINE, "World tasks: queue depth {0}, average latency {1} ms", new Object[]{getQueueDepth(), averageLatency});
+        }
+    }
+
+    private class WorldTask extends FutureTask<Void> implements Comparable<WorldTask> {
+        private final Object owner;
+        private final Vector3f location;
+        private final long submitTime = System.nanoTime();
+        private volatile float priority;
+
+        WorldTask(Object owner, Vector3f location, Runnable work) {
+            super(work, null);
+            this.owner = owner;
+            this.location = location;
+        }
+
+        @Override
+        public void run() {
+            if (!isCancelled()) {
+                recordLatency((System.nanoTime() - submitTime) / 1_000_000f);
+            }
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            tasksByOwner.computeIfPresent(owner, (key, tasks) -> {
+                tasks.remove(this);
+                return tasks.isEmpty() ? null : tasks;
+            });
+            if (!isCancelled()) {
+                try {
+                    get();
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.SEVERE, "World task failed", e.getCause());
+                } catch (InterruptedException | CancellationException e) {
+                    //nothing to report
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(WorldTask other) {
+            return Float.compare(priority, other.priority);
+        }
+    }
+}
@@ -128,13 +128,13 @@ public class ANJRpg extends RolePlayingGame implements ANJRpgInterface {
                 break;
             }
             case INITIALIZED: {
-                //wait until land appears in Physics Space
-                if (bulletAppState.getPhysicsSpace().getRigidBodyList().size() == app.getTerrainManager().getRigidBodiesSize()) {
+                //wait until land under the start location appears in Physics Space
+                if (app.getTerrainManager().isCollisionReady(Constants.PLAYER_START_LOCATION)) {
                     //place player at the start location
                     initializationDelegate.positionPlayer();
                     initializationDelegate.initPlayerComplete();
                     //position NPCs around the Player
-                    initializationDelegate.positionNPCs(getGameLogicCore().getCharacterMap());
+                    initializationDelegate.positionNPCs(getGameLogicCore().getCharacterRegistry());
                     initializationDelegate.initNPCsComplete();
 
                     //these calls have to be done on the update loop thread,
@@ -24,16 +24,19 @@ import com.jme3.asset.AssetManager;
 import com.jme3.bullet.BulletAppState;
 import com.jme3.input.FlyByCamera;
 import com.jme3.input.InputManager;
+import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
 import com.jme3.ui.Picture;
 import ru.arifolth.anjrpg.interfaces.*;
 import ru.arifolth.anjrpg.interfaces.weather.EmitterInterface;
+import ru.arifolth.anjrpg.models.FlowField;
 
+import java.util.Arrays;
 import java.util.LinkedHashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 public class GameLogicCore implements GameLogicCoreInterface {
@@ -45,6 +48,17 @@ public class GameLogicCore implements GameLogicCoreInterface {
     private final Node enemies = new Node("enemies");
     private Node forestNode = new Node("Forest Node");
     private Node grassNode = new Node("all grass");
+    private final MainThreadQueue mainThreadQueue = new MainThreadQueue(Constants.MAIN_THREAD_BUDGET, Constants.MAIN_THREAD_QUEUE_CAPACITY);
+    private final SpatialHashGrid<CharacterInterface> characterGrid = new SpatialHashGrid<>(Constants.SPATIAL_GRID_CELL_SIZE, Constants.NPC_AMOUNT + 1);
+    //grid handles of registered characters by their entity id
+    private int[] gridHandles = new int[Constants.NPC_AMOUNT];
+    private int playerGridHandle = -1;
+    private final SpatialHashGrid<Spatial> vegetationGrid = new SpatialHashGrid<>(Constants.VEGETATION_GRID_CELL_SIZE, 1024);
+    private final Vector3f characterLocation = new Vector3f();
+    private final AiScheduler aiScheduler = new AiScheduler(Constants.AI_REDUCED_BUCKETS, ForkJoinPool.commonPool());
+    private final NavigationGrid navigationGrid = new NavigationGrid(Constants.NAV_CELL_SIZE, Constants.NAV_CHUNK_LIMIT);
+    private final FlowField playerFlowField = new FlowField(navigationGrid, Constants.FLOW_FIELD_SIZE, Constants.FLOW_FIELD_BUDGET);
+    private final WorldTaskScheduler worldTaskScheduler = new WorldTaskScheduler("World Task", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
 
     private MovementControllerInterface movementController;
     private TerrainManagerInterface terrainManager;
@@ -61,7 +75,7 @@ public class GameLogicCore implements GameLogicCoreInterface {
 
     private CharacterInterface playerCharacter = null;
     private Picture damageIndicator = null;
-    private Map<Node, CharacterInterface> characterMap = new WeakHashMap<>();
+    private final EntityRegistry<CharacterInterface> characterRegistry = new EntityRegistry<>(CharacterInterface::getNode, Constants.NPC_AMOUNT);
     private Set<EmitterInterface> weatherEffectsSet = new LinkedHashSet<>();
     private GameStateManagerInterface gameStateManager = new GameStateManager(this);
 
@@ -74,8 +88,25 @@ public class GameLogicCore implements GameLogicCoreInterface {
         this.bulletAppState = bulletAppState;
         this.assetManager = assetManager;
         this.soundManager = soundManager;
+        soundManager.setMusicListener(gameStateManager);
         this.terrainManager = terrainManager;
         this.rootNode = rootNode;
+
+        characterRegistry.addListener(new EntityRegistry.Listener<>() {
+            @Override
+            public void spawned(int id, CharacterInterface character) {
+                if (id >= gridHandles.length) {
+                    gridHandles = Arrays.copyOf(gridHandles, Math.max(id + 1, gridHandles.length * 2));
+                }
+                Vector3f location = character.getCharacterControl().getPhysicsLocation(characterLocation);
+                gridHandles[id] = characterGrid.insert(character, location.x, location.y, location.z);
+            }
+
+            @Override
+            public void despawned(int id, CharacterInterface character) {
+                characterGrid.remove(gridHandles[id]);
+            }
+        });
     }
 
     public void initialize() {
@@ -85,11 +116,13 @@ public class GameLogicCore implements GameLogicCoreInterface {
         initializationDelegate.setupDamageIndicator();
         initializationDelegate.setupPlayer();
         initializationDelegate.setupCamera();
+        initializationDelegate.setupVegetation();
 
         movementController.setUpKeys();
 //        initializer.setupWeatherEffects();
         getRootNode().attachChild(forestNode);
         getRootNode().attachChild(grassNode);
+        app.getStateManager().attach(mainThreadQueue);
     }
 
     @Override
@@ -113,7 +146,7 @@ public class GameLogicCore implements GameLogicCoreInterface {
     public void reInitialize() {
         getPlayerCharacter().initializeSounds();
 
-        for(CharacterInterface character: getCharacterMap().values()) {
+        for(CharacterInterface character: characterRegistry) {
             character.initializeSounds();
         }
     }
@@ -140,14 +173,24 @@ public class GameLogicCore implements GameLogicCoreInterface {
         this.playerCharacter = playerCharacter;
     }
 
+    @Override
+    public void cleanup() {
+        //workers may be waiting for the render thread to drain the main thread queue, they get interrupted
+        worldTaskScheduler.shutdown();
+    }
+
     public void update(float tpf) {
         playerCharacter.update(tpf);
 
+        worldTaskScheduler.update(playerCharacter.getCharacterControl().getPhysicsLocation());
+
+        updateCharacterGrid();
+
         locationTracker.update(tpf);
 
-        for(CharacterInterface character : characterMap.values()) {
-            character.update(tpf);
-        }
+        playerFlowField.update(playerCharacter.getCharacterControl().getPhysicsLocation(characterLocation));
+
+        aiScheduler.update(characterRegistry, tpf);
 
         for(EmitterInterface emitter : weatherEffectsSet) {
             emitter.update(tpf);
@@ -156,14 +199,55 @@ public class GameLogicCore implements GameLogicCoreInterface {
         gameStateManager.update(tpf);
     }
 
+    private void updateCharacterGrid() {
+        Vector3f location = playerCharacter.getCharacterControl().getPhysicsLocation(characterLocation);
+        if (playerGridHandle < 0) {
+            playerGridHandle = characterGrid.insert(playerCharacter, location.x, location.y, location.z);
+        } else {
+            characterGrid.move(playerGridHandle, location.x, location.y, location.z);
+        }
+
+        for(int i = 0; i < characterRegistry.size(); i++) {
+            location = characterRegistry.getAt(i).getCharacterControl().getPhysicsLocation(characterLocation);
+            characterGrid.move(gridHandles[characterRegistry.getIdAt(i)], location.x, location.y, location.z);
+        }
+    }
+
+    @Override
+    public AiScheduler getAiScheduler() {
+        return aiScheduler;
+    }
+
+    @Override
+    public NavigationGrid getNavigationGrid() {
+        return navigationGrid;
+    }
+
+    /**
+     * Directions towards the player for the NPCs chasing them.
+     */
+    public FlowField getPlayerFlowField() {
+        return playerFlowField;
+    }
+
+    @Override
+    public SpatialHashGrid<CharacterInterface> getCharacterGrid() {
+        return characterGrid;
+    }
+
+    @Override
+    public SpatialHashGrid<Spatial> getVegetationGrid() {
+        return vegetationGrid;
+    }
+
     @Override
     public GameStateManagerInterface getGameStateManager() {
         return gameStateManager;
     }
 
     @Override
-    public Map<Node,CharacterInterface> getCharacterMap() {
-        return characterMap;
+    public EntityRegistry<CharacterInterface> getCharacterRegistry() {
+        return characterRegistry;
     }
 
     public MovementControllerInterface getMovementController() {
@@ -252,4 +336,19 @@ public class GameLogicCore implements GameLogicCoreInterface {
     public void setSky(SkyInterface sky) {
         this.sky = sky;
     }
+
+    @Override
+    public WorldSeed getWorldSeed() {
+        return ((RolePlayingGameInterface) app).getWorldSeed();
+    }
+
+    @Override
+    public WorldTaskScheduler getWorldTaskScheduler() {
+        return worldTaskScheduler;
+    }
+
+    @Override
+    public MainThreadQueue getMainThreadQueue() {
+        return mainThreadQueue;
+    }
 }
@@ -25,30 +25,29 @@ import com.jme3.input.MouseInput;
 import com.jme3.input.controls.MouseButtonTrigger;
 import com.jme3.material.RenderState;
 import com.jme3.math.*;
-import com.jme3.renderer.queue.RenderQueue;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
+import com.jme3.terrain.geomipmap.TerrainGrid;
 import com.jme3.terrain.geomipmap.TerrainQuad;
 import com.jme3.ui.Picture;
-import jme3tools.optimize.GeometryBatchFactory;
 import ru.arifolth.anjrpg.interfaces.*;
 import ru.arifolth.anjrpg.interfaces.weather.EmitterInterface;
 import ru.arifolth.anjrpg.weather.RainEmitter;
 import ru.arifolth.anjrpg.models.NonPlayerCharacter;
 import ru.arifolth.anjrpg.models.PlayerCharacter;
+import ru.arifolth.terrain.HeightMapSampler;
+import ru.arifolth.vegetation.Forest;
+import ru.arifolth.vegetation.ForestLod;
+import ru.arifolth.vegetation.GrassField;
 import ru.arifolth.vegetation.GrassTypeEnum;
 import ru.arifolth.vegetation.TreeTypeEnum;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.SplittableRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import static ru.arifolth.anjrpg.interfaces.Constants.RAY_DOWN;
 
@@ -56,9 +55,11 @@ public class InitializationDelegate implements InitializationDelegateInterface {
     private final GameLogicCore gameLogicCore;
     final private static Logger LOGGER = Logger.getLogger(InitializationDelegate.class.getName());
 
-    private final ConcurrentLinkedQueue<Node> grassQueue = new ConcurrentLinkedQueue<>();
-    private final ConcurrentLinkedQueue<Node> treesQueue = new ConcurrentLinkedQueue<>();
+    private static final Vector3f TREE_TILT_AXIS = new Vector3f(1, 0, 1);
 
+    private long npcSpawnWave;
+    private GrassField grassField;
+    private ForestLod forestLod;
 
     public InitializationDelegate(GameLogicCore gameLogicCore) {
         this.gameLogicCore = gameLogicCore;
@@ -75,13 +76,14 @@ public class InitializationDelegate implements InitializationDelegateInterface {
     }
 
     void setupNPCs() {
-        IntStream.range(gameLogicCore.getCharacterMap().size(), Constants.NPC_AMOUNT).forEach(i -> setupNPC());
+        IntStream.range(gameLogicCore.getCharacterRegistry().size(), Constants.NPC_AMOUNT).forEach(i -> setupNPC());
     }
 
     void setupNPC() {
         NonPlayerCharacter nonPlayerCharacter = (NonPlayerCharacter) gameLogicCore.getCharacterFactory().createCharacter(NonPlayerCharacter.class);
         nonPlayerCharacter.setPlayerCharacter(gameLogicCore.getPlayerCharacter());
-        gameLogicCore.getCharacterMap().put(nonPlayerCharacter.getNode(), nonPlayerCharacter);
+        nonPlayerCharacter.setFlowField(gameLogicCore.getPlayerFlowField());
+        gameLogicCore.getCharacterRegistry().add(nonPlayerCharacter);
     }
 
     void setupPlayer() {
@@ -175,164 +177,107 @@ public class InitializationDelegate implements InitializationDelegateInterface {
     }
 
     @Override
-    public List<Spatial> setupTrees() {
-        int forestSize = (int) Utils.getRandomNumberInRange(1500, 5000);
+    public List<Spatial> setupTrees(SplittableRandom random) {
+        int forestSize = (int) Utils.getRandomNumberInRange(random, 400, 1300);
         List<Spatial> quadForest = new ArrayList<>(forestSize);
         for(int i = 0; i < forestSize; i++) {
-            Spatial treeModelCustom = TreeTypeEnum.getRandomTree();
-            treeModelCustom.scale(1 + Utils.getRandomNumberInRange(1, 10), 1 + Utils.getRandomNumberInRange(1, 10), 1 + Utils.getRandomNumberInRange(1, 10));
+            Spatial treeModelCustom = TreeTypeEnum.getRandomTree(random);
+            treeModelCustom.scale(1 + Utils.getRandomNumberInRange(random, 1, 10), 1 + Utils.getRandomNumberInRange(random, 1, 10), 1 + Utils.getRandomNumberInRange(random, 1, 10));
             quadForest.add(treeModelCustom);
         }
 
         return quadForest;
     }
 
-    @Override
-    public List<Spatial> setupGrass() {
-        final int grassAmount = 400_000;
-        List<Spatial> quadGrass = new ArrayList<>(grassAmount);
-        for(int i = 0; i < grassAmount; i++) {
-            Spatial grassInstance = GrassTypeEnum.REGULAR.getGrass();
-            grassInstance.setLocalScale(1 + Utils.getRandomNumberInRange(1, 3), 1 + Utils.getRandomNumberInRange(1, 3), 1 + Utils.getRandomNumberInRange(1, 3));
-            grassInstance.setLocalTranslation(grassInstance.getLocalTranslation().getX(), grassInstance.getLocalTranslation().getY(), grassInstance.getLocalTranslation().getZ() - 15);
-            grassInstance.rotate(Utils.getRandomNumberInRange(-0.65f, 0.65f), Utils.getRandomNumberInRange(-1.65f, 1.65f), 0);
-            quadGrass.add(grassInstance);
-        }
-
-        return quadGrass;
+    void setupVegetation() {
+        grassField = new GrassField(gameLogicCore.getGrassNode(), GrassTypeEnum.REGULAR.getBlade(), gameLogicCore.getWorldSeed(), gameLogicCore.getMainThreadQueue(), gameLogicCore.getVegetationGrid());
+        forestLod = new ForestLod(gameLogicCore.getVegetationGrid(), gameLogicCore.getCam(), Constants.TREE_IMPOSTOR_DISTANCE, Constants.TREE_IMPOSTOR_FADE);
     }
 
     @Override
     public void update() {
-        attachGrassQuad();
-
-        attachTreesQuad();
+        grassField.update(gameLogicCore.getCam().getLocation());
+        forestLod.update();
     }
 
-    private void attachTreesQuad() {
-        Node treesNode = treesQueue.poll();
-
-        if(treesNode == null)
+    private void attachTrees(TerrainQuad quad, Forest forest) {
+        //tile could have been detached, or already got its forest, while this one was growing
+        if(quad.getParent() == null || quad.getUserData(Constants.QUAD_FOREST) != null)
             return;
 
-        gameLogicCore.getForestNode().attachChild(treesNode);
+        quad.setUserData(Constants.QUAD_FOREST, forest);
+        gameLogicCore.getForestNode().attachChild(forest);
+        forestLod.register(forest);
     }
 
-    private void attachGrassQuad() {
-        Node grassNode = grassQueue.poll();
-
-        if(grassNode == null)
-            return;
+    @Override
+    public void positionGrass(Vector3f cell, TerrainQuad quad) {
+        //grass is planted in chunks around the camera, see GrassField
+        grassField.addTile(quad);
+    }
 
-        gameLogicCore.getGrassNode().attachChild(grassNode);
+    @Override
+    public void removeGrass(TerrainQuad quad) {
+        grassField.removeTile(quad);
     }
 
     @Override
-    public void positionGrass(TerrainQuad quad) {
-        var context = new Object() {
-            Node grassNode = quad.getUserData(Constants.QUAD_GRASS);
-        };
-
-        try (ExecutorService executorService = Executors.newSingleThreadExecutor()) {
-            executorService.execute(new Runnable() {
-                @Override
-                public void run() {
-                    if (context.grassNode == null) {
-                        context.grassNode = new Node();
-                        List<Spatial> quadGrass = setupGrass();
-
-                        Stream<Spatial> stream = quadGrass.stream();
-                        stream.forEach(grassSpatial -> {
-                            CollisionResults results = new CollisionResults();
-                            final Vector3f playerLocation = gameLogicCore.getPlayerCharacter().getCharacterControl().getPhysicsLocation();
-
-                            float y = playerLocation.y;
-                            if (y < Constants.WATER_LEVEL_HEIGHT)
-                                y = 0;
-
-                            Vector3f start = new Vector3f(playerLocation.x + Utils.getRandomNumberInRange(-2000, 2000), y + Utils.getRandomNumberInRange(0, 130), playerLocation.z + Utils.getRandomNumberInRange(-2000, 2000));
-                            Ray ray = new Ray(start, RAY_DOWN);
-
-                            quad.collideWith(ray, results);
-                            CollisionResult hit = results.getClosestCollision();
-                            if (hit != null) {
-                                if ((hit.getContactPoint().y > Constants.WATER_LEVEL_HEIGHT)) {
-                                    Vector3f plantLocation = new Vector3f(hit.getContactPoint().x, hit.getContactPoint().y, hit.getContactPoint().z);
-                                    grassSpatial.setLocalTranslation(plantLocation.x, plantLocation.y, plantLocation.z);
-
-                                    context.grassNode.attachChild(grassSpatial);
-                                }
-                            }
-                        });
-                    }
-
-                    context.grassNode = (Node) GeometryBatchFactory.optimize(context.grassNode);
-                    context.grassNode.setShadowMode(RenderQueue.ShadowMode.Receive);
-                    context.grassNode.setQueueBucket(RenderQueue.Bucket.Transparent);
-                    context.grassNode.setCullHint(Spatial.CullHint.Dynamic);
-                    context.grassNode.updateModelBound();
-
-                    grassQueue.offer(context.grassNode);
+    public void positionTrees(Vector3f cell, TerrainQuad quad) {
+        final NavigationGrid navigationGrid = gameLogicCore.getNavigationGrid();
+        Forest cachedForest = quad.getUserData(Constants.QUAD_FOREST);
+        if (cachedForest != null) {
+            gameLogicCore.getForestNode().attachChild(cachedForest);
+            forestLod.register(cachedForest);
+            //the grid may have evicted the chunks of the tile meanwhile, its trees are blocked again along with the terrain
+            gameLogicCore.getWorldTaskScheduler().submit(quad, quad.getWorldTranslation(), () -> {
+                new HeightMapSampler(quad).addTo(navigationGrid);
+                float[] treeLocations = cachedForest.getTreeLocations();
+                for (int i = 0; i < treeLocations.length; i += 2) {
+                    navigationGrid.block(treeLocations[i], treeLocations[i + 1], Constants.NAV_TREE_RADIUS);
                 }
             });
+            return;
         }
 
-        quad.setUserData(Constants.QUAD_GRASS, context.grassNode);
+        final SplittableRandom random = gameLogicCore.getWorldSeed().getRandom(cell, WorldSeed.Layer.TREES);
+        final HeightMapSampler sampler = new HeightMapSampler(quad);
+
+        gameLogicCore.getWorldTaskScheduler().submit(quad, quad.getWorldTranslation(), () -> {
+            sampler.addTo(navigationGrid);
+            Node forest = new Node("Forest" + quad.getName());
+            List<Spatial> quadForest = setupTrees(random);
+            //spatials copy the rotation, so one instance serves the whole tile
+            Quaternion rotation = new Quaternion();
+
+            for (Spatial treeNode : quadForest) {
+                if (sampler.placeRandomly(treeNode, random)) {
+                    treeNode.setLocalRotation(rotation.fromAngleAxis(Utils.getRandomNumberInRange(random, -6.5f, 6.5f) * FastMath.DEG_TO_RAD, TREE_TILT_AXIS));
+
+                    treeNode.setLocalRotation(rotation.fromAngleAxis(Utils.getRandomNumberInRange(random, 0f, 360f) * FastMath.DEG_TO_RAD, Vector3f.UNIT_Y));
+
+                    forest.attachChild(treeNode);
+                    navigationGrid.block(treeNode.getLocalTranslation().x, treeNode.getLocalTranslation().z, Constants.NAV_TREE_RADIUS);
+                }
+            }
+
+            //chunks are batched separately, so far away ones can switch to impostors
+            Forest batchedForest = new Forest("Forest" + quad.getName(), forest.getChildren());
+            batchedForest.setCullHint(Spatial.CullHint.Dynamic);
+            batchedForest.updateModelBound();
+
+            gameLogicCore.getMainThreadQueue().enqueue(MainThreadQueue.Priority.TREES, () -> attachTrees(quad, batchedForest));
+        });
     }
 
     @Override
-    public void positionTrees(TerrainQuad quad) {
-        var context = new Object() {
-            Node treesNode = quad.getUserData(Constants.QUAD_FOREST);
-        };
-
-        final Vector3f playerLocation = gameLogicCore.getPlayerCharacter().getCharacterControl().getPhysicsLocation();
-
-        try (ExecutorService executorService = Executors.newSingleThreadExecutor()) {
-            executorService.execute(new Runnable() {
-                @Override
-                public void run() {
-                    if (context.treesNode == null) {
-                        context.treesNode = new Node();
-                        List<Spatial> quadForest = setupTrees();
-
-                        Stream<Spatial> stream = quadForest.stream();
-                        stream.forEach(treeNode -> {
-                            CollisionResults results = new CollisionResults();
-                            float y = playerLocation.y;
-                            if (y < Constants.WATER_LEVEL_HEIGHT)
-                                y = 0;
-
-                            Vector3f start = new Vector3f(playerLocation.x + Utils.getRandomNumberInRange(-2000, 2000), y + Utils.getRandomNumberInRange(0, 70), playerLocation.z + Utils.getRandomNumberInRange(-2000, 2000));
-                            Ray ray = new Ray(start, RAY_DOWN);
-
-                            quad.collideWith(ray, results);
-                            CollisionResult hit = results.getClosestCollision();
-                            if (hit != null) {
-                                if (hit.getContactPoint().y > Constants.WATER_LEVEL_HEIGHT) {
-                                    Vector3f plantLocation = new Vector3f(hit.getContactPoint().x, hit.getContactPoint().y, hit.getContactPoint().z);
-                                    treeNode.setLocalTranslation(plantLocation.x, plantLocation.y, plantLocation.z);
-                                    treeNode.setLocalRotation(new Quaternion().fromAngleAxis(Utils.getRandomNumberInRange(-6.5f, 6.5f) * FastMath.DEG_TO_RAD, new Vector3f(1, 0, 1)));
-
-                                    treeNode.setLocalRotation(new Quaternion().fromAngleAxis(Utils.getRandomNumberInRange(0f, 360f) * FastMath.DEG_TO_RAD, new Vector3f(0, 1, 0)));
-
-                                    context.treesNode.attachChild(treeNode);
-                                }
-                            }
-                        });
-                    }
-
-                    context.treesNode = (Node) GeometryBatchFactory.optimize(context.treesNode);
-                    context.treesNode.setShadowMode(RenderQueue.ShadowMode.Cast);
-                    context.treesNode.setCullHint(Spatial.CullHint.Dynamic);
-                    context.treesNode.updateModelBound();
-
-                    treesQueue.offer(context.treesNode);
-                }
-            });
-        }
+    public void removeTrees(TerrainQuad quad) {
+        gameLogicCore.getWorldTaskScheduler().cancel(quad);
 
-        quad.setUserData(Constants.QUAD_FOREST, context.treesNode);
+        Forest forest = quad.getUserData(Constants.QUAD_FOREST);
+        if (forest != null) {
+            gameLogicCore.getForestNode().detachChild(forest);
+            forestLod.unregister(forest);
+        }
     }
 
     @Override
@@ -354,7 +299,7 @@ public class InitializationDelegate implements InitializationDelegateInterface {
         this.setupNPCs();
         this.attachInitialNPCs();
         if(positionCharacters) {
-            this.positionNPCs(gameLogicCore.getCharacterMap());
+            this.positionNPCs(gameLogicCore.getCharacterRegistry());
         }
         this.enableNPCsPhysics();
         if(positionCharacters) {
@@ -363,14 +308,19 @@ public class InitializationDelegate implements InitializationDelegateInterface {
     }
 
     @Override
-    public void positionNPCs(Map<Node, CharacterInterface> characterMap) {
+    public void positionNPCs(EntityRegistry<CharacterInterface> characterRegistry) {
         CharacterInterface playerCharacter = gameLogicCore.getPlayerCharacter();
         Vector3f playerPos = playerCharacter.getCharacterControl().getPhysicsLocation();
         playerPos.y = playerPos.y + 150;
-        for(CharacterInterface character: characterMap.values()) {
+
+        TerrainQuad terrain = gameLogicCore.getTerrainManager().getTerrain();
+        Vector3f playerCell = terrain instanceof TerrainGrid ? ((TerrainGrid) terrain).getCamCell(playerPos) : Vector3f.ZERO;
+        SplittableRandom random = gameLogicCore.getWorldSeed().getRandom(playerCell, WorldSeed.Layer.NPC, npcSpawnWave++);
+
+        for(CharacterInterface character: characterRegistry) {
             if(character.isInitializing()) {
                 CollisionResults results = new CollisionResults();
-                Vector3f adjustedPos = new Vector3f(playerPos.x + Utils.getRandomNumberInRange(-Constants.NPC_LOCATION_RANGE, Constants.NPC_LOCATION_RANGE), playerPos.y + 150, playerPos.z + Utils.getRandomNumberInRange(-Constants.NPC_LOCATION_RANGE, Constants.NPC_LOCATION_RANGE));
+                Vector3f adjustedPos = new Vector3f(playerPos.x + Utils.getRandomNumberInRange(random, -Constants.NPC_LOCATION_RANGE, Constants.NPC_LOCATION_RANGE), playerPos.y + 150, playerPos.z + Utils.getRandomNumberInRange(random, -Constants.NPC_LOCATION_RANGE, Constants.NPC_LOCATION_RANGE));
 
                 Ray ray = new Ray(adjustedPos, RAY_DOWN);
 
@@ -393,7 +343,7 @@ public class InitializationDelegate implements InitializationDelegateInterface {
     }
 
     public void enableNPCsPhysics() {
-        for(CharacterInterface character: gameLogicCore.getCharacterMap().values()) {
+        for(CharacterInterface character: gameLogicCore.getCharacterRegistry()) {
             if(character.isInitializing()) {
                 Utils.enableEntityPhysics(character);
             }
@@ -409,8 +359,10 @@ public class InitializationDelegate implements InitializationDelegateInterface {
         Node enemies = gameLogicCore.getEnemies();
         gameLogicCore.getRootNode().detachChild(enemies);
 
-        for(CharacterInterface character: gameLogicCore.getCharacterMap().values()) {
-            character.removeCharacter();
+        //removeCharacter takes the character out of the registry, the last one moves into its slot
+        EntityRegistry<CharacterInterface> characterRegistry = gameLogicCore.getCharacterRegistry();
+        for(int i = characterRegistry.size() - 1; i >= 0; i--) {
+            characterRegistry.getAt(i).removeCharacter();
         }
     }
 
@@ -428,7 +380,7 @@ public class InitializationDelegate implements InitializationDelegateInterface {
 
     @Override
     public void initNPCsComplete() {
-        for(CharacterInterface character: gameLogicCore.getCharacterMap().values()) {
+        for(CharacterInterface character: gameLogicCore.getCharacterRegistry()) {
             if(character.isInitializing()) {
                 character.setInitializing(false);
             }
@@ -436,11 +388,10 @@ public class InitializationDelegate implements InitializationDelegateInterface {
     }
 
     public void attachNPCs() {
-        for(CharacterInterface character: gameLogicCore.getCharacterMap().values()) {
+        for(CharacterInterface character: gameLogicCore.getCharacterRegistry()) {
             if(character.isInitializing()) {
                 character.spawn();
             }
         }
     }
-
-}
\ No newline at end of file
+}
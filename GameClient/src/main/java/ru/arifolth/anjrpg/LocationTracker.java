@@ -18,12 +18,17 @@
 
 package ru.arifolth.anjrpg;
 
+import com.jme3.math.Vector3f;
+import ru.arifolth.anjrpg.interfaces.AiLevelEnum;
+import ru.arifolth.anjrpg.interfaces.CharacterInterface;
 import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.EntityRegistry;
 import ru.arifolth.anjrpg.interfaces.GameLogicCoreInterface;
 import ru.arifolth.anjrpg.interfaces.TrackerInterface;
 
 public class LocationTracker implements TrackerInterface {
     private GameLogicCoreInterface gameLogicCore;
+    private final Vector3f playerLocation = new Vector3f(), location = new Vector3f();
 
     public LocationTracker(GameLogicCoreInterface gameLogicCore) {
         this.gameLogicCore = gameLogicCore;
@@ -38,11 +43,25 @@ public class LocationTracker implements TrackerInterface {
 
     private void checkNPCs() {
         //TODO: decide if we need to inject one more
-        if(gameLogicCore.getCharacterMap().size() < Constants.NPC_AMOUNT) {
+        if(gameLogicCore.getCharacterRegistry().size() < Constants.NPC_AMOUNT) {
             gameLogicCore.getInitializationDelegate().initializeNPCs(true);
         }
-        //TODO: freeze if far away from player
+        updateAiLevels();
         //TODO: check and remove if out of certain range (too far away)
     }
 
+    private void updateAiLevels() {
+        gameLogicCore.getPlayerCharacter().getCharacterControl().getPhysicsLocation(playerLocation);
+
+        EntityRegistry<CharacterInterface> characterRegistry = gameLogicCore.getCharacterRegistry();
+        for(int i = 0; i < characterRegistry.size(); i++) {
+            CharacterInterface character = characterRegistry.getAt(i);
+            if(character.isInitializing() || character.isDead())
+                continue;
+
+            float distance = character.getCharacterControl().getPhysicsLocation(location).distance(playerLocation);
+            character.setAiLevel(AiLevelEnum.forDistance(distance, character.getAiLevel()));
+        }
+    }
+
 }
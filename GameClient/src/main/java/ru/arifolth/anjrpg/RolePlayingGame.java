@@ -54,6 +54,7 @@ public abstract class RolePlayingGame extends SimpleApplication implements RoleP
     private FilterManagerInterface filterManager;
     protected BulletAppState bulletAppState;
     protected GameLogicCoreInterface gameLogicCore;
+    private final WorldSeed worldSeed = new WorldSeed(Constants.WORLD_SEED);
 
     public RolePlayingGame() {
         super(new FlyCamAppState(),
@@ -129,6 +130,14 @@ public abstract class RolePlayingGame extends SimpleApplication implements RoleP
         soundManager.update(tpf);
     }
 
+    @Override
+    public void destroy() {
+        if (gameLogicCore != null) {
+            gameLogicCore.cleanup();
+        }
+        super.destroy();
+    }
+
     void setupFilters() {
         filterManager = new FilterManager(assetManager, rootNode, viewPort, sky);
         filterManager.initialize();
@@ -180,7 +189,7 @@ public abstract class RolePlayingGame extends SimpleApplication implements RoleP
     }
 
     void setupSound() {
-        soundManager = new SoundManager(assetManager);
+        soundManager = new SoundManager(assetManager, listener);
         soundManager.initialize();
 //        setProgress(new Object(){}.getClass().getEnclosingMethod().getName());
     }
@@ -232,4 +241,9 @@ public abstract class RolePlayingGame extends SimpleApplication implements RoleP
     public String getVersion() {
         return version;
     }
+
+    @Override
+    public WorldSeed getWorldSeed() {
+        return worldSeed;
+    }
 }
@@ -0,0 +1,209 @@
+import com.jme3.animation.AnimControl;
+import com.jme3.animation.SkeletonControl;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.plugins.ClasspathLocator;
+import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
+import com.jme3.bullet.control.CharacterControl;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import ru.arifolth.anjrpg.interfaces.*;
+import ru.arifolth.anjrpg.models.NonPlayerCharacter;
+import ru.arifolth.anjrpg.models.PlayerCharacter;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless scene with Constants.NPC_AMOUNT NonPlayerCharacters chasing a player who walks in circles, ticked by AiScheduler,
+ * every NPC on full AI against the AI level of detail picked by AiLevelEnum.
+ * NPCs run their own sense, think and act steps and animate their ninja models, only the engine around them is left out:
+ * there is no physics space, so NPCs in it are moved by their walk direction the way it would, there are no sounds and no health bars.
+ * Rendering is not measured, NPCs skin on the GPU.
+ */
+public class AiLodBenchmark {
+    private static final int FRAMES = 1200;
+    private static final float TPF = 1 / 60f;
+    private static final float FRAME_BUDGET = 1000f / 60;
+    private static final float PLAYER_CIRCLE_RADIUS = 150f;
+
+    public static void main(String[] args) {
+        Logger.getLogger("").setLevel(Level.SEVERE);
+
+        AssetManager assetManager = new DesktopAssetManager(true);
+        assetManager.registerLocator("assets", ClasspathLocator.class);
+
+        checkHysteresis();
+
+        for (int pass = 0; pass < 2; pass++) {
+            //first pass warms up
+            float[] full = run(assetManager, false);
+            float[] lod = run(assetManager, true);
+            if (pass == 1) {
+                System.out.printf("%d NPCs, all full AI: %.2f ms average, %.2f ms 99th percentile frame%n", Constants.NPC_AMOUNT, average(full), percentile(full, 0.99f));
+                System.out.printf("%d NPCs, AI LOD: %.2f ms average, %.2f ms 99th percentile frame%n", Constants.NPC_AMOUNT, average(lod), percentile(lod, 0.99f));
+                check(average(lod) < average(full) * 0.85f, "AI LOD is not cheaper than full AI");
+                check(percentile(lod, 0.99f) < FRAME_BUDGET, "AI LOD frames do not fit into 60 fps");
+            }
+        }
+    }
+
+    private static float[] run(AssetManager assetManager, boolean lod) {
+        SplittableRandom random = new SplittableRandom(15);
+        Node rootNode = new Node("root");
+        Player player = new Player();
+        Vector3f playerLocation = new Vector3f();
+        Vector3f location = new Vector3f();
+        EntityRegistry<Npc> npcs = new EntityRegistry<>(Npc::getNode, Constants.NPC_AMOUNT);
+        for (int i = 0; i < Constants.NPC_AMOUNT; i++) {
+            Npc npc = new Npc(assetManager, player,
+                    new Vector3f((float) random.nextDouble(-Constants.NPC_LOCATION_RANGE, Constants.NPC_LOCATION_RANGE), 0,
+                            (float) random.nextDouble(-Constants.NPC_LOCATION_RANGE, Constants.NPC_LOCATION_RANGE)));
+            rootNode.attachChild(npc.getNode());
+            npcs.add(npc);
+        }
+
+        AiScheduler scheduler = new AiScheduler(Constants.AI_REDUCED_BUCKETS, ForkJoinPool.commonPool());
+        float[] frameTimes = new float[FRAMES];
+        long tickedAgents = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            float angle = frame * TPF * 0.2f;
+            playerLocation.set(FastMath.cos(angle) * PLAYER_CIRCLE_RADIUS, 0, FastMath.sin(angle) * PLAYER_CIRCLE_RADIUS);
+            player.getCharacterControl().setPhysicsLocation(playerLocation);
+
+            long start = System.nanoTime();
+            for (Npc npc : npcs) {
+                npc.move();
+                if (lod) {
+                    //what LocationTracker does
+                    npc.setAiLevel(AiLevelEnum.forDistance(npc.getCharacterControl().getPhysicsLocation(location).distance(playerLocation), npc.getAiLevel()));
+                }
+            }
+            scheduler.update(npcs, TPF);
+            rootNode.updateLogicalState(TPF);
+            rootNode.updateGeometricState();
+            frameTimes[frame] = (System.nanoTime() - start) / 1_000_000f;
+            tickedAgents += scheduler.getTickedAgents();
+        }
+
+        Map<AiLevelEnum, Integer> levels = new EnumMap<>(AiLevelEnum.class);
+        for (Npc npc : npcs) {
+            levels.merge(npc.getAiLevel(), 1, Integer::sum);
+        }
+        System.out.printf("  %s: %d NPCs ticked per frame, %.2f ms average AI time, levels %s%n",
+                lod ? "AI LOD" : "all full AI", tickedAgents / FRAMES, scheduler.getAverageAiTime(), levels);
+        if (lod) {
+            int skinnedReduced = 0;
+            for (Npc npc : npcs) {
+                //mid-range NPCs pose their skeletons themselves every few frames, the scene update skips them
+                boolean animatedByScene = npc.getCharacterModel().getControl(AnimControl.class).isEnabled();
+                check(animatedByScene == (npc.getAiLevel() == AiLevelEnum.FULL), npc.getAiLevel() + " NPC animation is not throttled");
+                //and they are skinned on their pose frames only, frozen ones are never skinned
+                boolean skinned = npc.getCharacterModel().getControl(SkeletonControl.class).isEnabled();
+                if (npc.getAiLevel() == AiLevelEnum.REDUCED) {
+                    skinnedReduced += skinned ? 1 : 0;
+                } else {
+                    check(skinned == (npc.getAiLevel() == AiLevelEnum.FULL), npc.getAiLevel() + " NPC skinning is not throttled");
+                }
+            }
+            check(skinnedReduced <= levels.getOrDefault(AiLevelEnum.REDUCED, 0) / 2, skinnedReduced + " mid-range NPCs skinned in one frame");
+            check(levels.size() == AiLevelEnum.values().length, "scene does not exercise every AI level: " + levels);
+            check(tickedAgents / FRAMES < Constants.NPC_AMOUNT / 2, "AI LOD ticks " + tickedAgents / FRAMES + " NPCs per frame");
+        }
+        return frameTimes;
+    }
+
+    private static void checkHysteresis() {
+        check(AiLevelEnum.forDistance(Constants.AI_FULL_DISTANCE - Constants.AI_LOD_HYSTERESIS - 1, AiLevelEnum.FROZEN) == AiLevelEnum.FULL, "close NPC does not wake up");
+        check(AiLevelEnum.forDistance(Constants.AI_FULL_DISTANCE + 1, AiLevelEnum.FULL) == AiLevelEnum.FULL, "NPC on the border drops out of full AI");
+        check(AiLevelEnum.forDistance(Constants.AI_FULL_DISTANCE - 1, AiLevelEnum.REDUCED) == AiLevelEnum.REDUCED, "NPC on the border flips to full AI");
+        check(AiLevelEnum.forDistance(Constants.AI_REDUCED_DISTANCE + 1, AiLevelEnum.REDUCED) == AiLevelEnum.REDUCED, "NPC on the border freezes");
+        check(AiLevelEnum.forDistance(Constants.AI_REDUCED_DISTANCE - 1, AiLevelEnum.FROZEN) == AiLevelEnum.FROZEN, "NPC on the border wakes up");
+        check(AiLevelEnum.forDistance(Constants.AI_REDUCED_DISTANCE * 2, AiLevelEnum.FULL) == AiLevelEnum.FROZEN, "far NPC does not freeze");
+    }
+
+    private static CharacterControl createCharacterControl() {
+        return new CharacterControl(new CapsuleCollisionShape(Constants.CHARACTER_RADIUS, Constants.CHARACTER_HEIGHT, 1), 0.8f);
+    }
+
+    /**
+     * NonPlayerCharacter set up without the game around it.
+     */
+    private static class Npc extends NonPlayerCharacter {
+        private final Vector3f location = new Vector3f();
+        private boolean inPhysicsSpace = true;
+
+        Npc(AssetManager assetManager, CharacterInterface player, Vector3f location) {
+            characterControl = createCharacterControl();
+            characterControl.setPhysicsLocation(location);
+            characterModel = assetManager.loadModel(getModel());
+            setUpCharacterNode();
+            initializeAnimation();
+            setPlayerCharacter(player);
+        }
+
+        /**
+         * What the physics space does with the walk direction, once per 60 Hz step.
+         */
+        void move() {
+            if (inPhysicsSpace) {
+                characterControl.setPhysicsLocation(characterControl.getPhysicsLocation(location).addLocal(characterControl.getWalkDirection()));
+            }
+        }
+
+        @Override
+        protected void addPhysixControl() {
+            inPhysicsSpace = true;
+        }
+
+        @Override
+        protected void removePhysixControl() {
+            inPhysicsSpace = false;
+        }
+
+        @Override
+        protected void playFootsteps(boolean running) {
+        }
+
+        @Override
+        protected void healthBarUpdate(float k) {
+        }
+
+        @Override
+        public void useWeapon() {
+            animationDelegate.attackAnimation();
+        }
+    }
+
+    private static class Player extends PlayerCharacter {
+        Player() {
+            characterControl = createCharacterControl();
+        }
+    }
+
+    private static float average(float[] values) {
+        float sum = 0;
+        for (float value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static float percentile(float[] values, float percentile) {
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) (sorted.length * percentile)];
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.shape.Box;
+import ru.arifolth.anjrpg.interfaces.EntityRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Churns entities in and out of the registry and checks it against a plain map: ids, dense iteration,
+ * lookup from a picked geometry and spawn/despawn events.
+ */
+public class EntityRegistryTest {
+    private static final int ROUNDS = 20_000;
+
+    public static void main(String[] args) {
+        SplittableRandom random = new SplittableRandom(17);
+        EntityRegistry<Node> registry = new EntityRegistry<>(node -> node, 4);
+        Map<Integer, Node> expected = new HashMap<>();
+        List<Integer> live = new ArrayList<>();
+        int[] events = new int[2];
+
+        registry.addListener(new EntityRegistry.Listener<>() {
+            @Override
+            public void spawned(int id, Node entity) {
+                check(registry.get(id) == entity, "entity is not registered yet when spawned");
+                events[0]++;
+            }
+
+            @Override
+            public void despawned(int id, Node entity) {
+                check(!registry.contains(id), "entity is still registered when despawned");
+                events[1]++;
+            }
+        });
+
+        for (int round = 0; round < ROUNDS; round++) {
+            if (live.isEmpty() || random.nextInt(3) > 0) {
+                Node entity = createEntity("entity" + round);
+                int id = registry.add(entity);
+                check(!expected.containsKey(id), "id " + id + " is given out twice");
+                expected.put(id, entity);
+                live.add(id);
+            } else {
+                int id = live.remove(random.nextInt(live.size()));
+                Node entity = expected.remove(id);
+                Geometry geometry = getGeometry(entity);
+                check(registry.remove(entity), "entity " + id + " could not be removed");
+                check(registry.find(geometry) == null, "removed entity is still found by its geometry");
+                check(!registry.remove(id), "entity " + id + " removed twice");
+            }
+
+            if (round % 100 == 0) {
+                checkContents(registry, expected);
+            }
+        }
+        checkContents(registry, expected);
+        check(events[0] - events[1] == registry.size(), "spawn and despawn events do not add up");
+
+        //a geometry attached after registration is found through its parents
+        Node entity = expected.values().iterator().next();
+        Geometry late = new Geometry("late", new Box(1, 1, 1));
+        entity.attachChild(late);
+        check(registry.find(late) == entity, "late geometry does not lead to its entity");
+        check(registry.find(new Geometry("stray", new Box(1, 1, 1))) == null, "stray geometry leads to an entity");
+
+        System.out.printf("%d entities live after %d rounds, %d spawned, %d despawned%n", registry.size(), ROUNDS, events[0], events[1]);
+    }
+
+    private static Node createEntity(String name) {
+        //same shape as a character: node, model node, geometry
+        Node entity = new Node(name);
+        Node model = new Node(name + " model");
+        model.attachChild(new Geometry(name + " geometry", new Box(1, 1, 1)));
+        entity.attachChild(model);
+        return entity;
+    }
+
+    private static Geometry getGeometry(Node entity) {
+        return (Geometry) ((Node) entity.getChild(0)).getChild(0);
+    }
+
+    private static void checkContents(EntityRegistry<Node> registry, Map<Integer, Node> expected) {
+        check(registry.size() == expected.size(), "registry holds " + registry.size() + " entities, expected " + expected.size());
+
+        Set<Node> iterated = new HashSet<>();
+        for (int i = 0; i < registry.size(); i++) {
+            Node entity = registry.getAt(i);
+            int id = registry.getIdAt(i);
+            check(expected.get(id) == entity, "entity at index " + i + " does not match its id " + id);
+            check(registry.getId(entity) == id, "entity " + id + " does not carry its id");
+            check(registry.find(getGeometry(entity)) == entity, "geometry of entity " + id + " does not lead to it");
+            iterated.add(entity);
+        }
+        check(iterated.size() == expected.size(), "dense iteration repeats entities");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
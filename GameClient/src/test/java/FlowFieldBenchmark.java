@@ -0,0 +1,262 @@
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.NavigationGrid;
+import ru.arifolth.anjrpg.interfaces.PathfindingService;
+import ru.arifolth.anjrpg.models.FlowField;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Checks that walking the flow field leads to the target along shortest paths, then compares the cost of pursuit
+ * through the shared field with a path query per pursuer while the target walks around and the crowd grows.
+ */
+public class FlowFieldBenchmark {
+    private static final float TILE_SIZE = 2048;
+    private static final int TREES = 3000;
+    private static final int[] PURSUERS = {1, 10, 100, 500, 2000};
+    private static final int FRAMES = 600;
+    private static final float TPF = 1 / 60f;
+    //world units per frame
+    private static final float TARGET_SPEED = 0.3f;
+    private static final float PURSUER_SPEED = 0.25f;
+
+    public static void main(String[] args) {
+        NavigationGrid grid = new NavigationGrid(Constants.NAV_CELL_SIZE, Constants.NAV_CHUNK_LIMIT);
+        SplittableRandom random = new SplittableRandom(20);
+        grid.addArea(0, 0, TILE_SIZE, TILE_SIZE, (x, z) -> 0, Constants.NAV_MAX_SLOPE);
+        for (int i = 0; i < TREES; i++) {
+            grid.block((float) random.nextDouble(0, TILE_SIZE), (float) random.nextDouble(0, TILE_SIZE), Constants.NAV_TREE_RADIUS);
+        }
+        //a wall with a gap, pursuers on the far side have to go around
+        for (float z = 800; z < 1300; z += 2) {
+            if (Math.abs(z - 1150) > 10) {
+                grid.block(1100, z, Constants.NAV_TREE_RADIUS);
+            }
+        }
+
+        checkShortestPaths(grid, random);
+
+        //path queries stay within the node budget of the service, a crowd makes pursuers wait for their paths instead
+        System.out.println("pursuers  flow field ms/frame  steered  path queries ms/frame  steered");
+        float[][] flow = new float[PURSUERS.length][];
+        float[][] paths = new float[PURSUERS.length][];
+        for (int i = 0; i < PURSUERS.length; i++) {
+            flow[i] = measureFlowField(grid, PURSUERS[i]);
+            paths[i] = measurePathQueries(grid, PURSUERS[i]);
+            System.out.printf("%8d  %19.3f  %6.0f%%  %21.3f  %6.0f%%%n", PURSUERS[i], flow[i][0], flow[i][1] * 100, paths[i][0], paths[i][1] * 100);
+        }
+
+        int last = PURSUERS.length - 1;
+        check(flow[last][0] < flow[0][0] * 3, "flow field pursuit costs about the same for " + PURSUERS[last] + " pursuers as for one");
+        check(flow[last][1] > paths[last][1], "flow field steers more pursuers than a path query per pursuer");
+        System.out.println("Flow field checks passed");
+    }
+
+    private static void checkShortestPaths(NavigationGrid grid, SplittableRandom random) {
+        FlowField field = new FlowField(grid, Constants.FLOW_FIELD_SIZE, Constants.FLOW_FIELD_BUDGET);
+        Vector3f target = new Vector3f(1150, 0, 1150);
+        int frames = build(field, target);
+        int expectedFrames = (field.getLastBuildExpansions() + Constants.FLOW_FIELD_BUDGET - 1) / Constants.FLOW_FIELD_BUDGET;
+        check(frames == expectedFrames, "build took " + frames + " frames for " + field.getLastBuildExpansions() + " expansions");
+
+        int targetX = grid.getCell(target.x);
+        int targetZ = grid.getCell(target.z);
+        Vector3f location = new Vector3f();
+        Vector3f direction = new Vector3f();
+        int reachable = 0;
+        for (int i = 0; i < 200; i++) {
+            location.set(target.x + (float) random.nextDouble(-250, 250), 0, target.z + (float) random.nextDouble(-250, 250));
+            int x = grid.getCell(location.x);
+            int z = grid.getCell(location.z);
+            float expected = dijkstra(grid, x, z, targetX, targetZ, field.getSize());
+            if (expected < 0 || (x == targetX && z == targetZ)) {
+                check(!grid.isWalkable(x, z) || x == targetX && z == targetZ || !field.getDirection(location, direction), "unreachable cell has no direction");
+                continue;
+            }
+
+            float length = 0;
+            while (x != targetX || z != targetZ) {
+                check(field.getDirection(location.set(grid.getCenter(x), 0, grid.getCenter(z)), direction), "cell on the way has a direction");
+                int dx = Math.round(Math.signum(direction.x));
+                int dz = Math.round(Math.signum(direction.z));
+                if (dx != 0 && dz != 0) {
+                    check(grid.isWalkable(x + dx, z) || x + dx == targetX && z == targetZ, "no cutting corners");
+                    check(grid.isWalkable(x, z + dz) || x == targetX && z + dz == targetZ, "no cutting corners");
+                    length += FastMath.sqrt(2);
+                } else {
+                    length += 1;
+                }
+                x += dx;
+                z += dz;
+                check(length < 10_000, "walking the field ends at the target");
+            }
+            check(Math.abs(length - expected) < 1e-3f, "field path costs " + length + ", shortest is " + expected);
+            reachable++;
+        }
+        check(reachable > 100, "most random cells reach the target, got " + reachable);
+
+        //target moving to the next cell keeps the old field in use until the new one is complete
+        location.set(target.x + 100, 0, target.z + 100);
+        target.x += Constants.NAV_CELL_SIZE;
+        field.update(target);
+        check(field.getBuilds() == 1 && field.getDirection(location, direction), "old field is sampled during the rebuild");
+        build(field, target);
+        check(field.getBuilds() == 2, "field is rebuilt for the new target cell");
+        System.out.printf("field of %d cells built in %d frames, %d expansions%n", field.getSize() * field.getSize(), field.getLastBuildFrames(), field.getLastBuildExpansions());
+    }
+
+    private static int build(FlowField field, Vector3f target) {
+        long builds = field.getBuilds();
+        int frames = 0;
+        while (field.getBuilds() == builds) {
+            field.update(target);
+            frames++;
+        }
+        return frames;
+    }
+
+    //milliseconds per frame to update the shared field and steer every pursuer with it, and the share of pursuers steered
+    private static float[] measureFlowField(NavigationGrid grid, int pursuers) {
+        FlowField field = new FlowField(grid, Constants.FLOW_FIELD_SIZE, Constants.FLOW_FIELD_BUDGET);
+        Vector3f target = new Vector3f();
+        Vector3f[] locations = spawn(pursuers);
+        Vector3f direction = new Vector3f();
+
+        long time = 0;
+        long steered = 0;
+        for (int frame = 0; frame < FRAMES * 2; frame++) {
+            moveTarget(target, frame);
+            long start = System.nanoTime();
+            field.update(target);
+            for (Vector3f location : locations) {
+                if (field.getDirection(location, direction)) {
+                    location.addLocal(direction.x * PURSUER_SPEED, 0, direction.z * PURSUER_SPEED);
+                    steered++;
+                }
+            }
+            //first half warms up
+            if (frame >= FRAMES) {
+                time += System.nanoTime() - start;
+            } else {
+                steered = 0;
+            }
+        }
+        return new float[]{time / 1_000_000f / FRAMES, (float) steered / FRAMES / pursuers};
+    }
+
+    //the same with a path query per pursuer, a new one once the target changes cell
+    private static float[] measurePathQueries(NavigationGrid grid, int pursuers) {
+        PathfindingService service = new PathfindingService(grid, Constants.NAV_NODE_BUDGET, Constants.NAV_SEARCH_WINDOW, Constants.NAV_PATH_CACHE_TIME);
+        Vector3f target = new Vector3f();
+        Vector3f[] locations = spawn(pursuers);
+        PathfindingService.Request[] paths = new PathfindingService.Request[pursuers];
+        int targetX = Integer.MIN_VALUE;
+        int targetZ = Integer.MIN_VALUE;
+
+        long time = 0;
+        long steered = 0;
+        for (int frame = 0; frame < FRAMES * 2; frame++) {
+            moveTarget(target, frame);
+            long start = System.nanoTime();
+            boolean moved = grid.getCell(target.x) != targetX || grid.getCell(target.z) != targetZ;
+            targetX = grid.getCell(target.x);
+            targetZ = grid.getCell(target.z);
+            for (int i = 0; i < pursuers; i++) {
+                if (moved) {
+                    if (paths[i] != null) {
+                        paths[i].cancel();
+                    }
+                    paths[i] = service.request(locations[i], target);
+                }
+                if (paths[i].getStatus() == PathfindingService.Status.FOUND && paths[i].getWaypointCount() > 1) {
+                    float dx = paths[i].getWaypointX(1) - locations[i].x;
+                    float dz = paths[i].getWaypointZ(1) - locations[i].z;
+                    float length = FastMath.sqrt(dx * dx + dz * dz);
+                    if (length > PURSUER_SPEED) {
+                        locations[i].addLocal(dx / length * PURSUER_SPEED, 0, dz / length * PURSUER_SPEED);
+                    }
+                    steered++;
+                }
+            }
+            service.update(TPF);
+            if (frame >= FRAMES) {
+                time += System.nanoTime() - start;
+            } else {
+                steered = 0;
+            }
+        }
+        return new float[]{time / 1_000_000f / FRAMES, (float) steered / FRAMES / pursuers};
+    }
+
+    private static Vector3f[] spawn(int pursuers) {
+        SplittableRandom random = new SplittableRandom(pursuers);
+        Vector3f[] locations = new Vector3f[pursuers];
+        for (int i = 0; i < pursuers; i++) {
+            locations[i] = new Vector3f((float) random.nextDouble(900, 1400), 0, (float) random.nextDouble(900, 1400));
+        }
+        return locations;
+    }
+
+    //the target walks a circle around the middle of the tile
+    private static void moveTarget(Vector3f target, int frame) {
+        float angle = frame * TARGET_SPEED / 100f;
+        target.set(1150 + 100 * FastMath.cos(angle), 0, 1150 + 100 * FastMath.sin(angle));
+    }
+
+    //reference search over the region of the field, -1 when there is no path
+    private static float dijkstra(NavigationGrid grid, int startX, int startZ, int targetX, int targetZ, int size) {
+        int originX = targetX - size / 2;
+        int originZ = targetZ - size / 2;
+        if (startX < originX || startZ < originZ || startX >= originX + size || startZ >= originZ + size || !grid.isWalkable(startX, startZ)) {
+            return -1;
+        }
+
+        float[] distance = new float[size * size];
+        Arrays.fill(distance, Float.MAX_VALUE);
+        PriorityQueue<float[]> queue = new PriorityQueue<>((a, b) -> Float.compare(a[0], b[0]));
+        distance[(targetZ - originZ) * size + targetX - originX] = 0;
+        queue.add(new float[]{0, targetX - originX, targetZ - originZ});
+
+        while (!queue.isEmpty()) {
+            float[] entry = queue.poll();
+            int x = (int) entry[1];
+            int z = (int) entry[2];
+            if (entry[0] > distance[z * size + x]) {
+                continue;
+            }
+            if (x + originX == startX && z + originZ == startZ) {
+                return entry[0];
+            }
+            for (int nx = x - 1; nx <= x + 1; nx++) {
+                for (int nz = z - 1; nz <= z + 1; nz++) {
+                    if ((nx == x && nz == z) || nx < 0 || nz < 0 || nx >= size || nz >= size || !grid.isWalkable(nx + originX, nz + originZ)) {
+                        continue;
+                    }
+                    boolean diagonal = nx != x && nz != z;
+                    if (diagonal && (!isWalkable(grid, nx + originX, z + originZ, targetX, targetZ) || !isWalkable(grid, x + originX, nz + originZ, targetX, targetZ))) {
+                        continue;
+                    }
+                    float cost = entry[0] + (diagonal ? FastMath.sqrt(2) : 1);
+                    if (cost < distance[nz * size + nx]) {
+                        distance[nz * size + nx] = cost;
+                        queue.add(new float[]{cost, nx, nz});
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWalkable(NavigationGrid grid, int x, int z, int targetX, int targetZ) {
+        return (x == targetX && z == targetZ) || grid.isWalkable(x, z);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
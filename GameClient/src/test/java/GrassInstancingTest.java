@@ -0,0 +1,125 @@
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.shape.Quad;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.MainThreadQueue;
+import ru.arifolth.anjrpg.interfaces.SpatialHashGrid;
+import ru.arifolth.anjrpg.interfaces.WorldSeed;
+import ru.arifolth.vegetation.GrassField;
+import ru.arifolth.vegetation.GrassPatch;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Headless check of the streamed, instanced grass: chunks around the camera get planted,
+ * thinned out with the distance and recycled when the camera moves on.
+ */
+public class GrassInstancingTest {
+    private static final int TILE_SIZE = 1025;
+
+    public static void main(String[] args) {
+        Geometry blade = new Geometry("blade", new Quad(2, 2));
+        blade.updateModelBound();
+
+        Node grassNode = new Node("grass");
+        //this thread plays the render thread, the queue is drained by hand instead of the state manager
+        MainThreadQueue queue = new MainThreadQueue(2f, 64);
+        SpatialHashGrid<Spatial> vegetationGrid = new SpatialHashGrid<>(Constants.VEGETATION_GRID_CELL_SIZE, 64);
+        GrassField grassField = new GrassField(grassNode, blade, new WorldSeed(42), queue, vegetationGrid);
+        grassField.addTile(createTile(0, 0));
+        grassField.addTile(createTile(1, 0));
+
+        long before = getUsedMemory();
+        long start = System.nanoTime();
+        int frames = stream(grassField, queue, new Vector3f(0, 0, 0));
+        float buildTime = (System.nanoTime() - start) / 1_000_000f;
+        long fieldMemory = getUsedMemory() - before;
+
+        int activeChunks = grassField.getActiveChunks();
+        int[] instances = countInstances(grassNode);
+        check(activeChunks > 0, "no grass chunks around the camera");
+        check(countPatches(grassNode) == activeChunks, "every active chunk should be attached");
+        check(vegetationGrid.size() == activeChunks, "every active chunk should be in the vegetation grid");
+        check(instances[1] < instances[0], "distant chunks should be thinned out");
+
+        System.out.printf("%d chunks in %d frames, %.1f ms, %d of %d blades drawn, %.1f MB%n",
+                activeChunks, frames, buildTime, instances[1], instances[0], fieldMemory / 1e6);
+
+        //walk across the tile border, chunks left behind are reused
+        int peakChunks = grassField.getPatchesCreated();
+        for (int x = 0; x <= 2000; x += 100) {
+            stream(grassField, queue, new Vector3f(x, 0, 0));
+        }
+        check(grassField.getPatchesCreated() <= peakChunks + peakChunks / 2, "chunks are not recycled: " + grassField.getPatchesCreated() + " created");
+        check(countPatches(grassNode) == grassField.getActiveChunks(), "released chunks should be detached");
+        check(vegetationGrid.size() == grassField.getActiveChunks(), "released chunks should leave the vegetation grid");
+
+        System.out.printf("after walking 2000 units: %d chunks active, %d pooled, %d created%n",
+                grassField.getActiveChunks(), grassField.getPooledChunks(), grassField.getPatchesCreated());
+    }
+
+    private static TerrainQuad createTile(int cellX, int cellZ) {
+        TerrainQuad quad = new TerrainQuad("Quad" + cellX + "_" + cellZ, 65, TILE_SIZE, new float[TILE_SIZE * TILE_SIZE]);
+        Node terrain = new Node("terrain");
+        terrain.setLocalScale(2, 1, 2);
+        terrain.attachChild(quad);
+        quad.setLocalTranslation(cellX * (TILE_SIZE - 1), 0, cellZ * (TILE_SIZE - 1));
+        terrain.updateGeometricState();
+        return quad;
+    }
+
+    private static int stream(GrassField grassField, MainThreadQueue queue, Vector3f camera) {
+        int frames = 0;
+        do {
+            grassField.update(camera);
+            queue.update(1 / 60f);
+            frames++;
+        } while (grassField.getPendingChunks() > 0);
+        return frames;
+    }
+
+    private static int countPatches(Node grassNode) {
+        int[] patches = new int[1];
+        grassNode.depthFirstTraversal(spatial -> {
+            if (spatial instanceof GrassPatch) {
+                patches[0]++;
+            }
+        });
+        return patches[0];
+    }
+
+    //planted and drawn blades
+    private static int[] countInstances(Node grassNode) {
+        int[] instances = new int[2];
+        grassNode.depthFirstTraversal((Spatial spatial) -> {
+            if (spatial instanceof GrassPatch) {
+                instances[0] += ((GrassPatch) spatial).getNumInstances();
+                instances[1] += ((GrassPatch) spatial).getNumVisibleInstances();
+            }
+        });
+        return instances;
+    }
+
+    //heap plus direct buffers, instance data lives off heap
+    private static long getUsedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> "direct".equals(pool.getName()))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+        return runtime.totalMemory() - runtime.freeMemory() + direct;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.plugins.ClasspathLocator;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import ru.arifolth.anjrpg.interfaces.LodCache;
+import ru.arifolth.anjrpg.interfaces.LodUtils;
+import ru.arifolth.anjrpg.interfaces.SpatialHashGrid;
+import ru.arifolth.vegetation.Forest;
+import ru.arifolth.vegetation.ForestChunk;
+import ru.arifolth.vegetation.ForestLod;
+import ru.arifolth.vegetation.TreeTypeEnum;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless check of the forest LOD tiers: a tile worth of trees, the camera in one corner.
+ * Near chunks have to draw tree meshes, far ones only four vertices per tree,
+ * the ones in the fade band swap part of their trees from meshes to impostors.
+ */
+public class ImpostorLodTest {
+    private static final int TREES = 1500;
+    private static final float TILE_SIZE = 2048;
+    private static final float IMPOSTOR_DISTANCE = 384;
+    private static final float FADE_BAND = 128;
+    private static final float CHUNK_SIZE = 128;
+
+    public static void main(String[] args) throws IOException {
+        //tangent generation complains about every model vertex it can not fix
+        Logger.getLogger("").setLevel(Level.SEVERE);
+
+        DesktopAssetManager assetManager = new DesktopAssetManager(true);
+        assetManager.registerLocator("assets", ClasspathLocator.class);
+        LodUtils.setLodCache(new LodCache(Files.createTempDirectory("lod-cache")));
+        TreeTypeEnum.setAssetManager(assetManager);
+        EnumSet.allOf(TreeTypeEnum.class).forEach(TreeTypeEnum::init);
+        //no renderer, the atlases stay blank, but their quads are built all the same
+        EnumSet.allOf(TreeTypeEnum.class).forEach(treeType -> treeType.initImpostor(null));
+
+        SplittableRandom random = new SplittableRandom(7);
+        List<Spatial> trees = new ArrayList<>();
+        Quaternion rotation = new Quaternion();
+        for (int i = 0; i < TREES; i++) {
+            Node tree = TreeTypeEnum.getRandomTree(random);
+            tree.setLocalTranslation((float) random.nextDouble(TILE_SIZE), 0, (float) random.nextDouble(TILE_SIZE));
+            tree.setLocalRotation(rotation.fromAngleAxis((float) random.nextDouble(FastMath.TWO_PI), Vector3f.UNIT_Y));
+            trees.add(tree);
+        }
+        int meshVertices = countVertices(trees);
+
+        Camera camera = new Camera(640, 480);
+        camera.setLocation(new Vector3f(100, 10, 100));
+        Forest forest = new Forest("Forest", trees);
+        SpatialHashGrid<Spatial> vegetationGrid = new SpatialHashGrid<>(CHUNK_SIZE, 64);
+        ForestLod forestLod = new ForestLod(vegetationGrid, camera, IMPOSTOR_DISTANCE, FADE_BAND);
+        forestLod.register(forest);
+        forestLod.update();
+        check(vegetationGrid.size() == forest.getChunks().size(), "every chunk should be in the vegetation grid");
+        check(forest.getTreeLocations().length == TREES * 2, "forest should keep the location of every tree");
+        check(forest.getTreeLocations()[0] == trees.get(0).getLocalTranslation().x, "forest should keep tree locations in order");
+
+        int[] treeTier = new int[3];
+        int[] impostorTier = new int[3];
+        int[] chunks = new int[3];
+        int shadowCasters = 0;
+        int farShadowCasters = 0;
+        int farMeshVertices = 0;
+        int fadedMeshVertices = 0;
+        for (ForestChunk chunk : forest.getChunks()) {
+            int treeCount = countTrees(trees, chunk);
+            check(chunk.getImpostors().getVertexCount() == treeCount * 4, chunk.getName() + " should have a quad per tree");
+
+            int tier = !chunk.isImpostorsVisible() ? 0 : chunk.isTreesVisible() ? 1 : 2;
+            check(chunk.isTreesVisible() || chunk.isImpostorsVisible(), chunk.getName() + " draws nothing");
+            chunks[tier]++;
+            if (tier == 2) {
+                farMeshVertices += chunk.getTrees().getVertexCount();
+            }
+            for (Spatial step : chunk.getTrees().getChildren()) {
+                if (step.getCullHint() == Spatial.CullHint.Always) {
+                    if (tier == 1) {
+                        fadedMeshVertices += step.getVertexCount();
+                    }
+                    continue;
+                }
+                treeTier[tier] += step.getVertexCount();
+                if (step.getShadowMode() == RenderQueue.ShadowMode.Cast) {
+                    shadowCasters += step.getVertexCount();
+                    if (tier == 2) {
+                        farShadowCasters += step.getVertexCount();
+                    }
+                }
+            }
+            if (chunk.isImpostorsVisible()) {
+                impostorTier[tier] += chunk.getImpostors().getVertexCount();
+                check(chunk.getImpostors().getShadowMode() == RenderQueue.ShadowMode.Off, "impostors must not cast shadows");
+            }
+        }
+
+        ForestChunk underCamera = getChunk(forest, "0_0");
+        check(underCamera.isTreesVisible() && !underCamera.isImpostorsVisible(), "chunk under the camera should draw tree meshes only");
+        check(chunks[0] > 0 && treeTier[0] > 0, "chunks around the camera should draw tree meshes only");
+        check(chunks[2] > 0, "camera in a corner of the tile should see far chunks as impostors only");
+        check(fadedMeshVertices > 0, "tree meshes should fade out across the fade band");
+        check(farMeshVertices >= impostorTier[2] * 100, "impostors should cut vertices of far chunks by orders of magnitude");
+        check(farShadowCasters == 0, "far chunks must not cast shadows");
+        check(shadowCasters * 10 <= meshVertices, "shadow casters should shrink to the trees around the camera");
+
+        int drawn = treeTier[0] + treeTier[1] + impostorTier[1] + impostorTier[2];
+        System.out.printf("%d trees, %d mesh vertices, %.0f per tree%n", TREES, meshVertices, meshVertices / (float) TREES);
+        System.out.printf("mesh: %d chunks, %d mesh vertices%n", chunks[0], treeTier[0]);
+        System.out.printf("fade: %d chunks, %d mesh + %d impostor vertices%n", chunks[1], treeTier[1], impostorTier[1]);
+        System.out.printf("impostor: %d chunks, %d impostor vertices instead of %d mesh ones%n", chunks[2], impostorTier[2], farMeshVertices);
+        System.out.printf("drawn %d of %d vertices (%.1fx less), shadow casters %d (%.1fx less)%n",
+                drawn, meshVertices, meshVertices / (float) drawn, shadowCasters, meshVertices / (float) Math.max(shadowCasters, 1));
+
+        //walking into the far corner turns the tiers around
+        camera.setLocation(new Vector3f(TILE_SIZE - 100, 10, TILE_SIZE - 100));
+        forestLod.update();
+        ForestChunk leftBehind = getChunk(forest, "0_0");
+        check(!leftBehind.isTreesVisible() && leftBehind.isImpostorsVisible(), "chunk left behind should turn into impostors");
+        check(leftBehind.getFade() == 1, "chunk left behind should be faded out completely");
+        ForestChunk reached = getChunk(forest, "15_15");
+        check(reached.isTreesVisible() && !reached.isImpostorsVisible(), "chunk under the camera should draw tree meshes only");
+
+        forestLod.unregister(forest);
+        check(vegetationGrid.size() == 0, "unregistered chunks should leave the vegetation grid");
+    }
+
+    private static ForestChunk getChunk(Forest forest, String cell) {
+        for (ForestChunk chunk : forest.getChunks()) {
+            if (chunk.getName().endsWith(" " + cell)) {
+                return chunk;
+            }
+        }
+        throw new IllegalStateException("no chunk " + cell);
+    }
+
+    private static int countTrees(List<Spatial> trees, ForestChunk chunk) {
+        String[] cell = chunk.getName().substring(chunk.getName().lastIndexOf(' ') + 1).split("_");
+        int chunkX = Integer.parseInt(cell[0]);
+        int chunkZ = Integer.parseInt(cell[1]);
+        int count = 0;
+        for (Spatial tree : trees) {
+            if ((int) Math.floor(tree.getLocalTranslation().x / CHUNK_SIZE) == chunkX && (int) Math.floor(tree.getLocalTranslation().z / CHUNK_SIZE) == chunkZ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int countVertices(List<Spatial> trees) {
+        int vertices = 0;
+        for (Spatial tree : trees) {
+            vertices += tree.getVertexCount();
+        }
+        return vertices;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.plugins.ClasspathLocator;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.mesh.IndexBuffer;
+import ru.arifolth.anjrpg.interfaces.LodCache;
+import ru.arifolth.anjrpg.interfaces.LodUtils;
+import ru.arifolth.vegetation.GrassTypeEnum;
+import ru.arifolth.vegetation.TreeTypeEnum;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Times the vegetation part of TerrainManager.initialize() on a cold launch, with an empty LOD cache,
+ * against a warm one, where the LOD levels are only loaded. Every launch gets a fresh asset manager.
+ */
+public class LodCacheBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        //tangent generation complains about every model vertex it can not fix
+        Logger.getLogger("").setLevel(Level.SEVERE);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            Path cacheDirectory = Files.createTempDirectory("lod-cache");
+            try {
+                LodUtils.setLodCache(new LodCache(cacheDirectory));
+                float coldTime = launch();
+                List<int[]> coldLevels = getLodLevels();
+
+                LodUtils.setLodCache(new LodCache(cacheDirectory));
+                float warmTime = launch();
+                List<int[]> warmLevels = getLodLevels();
+
+                check(coldLevels.size() > 0, "no LOD levels were baked");
+                check(coldLevels.size() == warmLevels.size(), "cached models have a different number of LOD levels");
+                for (int i = 0; i < coldLevels.size(); i++) {
+                    check(Arrays.equals(coldLevels.get(i), warmLevels.get(i)), "cached LOD level " + i + " differs from the baked one");
+                }
+
+                System.out.printf("round %d: cold %.1f ms, warm %.1f ms, %d LOD levels, %d cache files%n",
+                        round, coldTime, warmTime, coldLevels.size(), countFiles(cacheDirectory));
+            } finally {
+                delete(cacheDirectory);
+            }
+        }
+    }
+
+    private static float launch() {
+        DesktopAssetManager assetManager = new DesktopAssetManager(true);
+        assetManager.registerLocator("assets", ClasspathLocator.class);
+        TreeTypeEnum.setAssetManager(assetManager);
+        GrassTypeEnum.setAssetManager(assetManager);
+
+        long start = System.nanoTime();
+        EnumSet.allOf(TreeTypeEnum.class).forEach(TreeTypeEnum::init);
+        EnumSet.allOf(GrassTypeEnum.class).forEach(GrassTypeEnum::init);
+        return (System.nanoTime() - start) / 1_000_000f;
+    }
+
+    //index data of every LOD level of every tree geometry
+    private static List<int[]> getLodLevels() {
+        List<int[]> levels = new ArrayList<>();
+        for (TreeTypeEnum treeType : TreeTypeEnum.values()) {
+            treeType.getTree(new SplittableRandom(0)).depthFirstTraversal(spatial -> {
+                if (spatial instanceof Geometry) {
+                    Mesh mesh = ((Geometry) spatial).getMesh();
+                    for (int level = 0; level < mesh.getNumLodLevels(); level++) {
+                        IndexBuffer indices = IndexBuffer.wrapIndexBuffer(mesh.getLodLevel(level).getData());
+                        int[] data = new int[indices.size()];
+                        for (int i = 0; i < data.length; i++) {
+                            data[i] = indices.get(i);
+                        }
+                        levels.add(data);
+                    }
+                }
+            });
+        }
+        return levels;
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
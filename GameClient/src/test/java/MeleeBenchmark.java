@@ -0,0 +1,161 @@
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.plugins.ClasspathLocator;
+import com.jme3.collision.CollisionResults;
+import com.jme3.math.FastMath;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.MeleeQuery;
+import ru.arifolth.anjrpg.interfaces.SpatialHashGrid;
+import ru.arifolth.anjrpg.models.PlayerCharacter;
+
+import java.util.SplittableRandom;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Times a melee swing with 1, 50 and 500 enemies around, resolved by a ray against the skinned enemy meshes
+ * the way PlayerCharacter.attack used to do it, and by MeleeQuery against the character grid.
+ * Also checks which proxies the swing arc hits, in a crowd too.
+ */
+public class MeleeBenchmark {
+    private static final int[] ENEMIES = {1, 50, 500};
+    private static final int ATTACKS = 20_000;
+    //ninja origin is at its feet, the ray went through the middle of the body
+    private static final float BODY_HEIGHT = 3f;
+
+    public static void main(String[] args) {
+        Logger.getLogger("").setLevel(Level.SEVERE);
+        checkArc();
+        checkCrowd();
+
+        AssetManager assetManager = new DesktopAssetManager(true);
+        assetManager.registerLocator("assets", ClasspathLocator.class);
+
+        float[] queryTimes = new float[ENEMIES.length];
+        for (int pass = 0; pass < 2; pass++) {
+            //first pass warms up
+            for (int i = 0; i < ENEMIES.length; i++) {
+                SplittableRandom random = new SplittableRandom(18);
+                Node enemies = new Node("enemies");
+                SpatialHashGrid<Spatial> grid = new SpatialHashGrid<>(Constants.SPATIAL_GRID_CELL_SIZE, ENEMIES[i]);
+                for (int enemy = 0; enemy < ENEMIES[i]; enemy++) {
+                    Spatial model = assetManager.loadModel(PlayerCharacter.PLAYER_CHARACTER_MODEL);
+                    Node npc = new Node("npc" + enemy);
+                    npc.attachChild(model);
+                    npc.setLocalTranslation((float) random.nextDouble(-Constants.NPC_LOCATION_RANGE, Constants.NPC_LOCATION_RANGE), 0,
+                            (float) random.nextDouble(-Constants.NPC_LOCATION_RANGE, Constants.NPC_LOCATION_RANGE));
+                    enemies.attachChild(npc);
+                    grid.insert(npc, npc.getLocalTranslation().x, 0, npc.getLocalTranslation().z);
+                }
+                enemies.updateGeometricState();
+
+                MeleeQuery<Spatial> query = new MeleeQuery<>(grid, Constants.MELEE_DISTANCE_LIMIT, Constants.MELEE_HALF_ANGLE, Constants.CHARACTER_RADIUS, Constants.CHARACTER_HEIGHT);
+                Predicate<Spatial> anyone = spatial -> true;
+                Vector3f origin = new Vector3f();
+                Vector3f direction = new Vector3f();
+
+                int rayHits = 0;
+                long start = System.nanoTime();
+                for (int attack = 0; attack < ATTACKS; attack++) {
+                    setAttack(attack, origin, direction);
+                    Ray ray = new Ray(origin.add(0, BODY_HEIGHT, 0), direction);
+                    ray.setLimit(Constants.MELEE_DISTANCE_LIMIT);
+                    CollisionResults results = new CollisionResults();
+                    enemies.collideWith(ray, results);
+                    if (results.size() > 0) {
+                        rayHits++;
+                    }
+                }
+                float rayTime = (System.nanoTime() - start) / (float) ATTACKS;
+
+                int queryHits = 0;
+                start = System.nanoTime();
+                for (int attack = 0; attack < ATTACKS; attack++) {
+                    setAttack(attack, origin, direction);
+                    if (query.findTarget(origin, direction, anyone) != null) {
+                        queryHits++;
+                    }
+                }
+                queryTimes[i] = (System.nanoTime() - start) / (float) ATTACKS;
+
+                if (pass == 1) {
+                    System.out.printf("%3d enemies: ray %8.0f ns per attack (%4.1f%% hit), melee query %5.0f ns per attack (%4.1f%% hit)%n",
+                            ENEMIES[i], rayTime, 100f * rayHits / ATTACKS, queryTimes[i], 100f * queryHits / ATTACKS);
+                }
+            }
+        }
+        //a denser crowd puts a few more candidates into the query, but nothing like the enemy count
+        check(queryTimes[ENEMIES.length - 1] < queryTimes[0] * 10, "melee query cost grows with the enemy count");
+    }
+
+    /**
+     * Attacker wanders over the crowd and swings in all directions.
+     */
+    private static void setAttack(int attack, Vector3f origin, Vector3f direction) {
+        float angle = attack * 0.37f;
+        origin.set(FastMath.sin(attack * 0.011f) * 50, 0, FastMath.cos(attack * 0.007f) * 50);
+        direction.set(FastMath.cos(angle), 0, FastMath.sin(angle));
+    }
+
+    private static void checkArc() {
+        SpatialHashGrid<String> grid = new SpatialHashGrid<>(Constants.SPATIAL_GRID_CELL_SIZE, 8);
+        MeleeQuery<String> query = new MeleeQuery<>(grid, Constants.MELEE_DISTANCE_LIMIT, Constants.MELEE_HALF_ANGLE, Constants.CHARACTER_RADIUS, Constants.CHARACTER_HEIGHT);
+        Predicate<String> anyone = name -> true;
+        Vector3f origin = new Vector3f();
+
+        grid.insert("ahead", 10, 0, 0);
+        grid.insert("close ahead", 6, 1, 0);
+        grid.insert("behind", -5, 0, 0);
+        grid.insert("side", 0, 0, 10);
+        grid.insert("far", 30, 0, 0);
+        grid.insert("above", 0, 20, -10);
+
+        check("close ahead".equals(query.findTarget(origin, Vector3f.UNIT_X, anyone)), "closest enemy ahead is not hit");
+        check("ahead".equals(query.findTarget(origin, Vector3f.UNIT_X, name -> !name.startsWith("close"))), "filter is not applied");
+        check("behind".equals(query.findTarget(origin, Vector3f.UNIT_X.negate(), anyone)), "enemy behind is not hit when facing it");
+        check("side".equals(query.findTarget(origin, new Vector3f(0.3f, 0, 1), anyone)), "enemy within the arc is not hit");
+        check(query.findTarget(origin, Vector3f.UNIT_Z.negate(), name -> !name.equals("above")) == null, "swing away from everyone hits");
+        check(query.findTarget(new Vector3f(20, 0, 0), Vector3f.UNIT_X, name -> name.equals("far")) != null, "enemy in reach is not hit");
+        check(query.findTarget(origin, Vector3f.UNIT_Z.negate(), name -> name.equals("above")) == null, "enemy far above is hit");
+        //proxy edge reaching into the arc
+        float edge = Constants.MELEE_HALF_ANGLE + FastMath.asin(Constants.CHARACTER_RADIUS / 10) - 0.01f;
+        check("ahead".equals(query.findTarget(origin, new Vector3f(FastMath.cos(edge), 0, FastMath.sin(edge)), name -> name.equals("ahead"))), "proxy edge in the arc is not hit");
+        edge += 0.02f;
+        check(query.findTarget(origin, new Vector3f(FastMath.cos(edge), 0, FastMath.sin(edge)), name -> name.equals("ahead")) == null, "proxy outside of the arc is hit");
+    }
+
+    /**
+     * More characters within reach than the query keeps candidates at first, the closest one in the arc still has to be hit.
+     */
+    private static void checkCrowd() {
+        SpatialHashGrid<String> grid = new SpatialHashGrid<>(Constants.SPATIAL_GRID_CELL_SIZE, 8);
+        MeleeQuery<String> query = new MeleeQuery<>(grid, Constants.MELEE_DISTANCE_LIMIT, Constants.MELEE_HALF_ANGLE, Constants.CHARACTER_RADIUS, Constants.CHARACTER_HEIGHT);
+        Vector3f origin = new Vector3f();
+        SplittableRandom random = new SplittableRandom(18);
+
+        grid.insert("attacker", 0, 0, 0);
+        //crowd behind and farther ahead, the target somewhere in between within the grid's lists
+        for (int i = 0; i < 300; i++) {
+            if (i == 150) {
+                grid.insert("target", 4, 0, 0);
+            }
+            boolean behind = random.nextBoolean();
+            grid.insert("crowd" + i, behind ? (float) random.nextDouble(-12, -2) : (float) random.nextDouble(6, 12), 0,
+                    (float) random.nextDouble(-2, 2));
+        }
+
+        check("target".equals(query.findTarget(origin, Vector3f.UNIT_X, name -> !name.equals("attacker"))), "closest enemy in a crowd is not hit");
+        check(query.findTarget(origin, Vector3f.UNIT_Z, name -> name.equals("target")) == null, "enemy outside of the arc is hit in a crowd");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
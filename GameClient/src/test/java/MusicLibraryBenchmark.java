@@ -0,0 +1,221 @@
+import com.jme3.asset.*;
+import com.jme3.audio.*;
+import ru.arifolth.anjrpg.interfaces.MusicTypeEnum;
+import ru.arifolth.sound.MusicLibrary;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares opening every music track at startup, like MusicTypeEnum used to, with the music library opening them
+ * on demand, then checks prefetching and releasing of streams, played or not, against a renderer closing streams like OpenAL does.
+ * There is no Vorbis decoder on the test classpath, ogg assets are loaded by a stand-in that takes as long to open
+ * and holds as much memory per stream as set below, so the numbers scale with the number of streams opened.
+ */
+public class MusicLibraryBenchmark {
+    private static final int OPEN_MILLIS = 20;
+    private static final int DECODER_BYTES = 256 * 1024;
+
+    private static final AtomicInteger openedStreams = new AtomicInteger();
+    private static final AtomicInteger closedStreams = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        AudioContext.setAudioRenderer(new StreamClosingRenderer());
+        AssetManager assetManager = new DesktopAssetManager(false);
+        assetManager.registerLocator("/", AnyTrackLocator.class);
+        assetManager.registerLoader(StandInOggLoader.class, "ogg");
+
+        long start = System.nanoTime();
+        EnumSet.allOf(MusicTypeEnum.class).forEach(MusicTypeEnum::init);
+        float registerTime = (System.nanoTime() - start) / 1_000_000f;
+        int tracks = 0;
+        for (MusicTypeEnum musicType : MusicTypeEnum.values()) {
+            tracks += MusicTypeEnum.getTracks(musicType).length;
+        }
+
+        //before, every track got a node with an open stream at startup
+        long heap = getUsedHeap();
+        start = System.nanoTime();
+        List<AudioNode> eager = new ArrayList<>();
+        for (MusicTypeEnum musicType : MusicTypeEnum.values()) {
+            for (String track : MusicTypeEnum.getTracks(musicType)) {
+                eager.add(new AudioNode(assetManager, track, AudioData.DataType.Stream));
+            }
+        }
+        float eagerTime = (System.nanoTime() - start) / 1_000_000f;
+        long eagerHeap = getUsedHeap() - heap;
+        int eagerStreams = getOpenStreams();
+        for (AudioNode audioNode : eager) {
+            ((AudioStream) audioNode.getAudioData()).close();
+        }
+        eager.clear();
+        check(getOpenStreams() == 0, "eager streams are closed");
+
+        //after, only track names get registered, a stream is opened once the menu asks for its music
+        heap = getUsedHeap();
+        MusicLibrary library = new MusicLibrary(assetManager);
+        start = System.nanoTime();
+        AudioNode menu = library.open(MusicTypeEnum.MENU);
+        float firstTrackTime = (System.nanoTime() - start) / 1_000_000f;
+        long lazyHeap = getUsedHeap() - heap;
+        check(library.getOpenStreams() == 1 && getOpenStreams() == 1, "one stream is open for the menu");
+
+        System.out.printf("%d tracks: opening all at startup %.1f ms, %d streams, %d KB; registering %.2f ms, first track %.1f ms, %d stream, %d KB%n",
+                tracks, eagerTime, eagerStreams, eagerHeap / 1024, registerTime, firstTrackTime, library.getOpenStreams(), lazyHeap / 1024);
+        check(eagerStreams == tracks, "every track was opened eagerly");
+        check(registerTime + firstTrackTime < eagerTime / 4, "startup opens a fraction of what it used to");
+        check(lazyHeap < eagerHeap / 4, "startup holds a fraction of the memory it used to");
+
+        //late day prefetches dusk music, switching to it does not wait for the decoder
+        library.prefetch(MusicTypeEnum.DUSK);
+        waitForStreams(library, 2);
+        start = System.nanoTime();
+        AudioNode dusk = library.open(MusicTypeEnum.DUSK);
+        float prefetchedTime = (System.nanoTime() - start) / 1_000_000f;
+        //menu music is still playing when it gets switched, stopping it closes the stream already
+        menu.play();
+        library.release(menu);
+        System.out.printf("prefetched track opened in %.2f ms%n", prefetchedTime);
+        check(library.getPrefetchHits() == 1 && prefetchedTime < OPEN_MILLIS / 2f, "prefetched track is taken without opening a stream");
+        check(library.getOpenStreams() == 1 && getOpenStreams() == 1, "released track closes its stream");
+
+        //a prefetch replaced by another one closes its stream, whether it is still opening or done
+        library.prefetch(MusicTypeEnum.DAWN);
+        library.prefetch(MusicTypeEnum.NIGHT);
+        waitForStreams(library, 2);
+        Thread.sleep(OPEN_MILLIS * 2);
+        check(getOpenStreams() == 2, "replaced prefetch is closed, got " + getOpenStreams() + " streams");
+        library.prefetch(MusicTypeEnum.DAY);
+        Thread.sleep(OPEN_MILLIS * 2);
+        check(getOpenStreams() == 2, "completed prefetch replaced by another is closed");
+
+        //dusk music played to its end, the renderer stops a stream at its end without closing it
+        dusk.play();
+        dusk.setStatus(AudioSource.Status.Stopped);
+        library.release(dusk);
+        library.release(library.open(MusicTypeEnum.DAY));
+        check(library.getPrefetchHits() == 2 && library.getOpenStreams() == 0 && getOpenStreams() == 0, "every stream is closed in the end");
+        System.out.println("Music library checks passed");
+    }
+
+    private static int getOpenStreams() {
+        return openedStreams.get() - closedStreams.get();
+    }
+
+    //until the library is done opening
+    private static void waitForStreams(MusicLibrary library, int streams) throws InterruptedException {
+        for (int i = 0; i < 100 && library.getOpenStreams() != streams; i++) {
+            Thread.sleep(OPEN_MILLIS);
+        }
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    public static class AnyTrackLocator implements AssetLocator {
+        @Override
+        public void setRootPath(String rootPath) {
+        }
+
+        @Override
+        public AssetInfo locate(AssetManager manager, AssetKey key) {
+            return new AssetInfo(manager, key) {
+                @Override
+                public InputStream openStream() {
+                    return new DecoderStream();
+                }
+            };
+        }
+    }
+
+    public static class StandInOggLoader implements AssetLoader {
+        @Override
+        public Object load(AssetInfo assetInfo) throws java.io.IOException {
+            InputStream in = assetInfo.openStream();
+            try {
+                //reading headers and setting the decoder up
+                Thread.sleep(OPEN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            AudioStream stream = new AudioStream();
+            stream.setupFormat(2, 16, 44100);
+            stream.updateData(in, 180);
+            return stream;
+        }
+    }
+
+    //stopping a playing source closes an unseekable stream the way ALAudioRenderer does
+    private static class StreamClosingRenderer implements AudioRenderer {
+        @Override
+        public void playSource(AudioSource source) {
+            source.setStatus(AudioSource.Status.Playing);
+        }
+
+        @Override
+        public void stopSource(AudioSource source) {
+            if (source.getStatus() == AudioSource.Status.Stopped) {
+                return;
+            }
+            source.setStatus(AudioSource.Status.Stopped);
+            if (source.getAudioData() instanceof AudioStream stream) {
+                if (stream.isSeekable()) {
+                    stream.setTime(0);
+                } else {
+                    stream.close();
+                }
+            }
+        }
+
+        @Override public void setListener(Listener listener) {}
+        @Override public void setEnvironment(Environment environment) {}
+        @Override public void playSourceInstance(AudioSource source) {}
+        @Override public void pauseSource(AudioSource source) {}
+        @Override public void updateSourceParam(AudioSource source, AudioParam param) {}
+        @Override public void updateListenerParam(Listener listener, ListenerParam param) {}
+        @Override public float getSourcePlaybackTime(AudioSource source) { return 0; }
+        @Override public void deleteFilter(Filter filter) {}
+        @Override public void deleteAudioData(AudioData audioData) {}
+        @Override public void initialize() {}
+        @Override public void update(float tpf) {}
+        @Override public void pauseAll() {}
+        @Override public void resumeAll() {}
+        @Override public void cleanup() {}
+    }
+
+    private static class DecoderStream extends InputStream {
+        private final byte[] state = new byte[DECODER_BYTES];
+        private boolean closed;
+
+        DecoderStream() {
+            openedStreams.incrementAndGet();
+        }
+
+        @Override
+        public int read() {
+            return state.length > 0 ? -1 : 0;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                closedStreams.incrementAndGet();
+            }
+        }
+    }
+}
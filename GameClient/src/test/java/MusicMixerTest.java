@@ -0,0 +1,238 @@
+import com.jme3.audio.*;
+import com.jme3.math.FastMath;
+import ru.arifolth.sound.MusicLibrary;
+import ru.arifolth.sound.MusicMixer;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs crossfades and ducking of the music mixer headless at several frame rates and checks volume against
+ * the scheduled curves, so fades take the same time whatever the frame rate.
+ * Tracks the mixer is done with are released by the music library, against a renderer closing streams like OpenAL does.
+ */
+public class MusicMixerTest {
+    private static final int[] FRAME_RATES = {30, 60, 144};
+    private static final float FADE_TIME = 2f;
+    private static final float VOLUME = 3f;
+    private static final float TOLERANCE = 1e-3f;
+    //nothing is opened through it, it only releases
+    private static final MusicLibrary LIBRARY = new MusicLibrary(null);
+    private static int closedStreams;
+    private static int releasedTracks;
+
+    public static void main(String[] args) {
+        AudioContext.setAudioRenderer(new StubRenderer());
+
+        float[] crossfadeEnds = new float[FRAME_RATES.length];
+        for (int i = 0; i < FRAME_RATES.length; i++) {
+            crossfadeEnds[i] = checkCrossfade(FRAME_RATES[i]);
+            checkDucking(FRAME_RATES[i]);
+        }
+        for (int i = 1; i < FRAME_RATES.length; i++) {
+            check(Math.abs(crossfadeEnds[i] - crossfadeEnds[0]) <= 1f / FRAME_RATES[0] + TOLERANCE,
+                    "crossfade lasts as long at " + FRAME_RATES[i] + " fps as at " + FRAME_RATES[0] + " fps");
+        }
+        checkBuses();
+        checkFinishedEvent();
+        check(closedStreams == releasedTracks, "every released track closed its stream once, " + closedStreams + " of " + releasedTracks);
+        System.out.println("Music mixer checks passed");
+    }
+
+    //returns the time the outgoing track was released at
+    private static float checkCrossfade(int fps) {
+        List<AudioNode> released = new ArrayList<>();
+        MusicMixer mixer = new MusicMixer(2, release(released));
+        mixer.setVolume(VOLUME);
+        AudioNode first = createTrack();
+        AudioNode second = createTrack();
+
+        mixer.crossfade(first, 0);
+        check(first.getVolume() == VOLUME, "track without a fade starts at full volume");
+        mixer.update(1 / (float) fps);
+
+        float start = mixer.getTime();
+        mixer.crossfade(second, FADE_TIME);
+        check(second.getStatus() == AudioSource.Status.Playing && second.getVolume() == 0, "incoming track starts silent");
+        float releasedAt = -1;
+        for (int frame = 0; frame < fps * 3; frame++) {
+            mixer.update(1 / (float) fps);
+            float progress = Math.min((mixer.getTime() - start) / FADE_TIME, 1f);
+            float incoming = FastMath.sin(progress * FastMath.HALF_PI);
+            float outgoing = FastMath.cos(progress * FastMath.HALF_PI);
+            check(Math.abs(second.getVolume() - VOLUME * incoming) < TOLERANCE, fps + " fps: incoming volume follows the sine at " + progress);
+            if (released.isEmpty()) {
+                check(Math.abs(first.getVolume() - VOLUME * outgoing) < TOLERANCE, fps + " fps: outgoing volume follows the cosine at " + progress);
+                //equal power, the sum of squared gains stays one
+                check(Math.abs(mixer.getGain(0) * mixer.getGain(0) + mixer.getGain(1) * mixer.getGain(1) - 1f) < TOLERANCE, "power stays constant");
+            } else if (releasedAt < 0) {
+                releasedAt = mixer.getTime() - start;
+            }
+        }
+        check(released.size() == 1 && released.get(0) == first, fps + " fps: outgoing track is released once silent");
+        check(first.getStatus() == AudioSource.Status.Stopped, fps + " fps: outgoing track is stopped");
+        check(releasedAt >= FADE_TIME - TOLERANCE && releasedAt < FADE_TIME + 1f / fps + TOLERANCE, fps + " fps: outgoing track is released when the fade ends, at " + releasedAt);
+        check(mixer.getCurrentTrack() == second && second.getVolume() == VOLUME, "incoming track ends at full volume");
+        return releasedAt;
+    }
+
+    private static void checkDucking(int fps) {
+        MusicMixer mixer = new MusicMixer(2, track -> { });
+        mixer.setVolume(VOLUME);
+        AudioNode track = createTrack();
+        mixer.crossfade(track, 0);
+
+        float attack = 0.1f, hold = 0.5f, release = 0.5f, level = 0.4f;
+        float start = mixer.getTime();
+        mixer.duck(level, attack, hold, release);
+        for (int frame = 0; frame < fps * 2; frame++) {
+            mixer.update(1 / (float) fps);
+            float elapsed = mixer.getTime() - start;
+            float expected;
+            if (elapsed < attack) {
+                expected = 1f + (level - 1f) * elapsed / attack;
+            } else if (elapsed < attack + hold) {
+                expected = level;
+            } else if (elapsed < attack + hold + release) {
+                expected = level + (1f - level) * (elapsed - attack - hold) / release;
+            } else {
+                expected = 1f;
+            }
+            check(Math.abs(track.getVolume() - VOLUME * expected) < TOLERANCE, fps + " fps: ducked volume at " + elapsed + " is " + track.getVolume() + ", expected " + VOLUME * expected);
+        }
+
+        //ducking again halfway through the release starts from where the gain is
+        mixer.duck(level, attack, hold, release);
+        mixer.update(attack + hold + release / 2);
+        float halfway = mixer.getDuckGain();
+        mixer.duck(0.2f, attack, hold, release);
+        check(mixer.getDuckGain() == halfway, "retriggered duck does not jump");
+        mixer.update(attack);
+        check(Math.abs(mixer.getDuckGain() - 0.2f) < TOLERANCE, "retriggered duck reaches its level");
+    }
+
+    private static void checkBuses() {
+        List<AudioNode> released = new ArrayList<>();
+        MusicMixer mixer = new MusicMixer(2, release(released));
+        AudioNode first = createTrack();
+        AudioNode second = createTrack();
+        AudioNode third = createTrack();
+        mixer.crossfade(first, 0);
+        mixer.crossfade(second, FADE_TIME);
+        mixer.update(FADE_TIME / 4);
+
+        //both buses are busy, the quietest one is cut short
+        mixer.crossfade(third, FADE_TIME);
+        check(released.size() == 1 && released.get(0) == second, "quietest bus makes way for the new track");
+        mixer.update(FADE_TIME);
+        check(released.size() == 2 && released.get(1) == first, "the other track fades out");
+        check(mixer.getCurrentTrack() == third, "new track is current");
+
+        //no track fades everything out
+        mixer.crossfade(null, FADE_TIME);
+        mixer.update(FADE_TIME);
+        check(released.size() == 3 && mixer.getCurrentTrack() == null, "music fades out");
+
+        released.clear();
+        MusicMixer wide = new MusicMixer(3, release(released));
+        wide.crossfade(createTrack(), 0);
+        wide.crossfade(createTrack(), FADE_TIME);
+        wide.update(FADE_TIME / 4);
+        wide.crossfade(createTrack(), FADE_TIME);
+        check(released.isEmpty() && wide.getGain(0) > 0 && wide.getGain(1) > 0, "a third bus keeps both outgoing tracks fading");
+    }
+
+    private static void checkFinishedEvent() {
+        int[] finished = new int[1];
+        List<AudioNode> released = new ArrayList<>();
+        MusicMixer mixer = new MusicMixer(2, release(released));
+        mixer.setListener(() -> finished[0]++);
+        AudioNode outgoing = createTrack();
+        AudioNode current = createTrack();
+        mixer.crossfade(outgoing, 0);
+        mixer.crossfade(current, FADE_TIME);
+
+        //a fading out track ending is not an event, the renderer stops a stream at its end without closing it
+        outgoing.setStatus(AudioSource.Status.Stopped);
+        mixer.update(0.1f);
+        check(finished[0] == 0 && released.contains(outgoing), "outgoing track ending is released silently");
+
+        current.setStatus(AudioSource.Status.Stopped);
+        mixer.update(0.1f);
+        mixer.update(0.1f);
+        check(finished[0] == 1 && released.contains(current) && mixer.getCurrentTrack() == null, "current track ending fires one event");
+    }
+
+    private static Consumer<AudioNode> release(List<AudioNode> released) {
+        return track -> {
+            LIBRARY.release(track);
+            released.add(track);
+            releasedTracks++;
+        };
+    }
+
+    private static AudioNode createTrack() {
+        AudioStream stream = new AudioStream();
+        stream.setupFormat(2, 16, 44100);
+        //unseekable, like an ogg stream that is not cached
+        stream.updateData(new ByteArrayInputStream(new byte[0]) {
+            @Override
+            public void close() {
+                closedStreams++;
+            }
+        }, 180);
+        AudioNode track = new AudioNode(stream, new AudioKey("track", true, false));
+        track.setPositional(false);
+        return track;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    //plays sources until told to stop, stopping a playing source closes an unseekable stream the way ALAudioRenderer does
+    private static class StubRenderer implements AudioRenderer {
+        private int channels;
+
+        @Override
+        public void playSource(AudioSource source) {
+            source.setChannel(channels++);
+            source.setStatus(AudioSource.Status.Playing);
+        }
+
+        @Override
+        public void stopSource(AudioSource source) {
+            if (source.getStatus() == AudioSource.Status.Stopped) {
+                return;
+            }
+            source.setStatus(AudioSource.Status.Stopped);
+            source.setChannel(-1);
+            if (source.getAudioData() instanceof AudioStream stream) {
+                if (stream.isSeekable()) {
+                    stream.setTime(0);
+                } else {
+                    stream.close();
+                }
+            }
+        }
+
+        @Override public void setListener(Listener listener) {}
+        @Override public void setEnvironment(Environment environment) {}
+        @Override public void playSourceInstance(AudioSource source) {}
+        @Override public void pauseSource(AudioSource source) {}
+        @Override public void updateSourceParam(AudioSource source, AudioParam param) {}
+        @Override public void updateListenerParam(Listener listener, ListenerParam param) {}
+        @Override public float getSourcePlaybackTime(AudioSource source) { return 0; }
+        @Override public void deleteFilter(Filter filter) {}
+        @Override public void deleteAudioData(AudioData audioData) {}
+        @Override public void initialize() {}
+        @Override public void update(float tpf) {}
+        @Override public void pauseAll() {}
+        @Override public void resumeAll() {}
+        @Override public void cleanup() {}
+    }
+}
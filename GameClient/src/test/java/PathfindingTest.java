@@ -0,0 +1,245 @@
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.NavigationGrid;
+import ru.arifolth.anjrpg.interfaces.PathfindingService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Rasterizes a synthetic tile with a lake, a steep ridge and trees, then checks paths of the time sliced service
+ * against Dijkstra over the same search window, the per-frame node budget and reuse of searches for a shared goal.
+ */
+public class PathfindingTest {
+    private static final float TILE_SIZE = 2048;
+    private static final int REQUESTS = 300;
+    private static final int SHARED_GOAL_REQUESTS = 100;
+    private static final int TREES = 3000;
+    private static final float TPF = 1 / 60f;
+
+    public static void main(String[] args) {
+        NavigationGrid grid = new NavigationGrid(Constants.NAV_CELL_SIZE, Constants.NAV_CHUNK_LIMIT);
+        SplittableRandom random = new SplittableRandom(19);
+        //trees blocked before the terrain got rasterized must stay blocked
+        for (int i = 0; i < TREES / 2; i++) {
+            grid.block((float) random.nextDouble(0, TILE_SIZE), (float) random.nextDouble(0, TILE_SIZE), Constants.NAV_TREE_RADIUS);
+        }
+        grid.addArea(0, 0, TILE_SIZE, TILE_SIZE, PathfindingTest::getHeight, Constants.NAV_MAX_SLOPE);
+        for (int i = 0; i < TREES / 2; i++) {
+            grid.block((float) random.nextDouble(0, TILE_SIZE), (float) random.nextDouble(0, TILE_SIZE), Constants.NAV_TREE_RADIUS);
+        }
+
+        check(!grid.isWalkable(grid.getCell(600), grid.getCell(600)), "lake is blocked");
+        check(!grid.isWalkable(grid.getCell(1000), grid.getCell(400)), "ridge is blocked");
+        check(!grid.isWalkable(grid.getCell(-10), grid.getCell(10)), "cells outside of the tile are unknown");
+        //trunk between cell centers, farther than the tree radius from all of them
+        NavigationGrid open = new NavigationGrid(Constants.NAV_CELL_SIZE, Constants.NAV_CHUNK_LIMIT);
+        open.addArea(0, 0, 100, 100, (x, z) -> 0, Constants.NAV_MAX_SLOPE);
+        open.block(4 * Constants.NAV_CELL_SIZE, 4 * Constants.NAV_CELL_SIZE, Constants.NAV_TREE_RADIUS);
+        check(!open.isWalkable(4, 4), "cell containing the trunk is not blocked");
+
+        //chunks farthest from the last rasterized area go first
+        NavigationGrid small = new NavigationGrid(Constants.NAV_CELL_SIZE, 2);
+        small.addArea(0, 0, 100, 100, (x, z) -> 0, Constants.NAV_MAX_SLOPE);
+        small.addArea(TILE_SIZE, 0, TILE_SIZE + 100, 100, (x, z) -> 0, Constants.NAV_MAX_SLOPE);
+        small.addArea(TILE_SIZE * 3, 0, TILE_SIZE * 3 + 100, 100, (x, z) -> 0, Constants.NAV_MAX_SLOPE);
+        check(small.getChunkCount() == 2, "grid keeps 2 chunks, got " + small.getChunkCount());
+        check(!small.isWalkable(0, 0) && small.isWalkable(small.getCell(TILE_SIZE), 0), "farthest chunk is evicted");
+
+        PathfindingService service = new PathfindingService(grid, Constants.NAV_NODE_BUDGET, Constants.NAV_SEARCH_WINDOW, Constants.NAV_PATH_CACHE_TIME);
+
+        //random pairs within the search window
+        List<Vector3f[]> pairs = new ArrayList<>();
+        List<PathfindingService.Request> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            Vector3f start = new Vector3f((float) random.nextDouble(100, TILE_SIZE - 100), 0, (float) random.nextDouble(100, TILE_SIZE - 100));
+            Vector3f goal = start.add((float) random.nextDouble(-250, 250), 0, (float) random.nextDouble(-250, 250));
+            pairs.add(new Vector3f[]{start, goal});
+            requests.add(service.request(start, goal));
+        }
+        int frames = run(service);
+
+        int found = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            Vector3f start = pairs.get(i)[0];
+            Vector3f goal = pairs.get(i)[1];
+            PathfindingService.Request request = requests.get(i);
+            float expected = dijkstra(grid, grid.getCell(start.x), grid.getCell(start.z), grid.getCell(goal.x), grid.getCell(goal.z));
+            if (expected < 0) {
+                check(request.getStatus() == PathfindingService.Status.FAILED, "request " + i + " has no path, got " + request.getStatus());
+                continue;
+            }
+            check(request.getStatus() == PathfindingService.Status.FOUND, "request " + i + " has a path, got " + request.getStatus());
+            float length = walk(grid, request, grid.getCell(start.x), grid.getCell(start.z), grid.getCell(goal.x), grid.getCell(goal.z));
+            check(Math.abs(length - expected) < 1e-3f, "request " + i + " path costs " + length + ", shortest is " + expected);
+            found++;
+        }
+        check(found > REQUESTS / 2, "most requests have a path, found " + found);
+        System.out.printf("%d random paths, %d found, in %d frames, %.0f expansions per search%n", REQUESTS, found, frames, service.getAverageExpansions());
+
+        //NPCs chasing the player share the goal, most of them get their path without a search of their own
+        long searches = service.getSearches();
+        long cacheHits = service.getCacheHits();
+        Vector3f player = new Vector3f(1500, 0, 1500);
+        List<PathfindingService.Request> chasing = new ArrayList<>();
+        for (int i = 0; i < SHARED_GOAL_REQUESTS; i++) {
+            Vector3f start = player.add((float) random.nextDouble(-100, 100), 0, (float) random.nextDouble(-100, 100));
+            chasing.add(service.request(start, player));
+            pairs.add(new Vector3f[]{start, player});
+        }
+        run(service);
+        for (int i = 0; i < SHARED_GOAL_REQUESTS; i++) {
+            Vector3f start = pairs.get(REQUESTS + i)[0];
+            float expected = dijkstra(grid, grid.getCell(start.x), grid.getCell(start.z), grid.getCell(player.x), grid.getCell(player.z));
+            PathfindingService.Request request = chasing.get(i);
+            if (expected >= 0) {
+                check(request.getStatus() == PathfindingService.Status.FOUND, "chasing request " + i + " has a path");
+                float length = walk(grid, request, grid.getCell(start.x), grid.getCell(start.z), grid.getCell(player.x), grid.getCell(player.z));
+                check(Math.abs(length - expected) < 1e-3f, "chasing request " + i + " path costs " + length + ", shortest is " + expected);
+            }
+        }
+        long sharedSearches = service.getSearches() - searches;
+        System.out.printf("%d requests for a shared goal took %d searches, %d cache hits%n", SHARED_GOAL_REQUESTS, sharedSearches, service.getCacheHits() - cacheHits);
+        check(sharedSearches < SHARED_GOAL_REQUESTS / 4, "shared goal requests reuse searches, took " + sharedSearches);
+
+        //found paths are reused by a later request starting on them
+        PathfindingService.Request first = chasing.get(0);
+        Vector3f onPath = new Vector3f(first.getWaypointX(first.getWaypointCount() / 2), 0, first.getWaypointZ(first.getWaypointCount() / 2));
+        cacheHits = service.getCacheHits();
+        check(service.request(onPath, player).getStatus() == PathfindingService.Status.FOUND, "request starting on a cached path is found at once");
+        check(service.getCacheHits() == cacheHits + 1, "request starting on a cached path is a cache hit");
+
+        PathfindingService.Request cancelled = service.request(new Vector3f(200, 0, 200), new Vector3f(300, 0, 1800));
+        cancelled.cancel();
+        PathfindingService.Request tooFar = service.request(new Vector3f(200, 0, 200), new Vector3f(1800, 0, 1800));
+        run(service);
+        check(cancelled.getStatus() == PathfindingService.Status.CANCELLED, "cancelled request stays cancelled");
+        check(tooFar.getStatus() == PathfindingService.Status.FAILED, "goal out of the search window fails");
+
+        //let the metrics period pass
+        for (int i = 0; i < 60; i++) {
+            service.update(TPF);
+        }
+        check(service.getPathsPerSecond() > 0, "paths per second are measured");
+        System.out.printf("%.0f paths per second at %d nodes per frame%n", service.getPathsPerSecond(), Constants.NAV_NODE_BUDGET);
+        System.out.println("Pathfinding checks passed");
+    }
+
+    //flat ground at 0 with a lake and a steep ridge crossing the tile, with a pass in the middle
+    private static float getHeight(float x, float z) {
+        float lakeX = x - 600;
+        float lakeZ = z - 600;
+        if (lakeX * lakeX + lakeZ * lakeZ < 150 * 150) {
+            return Constants.WATER_LEVEL_HEIGHT - 10;
+        }
+        if (Math.abs(x - 1000) < 16 && Math.abs(z - 1024) > 40) {
+            return 60 * FastMath.sin((x - 984) / 32 * FastMath.PI);
+        }
+        return 0;
+    }
+
+    //frames of the service until the queue drains, checking the node budget every frame
+    private static int run(PathfindingService service) {
+        int frames = 0;
+        long frameTime = 0;
+        while (service.getQueueDepth() > 0) {
+            long start = System.nanoTime();
+            service.update(TPF);
+            frameTime += System.nanoTime() - start;
+            check(service.getExpansionsLastFrame() <= Constants.NAV_NODE_BUDGET, "frame expanded " + service.getExpansionsLastFrame() + " nodes");
+            frames++;
+        }
+        System.out.printf("service takes %.3f ms per frame%n", frames > 0 ? frameTime / 1_000_000f / frames : 0);
+        return frames;
+    }
+
+    //follows the waypoints cell by cell, every segment is a straight line in one of 8 directions
+    private static float walk(NavigationGrid grid, PathfindingService.Request request, int startX, int startZ, int goalX, int goalZ) {
+        int x = grid.getCell(request.getWaypointX(0));
+        int z = grid.getCell(request.getWaypointZ(0));
+        check(x == startX && z == startZ, "path begins at the start cell");
+
+        float length = 0;
+        for (int i = 1; i < request.getWaypointCount(); i++) {
+            int nextX = grid.getCell(request.getWaypointX(i));
+            int nextZ = grid.getCell(request.getWaypointZ(i));
+            int dx = Integer.signum(nextX - x);
+            int dz = Integer.signum(nextZ - z);
+            check(nextX == x || nextZ == z || Math.abs(nextX - x) == Math.abs(nextZ - z), "segment is straight");
+            while (x != nextX || z != nextZ) {
+                if (dx != 0 && dz != 0) {
+                    check(isWalkable(grid, x + dx, z, startX, startZ, goalX, goalZ) && isWalkable(grid, x, z + dz, startX, startZ, goalX, goalZ), "path does not cut corners");
+                    length += FastMath.sqrt(2);
+                } else {
+                    length += 1;
+                }
+                x += dx;
+                z += dz;
+                check(isWalkable(grid, x, z, startX, startZ, goalX, goalZ), "path runs over walkable cells");
+            }
+        }
+        check(x == goalX && z == goalZ, "path ends at the goal cell");
+        return length;
+    }
+
+    private static boolean isWalkable(NavigationGrid grid, int x, int z, int startX, int startZ, int goalX, int goalZ) {
+        return (x == startX && z == startZ) || (x == goalX && z == goalZ) || grid.isWalkable(x, z);
+    }
+
+    //reference search over the same window the service uses, -1 when there is no path
+    private static float dijkstra(NavigationGrid grid, int startX, int startZ, int goalX, int goalZ) {
+        int window = Constants.NAV_SEARCH_WINDOW;
+        if (Math.abs(startX - goalX) >= window / 2 || Math.abs(startZ - goalZ) >= window / 2) {
+            return -1;
+        }
+        int windowX = goalX - window / 2;
+        int windowZ = goalZ - window / 2;
+
+        float[] distance = new float[window * window];
+        Arrays.fill(distance, Float.MAX_VALUE);
+        PriorityQueue<float[]> queue = new PriorityQueue<>((a, b) -> Float.compare(a[0], b[0]));
+        distance[(startZ - windowZ) * window + startX - windowX] = 0;
+        queue.add(new float[]{0, startX - windowX, startZ - windowZ});
+
+        while (!queue.isEmpty()) {
+            float[] entry = queue.poll();
+            int x = (int) entry[1];
+            int z = (int) entry[2];
+            if (entry[0] > distance[z * window + x]) {
+                continue;
+            }
+            if (x + windowX == goalX && z + windowZ == goalZ) {
+                return entry[0];
+            }
+            for (int nx = x - 1; nx <= x + 1; nx++) {
+                for (int nz = z - 1; nz <= z + 1; nz++) {
+                    if ((nx == x && nz == z) || nx < 0 || nz < 0 || nx >= window || nz >= window ||
+                            !isWalkable(grid, nx + windowX, nz + windowZ, startX, startZ, goalX, goalZ)) {
+                        continue;
+                    }
+                    boolean diagonal = nx != x && nz != z;
+                    if (diagonal && (!isWalkable(grid, nx + windowX, z + windowZ, startX, startZ, goalX, goalZ) ||
+                            !isWalkable(grid, x + windowX, nz + windowZ, startX, startZ, goalX, goalZ))) {
+                        continue;
+                    }
+                    float cost = entry[0] + (diagonal ? FastMath.sqrt(2) : 1);
+                    if (cost < distance[nz * window + nx]) {
+                        distance[nz * window + nx] = cost;
+                        queue.add(new float[]{cost, nx, nz});
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import com.jme3.audio.*;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.SoundTypeEnum;
+import ru.arifolth.sound.SpatialAudio;
+import ru.arifolth.sound.VoicePool;
+
+import java.util.SplittableRandom;
+
+/**
+ * Checks culling and foot steps level of detail of the spatial audio, then counts audio renderer calls per frame
+ * of a crowd walking and fighting around the listener, sent to the voice pool directly like characters used to
+ * and through the spatial audio, for a growing crowd.
+ */
+public class SpatialAudioBenchmark {
+    private static final int[] NPC_AMOUNTS = {50, 200, 1000, 4000};
+    private static final int FRAMES = 600;
+    private static final float SWING_CHANCE = 1 / 60f;
+    //chance of a walking NPC stopping or a standing one walking off, per frame
+    private static final float TURN_CHANCE = 1 / 120f;
+    private static final int SWORD_SOUND_FRAMES = 30;
+    private static final float ARENA_RADIUS = 150;
+
+    private static final CountingRenderer renderer = new CountingRenderer();
+
+    public static void main(String[] args) {
+        AudioContext.setAudioRenderer(renderer);
+        SoundTypeEnum[] soundTypes = SoundTypeEnum.values();
+        AudioNode[][] samples = new AudioNode[soundTypes.length][];
+        int[] priorities = new int[soundTypes.length];
+        float[] audibleDistances = new float[soundTypes.length];
+        for (SoundTypeEnum soundType : soundTypes) {
+            int count = soundType == SoundTypeEnum.SWORD_SWING ? 7 : soundType == SoundTypeEnum.SWORD_BLOCK ? 3 : 1;
+            samples[soundType.ordinal()] = new AudioNode[count];
+            for (int i = 0; i < count; i++) {
+                samples[soundType.ordinal()][i] = createSample(soundType);
+            }
+            priorities[soundType.ordinal()] = soundType.getPriority();
+            audibleDistances[soundType.ordinal()] = soundType.getAudibleDistance();
+        }
+
+        checkCulling(samples, priorities, audibleDistances);
+        checkFootsteps(samples, priorities, audibleDistances);
+
+        System.out.println("    NPCs  direct calls/frame  spatial calls/frame  voiced  ambient");
+        float[] direct = new float[NPC_AMOUNTS.length];
+        float[] spatial = new float[NPC_AMOUNTS.length];
+        for (int i = 0; i < NPC_AMOUNTS.length; i++) {
+            direct[i] = runCrowd(samples, priorities, audibleDistances, NPC_AMOUNTS[i], false);
+            spatial[i] = runCrowd(samples, priorities, audibleDistances, NPC_AMOUNTS[i], true);
+        }
+
+        int last = NPC_AMOUNTS.length - 1;
+        //a stolen voice costs a stop and a play, a voiced walker a move and a pitch change, the ambient loop three calls
+        float bound = 2 * Constants.MAX_VOICES + 2 * Constants.FOOTSTEPS_VOICES + 3;
+        check(spatial[last] < bound, "calls per frame stay within " + bound + ", got " + spatial[last]);
+        check(spatial[last] < spatial[last - 1] * 1.5f, "calls per frame stop growing with the crowd");
+        check(spatial[last] * 4 < direct[last], "culling saves most calls of a large crowd");
+        System.out.println("Spatial audio checks passed");
+    }
+
+    private static void checkCulling(AudioNode[][] samples, int[] priorities, float[] audibleDistances) {
+        Listener listener = new Listener();
+        VoicePool pool = new VoicePool(samples, priorities, listener, Constants.MAX_VOICES);
+        SpatialAudio audio = new SpatialAudio(pool, listener, samples, priorities, audibleDistances,
+                SoundTypeEnum.FOOTSTEPS.ordinal(), Constants.FOOTSTEPS_VOICES, Constants.FOOTSTEPS_NEAR_DISTANCE);
+        int hit = SoundTypeEnum.SWORD_HIT.ordinal();
+        int swing = SoundTypeEnum.SWORD_SWING.ordinal();
+
+        renderer.reset();
+        float hitDistance = SoundTypeEnum.SWORD_HIT.getAudibleDistance();
+        check(!audio.play(hit, new Vector3f(hitDistance + 1, 0, 0)), "hit out of hearing is culled");
+        check(audio.play(hit, new Vector3f(hitDistance - 1, 0, 0)), "hit within hearing is queued");
+        check(audio.play(SoundTypeEnum.MENU.ordinal(), new Vector3f(10_000, 0, 0)), "sound that is not positional is never culled");
+        check(renderer.calls == 0, "queued sounds wait for the end of the frame");
+        audio.update();
+        check(renderer.plays == 2 && audio.getCulledSounds() == 1, "queued sounds play once a frame, culled ones never");
+
+        //more sounds in a frame than voices, the most important ones make it
+        renderer.finishAll();
+        audio.update();
+        renderer.reset();
+        for (int i = 0; i < Constants.MAX_VOICES; i++) {
+            check(audio.play(swing, new Vector3f(i, 0, 0)), "swing is queued");
+        }
+        check(audio.play(hit, new Vector3f(50, 0, 0)), "hit takes the place of a queued swing");
+        check(!audio.play(swing, new Vector3f(40, 0, 0)), "swing farther than every queued one is culled");
+        audio.update();
+        check(renderer.plays == Constants.MAX_VOICES && renderer.stops == 0, "no voice is played only to be stolen in the same frame");
+        check(pool.getActiveVoices() == Constants.MAX_VOICES, "every voice plays");
+    }
+
+    private static void checkFootsteps(AudioNode[][] samples, int[] priorities, float[] audibleDistances) {
+        renderer.finishAll();
+        Listener listener = new Listener();
+        VoicePool pool = new VoicePool(samples, priorities, listener, Constants.MAX_VOICES);
+        SpatialAudio audio = new SpatialAudio(pool, listener, samples, priorities, audibleDistances,
+                SoundTypeEnum.FOOTSTEPS.ordinal(), Constants.FOOTSTEPS_VOICES, Constants.FOOTSTEPS_NEAR_DISTANCE);
+        float audible = SoundTypeEnum.FOOTSTEPS.getAudibleDistance();
+
+        //near walkers, twice as many as there are foot steps voices, then a few far off and some out of hearing
+        int near = Constants.FOOTSTEPS_VOICES * 2;
+        int[] emitters = new int[near + 8];
+        Vector3f[] locations = new Vector3f[emitters.length];
+        for (int i = 0; i < emitters.length; i++) {
+            emitters[i] = audio.addEmitter();
+            float distance = i < near ? 1 + i * (Constants.FOOTSTEPS_NEAR_DISTANCE - 2) / near
+                    : i < near + 4 ? (Constants.FOOTSTEPS_NEAR_DISTANCE + audible) / 2 : audible + 10;
+            locations[i] = new Vector3f(distance, 0, 0);
+        }
+
+        renderer.reset();
+        walk(audio, emitters, locations);
+        check(renderer.plays == Constants.FOOTSTEPS_VOICES + 1, "nearest walkers get voices, the rest one ambient loop");
+        check(audio.getVoicedWalkers() == Constants.FOOTSTEPS_VOICES, "voiced walkers");
+        check(audio.getAmbientWalkers() == near - Constants.FOOTSTEPS_VOICES + 4, "near walkers left over and far ones are ambient, out of hearing ones are not");
+
+        //standing still changes nothing
+        renderer.reset();
+        walk(audio, emitters, locations);
+        check(renderer.calls == 0, "nothing changes, nothing is sent, got " + renderer.calls + " calls");
+
+        //a walker slightly closer than a voiced one does not take its voice, a much closer one does
+        int lastVoiced = Constants.FOOTSTEPS_VOICES - 1;
+        int firstUnvoiced = Constants.FOOTSTEPS_VOICES;
+        locations[firstUnvoiced].x = locations[lastVoiced].x - 0.01f;
+        renderer.reset();
+        walk(audio, emitters, locations);
+        check(renderer.plays == 0 && renderer.stops == 0, "voices do not flip between neighbours");
+        locations[firstUnvoiced].x = 0.5f;
+        renderer.reset();
+        walk(audio, emitters, locations);
+        check(renderer.plays == 1 && renderer.stops == 1, "much closer walker takes the voice of the farthest voiced one");
+
+        //walkers stopping lose their voices, the ambient loop stops with the last distant walker
+        renderer.reset();
+        audio.update();
+        check(pool.getActiveVoices() == 0 && renderer.stops == Constants.FOOTSTEPS_VOICES + 1, "silent emitters free their voices");
+        for (int emitter : emitters) {
+            audio.removeEmitter(emitter);
+        }
+        check(audio.addEmitter() == emitters[emitters.length - 1], "removed emitters get reused");
+    }
+
+    private static void walk(SpatialAudio audio, int[] emitters, Vector3f[] locations) {
+        for (int i = 0; i < emitters.length; i++) {
+            audio.setFootsteps(emitters[i], locations[i], 0.65f);
+        }
+        audio.update();
+    }
+
+    //audio renderer calls per frame
+    private static float runCrowd(AudioNode[][] samples, int[] priorities, float[] audibleDistances, int npcAmount, boolean spatial) {
+        renderer.finishAll();
+        Listener listener = new Listener();
+        VoicePool pool = new VoicePool(samples, priorities, listener, Constants.MAX_VOICES);
+        SpatialAudio audio = new SpatialAudio(pool, listener, samples, priorities, audibleDistances,
+                SoundTypeEnum.FOOTSTEPS.ordinal(), Constants.FOOTSTEPS_VOICES, Constants.FOOTSTEPS_NEAR_DISTANCE);
+        SplittableRandom random = new SplittableRandom(24);
+        Vector3f[] locations = new Vector3f[npcAmount];
+        Vector3f[] directions = new Vector3f[npcAmount];
+        boolean[] walking = new boolean[npcAmount];
+        int[] footsteps = new int[npcAmount];
+        for (int i = 0; i < npcAmount; i++) {
+            float angle = (float) random.nextDouble(FastMath.TWO_PI);
+            float distance = ARENA_RADIUS * FastMath.sqrt((float) random.nextDouble());
+            locations[i] = new Vector3f(FastMath.cos(angle) * distance, 0, FastMath.sin(angle) * distance);
+            angle = (float) random.nextDouble(FastMath.TWO_PI);
+            directions[i] = new Vector3f(FastMath.cos(angle) * 0.05f, 0, FastMath.sin(angle) * 0.05f);
+            walking[i] = random.nextBoolean();
+            footsteps[i] = spatial ? audio.addEmitter() : -1;
+        }
+
+        long calls = 0;
+        float voiced = 0, ambient = 0;
+        for (int frame = 0; frame < FRAMES * 2; frame++) {
+            if (frame == FRAMES) {
+                renderer.reset();
+            }
+            renderer.finish(frame);
+            for (int i = 0; i < npcAmount; i++) {
+                if (random.nextDouble() < TURN_CHANCE) {
+                    walking[i] = !walking[i];
+                }
+                if (walking[i]) {
+                    locations[i].addLocal(directions[i]);
+                }
+                if (spatial) {
+                    if (walking[i]) {
+                        audio.setFootsteps(footsteps[i], locations[i], 1.05f);
+                    } else {
+                        audio.stopFootsteps(footsteps[i]);
+                    }
+                } else if (walking[i]) {
+                    //what AnimatedCharacter.playFootsteps did
+                    if (!pool.update(footsteps[i], locations[i], 1.05f)) {
+                        footsteps[i] = pool.play(SoundTypeEnum.FOOTSTEPS.ordinal(), locations[i]);
+                        pool.update(footsteps[i], locations[i], 1.05f);
+                    }
+                } else {
+                    pool.stop(footsteps[i]);
+                    footsteps[i] = -1;
+                }
+
+                if (random.nextDouble() < SWING_CHANCE) {
+                    int outcome = random.nextBoolean() ? SoundTypeEnum.SWORD_HIT.ordinal() : SoundTypeEnum.SWORD_BLOCK.ordinal();
+                    if (spatial) {
+                        audio.play(SoundTypeEnum.SWORD_SWING.ordinal(), locations[i]);
+                        audio.play(outcome, locations[i]);
+                    } else {
+                        pool.play(SoundTypeEnum.SWORD_SWING.ordinal(), locations[i]);
+                        pool.play(outcome, locations[i]);
+                    }
+                }
+            }
+            if (spatial) {
+                audio.update();
+            } else {
+                pool.update();
+            }
+            if (frame >= FRAMES) {
+                voiced += audio.getVoicedWalkers();
+                ambient += audio.getAmbientWalkers();
+            }
+        }
+        calls = renderer.calls;
+
+        float perFrame = calls / (float) FRAMES;
+        if (spatial) {
+            System.out.printf("%19.1f  %6.1f  %7.1f%n", perFrame, voiced / FRAMES, ambient / FRAMES);
+        } else {
+            System.out.printf("%8d  %18.1f", npcAmount, perFrame);
+        }
+        return perFrame;
+    }
+
+    private static AudioNode createSample(SoundTypeEnum soundType) {
+        AudioBuffer buffer = new AudioBuffer();
+        buffer.setupFormat(1, 16, 44100);
+        AudioNode sample = new AudioNode(buffer, new AudioKey(soundType.name()));
+        sample.setVolume(Constants.SOUND_VOLUME);
+        sample.setPitch(Constants.SOUND_PITCH);
+        if (soundType == SoundTypeEnum.FOOTSTEPS) {
+            //the same as SoundTypeEnum
+            sample.setLooping(true);
+            sample.setMaxDistance(15);
+            sample.setVolume(Constants.SOUND_VOLUME / 6);
+        }
+        sample.setPositional(soundType != SoundTypeEnum.MENU && soundType != SoundTypeEnum.WIND);
+        return sample;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    //stands in for OpenAL, counts calls that reach it, sounds that do not loop stop after a while
+    private static class CountingRenderer implements AudioRenderer {
+        private final AudioSource[] channels = new AudioSource[1024];
+        private final int[] endFrames = new int[channels.length];
+        private int frame;
+        private long calls;
+        private long plays;
+        private long stops;
+
+        void reset() {
+            calls = 0;
+            plays = 0;
+            stops = 0;
+        }
+
+        void finish(int frame) {
+            this.frame = frame;
+            for (int channel = 0; channel < channels.length; channel++) {
+                if (channels[channel] != null && !channels[channel].isLooping() && endFrames[channel] <= frame) {
+                    //finishing on its own is not a call
+                    stop(channels[channel]);
+                }
+            }
+        }
+
+        void finishAll() {
+            for (AudioSource source : channels) {
+                if (source != null) {
+                    stop(source);
+                }
+            }
+        }
+
+        @Override
+        public void playSource(AudioSource source) {
+            calls++;
+            plays++;
+            for (int channel = 0; channel < channels.length; channel++) {
+                if (channels[channel] == null) {
+                    channels[channel] = source;
+                    endFrames[channel] = frame + SWORD_SOUND_FRAMES;
+                    source.setChannel(channel);
+                    source.setStatus(AudioSource.Status.Playing);
+                    return;
+                }
+            }
+            throw new IllegalStateException("out of channels");
+        }
+
+        @Override
+        public void stopSource(AudioSource source) {
+            calls++;
+            stops++;
+            stop(source);
+        }
+
+        @Override
+        public void pauseSource(AudioSource source) {
+            calls++;
+        }
+
+        @Override
+        public void updateSourceParam(AudioSource source, AudioParam param) {
+            calls++;
+        }
+
+        private void stop(AudioSource source) {
+            source.setStatus(AudioSource.Status.Stopped);
+            if (source.getChannel() >= 0) {
+                channels[source.getChannel()] = null;
+                source.setChannel(-1);
+            }
+        }
+
+        @Override public void setListener(Listener listener) {}
+        @Override public void setEnvironment(Environment environment) {}
+        @Override public void playSourceInstance(AudioSource source) {}
+        @Override public void updateListenerParam(Listener listener, ListenerParam param) {}
+        @Override public float getSourcePlaybackTime(AudioSource source) { return 0; }
+        @Override public void deleteFilter(Filter filter) {}
+        @Override public void deleteAudioData(AudioData audioData) {}
+        @Override public void initialize() {}
+        @Override public void update(float tpf) {}
+        @Override public void pauseAll() {}
+        @Override public void resumeAll() {}
+        @Override public void cleanup() {}
+    }
+}
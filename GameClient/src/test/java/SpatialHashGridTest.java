@@ -0,0 +1,127 @@
+import com.sun.management.ThreadMXBean;
+import ru.arifolth.anjrpg.interfaces.SpatialHashGrid;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Checks the spatial hash against brute force while entries wander around, get removed and inserted again,
+ * and that queries and moves within the grown capacity do not allocate.
+ */
+public class SpatialHashGridTest {
+    private static final int ENTRIES = 2000;
+    private static final int ROUNDS = 200;
+    private static final float WORLD_SIZE = 4096;
+
+    public static void main(String[] args) {
+        SplittableRandom random = new SplittableRandom(13);
+        SpatialHashGrid<Integer> grid = new SpatialHashGrid<>(64, 16);
+        List<Integer> handles = new ArrayList<>();
+        float[][] positions = new float[ENTRIES][];
+        int[] store = new int[ENTRIES];
+
+        for (int i = 0; i < ENTRIES; i++) {
+            positions[i] = new float[]{randomCoordinate(random), randomCoordinate(random)};
+            handles.add(grid.insert(i, positions[i][0], 0, positions[i][1]));
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < ENTRIES; i++) {
+                if (handles.get(i) == null) {
+                    continue;
+                }
+                positions[i][0] += (float) random.nextDouble(-50, 50);
+                positions[i][1] += (float) random.nextDouble(-50, 50);
+                grid.move(handles.get(i), positions[i][0], 0, positions[i][1]);
+            }
+            //churn: drop some entries and bring back others
+            int i = random.nextInt(ENTRIES);
+            if (handles.get(i) != null) {
+                grid.remove(handles.get(i));
+                handles.set(i, null);
+            } else {
+                handles.set(i, grid.insert(i, positions[i][0], 0, positions[i][1]));
+            }
+
+            float x = randomCoordinate(random);
+            float z = randomCoordinate(random);
+            float radius = (float) random.nextDouble(10, 400);
+            int count = grid.queryRadius(x, z, radius, store);
+            check(toItems(grid, store, count), bruteForceRadius(handles, positions, x, z, radius), "radius query in round " + round);
+
+            count = grid.queryBox(x - radius, z - radius / 2, x + radius / 2, z + radius, store);
+            check(toItems(grid, store, count), bruteForceBox(handles, positions, x - radius, z - radius / 2, x + radius / 2, z + radius), "box query in round " + round);
+        }
+
+        //capacity has grown by now, moves and queries must not allocate anymore
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int handle = grid.insert(-1, 0, 0, 0);
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        int found = 0;
+        for (int i = 0; i < 100_000; i++) {
+            grid.move(handle, i % 1000, 0, i % 700);
+            found += grid.queryRadius(i % 1000, i % 700, 100, store);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100_000; i++) {
+            found += grid.queryRadius(randomCoordinate(random), randomCoordinate(random), 64, store);
+        }
+        float queryTime = (System.nanoTime() - start) / 100_000f;
+
+        System.out.printf("%d entries, %.0f ns per 64 unit radius query, %d bytes allocated by 100k moves and queries (%d found)%n",
+                grid.size(), queryTime, allocated, found);
+        if (allocated > 1024) {
+            throw new IllegalStateException("moves and queries allocate: " + allocated + " bytes");
+        }
+    }
+
+    private static float randomCoordinate(SplittableRandom random) {
+        return (float) random.nextDouble(-WORLD_SIZE / 2, WORLD_SIZE / 2);
+    }
+
+    private static int[] toItems(SpatialHashGrid<Integer> grid, int[] store, int count) {
+        int[] items = new int[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = grid.get(store[i]);
+        }
+        Arrays.sort(items);
+        return items;
+    }
+
+    private static int[] bruteForceRadius(List<Integer> handles, float[][] positions, float x, float z, float radius) {
+        return Arrays.stream(range(handles))
+                .filter(i -> {
+                    float dx = positions[i][0] - x;
+                    float dz = positions[i][1] - z;
+                    return dx * dx + dz * dz <= radius * radius;
+                })
+                .toArray();
+    }
+
+    private static int[] bruteForceBox(List<Integer> handles, float[][] positions, float minX, float minZ, float maxX, float maxZ) {
+        return Arrays.stream(range(handles))
+                .filter(i -> positions[i][0] >= minX && positions[i][0] <= maxX && positions[i][1] >= minZ && positions[i][1] <= maxZ)
+                .toArray();
+    }
+
+    private static int[] range(List<Integer> handles) {
+        List<Integer> present = new ArrayList<>();
+        for (int i = 0; i < handles.size(); i++) {
+            if (handles.get(i) != null) {
+                present.add(i);
+            }
+        }
+        return present.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void check(int[] actual, int[] expected, String message) {
+        if (!Arrays.equals(actual, expected)) {
+            throw new IllegalStateException(message + ": expected " + expected.length + " entries, found " + actual.length);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.sun.management.ThreadMXBean;
+import ru.arifolth.anjrpg.models.Steering;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/**
+ * Runs the NPC steering tick for a crowd chasing a moving player, the old quaternion based turning against the scalar yaw one.
+ * Checks that the new steering turns the same way as Quaternion.fromAngleAxis, converges on the target and allocates nothing per tick.
+ */
+public class SteeringBenchmark {
+    private static final int NPC_AMOUNT = 500;
+    private static final int TICKS = 2000;
+    private static final float TURN_RATE = FastMath.QUARTER_PI / 5f;
+    private static final float WALK_SPEED = .3f;
+
+    public static void main(String[] args) {
+        checkTurning();
+
+        SplittableRandom random = new SplittableRandom(14);
+        Vector3f[] locations = new Vector3f[NPC_AMOUNT];
+        Vector3f[] views = new Vector3f[NPC_AMOUNT];
+        Vector3f[] walks = new Vector3f[NPC_AMOUNT];
+        for (int i = 0; i < NPC_AMOUNT; i++) {
+            locations[i] = new Vector3f((float) random.nextDouble(-500, 500), 0, (float) random.nextDouble(-500, 500));
+            views[i] = new Vector3f((float) random.nextDouble(-1, 1), 0, (float) random.nextDouble(-1, 1)).normalizeLocal();
+            walks[i] = new Vector3f();
+        }
+        Vector3f player = new Vector3f();
+        Vector3f targetDirection = new Vector3f();
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int pass = 0; pass < 2; pass++) {
+            //first pass warms both versions up
+            long oldBytes = 0, newBytes = 0, oldTime = 0, newTime = 0;
+            for (int tick = 0; tick < TICKS; tick++) {
+                player.set(FastMath.sin(tick * 0.01f) * 300, 0, FastMath.cos(tick * 0.01f) * 300);
+
+                long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long start = System.nanoTime();
+                for (int i = 0; i < NPC_AMOUNT; i++) {
+                    Vector3f view = oldTurningTo(player, locations[i], views[i]);
+                    walks[i] = view.normalize().mult(WALK_SPEED);
+                }
+                oldTime += System.nanoTime() - start;
+                oldBytes += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+
+                bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                start = System.nanoTime();
+                for (int i = 0; i < NPC_AMOUNT; i++) {
+                    player.subtract(locations[i], targetDirection);
+                    Steering.turnTowards(views[i], targetDirection, TURN_RATE);
+                    walks[i].set(views[i]).normalizeLocal().multLocal(WALK_SPEED);
+                }
+                newTime += System.nanoTime() - start;
+                newBytes += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+            }
+
+            if (pass == 1) {
+                System.out.printf("%d NPCs, quaternion steering: %.1f us and %d bytes per tick, scalar yaw steering: %.1f us and %d bytes per tick%n",
+                        NPC_AMOUNT, oldTime / 1000f / TICKS, oldBytes / TICKS, newTime / 1000f / TICKS, newBytes / TICKS);
+                if (newBytes > 1024) {
+                    throw new IllegalStateException("steering allocates: " + newBytes + " bytes over " + TICKS + " ticks");
+                }
+            }
+        }
+    }
+
+    private static void checkTurning() {
+        Quaternion turn = new Quaternion();
+        Vector3f view = new Vector3f(0.6f, 0, 0.8f);
+        for (float yaw : new float[]{TURN_RATE, -TURN_RATE, 1f, -2.5f}) {
+            Vector3f expected = turn.fromAngleAxis(yaw, Vector3f.UNIT_Y).mult(view);
+            Vector3f actual = Steering.rotate(view, yaw, new Vector3f());
+            check(expected.distance(actual) < 1e-5f, "rotation by " + yaw + " gives " + actual + ", expected " + expected);
+            check(FastMath.abs(Steering.getYaw(view, actual) - yaw) < 1e-5f, "yaw between " + view + " and " + actual);
+        }
+
+        Vector3f target = new Vector3f(-3, 2, -1);
+        float angle = FastMath.abs(Steering.getYaw(view, target));
+        int ticks = 0;
+        while (FastMath.abs(Steering.getYaw(view, target)) > 1e-5f) {
+            Steering.turnTowards(view, target, TURN_RATE);
+            check(++ticks <= FastMath.ceil(angle / TURN_RATE), "view does not converge on the target");
+        }
+        check(view.y == 0 && FastMath.abs(view.length() - 1) < 1e-5f, "view direction " + view + " is not a flat unit vector");
+    }
+
+    /**
+     * Steering as NonPlayerCharacter did it before: two lookAt quaternions subtracted from each other.
+     */
+    private static Vector3f oldTurningTo(Vector3f target, Vector3f location, Vector3f viewDirection) {
+        Quaternion diff1 = new Quaternion();
+        Quaternion diff2 = new Quaternion();
+
+        Vector3f newOrient = target.subtract(location);
+        diff1.lookAt(newOrient, Vector3f.UNIT_Y);
+        diff2.lookAt(viewDirection, Vector3f.UNIT_Y);
+        float ydiff = diff1.subtract(diff2).getY();
+
+        if (FastMath.abs(ydiff) > TURN_RATE) {
+            Quaternion turn = new Quaternion();
+            turn.fromAngleAxis(ydiff < 0 ? -TURN_RATE : TURN_RATE, Vector3f.UNIT_Y);
+            return turn.mult(viewDirection.normalize());
+        }
+        return newOrient;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import com.idflood.sky.utils.SunSystem;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Vector3f;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Runs the sun clock the way DynamicSun does, 50 seconds a frame, next to the calendar based computation it replaced,
+ * checks both agree after a game session and after a year of ticks, then measures time and allocation per tick.
+ */
+public class SunSystemBenchmark {
+    private static final int TICK_SECONDS = 50;
+    private static final int TICKS = 200_000;
+    //sun positions are compared by direction, in radians
+    //the calendar code rounds sidereal time of some 57000 radians to a float, which alone is up to 2e-3 radians off
+    private static final float TOLERANCE = 4e-3f;
+
+    public static void main(String[] args) {
+        GregorianCalendar start = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        start.clear();
+        start.set(2024, Calendar.JUNE, 21, 0, 0, 0);
+
+        checkAgainstCalendar(start.getTime(), 6 * 24 * 3600 / TICK_SECONDS, 6);
+        checkAgainstCalendar(start.getTime(), 365 * 24 * 3600 / TICK_SECONDS, 365 * 24 * 3600 / TICK_SECONDS);
+        measure(start.getTime());
+        System.out.println("Sun system checks passed");
+    }
+
+    //ticks the clock and compares it with the calendar every interval ticks, those land on whole minutes
+    private static void checkAgainstCalendar(Date date, int ticks, int interval) {
+        SunSystem sunSystem = createSunSystem(date);
+        CalendarSun calendarSun = new CalendarSun(date);
+        float maxError = 0;
+        for (int tick = 1; tick <= ticks; tick++) {
+            sunSystem.updateSunPosition(0, 0, TICK_SECONDS);
+            calendarSun.updateSunPosition(0, 0, TICK_SECONDS);
+            if (tick % interval == 0) {
+                float error = sunSystem.getPosition().normalize().angleBetween(calendarSun.sunPosition.normalize());
+                maxError = Math.max(maxError, error);
+                check(error < TOLERANCE, "sun is " + error + " radians off the calendar after " + tick + " ticks");
+                check(sunSystem.getHours() == calendarSun.getHours(), "hours " + sunSystem.getHours() + " are " + calendarSun.getHours() + " by the calendar");
+                check(Math.abs(sunSystem.getCurrentDate().getTime() - calendarSun.currentDate.getTime()) < 1000, "clock keeps the date");
+            }
+        }
+        check(sunSystem.getDirection().isUnitVector(), "direction is normalized");
+        System.out.printf("%d days: sun at most %.5f radians off the calendar%n", ticks * TICK_SECONDS / 86400, maxError);
+    }
+
+    private static void measure(Date date) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SunSystem sunSystem = createSunSystem(date);
+        CalendarSun calendarSun = new CalendarSun(date);
+        //warm up
+        for (int i = 0; i < TICKS; i++) {
+            sunSystem.updateSunPosition(0, 0, TICK_SECONDS);
+            calendarSun.updateSunPosition(0, 0, TICK_SECONDS);
+        }
+
+        long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long time = System.nanoTime();
+        for (int i = 0; i < TICKS; i++) {
+            sunSystem.updateSunPosition(0, 0, TICK_SECONDS);
+            sunSystem.getHours();
+        }
+        long clockTime = System.nanoTime() - time;
+        long clockBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+
+        bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        time = System.nanoTime();
+        for (int i = 0; i < TICKS; i++) {
+            calendarSun.updateSunPosition(0, 0, TICK_SECONDS);
+            calendarSun.getHours();
+        }
+        long calendarTime = System.nanoTime() - time;
+        long calendarBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+
+        System.out.printf("per tick: calendar %.0f ns and %d bytes, clock %.0f ns and %d bytes%n",
+                calendarTime / (float) TICKS, calendarBytes / TICKS, clockTime / (float) TICKS, clockBytes / TICKS);
+        check(clockBytes == 0, "ticking the clock allocates nothing, got " + clockBytes + " bytes over " + TICKS + " ticks");
+        check(clockTime < calendarTime, "ticking the clock is faster than going through the calendar");
+    }
+
+    //the same site as DynamicSun
+    private static SunSystem createSunSystem(Date date) {
+        SunSystem sunSystem = new SunSystem(date, 0, 0, 0);
+        sunSystem.setSiteLatitude(46.32f);
+        sunSystem.setSiteLongitude(6.38f);
+        return sunSystem;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    //SunSystem as it was before the clock, every update goes through the calendar
+    private static class CalendarSun {
+        private Date currentDate;
+        private Vector3f sunPosition = new Vector3f();
+        //DynamicSun sets latitude 46.32 through setSiteLatitude, which stores it as longitude that gets overwritten next
+        private final float siteLat = 0;
+        private final float siteLon = 6.38f;
+
+        CalendarSun(Date currentDate) {
+            this.currentDate = currentDate;
+            calculateCartesianCoords(currentDate);
+        }
+
+        @SuppressWarnings("deprecation")
+        int getHours() {
+            return currentDate.getHours();
+        }
+
+        Vector3f updateSunPosition(int elapsHH, int elapsMM, int elapsSS) {
+            GregorianCalendar gc = new GregorianCalendar();
+            gc.setTime(currentDate);
+            gc.add(Calendar.HOUR_OF_DAY, elapsHH);
+            gc.add(Calendar.MINUTE, elapsMM);
+            gc.add(Calendar.SECOND, elapsSS);
+            currentDate = gc.getTime();
+            return calculateCartesianCoords(gc.getTime());
+        }
+
+        private Vector3f calculateCartesianCoords(Date date) {
+            GregorianCalendar gc = new GregorianCalendar();
+            gc.setTimeZone(TimeZone.getTimeZone("UTC"));
+            gc.setTime(date);
+            int DD = gc.get(Calendar.DAY_OF_MONTH);
+            int MM = gc.get(Calendar.MONTH) + 1;
+            int YY = gc.get(Calendar.YEAR);
+            int HOUR = gc.get(Calendar.HOUR_OF_DAY);
+            int MN = gc.get(Calendar.MINUTE);
+
+            float HR = HOUR + (MN / 60.f);
+            double GGG = 1;
+            if (YY <= 1585)
+                GGG = 0;
+            double JD = -1 * Math.floor(7 * (Math.floor((MM + 9) / 12.f) + YY) / 4.f);
+            double S = 1;
+            if ((MM - 9) < 0)
+                S = -1;
+            double A = Math.abs(MM - 9);
+            double J1 = Math.floor(YY + S * Math.floor(A / 7.f));
+            J1 = -1 * Math.floor((Math.floor(J1 / 100.f) + 1) * 3 / 4.f);
+            JD = JD + Math.floor(275 * MM / 9.f) + DD + (GGG * J1);
+            JD = JD + 1721027 + 2 * GGG + 367 * YY - 0.5;
+            JD = JD + (HR / 24.f);
+
+            double T = (JD - 2451545.0) / 36525;
+            double M = 6.24 + 628.302 * T;
+            double lambda = 4.895048 + 628.331951 * T + (0.033417 - 0.000084 * T) * Math.sin(M) + 0.000351 * Math.sin(2 * M);
+            double r = (1.000140 - (0.016708 - 0.000042 * T) * Math.cos(M) - 0.000141 * Math.cos(2 * M));
+            double beta = 0;
+
+            sunPosition = new Vector3f(
+                    (float) (r * Math.sin(beta)),
+                    (float) (r * Math.sin(lambda) * Math.cos(beta)),
+                    (float) (r * Math.cos(lambda) * Math.cos(beta))
+            );
+
+            float lat = siteLat;
+            float lon = siteLon + (float) (Math.PI * 3 / 2);
+            double eta = 0.409093 - 0.000227 * T;
+            double LMST = 4.894961 + 230121.675315 * T + lon;
+            Matrix3f matRx = new Matrix3f();
+            Matrix3f matRy = new Matrix3f();
+            Matrix3f matRz = new Matrix3f();
+
+            matRx.fromAngleNormalAxis((float) -eta, new Vector3f(1, 0, 0));
+            matRy.fromAngleNormalAxis((float) -(lat - Math.PI / 2), new Vector3f(0, 1, 0));
+            matRz.fromAngleNormalAxis((float) -LMST, new Vector3f(0, 0, 1));
+            sunPosition = matRz.mult(matRx.mult(matRy.mult(sunPosition)));
+            sunPosition.multLocal(10000);
+            return sunPosition;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import com.jme3.collision.CollisionResult;
+import com.jme3.collision.CollisionResults;
+import com.jme3.math.Ray;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import com.jme3.terrain.geomipmap.grid.FractalTileLoader;
+import com.jme3.terrain.noise.ShaderUtils;
+import com.jme3.terrain.noise.basis.FilteredBasis;
+import com.jme3.terrain.noise.fractal.FractalSum;
+import com.jme3.terrain.noise.modulator.NoiseModulator;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.terrain.HeightMapSampler;
+
+import java.util.SplittableRandom;
+
+/**
+ * Compares raycast vegetation placement against direct heightmap sampling on a single generated tile.
+ */
+public class VegetationPlacementBenchmark {
+    private static final int PLACEMENTS = 100_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        FractalSum base = new FractalSum();
+        base.setRoughness(0.7f);
+        base.setFrequency(1.0f);
+        base.setAmplitude(1.0f);
+        base.setLacunarity(2.12f);
+        base.setOctaves(8);
+        base.setScale(0.02125f);
+        base.addModulator(new NoiseModulator() {
+            @Override
+            public float value(float... in) {
+                return ShaderUtils.clamp(in[0] * 0.5f + 0.5f, 0, 1);
+            }
+        });
+
+        FractalTileLoader tileLoader = new FractalTileLoader(new FilteredBasis(base), 256f);
+        tileLoader.setPatchSize(65);
+        tileLoader.setQuadSize(1025);
+        TerrainQuad quad = tileLoader.getTerrainQuadAt(new Vector3f(1, 0, 2));
+        Node terrain = new Node("terrain");
+        terrain.setLocalScale(Constants.TERRAIN_SCALE_X, Constants.TERRAIN_SCALE_Y, Constants.TERRAIN_SCALE_Z);
+        terrain.setLocalTranslation(0, -200, 0);
+        terrain.attachChild(quad);
+        quad.setLocalTranslation(new Vector3f(1, 0, 2).mult(quad.getTotalSize() - 1));
+        terrain.updateGeometricState();
+
+        HeightMapSampler sampler = new HeightMapSampler(quad);
+        Spatial spatial = new Node("plant");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int rayHits = raycast(quad, new SplittableRandom(round));
+            float rayTime = (System.nanoTime() - start) / 1_000_000f;
+
+            start = System.nanoTime();
+            int samples = sample(sampler, spatial, new SplittableRandom(round));
+            float sampleTime = (System.nanoTime() - start) / 1_000_000f;
+
+            System.out.printf("round %d: raycast %.1f ms (%d placed), heightmap %.1f ms (%d placed), %.0fx faster per placement%n",
+                    round, rayTime, rayHits, sampleTime, samples, (rayTime / rayHits) / (sampleTime / samples));
+        }
+
+        float maxError = getMaxError(quad, sampler);
+        System.out.printf("max height difference to raycast: %.3f%n", maxError);
+        //plants have to stand on the triangles of the tile, not on a smoothed out surface
+        check(maxError < 0.01f, "heightmap sampling misses the terrain geometry by " + maxError);
+    }
+
+    //former placement: rays spread around the tile, most of them miss it
+    private static int raycast(TerrainQuad quad, SplittableRandom random) {
+        Vector3f center = quad.getWorldTranslation();
+        int placed = 0;
+        for (int i = 0; i < PLACEMENTS; i++) {
+            CollisionResults results = new CollisionResults();
+            Vector3f start = new Vector3f(center.x + (float) random.nextDouble(-2000, 2000), 500, center.z + (float) random.nextDouble(-2000, 2000));
+            quad.collideWith(new Ray(start, Constants.RAY_DOWN), results);
+            CollisionResult hit = results.getClosestCollision();
+            if (hit != null && hit.getContactPoint().y > Constants.WATER_LEVEL_HEIGHT) {
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+    private static int sample(HeightMapSampler sampler, Spatial spatial, SplittableRandom random) {
+        int placed = 0;
+        for (int i = 0; i < PLACEMENTS; i++) {
+            if (sampler.placeRandomly(spatial, random)) {
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+    private static float getMaxError(TerrainQuad quad, HeightMapSampler sampler) {
+        SplittableRandom random = new SplittableRandom();
+        float maxError = 0;
+        for (int i = 0; i < 1000; i++) {
+            float localX = (float) random.nextDouble(0, sampler.getSize() - 1);
+            float localZ = (float) random.nextDouble(0, sampler.getSize() - 1);
+            CollisionResults results = new CollisionResults();
+            quad.collideWith(new Ray(new Vector3f(sampler.getWorldX(localX), 500, sampler.getWorldZ(localZ)), Constants.RAY_DOWN), results);
+            CollisionResult hit = results.getClosestCollision();
+            if (hit != null) {
+                maxError = Math.max(maxError, Math.abs(hit.getContactPoint().y - sampler.getHeight(localX, localZ)));
+            }
+        }
+        return maxError;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
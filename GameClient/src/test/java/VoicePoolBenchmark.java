@@ -0,0 +1,224 @@
+import com.jme3.audio.*;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.sun.management.ThreadMXBean;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.SoundTypeEnum;
+import ru.arifolth.sound.VoicePool;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/**
+ * Checks that voices get stolen by priority and distance, then runs a crowd fight through the voice pool
+ * against an audio renderer that only counts sources, so source use and allocation per frame could be measured.
+ */
+public class VoicePoolBenchmark {
+    private static final int NPC_AMOUNT = 500;
+    private static final int FRAMES = 600;
+    //chance of a swing per NPC and frame, about one a second at 60 fps
+    private static final float SWING_CHANCE = 1 / 60f;
+    private static final int SWORD_SOUND_FRAMES = 30;
+    private static final float ARENA_RADIUS = 80;
+
+    private static final CountingRenderer renderer = new CountingRenderer();
+
+    public static void main(String[] args) {
+        AudioContext.setAudioRenderer(renderer);
+        AudioNode[][] samples = new AudioNode[SoundTypeEnum.values().length][];
+        int[] priorities = new int[samples.length];
+        for (SoundTypeEnum soundType : SoundTypeEnum.values()) {
+            int count = soundType == SoundTypeEnum.SWORD_SWING ? 7 : soundType == SoundTypeEnum.SWORD_BLOCK ? 3 : 1;
+            samples[soundType.ordinal()] = new AudioNode[count];
+            for (int i = 0; i < count; i++) {
+                samples[soundType.ordinal()][i] = createSample(soundType.name() + i, soundType == SoundTypeEnum.FOOTSTEPS);
+            }
+            priorities[soundType.ordinal()] = soundType.getPriority();
+        }
+
+        checkStealing(samples, priorities);
+        runCrowd(samples, priorities);
+        System.out.println("Voice pool checks passed");
+    }
+
+    private static void checkStealing(AudioNode[][] samples, int[] priorities) {
+        Listener listener = new Listener();
+        VoicePool pool = new VoicePool(samples, priorities, listener, Constants.MAX_VOICES);
+        int footsteps = SoundTypeEnum.FOOTSTEPS.ordinal();
+        int hit = SoundTypeEnum.SWORD_HIT.ordinal();
+
+        int[] handles = new int[Constants.MAX_VOICES];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = pool.play(footsteps, new Vector3f(10 + i, 0, 0));
+            check(handles[i] >= 0, "free voice is used");
+        }
+        check(renderer.playing == Constants.MAX_VOICES, "one source per voice");
+
+        //closer foot steps take the voice of the farthest ones, farther ones are dropped
+        int closer = pool.play(footsteps, new Vector3f(1, 0, 0));
+        check(closer >= 0 && pool.getStolenVoices() == 1, "closer sound of the same priority steals a voice");
+        check(!pool.isPlaying(handles[handles.length - 1]) && pool.isPlaying(handles[0]), "farthest voice is stolen");
+        check(!pool.update(handles[handles.length - 1], Vector3f.ZERO, 1f), "stolen handle is stale");
+        check(pool.play(footsteps, new Vector3f(100, 0, 0)) < 0 && pool.getDroppedVoices() == 1, "farther sound of the same priority is dropped");
+
+        //a hit steals foot steps wherever they are, nothing steals hits back from foot steps
+        int far = pool.play(hit, new Vector3f(500, 0, 0));
+        check(far >= 0 && pool.getStolenVoices() == 2, "higher priority sound steals a voice however far it is");
+        check(pool.isPlaying(closer), "closest lower priority voice is kept");
+        for (int i = 1; i < Constants.MAX_VOICES; i++) {
+            check(pool.play(hit, new Vector3f(i, 0, 0)) >= 0, "hits take over every voice");
+        }
+        check(!pool.isPlaying(closer), "all foot steps are stolen");
+        check(pool.play(footsteps, Vector3f.ZERO) < 0, "lower priority sound is dropped when every voice plays something more important");
+        check(pool.play(hit, new Vector3f(1000, 0, 0)) < 0, "hit farther than every other hit is dropped");
+        check(pool.getActiveVoices() == Constants.MAX_VOICES && renderer.playing == Constants.MAX_VOICES, "voice and source count stay at the cap");
+
+        renderer.finishAll();
+        pool.update();
+        check(pool.getActiveVoices() == 0, "finished voices return to the pool");
+        check(!pool.isPlaying(far), "finished handle is stale");
+    }
+
+    private static void runCrowd(AudioNode[][] samples, int[] priorities) {
+        Listener listener = new Listener();
+        VoicePool pool = new VoicePool(samples, priorities, listener, Constants.MAX_VOICES);
+        SplittableRandom random = new SplittableRandom(21);
+        Vector3f[] locations = new Vector3f[NPC_AMOUNT];
+        int[] footsteps = new int[NPC_AMOUNT];
+        for (int i = 0; i < NPC_AMOUNT; i++) {
+            float angle = (float) random.nextDouble(FastMath.TWO_PI);
+            float distance = (float) random.nextDouble(ARENA_RADIUS);
+            locations[i] = new Vector3f(FastMath.cos(angle) * distance, 0, FastMath.sin(angle) * distance);
+            footsteps[i] = -1;
+        }
+        renderer.maxPlaying = 0;
+
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long poolBytes = 0, poolTime = 0, cloneBytes = 0;
+        long requests = 0;
+        for (int frame = 0; frame < FRAMES * 2; frame++) {
+            boolean measured = frame >= FRAMES;
+            long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            renderer.finish(frame);
+            pool.update();
+            for (int i = 0; i < NPC_AMOUNT; i++) {
+                locations[i].x += 0.01f;
+                //the same as AnimatedCharacter.playFootsteps
+                if (!pool.update(footsteps[i], locations[i], 1.05f)) {
+                    footsteps[i] = pool.play(SoundTypeEnum.FOOTSTEPS.ordinal(), locations[i]);
+                    pool.update(footsteps[i], locations[i], 1.05f);
+                }
+                if (random.nextDouble() < SWING_CHANCE) {
+                    pool.play(SoundTypeEnum.SWORD_SWING.ordinal(), locations[i]);
+                    pool.play(random.nextBoolean() ? SoundTypeEnum.SWORD_HIT.ordinal() : SoundTypeEnum.SWORD_BLOCK.ordinal(), locations[i]);
+                    requests += 2;
+                }
+            }
+            if (measured) {
+                poolTime += System.nanoTime() - start;
+                poolBytes += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+            }
+            check(renderer.playing <= Constants.MAX_VOICES && pool.getActiveVoices() <= Constants.MAX_VOICES, "source count stays within the cap");
+        }
+
+        //what a clone per swing and hit used to allocate for the same number of sounds
+        AudioNode swing = samples[SoundTypeEnum.SWORD_SWING.ordinal()][0];
+        long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (long i = 0; i < requests / 2; i++) {
+            swing.clone();
+        }
+        cloneBytes += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+
+        System.out.printf("%d NPCs: %.3f ms and %d bytes per frame, %d sources at most, %d stolen, %d dropped; cloning would allocate %d bytes per frame%n",
+                NPC_AMOUNT, poolTime / 1_000_000f / FRAMES, poolBytes / FRAMES, renderer.maxPlaying,
+                pool.getStolenVoices(), pool.getDroppedVoices(), cloneBytes / FRAMES);
+        check(renderer.maxPlaying == Constants.MAX_VOICES, "crowd keeps every voice busy");
+        check(pool.getStolenVoices() > 0 && pool.getDroppedVoices() > 0, "crowd makes voices get stolen and dropped");
+        //the scene graph allocates a little for every moved node, so only voices following their characters allocate
+        check(poolBytes / FRAMES < Constants.MAX_VOICES * 64, "allocation per frame is bounded by the voice count, got " + poolBytes / FRAMES + " bytes");
+        check(poolBytes * 10 < cloneBytes, "the pool allocates far less than a clone per sound");
+    }
+
+    private static AudioNode createSample(String name, boolean looping) {
+        AudioBuffer buffer = new AudioBuffer();
+        buffer.setupFormat(1, 16, 44100);
+        AudioNode sample = new AudioNode(buffer, new AudioKey(name));
+        sample.setLooping(looping);
+        sample.setPitch(Constants.SOUND_PITCH);
+        return sample;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    //stands in for OpenAL, a channel per playing source, sounds that do not loop stop after a while
+    private static class CountingRenderer implements AudioRenderer {
+        private final AudioSource[] channels = new AudioSource[1024];
+        private final int[] endFrames = new int[channels.length];
+        private int frame;
+        private int playing;
+        private int maxPlaying;
+
+        void finish(int frame) {
+            this.frame = frame;
+            for (int channel = 0; channel < channels.length; channel++) {
+                if (channels[channel] != null && !channels[channel].isLooping() && endFrames[channel] <= frame) {
+                    stopSource(channels[channel]);
+                }
+            }
+        }
+
+        void finishAll() {
+            for (AudioSource source : channels) {
+                if (source != null) {
+                    stopSource(source);
+                }
+            }
+        }
+
+        @Override
+        public void playSource(AudioSource source) {
+            for (int channel = 0; channel < channels.length; channel++) {
+                if (channels[channel] == null) {
+                    channels[channel] = source;
+                    endFrames[channel] = frame + SWORD_SOUND_FRAMES;
+                    source.setChannel(channel);
+                    source.setStatus(AudioSource.Status.Playing);
+                    playing++;
+                    maxPlaying = Math.max(maxPlaying, playing);
+                    return;
+                }
+            }
+            throw new IllegalStateException("out of channels");
+        }
+
+        @Override
+        public void stopSource(AudioSource source) {
+            source.setStatus(AudioSource.Status.Stopped);
+            if (source.getChannel() >= 0) {
+                channels[source.getChannel()] = null;
+                source.setChannel(-1);
+                playing--;
+            }
+        }
+
+        @Override public void setListener(Listener listener) {}
+        @Override public void setEnvironment(Environment environment) {}
+        @Override public void playSourceInstance(AudioSource source) {}
+        @Override public void pauseSource(AudioSource source) {}
+        @Override public void updateSourceParam(AudioSource source, AudioParam param) {}
+        @Override public void updateListenerParam(Listener listener, ListenerParam param) {}
+        @Override public float getSourcePlaybackTime(AudioSource source) { return 0; }
+        @Override public void deleteFilter(Filter filter) {}
+        @Override public void deleteAudioData(AudioData audioData) {}
+        @Override public void initialize() {}
+        @Override public void update(float tpf) {}
+        @Override public void pauseAll() {}
+        @Override public void resumeAll() {}
+        @Override public void cleanup() {}
+    }
+}
@@ -22,7 +22,6 @@ import com.jme3.animation.AnimChannel;
 import com.jme3.animation.AnimControl;
 import com.jme3.animation.AnimEventListener;
 import com.jme3.animation.SkeletonControl;
-import com.jme3.audio.AudioNode;
 import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
 import com.jme3.renderer.queue.RenderQueue;
@@ -32,6 +31,7 @@ import com.jme3.system.AppSettings;
 import com.jme3.util.TangentBinormalGenerator;
 import ru.arifolth.anjrpg.interfaces.Constants;
 import ru.arifolth.anjrpg.interfaces.Debug;
+import ru.arifolth.anjrpg.interfaces.SoundManagerInterface;
 import ru.arifolth.anjrpg.interfaces.SoundTypeEnum;
 
 /*
@@ -51,6 +51,14 @@ public abstract class AnimatedCharacter extends BaseCharacter implements AnimEve
     private AnimChannel animationChannel;
     private AnimChannel attackChannel;
     private AnimControl animationControl;
+    private SkeletonControl skeletonControl;
+    private boolean animationEnabled = true;
+    //frames between skeleton updates, 1 lets the AnimControl update itself every frame
+    private int animationInterval = 1;
+    private int animationFrame = System.identityHashCode(this);
+    private float animationTime;
+    //sound emitter foot steps are reported for, -1 until the character first walks
+    private int soundEmitter = -1;
 
     protected void initializeCharacterModel() {
         /*
@@ -94,6 +102,7 @@ public abstract class AnimatedCharacter extends BaseCharacter implements AnimEve
     @Override
     protected void initializeAnimation() {
         animationControl = characterModel.getControl(AnimControl.class);
+        skeletonControl = characterModel.getControl(SkeletonControl.class);
         animationControl.addListener(this);
         animationChannel = animationControl.createChannel();
         animationChannel.setAnim("Idle3");
@@ -133,46 +142,81 @@ public abstract class AnimatedCharacter extends BaseCharacter implements AnimEve
 
     @Override
     public void initializeSounds() {
-        getNode().detachChildNamed(SoundTypeEnum.FOOTSTEPS.name());
+        stopFootsteps();
+    }
+
+    protected void playSound(SoundTypeEnum soundType) {
+        gameLogicCore.getSoundManager().playSound(soundType, getNode().getWorldTranslation());
+    }
 
-        AudioNode audioNode = gameLogicCore.getSoundManager().getSoundNode(SoundTypeEnum.FOOTSTEPS);
-        audioNode.setName(SoundTypeEnum.FOOTSTEPS.name());
+    /**
+     * Reports the character walking this frame, the sound manager decides whether its foot steps are heard.
+     */
+    protected void playFootsteps(boolean running) {
+        SoundManagerInterface soundManager = gameLogicCore.getSoundManager();
+        if (soundEmitter < 0) {
+            soundEmitter = soundManager.addSoundEmitter();
+        }
+        soundManager.playFootsteps(soundEmitter, getNode().getWorldTranslation(), running ? 1.05f : 0.65f);
+    }
 
-        getNode().attachChild(audioNode);
+    protected void stopFootsteps() {
+        if (soundEmitter >= 0) {
+            gameLogicCore.getSoundManager().stopFootsteps(soundEmitter);
+        }
     }
 
-    protected void playSwordSound(AudioNode swordSoundNode) {
-        getNode().attachChild(swordSoundNode);
-        swordSoundNode.play();
-        getNode().detachChildNamed(swordSoundNode.getName());
+    protected void removeSoundEmitter() {
+        if (soundEmitter >= 0) {
+            gameLogicCore.getSoundManager().removeSoundEmitter(soundEmitter);
+            soundEmitter = -1;
+        }
     }
 
-    protected AudioNode getSwordBlockNode() {
-        AudioNode audioNode = gameLogicCore.getSoundManager().getSoundNode(SoundTypeEnum.SWORD_BLOCK);
-        audioNode.setName(SoundTypeEnum.SWORD_BLOCK.name());
-        return audioNode;
+    protected void setAnimationEnabled(boolean enabled) {
+        animationEnabled = enabled;
+        animationTime = 0;
+        enableAnimationControls(animationInterval == 1);
     }
 
-    protected AudioNode getSwordSwingNode() {
-        AudioNode audioNode = gameLogicCore.getSoundManager().getSoundNode(SoundTypeEnum.SWORD_SWING);
-        audioNode.setName(SoundTypeEnum.SWORD_SWING.name());
-        return audioNode;
+    /**
+     * Poses and skins the model only every given frame with the time gathered in between, see updateAnimation.
+     * Characters updated at different frames are spread over them.
+     */
+    protected void setAnimationInterval(int frames) {
+        animationInterval = frames;
+        animationTime = 0;
+        enableAnimationControls(frames == 1);
     }
 
-    protected AudioNode getSwordHitNode() {
-        AudioNode audioNode = gameLogicCore.getSoundManager().getSoundNode(SoundTypeEnum.SWORD_HIT);
-        audioNode.setName(SoundTypeEnum.SWORD_HIT.name());
-        return audioNode;
+    /**
+     * Has to be called every frame before the scene update while the animation interval is above one.
+     */
+    protected void updateAnimation(float tpf) {
+        if (!animationEnabled || animationInterval == 1) {
+            return;
+        }
+        animationTime += tpf;
+        boolean posing = ++animationFrame % animationInterval == 0;
+        if (posing) {
+            //a disabled control ignores updates, it stays disabled so the scene update skips it
+            animationControl.setEnabled(true);
+            animationControl.update(animationTime);
+            animationControl.setEnabled(false);
+            animationTime = 0;
+        }
+        //skinning matrices are only worth computing again for a new pose, the model keeps the last one in between
+        if (skeletonControl != null) {
+            skeletonControl.setEnabled(posing);
+        }
     }
 
-    protected AudioNode getPlayerStepsNode(boolean running) {
-        AudioNode playerStepsNode = (AudioNode) (getNode().getChild(SoundTypeEnum.FOOTSTEPS.name()));
-        if (!running) {
-            playerStepsNode.setPitch(0.65f);
-        } else {
-            playerStepsNode.setPitch(1.05f);
+    //the scene update drives the controls itself only when the character animates every frame
+    private void enableAnimationControls(boolean everyFrame) {
+        animationControl.setEnabled(animationEnabled && everyFrame);
+        if (skeletonControl != null) {
+            skeletonControl.setEnabled(animationEnabled && everyFrame);
         }
-        return playerStepsNode;
     }
 
     public AnimChannel getAnimationChannel() {
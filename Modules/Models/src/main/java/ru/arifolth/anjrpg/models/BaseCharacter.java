@@ -20,6 +20,7 @@ package ru.arifolth.anjrpg.models;
 
 import com.jme3.bullet.collision.shapes.CapsuleCollisionShape;
 import com.jme3.bullet.control.CharacterControl;
+import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import ru.arifolth.anjrpg.interfaces.*;
@@ -29,7 +30,9 @@ public abstract class BaseCharacter implements CharacterInterface {
     protected CharacterControl characterControl;
     protected Spatial characterModel;
     protected HealthBarInterface healthBar;
+    protected AiLevelEnum aiLevel = AiLevelEnum.FULL;
     private Node characterNode = new Node();
+    private final Vector3f location = new Vector3f(), enemyLocation = new Vector3f();
 
     public BaseCharacter() {
     }
@@ -62,13 +65,13 @@ public abstract class BaseCharacter implements CharacterInterface {
         // The CharacterControl offers extra settings for
         // size, stepheight, jumping, falling, and gravity.
         // We also put the characterControl in its starting position.
-        CapsuleCollisionShape capsuleShape = new CapsuleCollisionShape(1.5f, 6f, 1);
+        CapsuleCollisionShape capsuleShape = new CapsuleCollisionShape(Constants.CHARACTER_RADIUS, Constants.CHARACTER_HEIGHT, 1);
         characterControl = new CharacterControl(capsuleShape, 0.8f);
         setUpDefaultPhysics();
         addPhysixControl();
     }
 
-    private void addPhysixControl() {
+    protected void addPhysixControl() {
         gameLogicCore.getBulletAppState().getPhysicsSpace().add(characterControl);
     }
 
@@ -119,7 +122,7 @@ public abstract class BaseCharacter implements CharacterInterface {
             return false;
 
         CharacterControl control = enemy.getCharacterControl();
-        float dist = control.getPhysicsLocation().distanceSquared(characterControl.getPhysicsLocation());
+        float dist = control.getPhysicsLocation(enemyLocation).distanceSquared(characterControl.getPhysicsLocation(location));
 
         if (dist <= distance * distance) {
             return true;
@@ -145,4 +148,14 @@ public abstract class BaseCharacter implements CharacterInterface {
     public boolean isInCombat() {
         return combatTracker.isInCombat();
     }
+
+    @Override
+    public AiLevelEnum getAiLevel() {
+        return aiLevel;
+    }
+
+    @Override
+    public void setAiLevel(AiLevelEnum aiLevel) {
+        this.aiLevel = aiLevel;
+    }
 }
@@ -0,0 +1,260 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package ru.arifolth.anjrpg.models;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import ru.arifolth.anjrpg.interfaces.NavigationGrid;
+import ru.arifolth.anjrpg.interfaces.NodeHeap;
+
+import java.util.Arrays;
+
+/**
+ * Direction towards a moving target for every walkable cell of a square region of the navigation grid centered on it.
+ * Rebuilt by Dijkstra from the target whenever the target enters another cell. A rebuild is spread over frames
+ * within a node budget and swapped in once complete, pursuers keep sampling the previous field meanwhile.
+ * Sampling is a table lookup, so pursuit costs the same whatever the number of pursuers.
+ * Updated on the render thread, may be sampled from any thread while no update runs.
+ */
+public class FlowField {
+    private static final byte NONE = -1;
+    private static final float DIAGONAL_COST = FastMath.sqrt(2);
+    private static final int[] NEIGHBOUR_X = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] NEIGHBOUR_Z = {0, 0, 1, -1, 1, -1, 1, -1};
+    //index of the neighbour in the opposite direction
+    private static final byte[] OPPOSITE = {1, 0, 3, 2, 7, 6, 5, 4};
+    private static final float[] DIRECTION_X = new float[NEIGHBOUR_X.length];
+    private static final float[] DIRECTION_Z = new float[NEIGHBOUR_Z.length];
+
+    static {
+        for (int i = 0; i < NEIGHBOUR_X.length; i++) {
+            float length = FastMath.sqrt(NEIGHBOUR_X[i] * NEIGHBOUR_X[i] + NEIGHBOUR_Z[i] * NEIGHBOUR_Z[i]);
+            DIRECTION_X[i] = NEIGHBOUR_X[i] / length;
+            DIRECTION_Z[i] = NEIGHBOUR_Z[i] / length;
+        }
+    }
+
+    private final NavigationGrid grid;
+    private final int size;
+    private final int shift;
+    private final int mask;
+    private final int nodeBudget;
+
+    //rebuild in progress
+    private final boolean[] walkable;
+    private final float[] cost;
+    private final int[] visited;
+    private final int[] closed;
+    private final NodeHeap open;
+    private byte[] building;
+    private int buildOriginX;
+    private int buildOriginZ;
+    private int buildTargetX;
+    private int buildTargetZ;
+    private boolean isBuilding;
+    private int stamp;
+    private int buildFrames;
+    private int buildExpansions;
+
+    //field being sampled
+    private byte[] directions;
+    private int originX;
+    private int originZ;
+    private int targetX;
+    private int targetZ;
+    private boolean isReady;
+
+    private long builds;
+    private int lastBuildFrames;
+    private int lastBuildExpansions;
+
+    /**
+     * @param size side of the region in cells, rounded down to a power of two
+     * @param nodeBudget nodes expanded per update
+     */
+    public FlowField(NavigationGrid grid, int size, int nodeBudget) {
+        this.grid = grid;
+        this.size = Integer.highestOneBit(size);
+        this.shift = Integer.numberOfTrailingZeros(this.size);
+        this.mask = this.size - 1;
+        this.nodeBudget = nodeBudget;
+
+        int cells = this.size * this.size;
+        walkable = new boolean[cells];
+        cost = new float[cells];
+        visited = new int[cells];
+        closed = new int[cells];
+        open = new NodeHeap(cells);
+        building = new byte[cells];
+        directions = new byte[cells];
+    }
+
+    /**
+     * Must be called once per frame on the render thread, before the pursuers sample the field.
+     */
+    public void update(Vector3f target) {
+        int cellX = grid.getCell(target.x);
+        int cellZ = grid.getCell(target.z);
+        if (!isBuilding && (!isReady || cellX != targetX || cellZ != targetZ)) {
+            begin(cellX, cellZ);
+        }
+        if (isBuilding) {
+            step();
+        }
+    }
+
+    /**
+     * Stores the unit direction to walk in from the location towards the target.
+     * @return false if the location lies outside of the field, in its target cell or can not reach the target
+     */
+    public boolean getDirection(Vector3f location, Vector3f store) {
+        if (!isReady) {
+            return false;
+        }
+        int x = grid.getCell(location.x) - originX;
+        int z = grid.getCell(location.z) - originZ;
+        if (x < 0 || z < 0 || x >= size || z >= size) {
+            return false;
+        }
+
+        byte direction = directions[(z << shift) + x];
+        if (direction == NONE) {
+            return false;
+        }
+        store.set(DIRECTION_X[direction], 0, DIRECTION_Z[direction]);
+        return true;
+    }
+
+    private void begin(int cellX, int cellZ) {
+        buildTargetX = cellX;
+        buildTargetZ = cellZ;
+        buildOriginX = cellX - size / 2;
+        buildOriginZ = cellZ - size / 2;
+        grid.getWalkable(buildOriginX, buildOriginZ, size, size, walkable);
+        Arrays.fill(building, NONE);
+
+        if (++stamp == 0) {
+            Arrays.fill(visited, 0);
+            Arrays.fill(closed, 0);
+            stamp = 1;
+        }
+        open.clear();
+        isBuilding = true;
+        buildFrames = 0;
+        buildExpansions = 0;
+
+        //target may stand next to an obstacle, its cell is walkable whatever the grid says
+        int target = ((cellZ - buildOriginZ) << shift) + (cellX - buildOriginX);
+        walkable[target] = true;
+        visited[target] = stamp;
+        cost[target] = 0;
+        open.push(target, 0);
+    }
+
+    private void step() {
+        buildFrames++;
+        int expansions = 0;
+        while (expansions < nodeBudget && !open.isEmpty()) {
+            expand(open.pop());
+            expansions++;
+        }
+        buildExpansions += expansions;
+
+        if (open.isEmpty()) {
+            finish();
+        }
+    }
+
+    //neighbours head back to the node they were reached from
+    private void expand(int node) {
+        closed[node] = stamp;
+        int x = node & mask;
+        int z = node >> shift;
+        for (int i = 0; i < NEIGHBOUR_X.length; i++) {
+            int neighbourX = x + NEIGHBOUR_X[i];
+            int neighbourZ = z + NEIGHBOUR_Z[i];
+            if (neighbourX < 0 || neighbourZ < 0 || neighbourX >= size || neighbourZ >= size) {
+                continue;
+            }
+            int neighbour = (neighbourZ << shift) + neighbourX;
+            if (closed[neighbour] == stamp || !walkable[neighbour]) {
+                continue;
+            }
+
+            float stepCost = 1f;
+            if (i >= 4) {
+                //no cutting corners of blocked cells
+                if (!walkable[(z << shift) + neighbourX] || !walkable[(neighbourZ << shift) + x]) {
+                    continue;
+                }
+                stepCost = DIAGONAL_COST;
+            }
+
+            float neighbourCost = cost[node] + stepCost;
+            if (visited[neighbour] != stamp) {
+                visited[neighbour] = stamp;
+                cost[neighbour] = neighbourCost;
+                building[neighbour] = OPPOSITE[i];
+                open.push(neighbour, neighbourCost);
+            } else if (neighbourCost < cost[neighbour]) {
+                cost[neighbour] = neighbourCost;
+                building[neighbour] = OPPOSITE[i];
+                open.decreaseKey(neighbour, neighbourCost);
+            }
+        }
+    }
+
+    private void finish() {
+        byte[] swap = directions;
+        directions = building;
+        building = swap;
+        originX = buildOriginX;
+        originZ = buildOriginZ;
+        targetX = buildTargetX;
+        targetZ = buildTargetZ;
+        isReady = true;
+        isBuilding = false;
+
+        builds++;
+        lastBuildFrames = buildFrames;
+        lastBuildExpansions = buildExpansions;
+    }
+
+    public boolean isReady() {
+        return isReady;
+    }
+
+    public long getBuilds() {
+        return builds;
+    }
+
+    /**
+     * @return frames the last complete rebuild was spread over
+     */
+    public int getLastBuildFrames() {
+        return lastBuildFrames;
+    }
+
+    public int getLastBuildExpansions() {
+        return lastBuildExpansions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
@@ -32,6 +32,7 @@ public class HealthBar implements HealthBarInterface {
     private final AssetManager assetManager;
     private final PlayerCharacter character;
     private Geometry healthbar;
+    private float displayedHealth;
 
     public HealthBar(AssetManager assetManager, PlayerCharacter character) {
         this.assetManager = assetManager;
@@ -45,7 +46,8 @@ public class HealthBar implements HealthBarInterface {
         // add healthbar
         BillboardControl billboard = new BillboardControl();
         //new Quad(HEALTHBAR_LENGTH, HELTHBAR_HEIGHT))
-        healthbar = new Geometry(this.getClass().getName(), new Quad(character.getHealth() / 25f, 0.2f));
+        displayedHealth = character.getHealth();
+        healthbar = new Geometry(this.getClass().getName(), new Quad(displayedHealth / 25f, 0.2f));
         Material mathb = new Material(assetManager, "Common/MatDefs/Misc/Unshaded.j3md");
         mathb.setColor("Color", ColorRGBA.Red);
         healthbar.setMaterial(mathb);
@@ -62,7 +64,11 @@ public class HealthBar implements HealthBarInterface {
 
     @Override
     public void update() {
-        ((Quad) healthbar.getMesh()).updateGeometry(character.getHealth() / 25f, 0.2f);
+        //updateGeometry reallocates the mesh buffers, so only rebuild the bar once health has changed
+        if (character.getHealth() != displayedHealth) {
+            displayedHealth = character.getHealth();
+            ((Quad) healthbar.getMesh()).updateGeometry(displayedHealth / 25f, 0.2f);
+        }
     }
 
     @Override
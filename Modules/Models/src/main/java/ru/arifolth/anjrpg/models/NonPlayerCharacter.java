@@ -24,25 +24,41 @@ import com.jme3.animation.AnimControl;
 import com.jme3.animation.LoopMode;
 import com.jme3.animation.SkeletonControl;
 import com.jme3.math.FastMath;
-import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
 import com.jme3.system.AppSettings;
+import ru.arifolth.anjrpg.interfaces.AiAgentInterface;
+import ru.arifolth.anjrpg.interfaces.AiLevelEnum;
 import ru.arifolth.anjrpg.interfaces.CharacterInterface;
 import ru.arifolth.anjrpg.interfaces.Constants;
 import ru.arifolth.anjrpg.interfaces.Debug;
+import ru.arifolth.anjrpg.interfaces.SoundTypeEnum;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class NonPlayerCharacter extends PlayerCharacter {
+public class NonPlayerCharacter extends PlayerCharacter implements AiAgentInterface {
     final private static Logger LOGGER = Logger.getLogger(NonPlayerCharacter.class.getName());
+
+    private enum Decision {
+        IDLE,
+        WALK,
+        ATTACK
+    }
+
     protected float turnRate;
     protected float firingRange;
     protected float walkingRange;
     protected float walkSpeed;
-    protected Vector3f walkDirection, viewDirection;
+    protected Vector3f walkDirection = new Vector3f(), viewDirection = new Vector3f();
+    //scratch vectors, so steering does not allocate every frame
+    private final Vector3f location = new Vector3f(), targetLocation = new Vector3f(), targetDirection = new Vector3f(), steeringDirection = new Vector3f();
     protected CharacterInterface playerCharacter;
+    //shared by all NPCs chasing the player
+    protected FlowField flowField;
+    //frame time since the last AI tick, and the part of it the current tick decides on
+    private float aiTime, tickTime;
+    private Decision decision = Decision.IDLE;
 
     public NonPlayerCharacter() {
         super();
@@ -66,26 +82,103 @@ public class NonPlayerCharacter extends PlayerCharacter {
         this.playerCharacter = playerCharacter;
     }
 
+    public void setFlowField(FlowField flowField) {
+        this.flowField = flowField;
+    }
+
+    /**
+     * Runs all the AI steps at once, AiScheduler spreads them over frames and threads instead.
+     */
     public void update(float tpf) {
-        if(isDead() || playerCharacter.isDead())
-            return;
+        elapse(tpf);
+        if(sense()) {
+            think();
+            act();
+        }
+    }
 
-        shootUpdate(tpf);
+    @Override
+    public void elapse(float tpf) {
+        aiTime += tpf;
+        updateAnimation(tpf);
+    }
 
-        if (withinRange(walkingRange, playerCharacter)) {
-            turningTo(playerCharacter.getCharacterControl().getPhysicsLocation());
+    @Override
+    public boolean sense() {
+        if(isDead() || playerCharacter.isDead() || aiLevel == AiLevelEnum.FROZEN)
+            return false;
+
+        characterControl.getPhysicsLocation(location);
+        playerCharacter.getCharacterControl().getPhysicsLocation(targetLocation);
+        viewDirection.set(characterControl.getViewDirection());
+        tickTime = aiTime;
+        aiTime = 0;
+        return true;
+    }
 
-            if (withinRange(firingRange, playerCharacter)) {
-                stop();
-                attack();
-            } else {
-                walkForward();
-            }
+    //follows the flow field around obstacles, heads straight at the player close by or where the field has no direction
+    private Vector3f getSteeringDirection(float distanceSquared) {
+        if(distanceSquared > Constants.FLOW_FIELD_DIRECT_DISTANCE * Constants.FLOW_FIELD_DIRECT_DISTANCE &&
+                flowField != null && flowField.getDirection(location, steeringDirection))
+            return steeringDirection;
+        return targetDirection;
+    }
+
+    @Override
+    public void think() {
+        shootUpdate(tickTime);
+
+        targetLocation.subtract(location, targetDirection);
+        float distanceSquared = targetDirection.lengthSquared();
+        if (distanceSquared > walkingRange * walkingRange) {
+            decision = Decision.IDLE;
+        } else if (aiLevel == AiLevelEnum.FULL) {
+            Steering.turnTowards(viewDirection, getSteeringDirection(distanceSquared), turnRate);
+            decision = distanceSquared <= firingRange * firingRange ? Decision.ATTACK : Decision.WALK;
+        } else {
+            //mid-range NPCs face their way straight away and keep walking, physics carries them on between ticks
+            Vector3f direction = getSteeringDirection(distanceSquared);
+            viewDirection.set(direction.x, 0, direction.z).normalizeLocal();
+            decision = Decision.WALK;
+        }
+    }
+
+    @Override
+    public void act() {
+        characterControl.setViewDirection(viewDirection);
+
+        if (decision == Decision.WALK) {
+            walkForward();
         } else {
             stop();
+            if (decision == Decision.ATTACK) {
+                attack();
+            }
         }
 
-        healthBarUpdate(tpf);
+        if(aiLevel == AiLevelEnum.FULL)
+            healthBarUpdate(tickTime);
+    }
+
+    @Override
+    public void setAiLevel(AiLevelEnum aiLevel) {
+        if(this.aiLevel == aiLevel)
+            return;
+
+        if(aiLevel == AiLevelEnum.FROZEN) {
+            //stand still out of the physics space, so far away NPCs cost neither physics nor animation time
+            walkDirection.set(0f, 0f, 0f);
+            characterControl.setWalkDirection(walkDirection);
+            this.stopFootsteps();
+            removePhysixControl();
+            setAnimationEnabled(false);
+        } else if(this.aiLevel == AiLevelEnum.FROZEN) {
+            addPhysixControl();
+            setAnimationEnabled(true);
+        }
+        //posing and skinning mid-range NPCs at a lower rate goes unnoticed, frozen ones neither pose nor skin at all
+        setAnimationInterval(aiLevel == AiLevelEnum.REDUCED ? Constants.AI_REDUCED_ANIMATION_INTERVAL : 1);
+        super.setAiLevel(aiLevel);
     }
 
     protected void healthBarUpdate(float k) {
@@ -109,76 +202,37 @@ public class NonPlayerCharacter extends PlayerCharacter {
 //        gameLogicCore
         animationDelegate.attackAnimation();
         LOGGER.log(Level.INFO, "NPC ATTACK!");
-        playSwordSound(getSwordSwingNode());
+        playSound(SoundTypeEnum.SWORD_SWING);
 
         if(!playerCharacter.isBlocking()) {
             playerCharacter.getHealthBar().applyDamage(Constants.DAMAGE);
             LOGGER.log(Level.INFO, "HIT!");
-            playSwordSound(getSwordHitNode());
+            playSound(SoundTypeEnum.SWORD_HIT);
         } else {
             LOGGER.log(Level.INFO, "BLOCKED!");
-            playSwordSound(getSwordBlockNode());
-        }
-    }
-
-    public void turningTo(Vector3f target) {
-        Quaternion diff1 = new Quaternion();
-        Quaternion diff2 = new Quaternion();
-
-        Vector3f newOrient = target.subtract(characterControl.getPhysicsLocation());
-        Vector3f curOrient = characterControl.getViewDirection();
-
-        diff1.lookAt(newOrient, Vector3f.UNIT_Y);
-        diff2.lookAt(curOrient, Vector3f.UNIT_Y);
-        Quaternion diff3 = diff1.subtract(diff2);
-
-        float ydiff = diff3.getY();
-
-        if (FastMath.abs(ydiff) > turnRate) {
-            if (ydiff < 0) {
-                turnRight();
-            } else {
-                turnLeft();
-            }
-        } else {
-            characterControl.setViewDirection(newOrient);
+            playSound(SoundTypeEnum.SWORD_BLOCK);
         }
     }
 
     public void walkForward() {
-        walkDirection = viewDirection = characterControl.getViewDirection().normalize().mult(walkSpeed);
+        walkDirection.set(viewDirection).normalizeLocal().multLocal(walkSpeed);
         characterControl.setWalkDirection(walkDirection);
-        this.getPlayerStepsNode(this.isRunning()).play();
+        //nobody is close enough to hear footsteps of mid-range NPCs
+        if(aiLevel == AiLevelEnum.FULL) {
+            this.playFootsteps(this.isRunning());
+        } else {
+            this.stopFootsteps();
+        }
         animationDelegate.walkingAnimation();
     }
 
     public void stop() {
-        if(walkDirection != null) {
-            walkDirection.set(0f, 0f, 0f);
-            characterControl.setWalkDirection(walkDirection);
-        }
-        this.getPlayerStepsNode(this.isRunning()).pause();
+        walkDirection.set(0f, 0f, 0f);
+        characterControl.setWalkDirection(walkDirection);
+        this.stopFootsteps();
         animationDelegate.idleAnimation();
     }
 
-    public void turnLeft() {
-        viewDirection = characterControl.getViewDirection();
-        Vector3f temp = viewDirection.normalize();
-        Quaternion turn = new Quaternion();
-        turn.fromAngleAxis(turnRate, Vector3f.UNIT_Y);
-        temp = turn.mult(temp);
-        characterControl.setViewDirection(temp);
-    }
-
-    public void turnRight() {
-        viewDirection = characterControl.getViewDirection();
-        Vector3f temp = viewDirection.normalize();
-        Quaternion turn = new Quaternion();
-        turn.fromAngleAxis(-turnRate, Vector3f.UNIT_Y);
-        temp = turn.mult(temp);
-        characterControl.setViewDirection(temp);
-    }
-
     @Override
     protected void initializeSkeletonDebug() {
         AppSettings settings = gameLogicCore.getApp().getContext().getSettings();
@@ -212,10 +266,10 @@ public class NonPlayerCharacter extends PlayerCharacter {
         this.getNode().removeControl(characterControl);
         this.getNode().detachChild(characterModel);
 
-        this.getPlayerStepsNode(false).pause();
+        this.removeSoundEmitter();
 
         gameLogicCore.getRootNode().detachChild(this.getNode());
-        gameLogicCore.getCharacterMap().remove(this.getNode());
+        gameLogicCore.getCharacterRegistry().remove(this);
         this.getHealthBar().destroy();
 
         removePhysixControl();
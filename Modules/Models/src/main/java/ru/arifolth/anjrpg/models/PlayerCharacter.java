@@ -22,15 +22,15 @@ import com.jme3.animation.AnimChannel;
 import com.jme3.animation.AnimControl;
 import com.jme3.animation.LoopMode;
 import com.jme3.app.SimpleApplication;
-import com.jme3.collision.CollisionResults;
 import com.jme3.math.ColorRGBA;
-import com.jme3.math.Ray;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.Camera;
 import com.jme3.scene.*;
 import com.jme3.ui.Picture;
 import ru.arifolth.anjrpg.interfaces.*;
 
+import java.util.function.Predicate;
+
 public class PlayerCharacter extends AnimatedCharacter {
     public static final String PLAYER_CHARACTER_MODEL = "Models/Ninja/Ninja.j3o";
     protected final AnimationDelegateInterface animationDelegate = new AnimationDelegate(this);
@@ -51,6 +51,9 @@ public class PlayerCharacter extends AnimatedCharacter {
     protected boolean dead = false;
     protected boolean initializing = true;
     private float health;
+    private MeleeQuery<CharacterInterface> meleeQuery;
+    private final Predicate<CharacterInterface> meleeTargets = character -> character != this && !character.isDead();
+    private final Vector3f attackOrigin = new Vector3f(), attackDirection = new Vector3f();
 
     public PlayerCharacter() {
         this.setModel(PLAYER_CHARACTER_MODEL);
@@ -79,46 +82,39 @@ public class PlayerCharacter extends AnimatedCharacter {
     public void block() {
         animationDelegate.blockAnimation();
 
-        playSwordSound(getSwordSwingNode());
+        playSound(SoundTypeEnum.SWORD_SWING);
     }
 
     public void attack() {
         animationDelegate.attackAnimation();
 
-        playSwordSound(getSwordSwingNode());
-
-        Node enemies = gameLogicCore.getEnemies();
-
-        Ray ray = new Ray(characterControl.getPhysicsLocation(), characterControl.getViewDirection().negate());
-        ray.setLimit(Constants.MELEE_DISTANCE_LIMIT);
-        // Results of the collision test are written into this object
-        CollisionResults results = new CollisionResults();
-
-        // Test for collisions between the road and the ray
-        enemies.collideWith(ray, results);
-        if(results.size() > 0) {
-            Geometry geometry = results.getClosestCollision().getGeometry();
-            if(geometry == null)
-                return;
-            Node parent = geometry.getParent();
-            if(parent == null)
-                return;
-            Node grandParent = parent.getParent();
-            CharacterInterface npc = gameLogicCore.getCharacterMap().get(grandParent);
-            if(npc != null) {
-                boolean blocked = Utils.getRandom(Constants.HIT_PROBABILITY);
-                if(!blocked) {
-                    npc.getHealthBar().applyDamage(Constants.DAMAGE);
-                    playSwordSound(getSwordHitNode());
-                } else {
-                    npc.getAnimationDelegate().blockAnimation();
-                    npc.resetShootCounterByQuarter();
-                    playSwordSound(getSwordBlockNode());
-                }
+        playSound(SoundTypeEnum.SWORD_SWING);
+
+        //swing towards where the model faces, against the view direction
+        characterControl.getPhysicsLocation(attackOrigin);
+        attackDirection.set(characterControl.getViewDirection()).negateLocal();
+
+        CharacterInterface npc = getMeleeQuery().findTarget(attackOrigin, attackDirection, meleeTargets);
+        if(npc != null) {
+            boolean blocked = Utils.getRandom(Constants.HIT_PROBABILITY);
+            if(!blocked) {
+                npc.getHealthBar().applyDamage(Constants.DAMAGE);
+                playSound(SoundTypeEnum.SWORD_HIT);
+            } else {
+                npc.getAnimationDelegate().blockAnimation();
+                npc.resetShootCounterByQuarter();
+                playSound(SoundTypeEnum.SWORD_BLOCK);
             }
         }
     }
 
+    private MeleeQuery<CharacterInterface> getMeleeQuery() {
+        if(meleeQuery == null) {
+            meleeQuery = new MeleeQuery<>(gameLogicCore.getCharacterGrid(), Constants.MELEE_DISTANCE_LIMIT, Constants.MELEE_HALF_ANGLE, Constants.CHARACTER_RADIUS, Constants.CHARACTER_HEIGHT);
+        }
+        return meleeQuery;
+    }
+
     @Override
     public void onAnimCycleDone(AnimControl ctrl, AnimChannel ch, String name) {
         if(name.equals(AnimConstants.ATTACK) && attacking && !attack_pressed) {
@@ -232,13 +228,13 @@ public class PlayerCharacter extends AnimatedCharacter {
         if(!this.isJumping()) {
             if ((this.isUp() || this.isDown() || this.isLeft() || this.isRight())) {
                 animationDelegate.walkingAnimation();
-                this.getPlayerStepsNode(this.isRunning()).play();
+                this.playFootsteps(this.isRunning());
             } else if (this.getWalkDirection().length() == 0) {
                 animationDelegate.idleAnimation();
-                this.getPlayerStepsNode(false).pause();
+                this.stopFootsteps();
             }
         } else {
-            this.getPlayerStepsNode(false).pause();
+            this.stopFootsteps();
         }
 
         if(this.getActionTime() > 0) {
@@ -331,7 +327,7 @@ public class PlayerCharacter extends AnimatedCharacter {
     @Override
     public void spawn() {
         gameLogicCore.getGameStateManager().setGameState(GameState.CALM);
-        gameLogicCore.getGameStateManager().changeState(0.1f);
+        gameLogicCore.getGameStateManager().changeState(Constants.MUSIC_RESPAWN_FADE_TIME);
 
         gameLogicCore.detachGameOverIndicator();
 
@@ -354,7 +350,7 @@ public class PlayerCharacter extends AnimatedCharacter {
 
         animationDelegate.deathAnimation();
 
-        this.getPlayerStepsNode(false).pause();
+        this.stopFootsteps();
 
         gameLogicCore.attachGameOverIndicator();
 
@@ -0,0 +1,64 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.anjrpg.models;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+
+/**
+ * Allocation free steering on the ground plane.
+ * Directions are rotated around the Y axis by a scalar yaw, positive yaw turns Z towards X like Quaternion.fromAngleAxis does.
+ */
+public final class Steering {
+    private Steering() {
+    }
+
+    /**
+     * @return signed yaw in radians that turns the XZ projection of from onto the XZ projection of to
+     */
+    public static float getYaw(Vector3f from, Vector3f to) {
+        float cross = from.z * to.x - from.x * to.z;
+        float dot = from.x * to.x + from.z * to.z;
+        return FastMath.atan2(cross, dot);
+    }
+
+    /**
+     * Rotates the XZ projection of direction by yaw, stores a unit length result and returns it.
+     * The store may be the direction itself.
+     */
+    public static Vector3f rotate(Vector3f direction, float yaw, Vector3f store) {
+        float sin = FastMath.sin(yaw);
+        float cos = FastMath.cos(yaw);
+        float x = direction.x * cos + direction.z * sin;
+        float z = direction.z * cos - direction.x * sin;
+        return store.set(x, 0, z).normalizeLocal();
+    }
+
+    /**
+     * Turns the view direction towards the target direction by at most turnRate radians.
+     * Stores the unit length result in view and returns it.
+     */
+    public static Vector3f turnTowards(Vector3f view, Vector3f target, float turnRate) {
+        float yaw = getYaw(view, target);
+        if (FastMath.abs(yaw) > turnRate) {
+            return rotate(view, yaw < 0 ? -turnRate : turnRate, view);
+        }
+        return view.set(target.x, 0, target.z).normalizeLocal();
+    }
+}
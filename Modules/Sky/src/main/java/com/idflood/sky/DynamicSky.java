@@ -81,7 +81,7 @@ public class DynamicSky extends Node implements SkyInterface {
 
     @Override
     public int getHours() {
-        return dynamicSun.getSunSystem().getCurrentDate().getHours();
+        return dynamicSun.getSunSystem().getHours();
     }
 
     public void updateTime(){
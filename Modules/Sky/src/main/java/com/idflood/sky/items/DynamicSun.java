@@ -26,6 +26,7 @@ public class DynamicSun extends Node {
     private DirectionalLight sunLight = null;
     private Vector3f lightDir = sunSystem.getPosition();
     private Vector3f lightPosition = new Vector3f();
+    private final Vector3f sunTranslation = new Vector3f();
     
     private float scaling = 15000;
     
@@ -82,6 +83,6 @@ public class DynamicSun extends Node {
         updateLightPosition();
         
         sunLight.setDirection(lightDir);
-        sun.setLocalTranslation(lightPosition.mult(0.95f));
+        sun.setLocalTranslation(lightPosition.mult(0.95f, sunTranslation));
     }
 }
@@ -25,18 +25,31 @@
 
 package com.idflood.sky.utils;
 
-import java.util.Calendar;
 import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.TimeZone;
 import java.util.logging.Logger;
 
 import com.jme3.math.Matrix3f;
 import com.jme3.math.Vector3f;
 
+/**
+ * Sun of the solar system seen from a site on earth, driven by a simulation clock.
+ * The clock keeps the Julian date, the mean anomaly, the mean longitude and the sidereal time,
+ * every update advances them by the elapsed time instead of computing them from a calendar date again.
+ * Rotations into local horizon coordinates are kept and rebuilt only once their angle moved by more than ANGLE_THRESHOLD,
+ * so updating allocates nothing.
+ */
 public class SunSystem {
     private static final Logger logger = Logger.getLogger(SunSystem.class.getName());
     private static float distScaleFactor = 10000;
+    private static final double J2000 = 2451545.0;
+    private static final double UNIX_EPOCH_JD = 2440587.5;
+    private static final double SECONDS_PER_DAY = 86400;
+    private static final double DAYS_PER_CENTURY = 36525;
+    private static final double TWO_PI = Math.PI * 2;
+    //radians a rotation has to move by before its matrix gets rebuilt
+    private static final float ANGLE_THRESHOLD = 1e-6f;
+
     double lambda;
     double beta;
     double r;
@@ -44,17 +57,35 @@ public class SunSystem {
     double betaOffset;
     double rOffset;
 
-    Date currentDate;
+    //simulation clock, angles are kept within (-2PI, 2PI) so they do not lose precision while the clock runs
+    private double JD;
+    //summing seconds instead of days keeps the date exact while ticks are whole seconds
+    private double startJD;
+    private double elapsedSeconds;
+    private double T;
+    private double meanAnomaly;
+    private double meanLongitude;
+    private double siderealTime;
+    //time of day at the time zone the clock was started in
+    private final double startSecondOfDay;
+    private int hours;
 
     Vector3f sunPosition = new Vector3f();
+    private final Vector3f sunDirection = new Vector3f();
+    private final Vector3f ecliptic = new Vector3f();
+    private final Matrix3f matRx = new Matrix3f();
+    private final Matrix3f matRy = new Matrix3f();
+    private final Matrix3f matRz = new Matrix3f();
+    private float angleRx = Float.NaN;
+    private float angleRy = Float.NaN;
+    private float angleRz = Float.NaN;
+
     private boolean debug = false;
     private double xs;
     private double ys;
-    private double JD;
     private float siteLat;
     private float siteLon;
-    private float HR;
-    
+
     /**
      * CONSTRUCTOR: build a solar system sun giving earth date and ecliptic
      * coordinates offsets.<br>
@@ -71,49 +102,22 @@ public class SunSystem {
      *            Distance offset [Km], or 0 for Solar System Sun distance
      */
     public SunSystem(Date currentDate, double lambdaOffset, double betaOffset, double rOffset) {
-        this.currentDate = currentDate;
         this.lambdaOffset = lambdaOffset;
         this.betaOffset = betaOffset;
         this.rOffset = rOffset;
 
-        calculateCartesianCoords(currentDate);
+        long millis = currentDate.getTime();
+        startSecondOfDay = Math.floorMod(millis + TimeZone.getDefault().getOffset(millis), 86_400_000L) / 1000.0;
+        setJulianDate(millis / 1000.0 / SECONDS_PER_DAY + UNIX_EPOCH_JD);
+        calculateCartesianCoords();
     }
 
     /**
      * SOURCE: http://graphics.ucsd.edu/~henrik/papers/nightsky/nightsky.pdf
-     * 
-     * @param date -
-     *            current date
      */
-    private Vector3f calculateCartesianCoords(Date date) {
-        GregorianCalendar gc = new GregorianCalendar();
-        gc.setTimeZone(TimeZone.getTimeZone("UTC"));
-        gc.setTime(date);
-        int DD = gc.get(Calendar.DAY_OF_MONTH);
-        int MM = gc.get(Calendar.MONTH) + 1;
-        int YY = gc.get(Calendar.YEAR);
-        int HOUR = gc.get(Calendar.HOUR_OF_DAY);
-        int MN = gc.get(Calendar.MINUTE);
-
-        // fecha juliana
-        HR = HOUR + (MN / 60.f);
-        double GGG = 1;
-        if (YY <= 1585)
-            GGG = 0;
-        JD = -1 * Math.floor(7 * (Math.floor((MM + 9) / 12.f) + YY) / 4.f);
-        double S = 1;
-        if ((MM - 9) < 0)
-            S = -1;
-        double A = Math.abs(MM - 9);
-        double J1 = Math.floor(YY + S * Math.floor(A / 7.f));
-        J1 = -1 * Math.floor((Math.floor(J1 / 100.f) + 1) * 3 / 4.f);
-        JD = JD + Math.floor(275 * MM / 9.f) + DD + (GGG * J1);
-        JD = JD + 1721027 + 2 * GGG + 367 * YY - 0.5;
-        JD = JD + (HR / 24.f);
-
-        double T = (JD - 2451545.0) / 36525;
-        double M = 6.24 + 628.302 * T;
-        lambda = 4.895048 + 628.331951 * T + (0.033417 - 0.000084 * T) * Math.sin(M) + 0.000351 * Math.sin(2 * M);
+    private Vector3f calculateCartesianCoords() {
+        double M = meanAnomaly;
+        lambda = meanLongitude + (0.033417 - 0.000084 * T) * Math.sin(M) + 0.000351 * Math.sin(2 * M);
         r = (1.000140 - (0.016708 - 0.000042 * T) * Math.cos(M) - 0.000141 * Math.cos(2 * M));
         beta = 0;
 
@@ -122,7 +126,7 @@ public class SunSystem {
         beta += betaOffset;
         r += rOffset;
 
-        sunPosition = new Vector3f(
+        ecliptic.set(
             (float) (r * Math.sin(beta)),
             (float) (r * Math.sin(lambda) * Math.cos(beta)),
             (float) (r * Math.cos(lambda) * Math.cos(beta))
@@ -133,17 +137,26 @@ public class SunSystem {
         float lon = siteLon + (float) (Math.PI * 3 / 2);
         // Convert to local horizon coordinates
         double eta = 0.409093 - 0.000227 * T; // obliquity of the ecliptic
-        double LMST = 4.894961 + 230121.675315 * T + lon; // local sidereal
-        // time
-        Matrix3f matRx = new Matrix3f();
-        Matrix3f matRy = new Matrix3f();
-        Matrix3f matRz = new Matrix3f();
-
-        matRx.fromAngleNormalAxis((float) -eta, new Vector3f(1, 0, 0));
-        matRy.fromAngleNormalAxis((float) -(lat - Math.PI / 2), new Vector3f(0,
-                        1, 0));
-        matRz.fromAngleNormalAxis((float) -LMST, new Vector3f(0, 0, 1));
-        sunPosition = matRz.mult(matRx.mult(matRy.mult(sunPosition)));
+        double LMST = siderealTime + lon; // local sidereal time
+
+        float angle = (float) -eta;
+        if (!(Math.abs(angle - angleRx) <= ANGLE_THRESHOLD)) {
+            angleRx = angle;
+            matRx.fromAngleNormalAxis(angle, Vector3f.UNIT_X);
+        }
+        angle = (float) -(lat - Math.PI / 2);
+        if (!(Math.abs(angle - angleRy) <= ANGLE_THRESHOLD)) {
+            angleRy = angle;
+            matRy.fromAngleNormalAxis(angle, Vector3f.UNIT_Y);
+        }
+        angle = (float) -(LMST % TWO_PI);
+        if (!(Math.abs(angle - angleRz) <= ANGLE_THRESHOLD)) {
+            angleRz = angle;
+            matRz.fromAngleNormalAxis(angle, Vector3f.UNIT_Z);
+        }
+        matRy.mult(ecliptic, sunPosition);
+        matRx.mult(sunPosition, sunPosition);
+        matRz.mult(sunPosition, sunPosition);
 
         // Get long, lat
         xs = Math.atan2(sunPosition.z, -sunPosition.x);
@@ -151,16 +164,42 @@ public class SunSystem {
 
         // Scale distance
         sunPosition.multLocal(distScaleFactor);
+        sunDirection.set(sunPosition).normalizeLocal().negateLocal();
 
         if (debug) {
-            logger.info("SUN SYSTEM > " + DD + "/" + MM + "/" + YY
-                            + " - " + HOUR + ":" + MN);
+            logger.info("SUN SYSTEM > JD " + JD + " - " + hours + "h");
             logger.info("             > POS " + sunPosition);
         }
         
         return sunPosition;
     }
 
+    private void setJulianDate(double julianDate) {
+        JD = julianDate;
+        startJD = julianDate;
+        elapsedSeconds = 0;
+        T = (JD - J2000) / DAYS_PER_CENTURY;
+        meanAnomaly = (6.24 + 628.302 * T) % TWO_PI;
+        meanLongitude = (4.895048 + 628.331951 * T) % TWO_PI;
+        siderealTime = (4.894961 + 230121.675315 * T) % TWO_PI;
+        updateHours();
+    }
+
+    private void advance(double seconds) {
+        double centuries = seconds / SECONDS_PER_DAY / DAYS_PER_CENTURY;
+        elapsedSeconds += seconds;
+        JD = startJD + elapsedSeconds / SECONDS_PER_DAY;
+        T = (JD - J2000) / DAYS_PER_CENTURY;
+        meanAnomaly = (meanAnomaly + 628.302 * centuries) % TWO_PI;
+        meanLongitude = (meanLongitude + 628.331951 * centuries) % TWO_PI;
+        siderealTime = (siderealTime + 230121.675315 * centuries) % TWO_PI;
+        updateHours();
+    }
+
+    private void updateHours() {
+        hours = (int) (((startSecondOfDay + elapsedSeconds) % SECONDS_PER_DAY + SECONDS_PER_DAY) % SECONDS_PER_DAY / 3600);
+    }
+
     public void enableDebug(boolean enable) {
             debug = true;
     }
@@ -170,7 +209,23 @@ public class SunSystem {
      * @return current date
      */
     public Date getCurrentDate() {
-            return currentDate;
+            return new Date(Math.round((JD - UNIX_EPOCH_JD) * SECONDS_PER_DAY * 1000));
+    }
+
+    /**
+     * 
+     * @return hour of the day in the time zone the sun was created in
+     */
+    public int getHours() {
+            return hours;
+    }
+
+    /**
+     * 
+     * @return current Julian date
+     */
+    public double getJulianDate() {
+            return JD;
     }
 
     /**
@@ -191,7 +246,7 @@ public class SunSystem {
 
     /**
      * 
-     * @return sun position, centered at the origin
+     * @return sun position, centered at the origin, updated in place
      */
     public Vector3f getPosition() {
             return sunPosition;
@@ -199,10 +254,10 @@ public class SunSystem {
     
     /**
      * 
-     * @return sun direction as a normalized vector
+     * @return sun direction as a normalized vector, updated in place
      */
     public Vector3f getDirection() {
-            return sunPosition.normalize().mult(-1);
+            return sunDirection;
     }
     
     
@@ -257,13 +312,17 @@ public class SunSystem {
      *            Elapsed seconds
      */
     public Vector3f updateSunPosition(int elapsHH, int elapsMM, int elapsSS) {
-        GregorianCalendar gc = new GregorianCalendar();
-        gc.setTime(currentDate);
-        gc.add(Calendar.HOUR_OF_DAY, elapsHH);
-        gc.add(Calendar.MINUTE, elapsMM);
-        gc.add(Calendar.SECOND, elapsSS);
-        currentDate = gc.getTime();
-
-        return calculateCartesianCoords(gc.getTime());
+        return updateSunPosition(elapsHH * 3600.0 + elapsMM * 60.0 + elapsSS);
+    }
+
+    /**
+     * Advances the clock and updates sun position
+     *
+     * @param seconds -
+     *            Elapsed seconds
+     */
+    public Vector3f updateSunPosition(double seconds) {
+        advance(seconds);
+        return calculateCartesianCoords();
     }
 }
@@ -0,0 +1,191 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.sound;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.audio.AudioContext;
+import com.jme3.audio.AudioData;
+import com.jme3.audio.AudioKey;
+import com.jme3.audio.AudioNode;
+import com.jme3.audio.AudioRenderer;
+import com.jme3.audio.AudioSource;
+import com.jme3.audio.AudioStream;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.MusicTypeEnum;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opens music streams on demand. Music types only register asset names of their tracks,
+ * a decoder is created the first time a track is asked for and released once the track is no longer played.
+ * A single track expected to be asked for next may be opened in the background beforehand.
+ * Must be used from the render thread.
+ */
+public class MusicLibrary {
+    final private static Logger LOGGER = Logger.getLogger(MusicLibrary.class.getName());
+
+    private final AssetManager assetManager;
+    private final ExecutorService executor;
+    private final SplittableRandom random = new SplittableRandom();
+    private final AtomicInteger openStreams = new AtomicInteger();
+    private PrefetchTask prefetchTask;
+    private long prefetchHits;
+
+    public MusicLibrary(AssetManager assetManager) {
+        this.assetManager = assetManager;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Music Prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens a random track of the music type, taking the prefetched one if it is of that type.
+     * @return node streaming the track, to be released once it is no longer played
+     */
+    public AudioNode open(MusicTypeEnum musicType) {
+        PrefetchTask task = prefetchTask;
+        if (task != null && task.musicType == musicType) {
+            prefetchTask = null;
+            try {
+                AudioNode audioNode = task.get();
+                prefetchHits++;
+                return audioNode;
+            } catch (CancellationException | ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Music prefetch failed for " + musicType + ", opening in place", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return load(pickTrack(musicType));
+    }
+
+    /**
+     * Starts opening a track of the music type in the background, replacing a prefetch of another type.
+     */
+    public void prefetch(MusicTypeEnum musicType) {
+        if (musicType == null || MusicTypeEnum.getTracks(musicType).length == 0) {
+            return;
+        }
+        if (prefetchTask != null) {
+            if (prefetchTask.musicType == musicType) {
+                return;
+            }
+            prefetchTask.discard();
+        }
+        prefetchTask = new PrefetchTask(musicType, pickTrack(musicType));
+        executor.execute(prefetchTask);
+    }
+
+    /**
+     * Stops the node and frees its stream along with the audio buffers it was played through.
+     */
+    public void release(AudioNode audioNode) {
+        AudioData audioData = audioNode.getAudioData();
+        //stopping a playing node closes an unseekable stream already, a node that ended on its own or never played still holds it
+        boolean closed = false;
+        if (audioNode.getStatus() != AudioSource.Status.Stopped) {
+            audioNode.stop();
+            closed = audioData instanceof AudioStream && !((AudioStream) audioData).isSeekable();
+        }
+        AudioRenderer renderer = AudioContext.getAudioRenderer();
+        if (renderer != null && audioData instanceof AudioStream && ((AudioStream) audioData).getIds() != null) {
+            renderer.deleteAudioData(audioData);
+        }
+        if (closed) {
+            openStreams.decrementAndGet();
+        } else {
+            close(audioNode);
+        }
+    }
+
+    public int getOpenStreams() {
+        return openStreams.get();
+    }
+
+    public long getPrefetchHits() {
+        return prefetchHits;
+    }
+
+    private String pickTrack(MusicTypeEnum musicType) {
+        String[] tracks = MusicTypeEnum.getTracks(musicType);
+        return tracks[tracks.length == 1 ? 0 : random.nextInt(tracks.length)];
+    }
+
+    private AudioNode load(String track) {
+        //streams are never cached, a track opened twice gets two decoders
+        AudioKey audioKey = new AudioKey(track, true, false);
+        AudioNode audioNode = new AudioNode(assetManager.loadAsset(audioKey), audioKey);
+        openStreams.incrementAndGet();
+        audioNode.setVolume(Constants.SOUND_VOLUME / 6);
+        audioNode.setPositional(false);
+        LOGGER.log(Level.FINE, "Music stream opened: {0}", track);
+        return audioNode;
+    }
+
+    //a node never played holds nothing but its stream
+    private void close(AudioNode audioNode) {
+        AudioData audioData = audioNode.getAudioData();
+        if (audioData instanceof AudioStream) {
+            ((AudioStream) audioData).close();
+            openStreams.decrementAndGet();
+        }
+    }
+
+    private class PrefetchTask extends FutureTask<AudioNode> {
+        private final MusicTypeEnum musicType;
+        private boolean discarded;
+
+        PrefetchTask(MusicTypeEnum musicType, String track) {
+            super(() -> load(track));
+            this.musicType = musicType;
+        }
+
+        //the track is closed by whoever comes second, the prefetch thread finishing or the render thread discarding
+        @Override
+        protected synchronized void set(AudioNode audioNode) {
+            if (discarded) {
+                close(audioNode);
+                audioNode = null;
+            }
+            super.set(audioNode);
+        }
+
+        synchronized void discard() {
+            discarded = true;
+            if (!cancel(false) && isDone()) {
+                try {
+                    AudioNode audioNode = get();
+                    if (audioNode != null) {
+                        close(audioNode);
+                    }
+                } catch (ExecutionException e) {
+                    //nothing was opened
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
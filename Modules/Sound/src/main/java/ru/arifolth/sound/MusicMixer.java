@@ -0,0 +1,239 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.sound;
+
+import com.jme3.audio.AudioNode;
+import com.jme3.audio.AudioSource;
+import com.jme3.math.FastMath;
+import ru.arifolth.anjrpg.interfaces.MusicListener;
+
+import java.util.function.Consumer;
+
+/**
+ * Plays music on a few buses, so one track could fade in while others fade out.
+ * Fades and ducking are scheduled in seconds of mixer time and evaluated from it every frame,
+ * the frame rate changes how often volume gets updated, not how the curve goes.
+ * Crossfades are equal power: the incoming bus follows a sine, outgoing ones a cosine.
+ * Must be used from the render thread.
+ */
+public class MusicMixer {
+    private final Consumer<AudioNode> release;
+    private final AudioNode[] tracks;
+    //gain envelope of every bus
+    private final float[] fadeFrom;
+    private final float[] fadeTo;
+    private final float[] fadeStart;
+    private final float[] fadeTime;
+    private final float[] gains;
+
+    private MusicListener listener;
+    private int currentBus = -1;
+    private float time;
+    private float volume = 1f;
+
+    private float duckFrom = 1f;
+    private float duckLevel = 1f;
+    private float duckStart;
+    private float duckAttack;
+    private float duckHold;
+    private float duckRelease;
+    private float duckGain = 1f;
+
+    /**
+     * @param release called with tracks the mixer is done with, once they were faded out or played to the end
+     */
+    public MusicMixer(int buses, Consumer<AudioNode> release) {
+        this.release = release;
+        this.tracks = new AudioNode[buses];
+        this.fadeFrom = new float[buses];
+        this.fadeTo = new float[buses];
+        this.fadeStart = new float[buses];
+        this.fadeTime = new float[buses];
+        this.gains = new float[buses];
+    }
+
+    public void setListener(MusicListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the track on a free bus fading in over fadeTime seconds while every other bus fades out.
+     * The quietest bus is cut short when none is free. A null track just fades the music out.
+     */
+    public void crossfade(AudioNode track, float fadeTime) {
+        int bus = -1;
+        if (track != null) {
+            bus = getFreeBus();
+            if (bus < 0) {
+                bus = getQuietestBus();
+                stop(bus);
+            }
+            tracks[bus] = track;
+            gains[bus] = 0;
+            schedule(bus, 1f, fadeTime);
+            applyVolume(bus);
+            track.play();
+        }
+
+        for (int other = 0; other < tracks.length; other++) {
+            if (other != bus && tracks[other] != null) {
+                schedule(other, 0f, fadeTime);
+            }
+        }
+        currentBus = bus;
+        update(0);
+    }
+
+    /**
+     * Lowers the music to level over attack seconds, keeps it there for hold seconds and brings it back over release seconds.
+     * Ducking again while ducked starts from the gain reached so far.
+     */
+    public void duck(float level, float attack, float hold, float release) {
+        duckFrom = duckGain;
+        duckLevel = level;
+        duckStart = time;
+        duckAttack = attack;
+        duckHold = hold;
+        duckRelease = release;
+        update(0);
+    }
+
+    public void setVolume(float volume) {
+        this.volume = volume;
+        for (int bus = 0; bus < tracks.length; bus++) {
+            if (tracks[bus] != null) {
+                applyVolume(bus);
+            }
+        }
+    }
+
+    public void update(float tpf) {
+        time += tpf;
+        duckGain = getDuckGain(time - duckStart);
+
+        for (int bus = 0; bus < tracks.length; bus++) {
+            AudioNode track = tracks[bus];
+            if (track == null) {
+                continue;
+            }
+
+            if (track.getStatus() == AudioSource.Status.Stopped) {
+                stop(bus);
+                if (bus == currentBus) {
+                    currentBus = -1;
+                    if (listener != null) {
+                        listener.onMusicFinished();
+                    }
+                }
+                continue;
+            }
+
+            float progress = fadeTime[bus] > 0 ? Math.min((time - fadeStart[bus]) / fadeTime[bus], 1f) : 1f;
+            if (fadeTo[bus] > fadeFrom[bus]) {
+                gains[bus] = fadeFrom[bus] + (fadeTo[bus] - fadeFrom[bus]) * FastMath.sin(progress * FastMath.HALF_PI);
+            } else {
+                gains[bus] = fadeTo[bus] + (fadeFrom[bus] - fadeTo[bus]) * FastMath.cos(progress * FastMath.HALF_PI);
+            }
+
+            if (progress == 1f && fadeTo[bus] == 0) {
+                stop(bus);
+            } else {
+                applyVolume(bus);
+            }
+        }
+    }
+
+    /**
+     * @return the track faded in last, null once it has finished
+     */
+    public AudioNode getCurrentTrack() {
+        return currentBus < 0 ? null : tracks[currentBus];
+    }
+
+    public float getGain(int bus) {
+        return tracks[bus] == null ? 0 : gains[bus];
+    }
+
+    public float getDuckGain() {
+        return duckGain;
+    }
+
+    public float getTime() {
+        return time;
+    }
+
+    public int getBusCount() {
+        return tracks.length;
+    }
+
+    private void schedule(int bus, float to, float time) {
+        fadeFrom[bus] = gains[bus];
+        fadeTo[bus] = to;
+        fadeStart[bus] = this.time;
+        fadeTime[bus] = time;
+    }
+
+    private float getDuckGain(float elapsed) {
+        if (elapsed < duckAttack) {
+            return duckFrom + (duckLevel - duckFrom) * elapsed / duckAttack;
+        }
+        elapsed -= duckAttack;
+        if (elapsed < duckHold) {
+            return duckLevel;
+        }
+        elapsed -= duckHold;
+        if (elapsed < duckRelease) {
+            return duckLevel + (1f - duckLevel) * elapsed / duckRelease;
+        }
+        return 1f;
+    }
+
+    private void applyVolume(int bus) {
+        float trackVolume = volume * gains[bus] * duckGain;
+        if (tracks[bus].getVolume() != trackVolume) {
+            tracks[bus].setVolume(trackVolume);
+        }
+    }
+
+    private int getFreeBus() {
+        for (int bus = 0; bus < tracks.length; bus++) {
+            if (tracks[bus] == null) {
+                return bus;
+            }
+        }
+        return -1;
+    }
+
+    private int getQuietestBus() {
+        int quietest = 0;
+        for (int bus = 1; bus < tracks.length; bus++) {
+            if (gains[bus] < gains[quietest]) {
+                quietest = bus;
+            }
+        }
+        return quietest;
+    }
+
+    private void stop(int bus) {
+        AudioNode track = tracks[bus];
+        tracks[bus] = null;
+        gains[bus] = 0;
+        release.accept(track);
+    }
+}
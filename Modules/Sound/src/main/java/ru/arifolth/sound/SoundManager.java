@@ -20,49 +20,125 @@ package ru.arifolth.sound;
 
 import com.jme3.asset.AssetManager;
 import com.jme3.audio.AudioNode;
+import com.jme3.audio.Listener;
+import com.jme3.math.Vector3f;
 import ru.arifolth.anjrpg.interfaces.*;
 
 import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 public class SoundManager implements SoundManagerInterface {
     final private static Logger LOGGER = Logger.getLogger(SoundManager.class.getName());
+    //sounds of characters, only they go through the voice pool, ambience and menu clicks play on nodes of their own
+    private static final Set<SoundTypeEnum> POOLED_TYPES = EnumSet.of(
+            SoundTypeEnum.FOOTSTEPS, SoundTypeEnum.SWORD_SWING, SoundTypeEnum.SWORD_HIT, SoundTypeEnum.SWORD_BLOCK);
     private float soundVolume = Constants.SOUND_VOLUME;
     private float musicVolume = Constants.SOUND_VOLUME / Constants.MUSIC_VOLUME_MULTIPLIER;
-    private AudioNode currentMusicNode;
-    private MusicTypeEnum nextMusicType;
-    private float fadeOut;
+    private final Listener listener;
+    private VoicePool voicePool;
+    private SpatialAudio spatialAudio;
+    private final MusicLibrary musicLibrary;
+    private final MusicMixer musicMixer;
 
     @Override
-    public AudioNode getCurrentMusicNode() {
-        return currentMusicNode;
+    public void crossfadeMusic(MusicTypeEnum nextMusicType, float fadeTime) {
+        musicMixer.crossfade(nextMusicType == null ? null : getMusicNode(nextMusicType), fadeTime);
     }
 
     @Override
-    public void fadeMusicOut(float tpf, MusicTypeEnum nextMusicType) {
-        if(fadeOut == 0) {
-            fadeOut = tpf / 2;
-        }
-        this.nextMusicType = nextMusicType;
+    public void setMusicListener(MusicListener musicListener) {
+        musicMixer.setListener(musicListener);
     }
 
-    public SoundManager(AssetManager assetManager) {
+    public SoundManager(AssetManager assetManager, Listener listener) {
+        this.listener = listener;
         SoundTypeEnum.setAssetManager(assetManager);
-        MusicTypeEnum.setAssetManager(assetManager);
+        this.musicLibrary = new MusicLibrary(assetManager);
+        this.musicMixer = new MusicMixer(Constants.MUSIC_BUSES, musicLibrary::release);
+        musicMixer.setVolume(soundVolume);
     }
 
     @Override
     public void initialize() {
         EnumSet.allOf(SoundTypeEnum.class).forEach(SoundTypeEnum::init);
+        //registers track names only, streams are opened once the music is asked for
         EnumSet.allOf(MusicTypeEnum.class).forEach(MusicTypeEnum::init);
+
+        SoundTypeEnum[] soundTypes = SoundTypeEnum.values();
+        AudioNode[][] samples = new AudioNode[soundTypes.length][];
+        int[] priorities = new int[soundTypes.length];
+        float[] audibleDistances = new float[soundTypes.length];
+        for (SoundTypeEnum soundType : soundTypes) {
+            //the pool clones every sample MAX_VOICES times up front
+            samples[soundType.ordinal()] = POOLED_TYPES.contains(soundType) ? SoundTypeEnum.getSamples(soundType) : new AudioNode[0];
+            priorities[soundType.ordinal()] = soundType.getPriority();
+            audibleDistances[soundType.ordinal()] = soundType.getAudibleDistance();
+        }
+        voicePool = new VoicePool(samples, priorities, listener, Constants.MAX_VOICES);
+        spatialAudio = new SpatialAudio(voicePool, listener, samples, priorities, audibleDistances,
+                SoundTypeEnum.FOOTSTEPS.ordinal(), Constants.FOOTSTEPS_VOICES, Constants.FOOTSTEPS_NEAR_DISTANCE);
+    }
+
+    public AudioNode getSoundNode(SoundTypeEnum soundType) {
+        return SoundTypeEnum.getClone(soundType);
+    }
+
+    @Override
+    public void playSound(SoundTypeEnum soundType, Vector3f location) {
+        if (spatialAudio.play(soundType.ordinal(), location) && soundType == SoundTypeEnum.SWORD_HIT) {
+            //music makes way for hits landing within hearing
+            musicMixer.duck(Constants.MUSIC_DUCK_LEVEL, Constants.MUSIC_DUCK_ATTACK, Constants.MUSIC_DUCK_HOLD, Constants.MUSIC_DUCK_RELEASE);
+        }
+    }
+
+    @Override
+    public int addSoundEmitter() {
+        return spatialAudio.addEmitter();
+    }
+
+    @Override
+    public void removeSoundEmitter(int emitter) {
+        spatialAudio.removeEmitter(emitter);
+    }
+
+    @Override
+    public void playFootsteps(int emitter, Vector3f location, float pitch) {
+        spatialAudio.setFootsteps(emitter, location, pitch);
     }
 
-    public AudioNode getSoundNode(AudioType musicType) {
-        return SoundTypeEnum.getClone(musicType);
+    @Override
+    public void stopFootsteps(int emitter) {
+        spatialAudio.stopFootsteps(emitter);
+    }
+
+    @Override
+    public int getActiveVoices() {
+        return voicePool.getActiveVoices();
+    }
+
+    @Override
+    public long getStolenVoices() {
+        return voicePool.getStolenVoices();
+    }
+
+    @Override
+    public long getDroppedVoices() {
+        return voicePool.getDroppedVoices();
     }
 
-    public AudioNode getMusicNode(AudioType musicType) {
-        return MusicTypeEnum.getOriginal(musicType);
+    @Override
+    public long getCulledSounds() {
+        return spatialAudio.getCulledSounds();
+    }
+
+    public AudioNode getMusicNode(MusicTypeEnum musicType) {
+        return musicLibrary.open(musicType);
+    }
+
+    @Override
+    public void prefetchMusic(MusicTypeEnum musicType) {
+        musicLibrary.prefetch(musicType);
     }
 
     @Override
@@ -72,22 +148,13 @@ public class SoundManager implements SoundManagerInterface {
 
     @Override
     public void update(float tpf) {
-        if((fadeOut > 0) && (currentMusicNode.getVolume() > 0)) {
-            float volume = currentMusicNode.getVolume() - fadeOut;
-            currentMusicNode.setVolume(Math.max(volume, 0f));
-        } else if(nextMusicType != null){
-            fadeOut = 0;
-            currentMusicNode = getMusicNode(nextMusicType);
-            nextMusicType = null;
-            currentMusicNode.setVolume(soundVolume);
-            currentMusicNode.stop();
-            currentMusicNode.play();
-        }
+        spatialAudio.update();
+        musicMixer.update(tpf);
     }
 
     @Override
     public void setNextMusicType(MusicTypeEnum nextMusicType) {
-        this.nextMusicType = nextMusicType;
+        crossfadeMusic(nextMusicType, 0);
     }
 
     public void setVolume(float volume) {
@@ -97,18 +164,12 @@ public class SoundManager implements SoundManagerInterface {
 
     public void reInitialize(GameLogicCoreInterface gameLogicCore) {
         {
-            //iterate over sound nodes. For now we have only Foot Steps
-            String soundName = SoundTypeEnum.FOOTSTEPS.name();
-            ((AudioNode) gameLogicCore.getPlayerCharacter().getNode().getChild(soundName)).setVolume(soundVolume);
-            gameLogicCore.getCharacterMap().values().forEach(
-                character -> ((AudioNode) character.getNode().getChild(soundName)).setVolume(soundVolume)
-            );
-
             SoundTypeEnum.reInitialize(soundVolume);
+            //voices playing now, like foot steps, pick the new volume up from their samples
+            voicePool.refreshVolume();
         }
         {
-            currentMusicNode.setVolume(musicVolume);
-            MusicTypeEnum.reInitialize(musicVolume);
+            musicMixer.setVolume(musicVolume);
         }
     }
 }
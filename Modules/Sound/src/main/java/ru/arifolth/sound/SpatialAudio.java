@@ -0,0 +1,385 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.sound;
+
+import com.jme3.audio.AudioNode;
+import com.jme3.audio.AudioSource;
+import com.jme3.audio.Listener;
+import com.jme3.math.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * Decides which sound emitters are worth an audio source, so the number of audio renderer calls per frame
+ * stays bounded however many characters make noise.
+ * Sounds farther from the listener than the audible distance of their type are culled before they reach the voice pool.
+ * Audible ones are queued and handed to the pool once a frame, most important first.
+ * Foot steps get reported by every walking emitter each frame. Only the nearest ones within the near distance
+ * get a voice of their own, the rest within the audible distance are mixed into one shared ambient loop,
+ * which plays on a source of its own outside the pool.
+ * Must be used from the render thread.
+ */
+public class SpatialAudio {
+    //a voiced emitter keeps its voice until a new one gets this much closer, so voices do not flip between neighbours
+    private static final float HYSTERESIS = 0.8f;
+    //smaller changes of the ambient loop are not worth a call to the renderer
+    private static final float AMBIENT_STEP = 0.02f;
+
+    private final VoicePool voicePool;
+    private final Listener listener;
+    private final AudioNode[] firstSamples;
+    private final int[] priorities;
+    private final float[] audibleDistancesSquared;
+
+    //sounds waiting for the end of the frame
+    private final int[] queuedTypes;
+    private final float[] queuedDistancesSquared;
+    private final Vector3f[] queuedLocations;
+    private int queueSize;
+
+    //foot steps
+    private final int footstepsType;
+    private final int footstepsVoices;
+    private final float nearDistanceSquared;
+    private final float nearDistance;
+    private final float footstepsAudibleDistance;
+    private final AudioNode ambientLoop;
+    private float ambientVolume;
+    private float ambientPitch;
+
+    //emitters, a removed one is not in use and waits on the free stack
+    private float[] emitterX = new float[0];
+    private float[] emitterY = new float[0];
+    private float[] emitterZ = new float[0];
+    private float[] emitterPitch = new float[0];
+    private float[] emitterRank = new float[0];
+    private int[] emitterVoice = new int[0];
+    private boolean[] emitterWalking = new boolean[0];
+    private boolean[] emitterUsed = new boolean[0];
+    private int[] freeEmitters = new int[0];
+    private int freeCount;
+    private int emitterCount;
+    private int[] candidates = new int[0];
+
+    private final Vector3f location = new Vector3f();
+    private long culledSounds;
+    private int voicedWalkers;
+    private int ambientWalkers;
+
+    /**
+     * @param typeSamples samples of every sound type, indexed by type, the first one tells whether the type is positional
+     * @param audibleDistances distance from the listener every sound type is culled beyond, indexed by type
+     * @param footstepsVoices how many walking emitters get a voice of their own
+     * @param nearDistance distance from the listener walking emitters may get a voice of their own within
+     */
+    public SpatialAudio(VoicePool voicePool, Listener listener, AudioNode[][] typeSamples, int[] priorities, float[] audibleDistances,
+                        int footstepsType, int footstepsVoices, float nearDistance) {
+        this.voicePool = voicePool;
+        this.listener = listener;
+        this.priorities = priorities.clone();
+        this.firstSamples = new AudioNode[typeSamples.length];
+        this.audibleDistancesSquared = new float[typeSamples.length];
+        for (int type = 0; type < typeSamples.length; type++) {
+            firstSamples[type] = typeSamples[type].length == 0 ? null : typeSamples[type][0];
+            audibleDistancesSquared[type] = audibleDistances[type] * audibleDistances[type];
+        }
+
+        int queueLength = voicePool.getMaxVoices();
+        this.queuedTypes = new int[queueLength];
+        this.queuedDistancesSquared = new float[queueLength];
+        this.queuedLocations = new Vector3f[queueLength];
+        for (int i = 0; i < queueLength; i++) {
+            queuedLocations[i] = new Vector3f();
+        }
+
+        this.footstepsType = footstepsType;
+        this.footstepsVoices = footstepsVoices;
+        this.nearDistance = nearDistance;
+        this.nearDistanceSquared = nearDistance * nearDistance;
+        this.footstepsAudibleDistance = audibleDistances[footstepsType];
+        if (firstSamples[footstepsType] != null) {
+            ambientLoop = firstSamples[footstepsType].clone();
+            ambientLoop.setPositional(false);
+            ambientLoop.setLooping(true);
+        } else {
+            ambientLoop = null;
+        }
+    }
+
+    /**
+     * Queues the sound to be played at the end of the frame.
+     * @return false when the sound was culled, being out of hearing or less important than every queued sound
+     */
+    public boolean play(int type, Vector3f location) {
+        AudioNode sample = firstSamples[type];
+        if (sample == null) {
+            return false;
+        }
+        float distanceSquared = sample.isPositional() ? getDistanceSquared(location.x, location.y, location.z) : 0;
+        if (distanceSquared > audibleDistancesSquared[type]) {
+            culledSounds++;
+            return false;
+        }
+
+        int index = queueSize;
+        if (queueSize == queuedTypes.length) {
+            //the pool could not play more sounds in a frame than it has voices anyway
+            index = getLeastImportantQueued();
+            if (!isMoreImportant(type, distanceSquared, queuedTypes[index], queuedDistancesSquared[index])) {
+                culledSounds++;
+                return false;
+            }
+            culledSounds++;
+        } else {
+            queueSize++;
+        }
+        queuedTypes[index] = type;
+        queuedDistancesSquared[index] = distanceSquared;
+        queuedLocations[index].set(location);
+        return true;
+    }
+
+    public int addEmitter() {
+        if (freeCount > 0) {
+            int emitter = freeEmitters[--freeCount];
+            emitterUsed[emitter] = true;
+            return emitter;
+        }
+        if (emitterCount == emitterUsed.length) {
+            int capacity = Math.max(16, emitterCount * 2);
+            emitterX = Arrays.copyOf(emitterX, capacity);
+            emitterY = Arrays.copyOf(emitterY, capacity);
+            emitterZ = Arrays.copyOf(emitterZ, capacity);
+            emitterPitch = Arrays.copyOf(emitterPitch, capacity);
+            emitterRank = Arrays.copyOf(emitterRank, capacity);
+            emitterVoice = Arrays.copyOf(emitterVoice, capacity);
+            emitterWalking = Arrays.copyOf(emitterWalking, capacity);
+            emitterUsed = Arrays.copyOf(emitterUsed, capacity);
+            freeEmitters = Arrays.copyOf(freeEmitters, capacity);
+            candidates = Arrays.copyOf(candidates, capacity);
+        }
+        int emitter = emitterCount++;
+        emitterVoice[emitter] = -1;
+        emitterUsed[emitter] = true;
+        return emitter;
+    }
+
+    public void removeEmitter(int emitter) {
+        stopVoice(emitter);
+        emitterWalking[emitter] = false;
+        emitterUsed[emitter] = false;
+        freeEmitters[freeCount++] = emitter;
+    }
+
+    /**
+     * Reports the emitter walking at the location this frame, it falls silent the first frame it is not reported.
+     */
+    public void setFootsteps(int emitter, Vector3f location, float pitch) {
+        emitterX[emitter] = location.x;
+        emitterY[emitter] = location.y;
+        emitterZ[emitter] = location.z;
+        emitterPitch[emitter] = pitch;
+        emitterWalking[emitter] = true;
+    }
+
+    public void stopFootsteps(int emitter) {
+        emitterWalking[emitter] = false;
+    }
+
+    /**
+     * Applies the sounds and foot steps reported since the last call, called once a frame.
+     */
+    public void update() {
+        voicePool.update();
+        flushQueue();
+        updateFootsteps();
+    }
+
+    public long getCulledSounds() {
+        return culledSounds;
+    }
+
+    public int getVoicedWalkers() {
+        return voicedWalkers;
+    }
+
+    public int getAmbientWalkers() {
+        return ambientWalkers;
+    }
+
+    private void flushQueue() {
+        while (queueSize > 0) {
+            int best = 0;
+            for (int i = 1; i < queueSize; i++) {
+                if (isMoreImportant(queuedTypes[i], queuedDistancesSquared[i], queuedTypes[best], queuedDistancesSquared[best])) {
+                    best = i;
+                }
+            }
+            voicePool.play(queuedTypes[best], queuedLocations[best]);
+
+            queueSize--;
+            queuedTypes[best] = queuedTypes[queueSize];
+            queuedDistancesSquared[best] = queuedDistancesSquared[queueSize];
+            Vector3f swap = queuedLocations[best];
+            queuedLocations[best] = queuedLocations[queueSize];
+            queuedLocations[queueSize] = swap;
+        }
+    }
+
+    private void updateFootsteps() {
+        float audibleDistanceSquared = footstepsAudibleDistance * footstepsAudibleDistance;
+        int candidateCount = 0;
+        float ambientPower = 0;
+        float ambientPitchSum = 0;
+        ambientWalkers = 0;
+        voicedWalkers = 0;
+
+        for (int emitter = 0; emitter < emitterCount; emitter++) {
+            if (!emitterUsed[emitter]) {
+                continue;
+            }
+            boolean walking = emitterWalking[emitter];
+            emitterWalking[emitter] = false;
+            if (!walking) {
+                stopVoice(emitter);
+                continue;
+            }
+
+            float distanceSquared = getDistanceSquared(emitterX[emitter], emitterY[emitter], emitterZ[emitter]);
+            if (distanceSquared <= nearDistanceSquared) {
+                emitterRank[emitter] = voicePool.isPlaying(emitterVoice[emitter]) ? distanceSquared * HYSTERESIS : distanceSquared;
+                candidates[candidateCount++] = emitter;
+                continue;
+            }
+            stopVoice(emitter);
+            if (distanceSquared <= audibleDistanceSquared) {
+                float gain = getAmbientGain(distanceSquared);
+                ambientPower += gain * gain;
+                ambientPitchSum += gain * gain * emitterPitch[emitter];
+                ambientWalkers++;
+            }
+        }
+
+        //nearest candidates go first, those left over join the ambient loop
+        for (int i = 0; i < candidateCount; i++) {
+            int emitter = candidates[i];
+            if (i < footstepsVoices) {
+                int nearest = i;
+                for (int j = i + 1; j < candidateCount; j++) {
+                    if (emitterRank[candidates[j]] < emitterRank[candidates[nearest]]) {
+                        nearest = j;
+                    }
+                }
+                emitter = candidates[nearest];
+                candidates[nearest] = candidates[i];
+                candidates[i] = emitter;
+                if (voice(emitter)) {
+                    voicedWalkers++;
+                    continue;
+                }
+            } else {
+                stopVoice(emitter);
+            }
+            float gain = getAmbientGain(getDistanceSquared(emitterX[emitter], emitterY[emitter], emitterZ[emitter]));
+            ambientPower += gain * gain;
+            ambientPitchSum += gain * gain * emitterPitch[emitter];
+            ambientWalkers++;
+        }
+
+        updateAmbientLoop(ambientPower, ambientPower > 0 ? ambientPitchSum / ambientPower : 0);
+    }
+
+    //keeps the emitter on its voice or finds it one, false when the pool has none to spare
+    private boolean voice(int emitter) {
+        location.set(emitterX[emitter], emitterY[emitter], emitterZ[emitter]);
+        if (voicePool.update(emitterVoice[emitter], location, emitterPitch[emitter])) {
+            return true;
+        }
+        emitterVoice[emitter] = voicePool.play(footstepsType, location);
+        return voicePool.update(emitterVoice[emitter], location, emitterPitch[emitter]);
+    }
+
+    private void stopVoice(int emitter) {
+        if (emitterVoice[emitter] >= 0) {
+            voicePool.stop(emitterVoice[emitter]);
+            emitterVoice[emitter] = -1;
+        }
+    }
+
+    //what a walker would sound like on its own at the edge of the near distance, fading out towards the audible distance
+    private float getAmbientGain(float distanceSquared) {
+        AudioNode sample = firstSamples[footstepsType];
+        float distance = (float) Math.sqrt(distanceSquared);
+        float fade = 1f - (distance - nearDistance) / (footstepsAudibleDistance - nearDistance);
+        float clamped = Math.max(sample.getRefDistance(), Math.min(nearDistance, sample.getMaxDistance()));
+        float attenuation = sample.getRefDistance() / clamped;
+        return attenuation * Math.max(0f, Math.min(1f, fade));
+    }
+
+    //sum of power of the walkers, never louder than a single one at full volume
+    private void updateAmbientLoop(float power, float pitch) {
+        if (ambientLoop == null) {
+            return;
+        }
+        float volume = firstSamples[footstepsType].getVolume() * Math.min(1f, (float) Math.sqrt(power));
+        if (volume <= 0) {
+            if (ambientLoop.getStatus() != AudioSource.Status.Stopped) {
+                ambientLoop.stop();
+            }
+            ambientVolume = 0;
+            return;
+        }
+
+        if (Math.abs(volume - ambientVolume) > AMBIENT_STEP * firstSamples[footstepsType].getVolume()) {
+            ambientVolume = volume;
+            ambientLoop.setVolume(volume);
+        }
+        if (Math.abs(pitch - ambientPitch) > AMBIENT_STEP) {
+            ambientPitch = pitch;
+            ambientLoop.setPitch(pitch);
+        }
+        if (ambientLoop.getStatus() != AudioSource.Status.Playing) {
+            ambientLoop.play();
+        }
+    }
+
+    private int getLeastImportantQueued() {
+        int least = 0;
+        for (int i = 1; i < queueSize; i++) {
+            if (isMoreImportant(queuedTypes[least], queuedDistancesSquared[least], queuedTypes[i], queuedDistancesSquared[i])) {
+                least = i;
+            }
+        }
+        return least;
+    }
+
+    private boolean isMoreImportant(int type, float distanceSquared, int otherType, float otherDistanceSquared) {
+        int priority = priorities[type];
+        int otherPriority = priorities[otherType];
+        return priority > otherPriority || (priority == otherPriority && distanceSquared < otherDistanceSquared);
+    }
+
+    private float getDistanceSquared(float x, float y, float z) {
+        Vector3f listenerLocation = listener.getLocation();
+        float dx = x - listenerLocation.x;
+        float dy = y - listenerLocation.y;
+        float dz = z - listenerLocation.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
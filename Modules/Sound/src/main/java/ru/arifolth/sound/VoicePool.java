@@ -0,0 +1,271 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.sound;
+
+import com.jme3.audio.AudioNode;
+import com.jme3.audio.AudioSource;
+import com.jme3.audio.Listener;
+import com.jme3.math.Vector3f;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fixed set of voices sounds get played on, so the number of audio sources in use stays bounded however many
+ * characters make noise. Every sample gets its voices cloned once up front, playing a sound picks an idle clone
+ * instead of cloning a node per swing.
+ * When every voice is busy the new sound takes the voice of the least important one: lower priority first,
+ * farther from the listener next. A sound not more important than any playing one is dropped.
+ * Voices are referred to by handles, which go stale once the voice finishes or gets stolen.
+ * Must be used from the render thread.
+ */
+public class VoicePool {
+    private static final int SLOT_BITS = 16;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+    private final Listener listener;
+    private final int maxVoices;
+
+    //samples of all sound types in a row, a type owns sampleCount of them starting at firstSample
+    private final int[] firstSample;
+    private final int[] sampleCount;
+    private final int[] priorities;
+    private final AudioNode[] samples;
+    //idle clones of every sample, stacked
+    private final AudioNode[][] idleVoices;
+    private final int[] idleCount;
+
+    //voices playing now, a free slot has no voice
+    private final AudioNode[] slotVoice;
+    private final int[] slotSample;
+    private final int[] slotPriority;
+    private final int[] slotGeneration;
+
+    private final SplittableRandom random = new SplittableRandom();
+    private int activeVoices;
+    private long stolenVoices;
+    private long droppedVoices;
+
+    /**
+     * @param typeSamples samples of every sound type, indexed by type
+     * @param priorities priority of every sound type, indexed by type
+     */
+    public VoicePool(AudioNode[][] typeSamples, int[] priorities, Listener listener, int maxVoices) {
+        this.listener = listener;
+        this.maxVoices = maxVoices;
+        this.priorities = priorities.clone();
+
+        this.firstSample = new int[typeSamples.length];
+        this.sampleCount = new int[typeSamples.length];
+        int total = 0;
+        for (int type = 0; type < typeSamples.length; type++) {
+            firstSample[type] = total;
+            sampleCount[type] = typeSamples[type].length;
+            total += typeSamples[type].length;
+        }
+
+        this.samples = new AudioNode[total];
+        this.idleVoices = new AudioNode[total][];
+        this.idleCount = new int[total];
+        for (int type = 0; type < typeSamples.length; type++) {
+            for (int i = 0; i < typeSamples[type].length; i++) {
+                int sample = firstSample[type] + i;
+                samples[sample] = typeSamples[type][i];
+                //a sample never needs more voices than the pool has
+                idleVoices[sample] = new AudioNode[maxVoices];
+                for (int voice = 0; voice < maxVoices; voice++) {
+                    idleVoices[sample][voice] = samples[sample].clone();
+                }
+                idleCount[sample] = maxVoices;
+            }
+        }
+
+        this.slotVoice = new AudioNode[maxVoices];
+        this.slotSample = new int[maxVoices];
+        this.slotPriority = new int[maxVoices];
+        this.slotGeneration = new int[maxVoices];
+    }
+
+    /**
+     * Plays a random sample of the sound type at the location.
+     * @return handle of the voice, or -1 when the sound was dropped
+     */
+    public int play(int type, Vector3f location) {
+        if (sampleCount[type] == 0) {
+            return -1;
+        }
+
+        int priority = priorities[type];
+        int slot = getFreeSlot();
+        if (slot < 0) {
+            slot = getVictim(priority, getDistanceSquared(location));
+            if (slot < 0) {
+                droppedVoices++;
+                return -1;
+            }
+            release(slot);
+            stolenVoices++;
+        }
+
+        int sample = firstSample[type] + (sampleCount[type] == 1 ? 0 : random.nextInt(sampleCount[type]));
+        AudioNode original = samples[sample];
+        AudioNode voice = idleVoices[sample][--idleCount[sample]];
+        voice.setVolume(original.getVolume());
+        voice.setPitch(original.getPitch());
+        voice.setLocalTranslation(location);
+        voice.updateGeometricState();
+        voice.play();
+
+        slotVoice[slot] = voice;
+        slotSample[slot] = sample;
+        slotPriority[slot] = priority;
+        activeVoices++;
+        return (slotGeneration[slot] << SLOT_BITS) | slot;
+    }
+
+    /**
+     * Moves a playing voice and changes its pitch.
+     * @return false when the handle is stale, nothing is changed then
+     */
+    public boolean update(int handle, Vector3f location, float pitch) {
+        AudioNode voice = getVoice(handle);
+        if (voice == null) {
+            return false;
+        }
+        if (voice.getPitch() != pitch) {
+            voice.setPitch(pitch);
+        }
+        if (!voice.getLocalTranslation().equals(location)) {
+            voice.setLocalTranslation(location);
+            voice.updateGeometricState();
+        }
+        return true;
+    }
+
+    public boolean isPlaying(int handle) {
+        return getVoice(handle) != null;
+    }
+
+    /**
+     * Stops the voice, stale handles are ignored.
+     */
+    public void stop(int handle) {
+        if (getVoice(handle) != null) {
+            release(handle & SLOT_MASK);
+        }
+    }
+
+    /**
+     * Returns voices of finished sounds to the pool, called once a frame.
+     */
+    public void update() {
+        for (int slot = 0; slot < maxVoices; slot++) {
+            AudioNode voice = slotVoice[slot];
+            if (voice != null && voice.getStatus() == AudioSource.Status.Stopped) {
+                release(slot);
+            }
+        }
+    }
+
+    /**
+     * Applies volume of the samples to the voices playing them.
+     */
+    public void refreshVolume() {
+        for (int slot = 0; slot < maxVoices; slot++) {
+            if (slotVoice[slot] != null) {
+                slotVoice[slot].setVolume(samples[slotSample[slot]].getVolume());
+            }
+        }
+    }
+
+    public int getActiveVoices() {
+        return activeVoices;
+    }
+
+    public long getStolenVoices() {
+        return stolenVoices;
+    }
+
+    public long getDroppedVoices() {
+        return droppedVoices;
+    }
+
+    public int getMaxVoices() {
+        return maxVoices;
+    }
+
+    private AudioNode getVoice(int handle) {
+        if (handle < 0) {
+            return null;
+        }
+        int slot = handle & SLOT_MASK;
+        if (slot >= maxVoices || slotGeneration[slot] != handle >>> SLOT_BITS) {
+            return null;
+        }
+        return slotVoice[slot];
+    }
+
+    private int getFreeSlot() {
+        if (activeVoices == maxVoices) {
+            return -1;
+        }
+        for (int slot = 0; slot < maxVoices; slot++) {
+            if (slotVoice[slot] == null) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    //least important playing voice less important than the new sound, -1 if there is none
+    private int getVictim(int priority, float distanceSquared) {
+        int victim = -1;
+        int victimPriority = priority;
+        float victimDistanceSquared = distanceSquared;
+        for (int slot = 0; slot < maxVoices; slot++) {
+            int slotPriority = this.slotPriority[slot];
+            if (slotPriority > victimPriority) {
+                continue;
+            }
+            float slotDistanceSquared = getDistanceSquared(slotVoice[slot].getLocalTranslation());
+            if (slotPriority < victimPriority || slotDistanceSquared > victimDistanceSquared) {
+                victim = slot;
+                victimPriority = slotPriority;
+                victimDistanceSquared = slotDistanceSquared;
+            }
+        }
+        return victim;
+    }
+
+    private float getDistanceSquared(Vector3f location) {
+        return listener.getLocation().distanceSquared(location);
+    }
+
+    private void release(int slot) {
+        AudioNode voice = slotVoice[slot];
+        if (voice.getStatus() != AudioSource.Status.Stopped) {
+            voice.stop();
+        }
+        int sample = slotSample[slot];
+        idleVoices[sample][idleCount[sample]++] = voice;
+        slotVoice[slot] = null;
+        //handles of the previous sound on this slot go stale
+        slotGeneration[slot] = (slotGeneration[slot] + 1) & (Integer.MAX_VALUE >>> SLOT_BITS);
+        activeVoices--;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.terrain;
+
+import com.jme3.terrain.geomipmap.LRUCache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Tile cache of the terrain grid that tells which tiles it dropped, so whatever was built for them could go too.
+ * The eviction callback runs on the thread that put the new tile in, after the cache is unlocked again.
+ */
+public class EvictingLRUCache<K, V> extends LRUCache<K, V> {
+    private final BiConsumer<K, V> evicted;
+    //what the cache held before the last put
+    private final Map<K, V> entries = new HashMap<>();
+
+    public EvictingLRUCache(int cacheSize, BiConsumer<K, V> evicted) {
+        super(cacheSize);
+        this.evicted = evicted;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        Map<K, V> dropped = new HashMap<>();
+        synchronized (this) {
+            V replaced = entries.put(key, value);
+            super.put(key, value);
+            if (replaced != null && replaced != value) {
+                dropped.put(key, replaced);
+            }
+            if (entries.size() > usedEntries()) {
+                Map<K, V> remaining = new HashMap<>();
+                for (Map.Entry<K, V> entry : getAll()) {
+                    remaining.put(entry.getKey(), entry.getValue());
+                }
+                entries.entrySet().removeIf(entry -> {
+                    if (remaining.containsKey(entry.getKey())) {
+                        return false;
+                    }
+                    dropped.put(entry.getKey(), entry.getValue());
+                    return true;
+                });
+            }
+        }
+        //outside of the monitor, the callback may block while the render thread waits for the cache
+        dropped.forEach(evicted);
+    }
+
+    @Override
+    public void clear() {
+        Map<K, V> dropped;
+        synchronized (this) {
+            super.clear();
+            dropped = new HashMap<>(entries);
+            entries.clear();
+        }
+        dropped.forEach(evicted);
+    }
+}
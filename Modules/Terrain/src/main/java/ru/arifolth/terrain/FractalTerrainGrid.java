@@ -20,14 +20,11 @@ package ru.arifolth.terrain;
 
 import com.jme3.asset.AssetManager;
 import com.jme3.bullet.BulletAppState;
-import com.jme3.bullet.collision.shapes.HeightfieldCollisionShape;
-import com.jme3.bullet.control.RigidBodyControl;
 import com.jme3.material.Material;
 import com.jme3.math.Vector3f;
 import com.jme3.renderer.queue.RenderQueue;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
-import com.jme3.scene.control.UpdateControl;
 import com.jme3.system.AppSettings;
 import com.jme3.terrain.geomipmap.*;
 import com.jme3.terrain.geomipmap.grid.FractalTileLoader;
@@ -47,9 +44,11 @@ import com.jme3.util.TangentBinormalGenerator;
 import ru.arifolth.anjrpg.interfaces.Constants;
 import ru.arifolth.anjrpg.interfaces.FractalTerrainGridInterface;
 import ru.arifolth.anjrpg.interfaces.InitializationDelegateInterface;
+import ru.arifolth.anjrpg.interfaces.MainThreadQueue;
 import ru.arifolth.anjrpg.interfaces.RolePlayingGameInterface;
 
-import java.util.concurrent.Callable;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,23 +61,64 @@ public class FractalTerrainGrid implements FractalTerrainGridInterface {
     private final BulletAppState bulletAppState;
     private final RolePlayingGameInterface app;
 
-    private final int rigidBodiesSize = Constants.RIGID_BODIES_SIZE;
-
-    private FractalSum base;
-    private PerturbFilter perturb;
-    private OptimizedErode therm;
-    private SmoothFilter smooth;
-    private IterativeFilter iterate;
+    private static final int PATCH_SIZE = 65;
+    private static final int QUAD_SIZE = 1025;
+    private static final int TILE_CACHE_SIZE = 20;
+    private static final float HEIGHT_SCALE = 256f;
+
+    private static final float ROUGHNESS = 0.82f;
+    private static final float FREQUENCY = 1.2f;
+    private static final float AMPLITUDE = 1.1f;
+    private static final float LACUNARITY = 2.12f;
+    private static final int OCTAVES = 8;
+    private static final float NOISE_SCALE = 0.02125f;
+    private static final float PERTURB_MAGNITUDE = 0.419f;
+    private static final int ERODE_RADIUS = 1;
+    private static final float ERODE_TALUS = 0.711f;
+    private static final int SMOOTH_RADIUS = 1;
+    private static final float SMOOTH_EFFECT = 0.7f;
+    private static final int FILTER_ITERATIONS = 1;
 
     private final float grassScale = 64;
     private final float dirtScale = 16;
     private final float rockScale = 128;
     private TerrainQuad distantTerrain;
+    private final HeightMapTileStore tileStore;
+    private final TilePrefetcher tilePrefetcher = new TilePrefetcher(this::getTerrainQuadAt);
+    //FilteredBasis keeps the state of the current call in fields, so every generating thread gets a noise chain of its own
+    private final ThreadLocal<TerrainGridTileLoader> tileLoaders = ThreadLocal.withInitial(this::createTileLoader);
+    private TileCollisionCache collisionCache;
+    private PhysicsResidencyManager residencyManager;
 
     public FractalTerrainGrid(AssetManager assetManager, BulletAppState bulletAppState, RolePlayingGameInterface app) {
         this.assetManager = assetManager;
         this.bulletAppState = bulletAppState;
         this.app = app;
+        this.tileStore = new HeightMapTileStore(
+                Paths.get(System.getProperty("user.home"), Constants.TERRAIN_CACHE_DIRECTORY),
+                app.getWorldSeed().getSeed(),
+                getFilterParametersHash(),
+                Constants.TERRAIN_CACHE_SIZE_LIMIT);
+    }
+
+    private static int getFilterParametersHash() {
+        return Arrays.hashCode(new float[] {
+                PATCH_SIZE, QUAD_SIZE, HEIGHT_SCALE,
+                ROUGHNESS, FREQUENCY, AMPLITUDE, LACUNARITY, OCTAVES, NOISE_SCALE,
+                PERTURB_MAGNITUDE, ERODE_RADIUS, ERODE_TALUS, SMOOTH_RADIUS, SMOOTH_EFFECT, FILTER_ITERATIONS
+        });
+    }
+
+    private TerrainQuad getTerrainQuadAt(Vector3f quadCell) {
+        float[] heightMap = tileStore.load(quadCell);
+        if (heightMap != null) {
+            LOGGER.log(Level.FINE, "Loaded TerrainQuad {0} from tile cache", quadCell);
+            return new TerrainQuad("Quad" + quadCell, PATCH_SIZE, QUAD_SIZE, heightMap);
+        }
+
+        TerrainQuad quad = tileLoaders.get().getTerrainQuadAt(quadCell);
+        tileStore.store(quadCell, quad.getHeightMap());
+        return quad;
     }
 
     @Override
@@ -125,43 +165,12 @@ public class FractalTerrainGrid implements FractalTerrainGridInterface {
 
         matTerrain.setFloat("terrainSize", 513);
 
-        this.base = new FractalSum();
-        this.base.setRoughness(0.82f);
-        this.base.setFrequency(1.2f);
-        this.base.setAmplitude(1.1f);
-        this.base.setLacunarity(2.12f);
-        this.base.setOctaves(8);
-        this.base.setScale(0.02125f);
-        this.base.addModulator(new NoiseModulator() {
-
-            @Override
-            public float value(float... in) {
-                return ShaderUtils.clamp(in[0] * 0.5f + 0.5f, 0, 1);
+        this.terrain = new TerrainGrid("terrain", PATCH_SIZE, QUAD_SIZE, tileLoaders.get()) {
+            {
+                //same size as the cache of TerrainGrid, collision of evicted tiles is dropped along with them
+                cache = new EvictingLRUCache<>(TILE_CACHE_SIZE, (cell, quad) -> getCollisionCache().evict(cell, quad));
             }
-        });
-
-        FilteredBasis ground = new FilteredBasis(this.base);
-
-        this.perturb = new PerturbFilter();
-        this.perturb.setMagnitude(0.419f);
-
-        this.therm = new OptimizedErode();
-        this.therm.setRadius(1);
-        this.therm.setTalus(0.711f);
-
-        this.smooth = new SmoothFilter();
-        this.smooth.setRadius(1);
-        this.smooth.setEffect(0.7f);
 
-        this.iterate = new IterativeFilter();
-        this.iterate.addPreFilter(this.perturb);
-        this.iterate.addPostFilter(this.smooth);
-        this.iterate.setFilter(this.therm);
-        this.iterate.setIterations(1);
-
-        ground.addPreFilter(this.iterate);
-
-        this.terrain = new TerrainGrid("terrain", 65, 1025, new FractalTileLoader(ground, 256f)) {
             private boolean isNeighbour(int quadIndex) {
                 return quadIndex == 0 || quadIndex == 1 || quadIndex == 2 || quadIndex == 3 ||
                         quadIndex == 4 || quadIndex == 8 ||
@@ -170,69 +179,63 @@ public class FractalTerrainGrid implements FractalTerrainGridInterface {
             }
 
             class UpdateQuadCacheRpg extends UpdateQuadCache {
+                private final int dx;
+                private final int dy;
 
-                public UpdateQuadCacheRpg(Vector3f location) {
+                public UpdateQuadCacheRpg(Vector3f location, int dx, int dy) {
                     super(location);
+                    this.dx = dx;
+                    this.dy = dy;
                 }
 
                 @Override
                 public void run() {
-                    for (int i = 0; i < 4; i++) {
-                        for (int j = 0; j < 4; j++) {
-                            int quadIdx = i * 4 + j;
-                            final Vector3f quadCell = location.add(quadIndex[quadIdx]);
-                            TerrainQuad q = cache.get(quadCell);
-                            if (q == null) {
-                                if (getGridTileLoader() != null) {
-                                    q = getGridTileLoader().getTerrainQuadAt(quadCell);
-                                    // only clone the material to the quad if it doesn't have a material of its own
-                                    if(q.getMaterial()==null) q.setMaterial(material.clone());
-                                    log.log(Level.FINE, "Loaded TerrainQuad {0} from TerrainQuadGrid", q.getName());
-                                }
+                    //attaches are handed to the render thread in small steps, this thread waits when too many are pending
+                    MainThreadQueue mainThreadQueue = app.getGameLogicCore().getMainThreadQueue();
+                    //closest tiles first, so they become visible as soon as possible
+                    for (int quadIdx : TilePrefetcher.getLoadOrder(dx, dy, quadIndex)) {
+                        final Vector3f quadCell = location.add(quadIndex[quadIdx]);
+                        TerrainQuad q = cache.get(quadCell);
+                        if (q == null) {
+                            if (getGridTileLoader() != null) {
+                                q = tilePrefetcher.get(quadCell);
+                                // only clone the material to the quad if it doesn't have a material of its own
+                                if(q.getMaterial()==null) q.setMaterial(material.clone());
+                                log.log(Level.FINE, "Loaded TerrainQuad {0} from TerrainQuadGrid", q.getName());
                             }
-                            cache.put(quadCell, q);
-
-
-                            final int quadrant = getQuadrant(quadIdx);
-                            final TerrainQuad newQuad = q;
-
-                            if (!isNeighbour(quadIdx)) {
-                                if (isCenter(quadIdx)) {
-                                    // if it should be attached as a child right now, attach it
-                                    getControl(UpdateControl.class).enqueue(new Callable<Object>() {
-                                        // back on the OpenGL thread:
-                                        @Override
-                                        public Object call() throws Exception {
-                                            attachQuadAt(newQuad, quadrant, quadCell, newQuad.getParent() != null);
-                                            return null;
-                                        }
-                                    });
-                                } else {
-                                    getControl(UpdateControl.class).enqueue(new Callable<Object>() {
-                                        @Override
-                                        public Object call() throws Exception {
-                                            removeQuad(newQuad);
-                                            log.log(Level.SEVERE, "Unloaded TerrainQuad {0} from TerrainQuadGrid", newQuad.getQuadrant());
-                                            return null;
-                                        }
-                                    });
-                                }
+                        }
+                        cache.put(quadCell, q);
+                        //heightmap is ready, build the collision proxy while still off the render thread
+                        getCollisionCache().prepare(quadCell, q);
+
+
+                        final int quadrant = getQuadrant(quadIdx);
+                        final TerrainQuad newQuad = q;
+
+                        if (!isNeighbour(quadIdx)) {
+                            if (isCenter(quadIdx)) {
+                                // if it should be attached as a child right now, attach it
+                                mainThreadQueue.enqueue(MainThreadQueue.Priority.TERRAIN, () -> {
+                                    attachQuadAt(newQuad, quadrant, quadCell, newQuad.getParent() != null);
+                                    tilePrefetcher.tileVisible();
+                                });
+                            } else {
+                                mainThreadQueue.enqueue(MainThreadQueue.Priority.TERRAIN, () -> {
+                                    removeQuad(newQuad);
+                                    log.log(Level.SEVERE, "Unloaded TerrainQuad {0} from TerrainQuadGrid", newQuad.getQuadrant());
+                                });
                             }
                         }
                     }
 
-                    getControl(UpdateControl.class).enqueue(new Callable<Object>() {
-                        // back on the OpenGL thread:
-                        @Override
-                        public Object call() throws Exception {
-                            for (Spatial s : getChildren()) {
-                                if (s instanceof TerrainQuad tq) {
-                                    tq.resetCachedNeighbours();
-                                }
+                    // back on the OpenGL thread, once all tiles are in place
+                    mainThreadQueue.enqueue(MainThreadQueue.Priority.TERRAIN, () -> {
+                        for (Spatial s : getChildren()) {
+                            if (s instanceof TerrainQuad tq) {
+                                tq.resetCachedNeighbours();
                             }
-                            setNeedToRecalculateNormals();
-                            return null;
                         }
+                        setNeedToRecalculateNormals();
                     });
                 }
             }
@@ -279,7 +282,10 @@ public class FractalTerrainGrid implements FractalTerrainGridInterface {
                     cacheExecutor = createExecutorService();
                 }
 
-                cacheExecutor.submit(new UpdateQuadCacheRpg(camCell));
+                //generate missing tiles in parallel, UpdateQuadCacheRpg picks them up as they are ready
+                tilePrefetcher.prefetch(camCell, dx, dy, quadIndex, cell -> cache.get(cell) != null);
+
+                cacheExecutor.submit(new UpdateQuadCacheRpg(camCell, dx, dy));
 
                 this.currentCamCell = camCell;
             }
@@ -300,6 +306,46 @@ public class FractalTerrainGrid implements FractalTerrainGridInterface {
         return terrain;
     }
 
+    private TerrainGridTileLoader createTileLoader() {
+        FractalSum base = new FractalSum();
+        base.setRoughness(ROUGHNESS);
+        base.setFrequency(FREQUENCY);
+        base.setAmplitude(AMPLITUDE);
+        base.setLacunarity(LACUNARITY);
+        base.setOctaves(OCTAVES);
+        base.setScale(NOISE_SCALE);
+        base.addModulator(new NoiseModulator() {
+
+            @Override
+            public float value(float... in) {
+                return ShaderUtils.clamp(in[0] * 0.5f + 0.5f, 0, 1);
+            }
+        });
+
+        FilteredBasis ground = new FilteredBasis(base);
+
+        PerturbFilter perturb = new PerturbFilter();
+        perturb.setMagnitude(PERTURB_MAGNITUDE);
+
+        OptimizedErode therm = new OptimizedErode();
+        therm.setRadius(ERODE_RADIUS);
+        therm.setTalus(ERODE_TALUS);
+
+        SmoothFilter smooth = new SmoothFilter();
+        smooth.setRadius(SMOOTH_RADIUS);
+        smooth.setEffect(SMOOTH_EFFECT);
+
+        IterativeFilter iterate = new IterativeFilter();
+        iterate.addPreFilter(perturb);
+        iterate.addPostFilter(smooth);
+        iterate.setFilter(therm);
+        iterate.setIterations(FILTER_ITERATIONS);
+
+        ground.addPreFilter(iterate);
+
+        return new FractalTileLoader(new SeededBasis(ground, app.getWorldSeed().getNoiseOffset()), HEIGHT_SCALE);
+    }
+
     private void setupScale() {
         terrain.setLocalScale(Constants.TERRAIN_SCALE_X, Constants.TERRAIN_SCALE_Y, Constants.TERRAIN_SCALE_Z);
     }
@@ -322,30 +368,27 @@ public class FractalTerrainGrid implements FractalTerrainGridInterface {
             public void gridMoved(Vector3f newCenter) {
             }
 
-            //TODO rewrite tree gen using thread pool executor and thread safe queue or stack
             @Override
             public void tileAttached(Vector3f cell, TerrainQuad quad) {
-                while(quad.getControl(RigidBodyControl.class)!=null){
-                    quad.removeControl(RigidBodyControl.class);
-                }
-                quad.addControl(new RigidBodyControl(new HeightfieldCollisionShape(quad.getHeightMap(), terrain.getLocalScale()), 0));
-                quad.setLocked(true);
-                bulletAppState.getPhysicsSpace().add(quad);
+                //shapes are built in advance, only swapped into the physics space here
+                getCollisionCache().attach(cell, quad);
+                MainThreadQueue mainThreadQueue = app.getGameLogicCore().getMainThreadQueue();
                 InitializationDelegateInterface initializationDelegate = app.getGameLogicCore().getInitializationDelegate();
                 //plant trees
-                initializationDelegate.positionTrees(quad);
+                initializationDelegate.positionTrees(cell, quad);
                 //plant grass
-                initializationDelegate.positionGrass(quad);
+                mainThreadQueue.enqueue(MainThreadQueue.Priority.GRASS, () -> {
+                    if (quad.getParent() != null) {
+                        initializationDelegate.positionGrass(cell, quad);
+                    }
+                });
 
 //                TangentBinormalGenerator.generate(quad);
             }
 
             @Override
             public void tileDetached(Vector3f cell, TerrainQuad quad) {
-                if (quad.getControl(RigidBodyControl.class) != null) {
-                    bulletAppState.getPhysicsSpace().remove(quad);
-                    quad.removeControl(RigidBodyControl.class);
-                }
+                getCollisionCache().detach(cell, quad);
                 detachTrees(quad);
                 detachGrass(quad);
             }
@@ -353,14 +396,22 @@ public class FractalTerrainGrid implements FractalTerrainGridInterface {
         });
     }
 
+    private synchronized TileCollisionCache getCollisionCache() {
+        if (collisionCache == null) {
+            collisionCache = new TileCollisionCache(bulletAppState.getPhysicsSpace(), terrain.getLocalScale(), Constants.PHYSICS_RESIDENCY_RADIUS,
+                    app.getGameLogicCore().getWorldTaskScheduler(), app.getGameLogicCore().getMainThreadQueue());
+            residencyManager = new PhysicsResidencyManager(bulletAppState.getPhysicsSpace(), collisionCache);
+            app.getStateManager().attach(residencyManager);
+        }
+        return collisionCache;
+    }
+
     private void detachGrass(TerrainQuad quad) {
-        Node quadGrass = quad.getUserData(Constants.QUAD_GRASS);
-        app.getGameLogicCore().getGrassNode().detachChild(quadGrass);
+        app.getGameLogicCore().getInitializationDelegate().removeGrass(quad);
     }
 
     private void detachTrees(TerrainQuad quad) {
-        Node quadForest = quad.getUserData(Constants.QUAD_FOREST);
-        app.getGameLogicCore().getForestNode().detachChild(quadForest);
+        app.getGameLogicCore().getInitializationDelegate().removeTrees(quad);
     }
 
     @Override
@@ -456,7 +507,11 @@ public class FractalTerrainGrid implements FractalTerrainGridInterface {
     }
 
     @Override
-    public int getRigidBodiesSize() {
-        return rigidBodiesSize;
+    public boolean isCollisionReady(Vector3f location) {
+        return residencyManager != null && residencyManager.isReady(location);
+    }
+
+    public TilePrefetcher getTilePrefetcher() {
+        return tilePrefetcher;
     }
 }
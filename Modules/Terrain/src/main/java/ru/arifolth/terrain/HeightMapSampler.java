@@ -0,0 +1,173 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.terrain;
+
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Spatial;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.NavigationGrid;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples terrain height straight from the heightmap of a tile, without casting rays against its geometry.
+ * Heights are interpolated on the triangles TerrainQuad builds out of the heightmap, so they match its geometry.
+ */
+public class HeightMapSampler {
+    private final float[] heightMap;
+    private final int size;
+    //heightmap cells per patch side, the triangulation changes at patch corners
+    private final int patchCells;
+    private final float originX;
+    private final float originY;
+    private final float originZ;
+
+    public HeightMapSampler(TerrainQuad quad) {
+        this(quad.getHeightMap(), quad.getTotalSize(), quad.getPatchSize(), quad.getWorldTranslation());
+    }
+
+    public HeightMapSampler(float[] heightMap, int size, int patchSize, Vector3f worldTranslation) {
+        this.heightMap = heightMap;
+        this.size = size;
+        this.patchCells = patchSize - 1;
+
+        //heightmap is centered on the tile translation
+        float halfSize = (size - 1) / 2f;
+        this.originX = worldTranslation.x - halfSize * Constants.TERRAIN_SCALE_X;
+        this.originY = worldTranslation.y;
+        this.originZ = worldTranslation.z - halfSize * Constants.TERRAIN_SCALE_Z;
+    }
+
+    /**
+     * @param localX column of the heightmap, 0..size-1
+     * @param localZ row of the heightmap, 0..size-1
+     * @return world height of the terrain
+     */
+    public float getHeight(float localX, float localZ) {
+        int col = Math.min((int) localX, size - 2);
+        int row = Math.min((int) localZ, size - 2);
+        float fx = localX - col;
+        float fz = localZ - row;
+
+        int index = row * size + col;
+        float topLeft = heightMap[index];
+        float topRight = heightMap[index + 1];
+        float bottomLeft = heightMap[index + size];
+        float bottomRight = heightMap[index + size + 1];
+
+        //same split as LODGeomap: cells are cut from top right to bottom left, but for the first and the last cell of a patch
+        float height;
+        int patchCol = col % patchCells;
+        int patchRow = row % patchCells;
+        if ((patchCol == 0 && patchRow == 0) || (patchCol == patchCells - 1 && patchRow == patchCells - 1)) {
+            height = fx < fz
+                    ? topLeft + fx * (bottomRight - bottomLeft) + fz * (bottomLeft - topLeft)
+                    : topLeft + fx * (topRight - topLeft) + fz * (bottomRight - topRight);
+        } else {
+            height = fx < 1 - fz
+                    ? bottomLeft + fx * (topRight - topLeft) + (1 - fz) * (topLeft - bottomLeft)
+                    : bottomLeft + fx * (bottomRight - bottomLeft) + (1 - fz) * (topRight - bottomRight);
+        }
+
+        return originY + height * Constants.TERRAIN_SCALE_Y;
+    }
+
+    /**
+     * Stores the surface point of the tile at the world coordinates.
+     * @return false if the point lies outside of the tile or under water, the store is left unchanged then
+     */
+    public boolean sample(Vector3f store, float worldX, float worldZ) {
+        if (!contains(worldX, worldZ)) {
+            return false;
+        }
+
+        float height = getHeightAt(worldX, worldZ);
+        if (height <= Constants.WATER_LEVEL_HEIGHT) {
+            return false;
+        }
+
+        store.set(worldX, height, worldZ);
+        return true;
+    }
+
+    /**
+     * @return world height of the terrain at the world coordinates, clamped to the edge of the tile
+     */
+    public float getHeightAt(float worldX, float worldZ) {
+        float localX = Math.max(0, Math.min((worldX - originX) / Constants.TERRAIN_SCALE_X, size - 1));
+        float localZ = Math.max(0, Math.min((worldZ - originZ) / Constants.TERRAIN_SCALE_Z, size - 1));
+        return getHeight(localX, localZ);
+    }
+
+    /**
+     * Rasterizes the tile into the navigation grid.
+     */
+    public void addTo(NavigationGrid navigationGrid) {
+        navigationGrid.addArea(originX, originZ, getWorldX(size - 1), getWorldZ(size - 1), this::getHeightAt, Constants.NAV_MAX_SLOPE);
+    }
+
+    public boolean contains(float worldX, float worldZ) {
+        float localX = (worldX - originX) / Constants.TERRAIN_SCALE_X;
+        float localZ = (worldZ - originZ) / Constants.TERRAIN_SCALE_Z;
+        return localX >= 0 && localZ >= 0 && localX <= size - 1 && localZ <= size - 1;
+    }
+
+    public float getWorldX(float localX) {
+        return originX + localX * Constants.TERRAIN_SCALE_X;
+    }
+
+    public float getWorldZ(float localZ) {
+        return originZ + localZ * Constants.TERRAIN_SCALE_Z;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Moves the spatial onto a random point of the tile.
+     * @return false if the point lies under water and the spatial was left in place
+     */
+    public boolean placeRandomly(Spatial spatial, SplittableRandom random) {
+        Vector3f location = new Vector3f();
+        if (!sampleRandomly(location, random)) {
+            return false;
+        }
+
+        spatial.setLocalTranslation(location);
+        return true;
+    }
+
+    /**
+     * Stores a random point on the surface of the tile.
+     * @return false if the point lies under water, the store is left unchanged then
+     */
+    public boolean sampleRandomly(Vector3f store, SplittableRandom random) {
+        float localX = (float) random.nextDouble(0, size - 1);
+        float localZ = (float) random.nextDouble(0, size - 1);
+        float height = getHeight(localX, localZ);
+        if (height <= Constants.WATER_LEVEL_HEIGHT) {
+            return false;
+        }
+
+        store.set(getWorldX(localX), height, getWorldZ(localZ));
+        return true;
+    }
+}
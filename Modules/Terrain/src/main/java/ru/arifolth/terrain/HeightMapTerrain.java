@@ -25,6 +25,7 @@ import com.jme3.bullet.control.RigidBodyControl;
 import com.jme3.bullet.util.CollisionShapeFactory;
 import com.jme3.material.Material;
 import com.jme3.material.RenderState;
+import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
 import com.jme3.terrain.geomipmap.TerrainLodControl;
 import com.jme3.terrain.geomipmap.TerrainQuad;
@@ -47,7 +48,6 @@ public class HeightMapTerrain implements HeightMapTerrainInterface {
     private AssetManager assetManager;
     private BulletAppState bulletAppState;
     private RolePlayingGameInterface app;
-    private final int rigidBodiesSize = 1;
 
     public HeightMapTerrain(AssetManager assetManager, BulletAppState bulletAppState, RolePlayingGameInterface app) {
         this.assetManager = assetManager;
@@ -151,7 +151,8 @@ public class HeightMapTerrain implements HeightMapTerrainInterface {
     }
 
     @Override
-    public int getRigidBodiesSize() {
-        return rigidBodiesSize;
+    public boolean isCollisionReady(Vector3f location) {
+        //whole terrain is a single body, added right away
+        return landscape != null;
     }
 }
@@ -0,0 +1,257 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.terrain;
+
+import com.jme3.math.Vector3f;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Disk backed store of generated terrain tiles.
+ * Every tile is kept in its own file: a small header followed by the raw heightmap floats, memory-mapped for reading.
+ * Tiles are grouped by world seed and filter parameters hash, so changing any of them never returns stale land.
+ * When the store grows over its size limit, least recently used tiles are evicted.
+ */
+public class HeightMapTileStore {
+    final private static Logger LOGGER = Logger.getLogger(HeightMapTileStore.class.getName());
+
+    private static final int MAGIC = 0x414E4A48; //"ANJH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + 2 * Long.BYTES;
+    private static final String EXTENSION = ".hmap";
+
+    private final Path directory;
+    private final long worldSeed;
+    private final int filterHash;
+    private final long maxBytes;
+    private long totalBytes;
+    //tiles being read right now
+    private final Set<Path> inUse = ConcurrentHashMap.newKeySet();
+
+    public HeightMapTileStore(Path root, long worldSeed, int filterHash, long maxBytes) {
+        this.directory = root.resolve(Long.toHexString(worldSeed) + "-" + Integer.toHexString(filterHash));
+        this.worldSeed = worldSeed;
+        this.filterHash = filterHash;
+        this.maxBytes = maxBytes;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to create terrain tile cache at " + directory, e);
+        }
+        this.totalBytes = calculateTotalBytes(root);
+    }
+
+    public float[] load(Vector3f cell) {
+        Path file = getTilePath(cell);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        inUse.add(file);
+        boolean discard = false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            //the header is read without mapping, so a mismatching tile could be deleted right away
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+
+            if (header.remaining() < HEADER_SIZE ||
+                    header.getInt() != MAGIC || header.getInt() != VERSION ||
+                    header.getLong() != worldSeed || header.getInt() != filterHash ||
+                    header.getLong() != getCellKey(cell)) {
+                LOGGER.log(Level.WARNING, "Terrain tile {0} does not match its key, discarding it", file);
+                discard = true;
+                return null;
+            }
+
+            //a tile cut short by a crash would map past its end
+            int length = header.getInt();
+            if (length < 0 || channel.size() != HEADER_SIZE + (long) length * Float.BYTES) {
+                LOGGER.log(Level.WARNING, "Terrain tile {0} does not match its stored length, discarding it", file);
+                discard = true;
+                return null;
+            }
+
+            float[] heightMap = new float[length];
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) heightMap.length * Float.BYTES);
+            buffer.order(ByteOrder.nativeOrder());
+            buffer.asFloatBuffer().get(heightMap);
+
+            //mark tile as recently used for eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return heightMap;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to read terrain tile " + file, e);
+            discard = true;
+            return null;
+        } finally {
+            inUse.remove(file);
+            if (discard) {
+                discard(file);
+            }
+        }
+    }
+
+    public void store(Vector3f cell, float[] heightMap) {
+        Path file = getTilePath(cell);
+        long size = HEADER_SIZE + (long) heightMap.length * Float.BYTES;
+
+        long replacedSize;
+        Path temp = null;
+        try {
+            //write into a temporary file first, so a concurrent reader never sees a partially written tile
+            //written through the channel rather than mapped, a mapped file could be neither moved nor deleted on Windows
+            temp = Files.createTempFile(directory, null, null);
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.nativeOrder());
+            buffer.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(worldSeed)
+                    .putInt(filterHash)
+                    .putLong(getCellKey(cell))
+                    .putInt(heightMap.length);
+            //the float view does not move the position of the buffer, the whole of it gets written
+            buffer.asFloatBuffer().put(heightMap);
+            buffer.rewind();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            replacedSize = Files.isRegularFile(file) ? getSize(file) : 0;
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to write terrain tile " + file, e);
+            if (temp != null) {
+                delete(temp);
+            }
+            return;
+        }
+
+        synchronized (this) {
+            totalBytes += size - replacedSize;
+            if (totalBytes > maxBytes) {
+                evict();
+            }
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void evict() {
+        List<Path> tiles = listTiles(directory.getParent());
+        tiles.sort(Comparator.comparing(HeightMapTileStore::getLastModifiedTime));
+
+        for (Path tile : tiles) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            //tiles being read stay, they are the most recently used anyway
+            if (inUse.contains(tile)) {
+                continue;
+            }
+            long size = getSize(tile);
+            if (delete(tile)) {
+                totalBytes -= size;
+            }
+        }
+        LOGGER.log(Level.FINE, "Terrain tile cache evicted down to {0} bytes", totalBytes);
+    }
+
+    private void discard(Path file) {
+        long size = getSize(file);
+        if (delete(file)) {
+            synchronized (this) {
+                totalBytes -= size;
+            }
+        }
+    }
+
+    private Path getTilePath(Vector3f cell) {
+        return directory.resolve((int) cell.x + "_" + (int) cell.z + EXTENSION);
+    }
+
+    private static long getCellKey(Vector3f cell) {
+        return ((long) (int) cell.x << 32) | ((int) cell.z & 0xFFFFFFFFL);
+    }
+
+    private static long calculateTotalBytes(Path root) {
+        return listTiles(root).stream().mapToLong(HeightMapTileStore::getSize).sum();
+    }
+
+    private static List<Path> listTiles(Path root) {
+        List<Path> tiles = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return tiles;
+        }
+        try (Stream<Path> stream = Files.walk(root, 2)) {
+            stream.filter(path -> path.toString().endsWith(EXTENSION)).forEach(tiles::add);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to list terrain tile cache " + root, e);
+        }
+        return tiles;
+    }
+
+    private static FileTime getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static long getSize(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    //a tile still mapped by a reader can not be deleted on Windows, it is left for a later eviction
+    private static boolean delete(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to delete terrain tile " + path, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.terrain;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.objects.PhysicsCharacter;
+import com.jme3.math.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps terrain collision in the physics space only around the characters living in it.
+ * Runs as an app state, so the land under the player becomes resident while the game is still loading.
+ */
+public class PhysicsResidencyManager extends BaseAppState {
+    final private static Logger LOGGER = Logger.getLogger(PhysicsResidencyManager.class.getName());
+
+    private final PhysicsSpace physicsSpace;
+    private final TileCollisionCache collisionCache;
+    //reused every frame, grows with the number of characters
+    private final List<Vector3f> locationPool = new ArrayList<>();
+    private final List<Vector3f> locations = new ArrayList<>();
+    private int residentBodies;
+
+    public PhysicsResidencyManager(PhysicsSpace physicsSpace, TileCollisionCache collisionCache) {
+        this.physicsSpace = physicsSpace;
+        this.collisionCache = collisionCache;
+    }
+
+    @Override
+    public void update(float tpf) {
+        locations.clear();
+        for (PhysicsCharacter character : physicsSpace.getCharacterList()) {
+            if (locations.size() == locationPool.size()) {
+                locationPool.add(new Vector3f());
+            }
+            Vector3f location = locationPool.get(locations.size());
+            locations.add(character.getPhysicsLocation(location));
+        }
+        collisionCache.update(locations);
+
+        int resident = collisionCache.getResidentBodies();
+        if (resident != residentBodies) {
+            residentBodies = resident;
+            LOGGER.log(Level.FINE, "Resident terrain bodies: {0}, {1} of them full resolution", new Object[]{resident, collisionCache.getFullResolutionTiles()});
+        }
+    }
+
+    /**
+     * @see TileCollisionCache#isReady(Vector3f)
+     */
+    public boolean isReady(Vector3f location) {
+        return collisionCache.isReady(location);
+    }
+
+    public int getResidentBodies() {
+        return residentBodies;
+    }
+
+    @Override
+    protected void initialize(Application app) {
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+    }
+
+    @Override
+    protected void onEnable() {
+    }
+
+    @Override
+    protected void onDisable() {
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.terrain;
+
+import com.jme3.terrain.noise.Basis;
+import com.jme3.terrain.noise.modulator.Modulator;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Moves the sampled terrain noise into the slice owned by the world seed.
+ * FractalTileLoader always samples at base 0, so the offset is applied to the base coordinate.
+ */
+public class SeededBasis implements Basis {
+    private final Basis basis;
+    private final float offset;
+
+    public SeededBasis(Basis basis, float offset) {
+        this.basis = basis;
+        this.offset = offset;
+    }
+
+    @Override
+    public void init() {
+        basis.init();
+    }
+
+    @Override
+    public Basis setScale(float scale) {
+        basis.setScale(scale);
+        return this;
+    }
+
+    @Override
+    public float getScale() {
+        return basis.getScale();
+    }
+
+    @Override
+    public Basis addModulator(Modulator modulator) {
+        basis.addModulator(modulator);
+        return this;
+    }
+
+    @Override
+    public float value(float x, float y, float z) {
+        return basis.value(x, y, z + offset);
+    }
+
+    @Override
+    public FloatBuffer getBuffer(float sx, float sy, float base, int size) {
+        return basis.getBuffer(sx, sy, base + offset, size);
+    }
+}
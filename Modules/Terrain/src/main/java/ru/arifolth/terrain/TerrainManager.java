@@ -20,6 +20,7 @@ package ru.arifolth.terrain;
 
 import com.jme3.asset.AssetManager;
 import com.jme3.bullet.BulletAppState;
+import com.jme3.math.Vector3f;
 import com.jme3.terrain.geomipmap.TerrainQuad;
 import ru.arifolth.anjrpg.interfaces.*;
 import ru.arifolth.vegetation.GrassTypeEnum;
@@ -53,6 +54,7 @@ public class TerrainManager implements TerrainManagerInterface {
     @Override
     public void initialize() {
         EnumSet.allOf(TreeTypeEnum.class).forEach(TreeTypeEnum::init);
+        EnumSet.allOf(TreeTypeEnum.class).forEach(treeType -> treeType.initImpostor(app.getRenderManager()));
         EnumSet.allOf(GrassTypeEnum.class).forEach(GrassTypeEnum::init);
 
         generateTerrain();
@@ -67,8 +69,8 @@ public class TerrainManager implements TerrainManagerInterface {
     }
 
     @Override
-    public int getRigidBodiesSize() {
-        return terrainBuilder.getRigidBodiesSize();
+    public boolean isCollisionReady(Vector3f location) {
+        return terrainBuilder.isCollisionReady(location);
     }
 
     @Override
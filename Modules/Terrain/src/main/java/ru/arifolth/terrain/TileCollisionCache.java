@@ -0,0 +1,291 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.terrain;
+
+import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.HeightfieldCollisionShape;
+import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.Vector3f;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import ru.arifolth.anjrpg.interfaces.MainThreadQueue;
+import ru.arifolth.anjrpg.interfaces.WorldTaskScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collision shapes of terrain tiles, built off the render thread and kept until the terrain grid evicts the tile.
+ * Every tile gets a coarse proxy shape as soon as its heightmap exists. The full resolution shape is built
+ * in the background only for tiles near a character, and dropped again once all characters walked away.
+ * Tiles out of the residency radius of every character are kept out of the physics space altogether.
+ * Shapes are swapped in the physics space on the render thread only.
+ */
+public class TileCollisionCache {
+    final private static Logger LOGGER = Logger.getLogger(TileCollisionCache.class.getName());
+
+    //proxy keeps every PROXY_STEP-th height, a 1025x1025 tile becomes 257x257
+    private static final int PROXY_STEP = 4;
+    //tiles closer than this to a character get full resolution collision
+    private static final float FULL_RESOLUTION_DISTANCE = 256f;
+
+    private final PhysicsSpace physicsSpace;
+    private final Vector3f scale;
+    private final WorldTaskScheduler scheduler;
+    private final MainThreadQueue mainThreadQueue;
+    //by cell, an entry is dropped once the terrain grid evicts its tile
+    private final Map<Long, TileCollision> tiles = new ConcurrentHashMap<>();
+    private final List<TileCollision> attached = new ArrayList<>();
+    private final List<Vector3f> locations = new ArrayList<>();
+    private final float residencyRadius;
+
+    public TileCollisionCache(PhysicsSpace physicsSpace, Vector3f scale, float residencyRadius, WorldTaskScheduler scheduler, MainThreadQueue mainThreadQueue) {
+        this.physicsSpace = physicsSpace;
+        this.residencyRadius = residencyRadius;
+        this.scale = scale.clone();
+        this.scheduler = scheduler;
+        this.mainThreadQueue = mainThreadQueue;
+    }
+
+    /**
+     * Builds the proxy shape of a freshly loaded tile. Meant to be called on the thread that loaded the tile.
+     */
+    public void prepare(Vector3f cell, TerrainQuad quad) {
+        getTileCollision(cell, quad);
+    }
+
+    /**
+     * Drops collision of a tile the terrain grid evicted from its cache, may be called from any thread.
+     * A body still in the physics space is removed on the render thread.
+     */
+    public void evict(Vector3f cell, TerrainQuad quad) {
+        TileCollision tile = tiles.get(getKey(cell));
+        if (tile == null || tile.quad != quad || !tiles.remove(getKey(cell), tile)) {
+            return;
+        }
+        mainThreadQueue.enqueue(MainThreadQueue.Priority.COLLISION, () -> {
+            attached.remove(tile);
+            install(tile, null);
+            releaseFullShape(tile);
+        });
+    }
+
+    /**
+     * Must be called on the render thread when the tile gets attached to the scene.
+     */
+    public void attach(Vector3f cell, TerrainQuad quad) {
+        TileCollision tile = getTileCollision(cell, quad);
+        if (!attached.contains(tile)) {
+            attached.add(tile);
+        }
+        tile.updateBounds();
+        quad.setLocked(true);
+        refresh(tile);
+    }
+
+    /**
+     * Must be called on the render thread when the tile gets detached from the scene.
+     */
+    public void detach(Vector3f cell, TerrainQuad quad) {
+        TileCollision tile = tiles.get(getKey(cell));
+        if (tile == null || tile.quad != quad || !attached.remove(tile)) {
+            return;
+        }
+        install(tile, null);
+        releaseFullShape(tile);
+    }
+
+    /**
+     * Must be called on the render thread with the locations of all characters,
+     * adds, swaps or removes bodies of the tiles characters came close to or left.
+     */
+    public void update(List<Vector3f> characterLocations) {
+        locations.clear();
+        locations.addAll(characterLocations);
+        for (int i = 0; i < attached.size(); i++) {
+            refresh(attached.get(i));
+        }
+    }
+
+    /**
+     * @return true once the tile under the location is attached and has its full resolution body in the physics space
+     */
+    public boolean isReady(Vector3f location) {
+        for (int i = 0; i < attached.size(); i++) {
+            TileCollision tile = attached.get(i);
+            if (tile.getDistance(location) == 0) {
+                return tile.control != null && tile.control.getCollisionShape() == tile.fullShape;
+            }
+        }
+        return false;
+    }
+
+    private void refresh(TileCollision tile) {
+        float distance = getDistance(tile);
+        if (distance > residencyRadius) {
+            install(tile, null);
+            releaseFullShape(tile);
+        } else if (distance < FULL_RESOLUTION_DISTANCE) {
+            if (tile.fullShape != null) {
+                install(tile, tile.fullShape);
+                return;
+            }
+            requestFullShape(tile);
+            //stand on the proxy until the full shape is ready
+            if (tile.control == null) {
+                install(tile, tile.proxyShape);
+            }
+        } else {
+            install(tile, tile.proxyShape);
+            releaseFullShape(tile);
+        }
+    }
+
+    private float getDistance(TileCollision tile) {
+        float distance = Float.MAX_VALUE;
+        for (int i = 0; i < locations.size(); i++) {
+            distance = Math.min(distance, tile.getDistance(locations.get(i)));
+        }
+        return distance;
+    }
+
+    private void requestFullShape(TileCollision tile) {
+        if (tile.requested) {
+            return;
+        }
+        tile.requested = true;
+        int generation = ++tile.generation;
+        scheduler.submit(tile, tile.center, () -> {
+            HeightfieldCollisionShape shape = new HeightfieldCollisionShape(tile.quad.getHeightMap(), scale);
+            mainThreadQueue.enqueue(MainThreadQueue.Priority.COLLISION, () -> {
+                //request could have been dropped while the shape was being built
+                if (tile.generation != generation || !attached.contains(tile)) {
+                    return;
+                }
+                tile.requested = false;
+                tile.fullShape = shape;
+                refresh(tile);
+            });
+        });
+    }
+
+    private void releaseFullShape(TileCollision tile) {
+        if (tile.requested) {
+            scheduler.cancel(tile);
+            tile.requested = false;
+            tile.generation++;
+        }
+        tile.fullShape = null;
+    }
+
+    private void install(TileCollision tile, HeightfieldCollisionShape shape) {
+        if (tile.control != null && tile.control.getCollisionShape() == shape) {
+            return;
+        }
+        if (tile.control != null) {
+            physicsSpace.remove(tile.control);
+            tile.quad.removeControl(tile.control);
+            tile.control = null;
+        }
+        if (shape != null) {
+            tile.control = new RigidBodyControl(shape, 0);
+            tile.quad.addControl(tile.control);
+            physicsSpace.add(tile.control);
+            LOGGER.log(Level.FINE, "Terrain tile {0} collision: {1}", new Object[]{tile.quad.getName(), shape == tile.proxyShape ? "proxy" : "full"});
+        }
+    }
+
+    //a tile loaded again after it was evicted is a new quad, it gets a new entry
+    private TileCollision getTileCollision(Vector3f cell, TerrainQuad quad) {
+        return tiles.compute(getKey(cell), (key, tile) -> tile != null && tile.quad == quad ? tile :
+                new TileCollision(quad, createProxyShape(quad.getHeightMap(), quad.getTotalSize())));
+    }
+
+    private static long getKey(Vector3f cell) {
+        return ((long) (int) cell.x << 32) | ((int) cell.z & 0xFFFFFFFFL);
+    }
+
+    public int getCachedTiles() {
+        return tiles.size();
+    }
+
+    private HeightfieldCollisionShape createProxyShape(float[] heightMap, int size) {
+        int proxySize = (size - 1) / PROXY_STEP + 1;
+        float[] proxy = new float[proxySize * proxySize];
+        for (int z = 0; z < proxySize; z++) {
+            int row = z * PROXY_STEP * size;
+            for (int x = 0; x < proxySize; x++) {
+                proxy[z * proxySize + x] = heightMap[row + x * PROXY_STEP];
+            }
+        }
+        return new HeightfieldCollisionShape(proxy, new Vector3f(scale.x * PROXY_STEP, scale.y, scale.z * PROXY_STEP));
+    }
+
+    public int getResidentBodies() {
+        int count = 0;
+        for (TileCollision tile : attached) {
+            if (tile.control != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getFullResolutionTiles() {
+        int count = 0;
+        for (TileCollision tile : attached) {
+            if (tile.control != null && tile.control.getCollisionShape() == tile.fullShape) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class TileCollision {
+        private final TerrainQuad quad;
+        private final HeightfieldCollisionShape proxyShape;
+        private final Vector3f center = new Vector3f();
+        private float halfSize;
+        private HeightfieldCollisionShape fullShape;
+        private RigidBodyControl control;
+        private boolean requested;
+        private int generation;
+
+        TileCollision(TerrainQuad quad, HeightfieldCollisionShape proxyShape) {
+            this.quad = quad;
+            this.proxyShape = proxyShape;
+        }
+
+        //tile is placed in the world only once attached
+        void updateBounds() {
+            center.set(quad.getWorldTranslation());
+            halfSize = (quad.getTotalSize() - 1) / 2f * quad.getWorldScale().x;
+        }
+
+        //distance on the ground to the edge of the tile, 0 inside of it
+        float getDistance(Vector3f location) {
+            float dx = Math.max(Math.abs(location.x - center.x) - halfSize, 0);
+            float dz = Math.max(Math.abs(location.z - center.z) - halfSize, 0);
+            return (float) Math.sqrt(dx * dx + dz * dz);
+        }
+    }
+}
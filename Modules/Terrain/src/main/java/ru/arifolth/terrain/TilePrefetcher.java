@@ -0,0 +1,183 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.terrain;
+
+import com.jme3.math.Vector3f;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates missing terrain tiles of the 4x4 grid neighbourhood in parallel.
+ * Tiles closest to the camera and lying in the direction of travel are generated first,
+ * work for cells the camera has already left is dropped.
+ */
+public class TilePrefetcher {
+    final private static Logger LOGGER = Logger.getLogger(TilePrefetcher.class.getName());
+
+    //grid neighbourhood spans -1..2 cells on both axes, so the camera sits in between the 4 central cells
+    private static final float GRID_CENTER = 0.5f;
+    private static final float DIRECTION_WEIGHT = 0.75f;
+
+    private final Function<Vector3f, TerrainQuad> generator;
+    private final ThreadPoolExecutor executor;
+    private final Map<Vector3f, PrefetchTask> tasks = new ConcurrentHashMap<>();
+
+    private volatile long updateStartTime;
+    private volatile boolean firstTileVisible = true;
+    private volatile float timeToFirstVisibleTile;
+
+    public TilePrefetcher(Function<Vector3f, TerrainQuad> generator) {
+        this.generator = generator;
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Terrain Prefetch " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Schedules generation of every missing tile around the camera cell and drops work for tiles left behind.
+     * Called whenever the camera crosses a cell boundary, dx and dy being the direction it moved in.
+     */
+    public void prefetch(Vector3f camCell, int dx, int dy, Vector3f[] quadIndex, Predicate<Vector3f> isLoaded) {
+        updateStartTime = System.nanoTime();
+        firstTileVisible = false;
+
+        Set<Vector3f> wanted = new HashSet<>(quadIndex.length);
+        for (Vector3f offset : quadIndex) {
+            wanted.add(camCell.add(offset));
+        }
+
+        //take pending work out of the queue, so it could be reprioritized against the new camera cell
+        List<Runnable> pending = new ArrayList<>();
+        executor.getQueue().drainTo(pending);
+
+        for (PrefetchTask task : tasks.values()) {
+            if (!wanted.contains(task.cell)) {
+                task.cancel(false);
+                tasks.remove(task.cell, task);
+            }
+        }
+
+        for (Vector3f offset : quadIndex) {
+            Vector3f cell = camCell.add(offset);
+            PrefetchTask task = tasks.get(cell);
+            if (task != null) {
+                task.priority = getPriority(offset, dx, dy);
+            } else if (!isLoaded.test(cell)) {
+                task = new PrefetchTask(cell, getPriority(offset, dx, dy));
+                tasks.put(cell, task);
+                pending.add(task);
+            }
+        }
+
+        for (Runnable task : pending) {
+            if (!((PrefetchTask) task).isCancelled()) {
+                executor.execute(task);
+            }
+        }
+
+        LOGGER.log(Level.FINE, "Terrain prefetch queue depth: {0}", getQueueDepth());
+    }
+
+    /**
+     * Returns the tile for the cell, waiting for the prefetch to finish or generating it in place if it was never scheduled.
+     */
+    public TerrainQuad get(Vector3f cell) {
+        PrefetchTask task = tasks.remove(cell);
+        if (task != null) {
+            try {
+                return task.get();
+            } catch (CancellationException | ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Terrain prefetch failed for " + cell + ", generating in place", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return generator.apply(cell);
+    }
+
+    /**
+     * Grid indices sorted by distance to the camera, biased towards the direction of travel.
+     */
+    public static Integer[] getLoadOrder(int dx, int dy, Vector3f[] quadIndex) {
+        Integer[] order = new Integer[quadIndex.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> getPriority(quadIndex[i], dx, dy)));
+        return order;
+    }
+
+    private static float getPriority(Vector3f offset, int dx, int dy) {
+        float x = offset.x - GRID_CENTER;
+        float z = offset.z - GRID_CENTER;
+        return x * x + z * z - DIRECTION_WEIGHT * (x * dx + z * dy);
+    }
+
+    /**
+     * Must be called on the render thread when a tile of the current update gets attached.
+     */
+    public void tileVisible() {
+        if (!firstTileVisible) {
+            firstTileVisible = true;
+            timeToFirstVisibleTile = (System.nanoTime() - updateStartTime) / 1_000_000f;
+            LOGGER.log(Level.FINE, "Time to first visible terrain tile: {0} ms", timeToFirstVisibleTile);
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size() + executor.getActiveCount();
+    }
+
+    /**
+     * @return milliseconds between the last camera cell change and the first tile attached after it
+     */
+    public float getTimeToFirstVisibleTile() {
+        return timeToFirstVisibleTile;
+    }
+
+    private class PrefetchTask extends FutureTask<TerrainQuad> implements Comparable<PrefetchTask> {
+        private final Vector3f cell;
+        private volatile float priority;
+
+        PrefetchTask(Vector3f cell, float priority) {
+            super(() -> generator.apply(cell));
+            this.cell = cell;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(PrefetchTask other) {
+            return Float.compare(priority, other.priority);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.vegetation;
+
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import ru.arifolth.anjrpg.interfaces.Constants;
+
+import java.util.*;
+
+/**
+ * Trees of a terrain tile, split into square chunks that switch between tree meshes and impostors on their own.
+ * Can be built off the render thread, the tiers are picked by ForestLod once the forest is registered with it.
+ */
+public class Forest extends Node {
+    //well below the impostor distance, so chunks around the camera stay pure meshes and the fade band spans a few of them
+    private static final float CHUNK_SIZE = 128f;
+
+    private final List<ForestChunk> chunks = new ArrayList<>();
+    //x and z of every tree, the batched chunks do not keep single trees
+    private final float[] treeLocations;
+
+    /**
+     * @param trees placed in world space, each one tagged with its Constants.TREE_TYPE
+     */
+    public Forest(String name, List<Spatial> trees) {
+        super(name);
+
+        treeLocations = new float[trees.size() * 2];
+        Map<Long, Map<TreeTypeEnum, List<Spatial>>> treesByChunk = new HashMap<>();
+        int location = 0;
+        for (Spatial tree : new ArrayList<>(trees)) {
+            treeLocations[location++] = tree.getLocalTranslation().x;
+            treeLocations[location++] = tree.getLocalTranslation().z;
+            int chunkX = (int) Math.floor(tree.getLocalTranslation().x / CHUNK_SIZE);
+            int chunkZ = (int) Math.floor(tree.getLocalTranslation().z / CHUNK_SIZE);
+            TreeTypeEnum type = TreeTypeEnum.valueOf(tree.getUserData(Constants.TREE_TYPE));
+            tree.removeFromParent();
+            treesByChunk.computeIfAbsent(((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL), key -> new EnumMap<>(TreeTypeEnum.class))
+                    .computeIfAbsent(type, key -> new ArrayList<>())
+                    .add(tree);
+        }
+
+        for (Map.Entry<Long, Map<TreeTypeEnum, List<Spatial>>> entry : treesByChunk.entrySet()) {
+            int chunkX = (int) (entry.getKey() >> 32);
+            int chunkZ = (int) (long) entry.getKey();
+            ForestChunk chunk = new ForestChunk(name + " " + chunkX + "_" + chunkZ, chunkX * CHUNK_SIZE, chunkZ * CHUNK_SIZE, CHUNK_SIZE, entry.getValue());
+            chunks.add(chunk);
+            attachChild(chunk);
+        }
+    }
+
+    public List<ForestChunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return x and z of every tree in world space, one pair after another
+     */
+    public float[] getTreeLocations() {
+        return treeLocations;
+    }
+}
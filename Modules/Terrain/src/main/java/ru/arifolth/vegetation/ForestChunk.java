@@ -0,0 +1,178 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.vegetation;
+
+import com.jme3.material.MatParamOverride;
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.shader.VarType;
+import jme3tools.optimize.GeometryBatchFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Square part of a forest with two tiers: batched tree meshes close to the camera,
+ * camera facing impostor quads far away. Within the fade band the trees swap tiers one fade step at a time,
+ * so the meshes dissolve while the impostors fill in and every tree is drawn exactly once.
+ */
+public class ForestChunk extends Node {
+    private static final int FADE_STEPS = 4;
+
+    private final Node trees = new Node("Trees");
+    private final Node[] steps = new Node[FADE_STEPS];
+    private final Node impostors = new Node("Impostors");
+    //progress of the chunk through the fade band, read by MatDefs/Impostor.vert
+    private final MatParamOverride fade = new MatParamOverride(VarType.Float, "Fade", 0f);
+    private final float minX;
+    private final float minZ;
+    private final float size;
+    private final float centerY;
+    //handle in the vegetation grid and the frame ForestLod last found the chunk around the camera
+    int gridHandle = -1;
+    int lodFrame;
+
+    /**
+     * @param treesByType trees of the chunk grouped by type, trees have to be placed in world space already
+     */
+    public ForestChunk(String name, float minX, float minZ, float size, Map<TreeTypeEnum, List<Spatial>> treesByType) {
+        super(name);
+        this.minX = minX;
+        this.minZ = minZ;
+        this.size = size;
+
+        for (int step = 0; step < FADE_STEPS; step++) {
+            steps[step] = new Node("Trees " + step);
+        }
+
+        float heights = 0;
+        int treeCount = 0;
+        for (Map.Entry<TreeTypeEnum, List<Spatial>> entry : treesByType.entrySet()) {
+            List<Spatial> typeTrees = entry.getValue();
+            for (int tree = 0; tree < typeTrees.size(); tree++) {
+                heights += typeTrees.get(tree).getLocalTranslation().y;
+                steps[getFadeStep(tree)].attachChild(typeTrees.get(tree));
+            }
+            treeCount += typeTrees.size();
+
+            ImpostorAtlas atlas = entry.getKey().getImpostor();
+            Material material = entry.getKey().getImpostorMaterial();
+            if (atlas != null && material != null) {
+                Geometry impostor = new Geometry("Impostors " + entry.getKey(), new ImpostorMesh(typeTrees, atlas));
+                impostor.setMaterial(material);
+                impostors.attachChild(impostor);
+            }
+        }
+
+        centerY = treeCount > 0 ? heights / treeCount : 0;
+
+        for (Node step : steps) {
+            GeometryBatchFactory.optimize(step);
+            trees.attachChild(step);
+        }
+        trees.setShadowMode(RenderQueue.ShadowMode.Cast);
+        //far away trees cast no shadows, that is the bulk of the shadow pass saved
+        impostors.setShadowMode(RenderQueue.ShadowMode.Off);
+        impostors.addMatParamOverride(fade);
+
+        attachChild(trees);
+        attachChild(impostors);
+    }
+
+    /**
+     * Fade step of the n-th tree of a type, ImpostorMesh hands its threshold to the shader in the same order.
+     */
+    static int getFadeStep(int tree) {
+        return tree % FADE_STEPS;
+    }
+
+    /**
+     * Fade at which the trees of the step turn from meshes into impostors.
+     */
+    static float getFadeThreshold(int step) {
+        return (step + 0.5f) / FADE_STEPS;
+    }
+
+    /**
+     * Shows the tiers needed at the camera location: meshes of a fade step until the chunk passes its threshold
+     * within the fade band, impostors of that step from then on.
+     */
+    public void updateLod(Vector3f camera, float impostorDistance, float fadeBand) {
+        boolean hasImpostors = impostors.getQuantity() > 0;
+        float progress = hasImpostors ? FastMath.clamp((getDistance(camera) - impostorDistance) / Math.max(fadeBand, 0.001f), 0, 1) : 0;
+
+        for (int step = 0; step < FADE_STEPS; step++) {
+            steps[step].setCullHint(progress < getFadeThreshold(step) ? CullHint.Inherit : CullHint.Always);
+        }
+        impostors.setCullHint(progress >= getFadeThreshold(0) ? CullHint.Inherit : CullHint.Always);
+        fade.setValue(progress);
+    }
+
+    //distance on the ground to the center of the chunk, every tree of the chunk shares it so the tiers never overlap
+    private float getDistance(Vector3f camera) {
+        float dx = camera.x - getCenterX();
+        float dz = camera.z - getCenterZ();
+        return (float) Math.sqrt(dx * dx + dz * dz);
+    }
+
+    public float getCenterX() {
+        return minX + size / 2;
+    }
+
+    /**
+     * @return average ground height of the trees
+     */
+    public float getCenterY() {
+        return centerY;
+    }
+
+    public float getCenterZ() {
+        return minZ + size / 2;
+    }
+
+    public Node getTrees() {
+        return trees;
+    }
+
+    public Node getImpostors() {
+        return impostors;
+    }
+
+    public float getFade() {
+        return (Float) fade.getValue();
+    }
+
+    public boolean isTreesVisible() {
+        for (Node step : steps) {
+            if (step.getCullHint() != CullHint.Always) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isImpostorsVisible() {
+        return impostors.getCullHint() != CullHint.Always;
+    }
+}
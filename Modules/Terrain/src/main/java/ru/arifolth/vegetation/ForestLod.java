@@ -0,0 +1,109 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.vegetation;
+
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.scene.Spatial;
+import ru.arifolth.anjrpg.interfaces.SpatialHashGrid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the tiers of the forest chunks registered in the vegetation grid.
+ * Only chunks around the camera show anything but impostors, so only they are found through the grid and updated every frame.
+ * Far chunks get their tiers once when registered and once more when the camera leaves them behind.
+ */
+public class ForestLod {
+    private final SpatialHashGrid<Spatial> grid;
+    private final Camera camera;
+    private final float impostorDistance;
+    private final float fadeBand;
+    //chunks further from the camera than this are faded out completely
+    private final float queryRadius;
+
+    private int[] found = new int[64];
+    private List<ForestChunk> near = new ArrayList<>();
+    private List<ForestChunk> stillNear = new ArrayList<>();
+    private int frame;
+
+    public ForestLod(SpatialHashGrid<Spatial> grid, Camera camera, float impostorDistance, float fadeBand) {
+        this.grid = grid;
+        this.camera = camera;
+        this.impostorDistance = impostorDistance;
+        this.fadeBand = fadeBand;
+        this.queryRadius = impostorDistance + fadeBand;
+    }
+
+    /**
+     * Must be called on the render thread, like every other change of the grid.
+     */
+    public void register(Forest forest) {
+        for (ForestChunk chunk : forest.getChunks()) {
+            if (chunk.gridHandle < 0) {
+                chunk.gridHandle = grid.insert(chunk, chunk.getCenterX(), chunk.getCenterY(), chunk.getCenterZ());
+                chunk.updateLod(camera.getLocation(), impostorDistance, fadeBand);
+            }
+        }
+    }
+
+    public void unregister(Forest forest) {
+        for (ForestChunk chunk : forest.getChunks()) {
+            if (chunk.gridHandle >= 0) {
+                grid.remove(chunk.gridHandle);
+                chunk.gridHandle = -1;
+            }
+        }
+    }
+
+    /**
+     * Must be called on the render thread every frame.
+     */
+    public void update() {
+        Vector3f location = camera.getLocation();
+        frame++;
+
+        int count;
+        //the grid fills the store up, grow it until every chunk around the camera fits
+        while ((count = grid.queryRadius(location.x, location.z, queryRadius, found)) == found.length) {
+            found = new int[found.length * 2];
+        }
+        for (int i = 0; i < count; i++) {
+            if (grid.get(found[i]) instanceof ForestChunk chunk) {
+                chunk.updateLod(location, impostorDistance, fadeBand);
+                chunk.lodFrame = frame;
+                stillNear.add(chunk);
+            }
+        }
+
+        //chunks the camera has just left behind settle into impostors, unregistered ones are not drawn anymore anyway
+        for (int i = 0; i < near.size(); i++) {
+            ForestChunk chunk = near.get(i);
+            if (chunk.lodFrame != frame && chunk.gridHandle >= 0) {
+                chunk.updateLod(location, impostorDistance, fadeBand);
+            }
+        }
+
+        List<ForestChunk> swap = near;
+        near = stillNear;
+        stillNear = swap;
+        stillNear.clear();
+    }
+}
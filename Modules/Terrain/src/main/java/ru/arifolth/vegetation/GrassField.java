@@ -0,0 +1,263 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.vegetation;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.terrain.geomipmap.TerrainQuad;
+import ru.arifolth.anjrpg.interfaces.Constants;
+import ru.arifolth.anjrpg.interfaces.MainThreadQueue;
+import ru.arifolth.anjrpg.interfaces.SpatialHashGrid;
+import ru.arifolth.anjrpg.interfaces.WorldSeed;
+import ru.arifolth.terrain.HeightMapSampler;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams grass in small square chunks around the camera.
+ * Chunks are planted on demand through the main thread queue, nearest first, and thinned out with the distance.
+ * Chunks left behind go back to a pool, so memory and build time depend on the view distance only.
+ * Grass of every terrain tile hangs under its own node, kept in the QUAD_GRASS user data of the tile.
+ * Planted chunks are kept in the vegetation grid by their center.
+ */
+public class GrassField {
+    final private static Logger LOGGER = Logger.getLogger(GrassField.class.getName());
+
+    private static final float CHUNK_SIZE = 32f;
+    private static final float VIEW_DISTANCE = 320f;
+    private static final int CHUNK_RADIUS = (int) FastMath.ceil(VIEW_DISTANCE / CHUNK_SIZE);
+    private static final int BLADES_PER_CHUNK = 64;
+
+    private final Node grassNode;
+    private final Geometry blade;
+    private final WorldSeed worldSeed;
+    private final MainThreadQueue mainThreadQueue;
+    private final SpatialHashGrid<Spatial> vegetationGrid;
+
+    private final Map<TerrainQuad, Tile> tiles = new HashMap<>();
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private final Deque<GrassPatch> pool = new ArrayDeque<>();
+    private int pendingChunks;
+    private int cameraChunkX = Integer.MIN_VALUE;
+    private int cameraChunkZ = Integer.MIN_VALUE;
+    private boolean tilesChanged;
+    private int patchesCreated;
+
+    public GrassField(Node grassNode, Geometry blade, WorldSeed worldSeed, MainThreadQueue mainThreadQueue, SpatialHashGrid<Spatial> vegetationGrid) {
+        this.grassNode = grassNode;
+        this.blade = blade;
+        this.worldSeed = worldSeed;
+        this.mainThreadQueue = mainThreadQueue;
+        this.vegetationGrid = vegetationGrid;
+    }
+
+    public void addTile(TerrainQuad quad) {
+        Node tileGrass = quad.getUserData(Constants.QUAD_GRASS);
+        if (tileGrass == null) {
+            tileGrass = new Node("Grass" + quad.getName());
+            quad.setUserData(Constants.QUAD_GRASS, tileGrass);
+        }
+        tiles.put(quad, new Tile(new HeightMapSampler(quad), tileGrass));
+        grassNode.attachChild(tileGrass);
+        tilesChanged = true;
+    }
+
+    public void removeTile(TerrainQuad quad) {
+        Tile tile = tiles.remove(quad);
+        if (tile == null) {
+            return;
+        }
+
+        chunks.values().removeIf(chunk -> {
+            if (chunk.tile == tile) {
+                release(chunk);
+                return true;
+            }
+            return false;
+        });
+        grassNode.detachChild(tile.node);
+        tilesChanged = true;
+    }
+
+    /**
+     * Must be called on the render thread every frame.
+     */
+    public void update(Vector3f cameraLocation) {
+        int chunkX = (int) FastMath.floor(cameraLocation.x / CHUNK_SIZE);
+        int chunkZ = (int) FastMath.floor(cameraLocation.z / CHUNK_SIZE);
+        if (tilesChanged || chunkX != cameraChunkX || chunkZ != cameraChunkZ) {
+            cameraChunkX = chunkX;
+            cameraChunkZ = chunkZ;
+            tilesChanged = false;
+            refresh();
+        }
+    }
+
+    //drops chunks out of the view distance, updates the density of the rest and queues the missing ones
+    private void refresh() {
+        chunks.values().removeIf(chunk -> {
+            float density = getDensity(chunk.x, chunk.z);
+            if (density <= 0) {
+                release(chunk);
+                return true;
+            }
+            if (chunk.patch != null) {
+                chunk.patch.setDensity(density);
+            }
+            return false;
+        });
+
+        List<Chunk> pending = new ArrayList<>();
+        for (int x = cameraChunkX - CHUNK_RADIUS; x <= cameraChunkX + CHUNK_RADIUS; x++) {
+            for (int z = cameraChunkZ - CHUNK_RADIUS; z <= cameraChunkZ + CHUNK_RADIUS; z++) {
+                long key = getKey(x, z);
+                Chunk chunk = chunks.get(key);
+                if (chunk == null && getDensity(x, z) > 0) {
+                    Tile tile = getTile((x + 0.5f) * CHUNK_SIZE, (z + 0.5f) * CHUNK_SIZE);
+                    if (tile != null) {
+                        chunk = new Chunk(x, z, tile);
+                        chunks.put(key, chunk);
+                    }
+                }
+                if (chunk != null && chunk.patch == null && !chunk.queued) {
+                    pending.add(chunk);
+                }
+            }
+        }
+        pending.sort(Comparator.comparingDouble(chunk -> getDistance(chunk.x, chunk.z)));
+        for (Chunk chunk : pending) {
+            chunk.queued = true;
+            pendingChunks++;
+            mainThreadQueue.enqueue(MainThreadQueue.Priority.GRASS, () -> build(chunk));
+        }
+
+        LOGGER.log(Level.FINE, "Grass chunks: {0} active, {1} pending, {2} pooled", new Object[]{getActiveChunks(), pendingChunks, pool.size()});
+    }
+
+    private void build(Chunk chunk) {
+        chunk.queued = false;
+        pendingChunks--;
+        //chunk could have been dropped while it was waiting
+        if (chunks.get(getKey(chunk.x, chunk.z)) != chunk || chunk.patch != null) {
+            return;
+        }
+
+        GrassPatch patch = pool.poll();
+        if (patch == null) {
+            patch = new GrassPatch("GrassChunk", blade, BLADES_PER_CHUNK);
+            patch.setCullHint(Spatial.CullHint.Dynamic);
+            patchesCreated++;
+        }
+
+        patch.plant(chunk.tile.sampler, chunk.x * CHUNK_SIZE, chunk.z * CHUNK_SIZE, CHUNK_SIZE,
+                worldSeed.getRandom(chunk.x, chunk.z, WorldSeed.Layer.GRASS));
+        patch.setDensity(getDensity(chunk.x, chunk.z));
+        chunk.patch = patch;
+        chunk.tile.node.attachChild(patch);
+
+        float centerX = (chunk.x + 0.5f) * CHUNK_SIZE;
+        float centerZ = (chunk.z + 0.5f) * CHUNK_SIZE;
+        chunk.gridHandle = vegetationGrid.insert(patch, centerX, chunk.tile.sampler.getHeightAt(centerX, centerZ), centerZ);
+    }
+
+    private void release(Chunk chunk) {
+        if (chunk.patch != null) {
+            chunk.patch.removeFromParent();
+            pool.push(chunk.patch);
+            chunk.patch = null;
+            vegetationGrid.remove(chunk.gridHandle);
+        }
+    }
+
+    private Tile getTile(float x, float z) {
+        for (Tile tile : tiles.values()) {
+            if (tile.sampler.contains(x, z)) {
+                return tile;
+            }
+        }
+        return null;
+    }
+
+    private float getDistance(int x, int z) {
+        float dx = (x - cameraChunkX) * CHUNK_SIZE;
+        float dz = (z - cameraChunkZ) * CHUNK_SIZE;
+        return FastMath.sqrt(dx * dx + dz * dz);
+    }
+
+    //full density next to the camera, fading out linearly to none at the view distance
+    private float getDensity(int x, int z) {
+        return 1 - getDistance(x, z) / VIEW_DISTANCE;
+    }
+
+    private static long getKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public int getActiveChunks() {
+        int active = 0;
+        for (Chunk chunk : chunks.values()) {
+            if (chunk.patch != null) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public int getPendingChunks() {
+        return pendingChunks;
+    }
+
+    public int getPooledChunks() {
+        return pool.size();
+    }
+
+    public int getPatchesCreated() {
+        return patchesCreated;
+    }
+
+    private static class Tile {
+        private final HeightMapSampler sampler;
+        private final Node node;
+
+        Tile(HeightMapSampler sampler, Node node) {
+            this.sampler = sampler;
+            this.node = node;
+        }
+    }
+
+    private static class Chunk {
+        private final int x;
+        private final int z;
+        private final Tile tile;
+        private GrassPatch patch;
+        private int gridHandle;
+        private boolean queued;
+
+        Chunk(int x, int z, Tile tile) {
+            this.x = x;
+            this.z = z;
+            this.tile = tile;
+        }
+    }
+}
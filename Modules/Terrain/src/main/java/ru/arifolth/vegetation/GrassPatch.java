@@ -0,0 +1,161 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.vegetation;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.math.*;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.instancing.InstancedGeometry;
+import com.jme3.util.BufferUtils;
+import ru.arifolth.anjrpg.interfaces.Utils;
+import ru.arifolth.terrain.HeightMapSampler;
+
+import java.nio.FloatBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * Grass of a terrain chunk drawn with a single instanced draw call.
+ * Blades share one mesh and material, each blade is just a world transform packed into the instance buffer.
+ * Patches are reusable: planting again overwrites the buffer in place.
+ */
+public class GrassPatch extends InstancedGeometry {
+    //floats per blade, layout expected by Common/ShaderLib/Instancing.glsllib
+    public static final int INSTANCE_SIZE = 16;
+
+    private final int maxInstances;
+    private final FloatBuffer transforms;
+    private final float bladeRadius;
+    private final Vector3f min = new Vector3f();
+    private final Vector3f max = new Vector3f();
+    private final BoundingBox patchBound = new BoundingBox();
+    private final Vector3f location = new Vector3f();
+    private final Quaternion rotation = new Quaternion();
+    private final Vector3f scale = new Vector3f();
+    private final Matrix4f matrix = new Matrix4f();
+    private final Matrix3f rotationMatrix = new Matrix3f();
+    private VertexBuffer transformData;
+    private int instanceCount;
+    private int visibleCount;
+
+    public GrassPatch(String name, Geometry blade, int maxInstances) {
+        super(name);
+        setMesh(blade.getMesh());
+        setMaterial(blade.getMaterial());
+        setQueueBucket(blade.getQueueBucket());
+        setShadowMode(blade.getShadowMode());
+
+        BoundingBox bladeBound = (BoundingBox) blade.getMesh().getBound();
+        this.bladeRadius = bladeBound.getCenter().length() + bladeBound.getExtent(null).length();
+        this.maxInstances = maxInstances;
+        this.transforms = BufferUtils.createFloatBuffer(maxInstances * INSTANCE_SIZE);
+    }
+
+    /**
+     * Scatters blades over the square area of the sampler's tile, skipping the ones that would end up under water.
+     * The same random sequence always plants the same blades, so a thinned out patch shows a subset of the full one.
+     */
+    public void plant(HeightMapSampler sampler, float minX, float minZ, float size, SplittableRandom random) {
+        transforms.clear();
+        min.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        max.set(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        instanceCount = 0;
+
+        for (int i = 0; i < maxInstances; i++) {
+            float x = minX + (float) random.nextDouble() * size;
+            float z = minZ + (float) random.nextDouble() * size;
+            scale.set(1 + Utils.getRandomNumberInRange(random, 1, 3), 1 + Utils.getRandomNumberInRange(random, 1, 3), 1 + Utils.getRandomNumberInRange(random, 1, 3));
+            rotation.fromAngles(Utils.getRandomNumberInRange(random, -0.65f, 0.65f), Utils.getRandomNumberInRange(random, -1.65f, 1.65f), 0);
+            if (sampler.sample(location, x, z)) {
+                addBlade();
+            }
+        }
+
+        finish();
+    }
+
+    /**
+     * @param density share of the planted blades to draw, 0..1
+     */
+    public void setDensity(float density) {
+        visibleCount = Math.round(instanceCount * FastMath.clamp(density, 0, 1));
+    }
+
+    private void addBlade() {
+        matrix.setTransform(location, scale, rotation.toRotationMatrix(rotationMatrix));
+        //the shader also needs the inverse rotation for normals, packed into the 4th components
+        transforms.put(matrix.m00).put(matrix.m10).put(matrix.m20).put(-rotation.getX())
+                .put(matrix.m01).put(matrix.m11).put(matrix.m21).put(-rotation.getY())
+                .put(matrix.m02).put(matrix.m12).put(matrix.m22).put(-rotation.getZ())
+                .put(matrix.m03).put(matrix.m13).put(matrix.m23).put(rotation.getW());
+
+        float radius = bladeRadius * Math.max(scale.x, Math.max(scale.y, scale.z));
+        min.set(Math.min(min.x, location.x - radius), Math.min(min.y, location.y - radius), Math.min(min.z, location.z - radius));
+        max.set(Math.max(max.x, location.x + radius), Math.max(max.y, location.y + radius), Math.max(max.z, location.z + radius));
+        instanceCount++;
+    }
+
+    private void finish() {
+        transforms.flip();
+
+        if (transformData == null) {
+            transformData = new VertexBuffer(VertexBuffer.Type.InstanceData);
+            transformData.setInstanced(true);
+            transformData.setupData(VertexBuffer.Usage.Dynamic, INSTANCE_SIZE, VertexBuffer.Format.Float, transforms);
+            setTransformUserInstanceData(transformData);
+        } else {
+            transformData.updateData(transforms);
+        }
+
+        if (instanceCount > 0) {
+            patchBound.setMinMax(min, max);
+        } else {
+            patchBound.setCenter(Vector3f.ZERO);
+            patchBound.setXExtent(0);
+            patchBound.setYExtent(0);
+            patchBound.setZExtent(0);
+        }
+        visibleCount = instanceCount;
+        setBoundRefresh();
+    }
+
+    @Override
+    public int getNumInstances() {
+        return instanceCount;
+    }
+
+    //culling is done for the whole patch, density decides how many of the blades are drawn
+    @Override
+    public int getNumVisibleInstances() {
+        return visibleCount;
+    }
+
+    //instance transforms are already in world space
+    @Override
+    protected void updateWorldBound() {
+        refreshFlags &= ~RF_BOUND;
+        worldBound = patchBound.clone(worldBound);
+    }
+
+    @Override
+    public BoundingVolume getModelBound() {
+        return patchBound;
+    }
+}
@@ -36,7 +36,7 @@ import ru.arifolth.anjrpg.interfaces.Utils;
 
 public enum GrassTypeEnum implements GrassType {
     REGULAR {
-        Node grassNode = null;
+        Geometry blade = null;
 
         @Override
         public void init() {
@@ -62,6 +62,7 @@ public enum GrassTypeEnum implements GrassType {
             grassShader.setBoolean("BackfaceShadows", true);
             grassShader.setFloat("AlphaDiscardThreshold", 0.5f);
             grassShader.setFloat("Shininess", 0f);
+            grassShader.setBoolean("UseInstancing", true);
             grassShader.getAdditionalRenderState().setDepthTest(true);
             grassShader.getAdditionalRenderState().setDepthWrite(true);
             grassShader.getAdditionalRenderState().setColorWrite(true);
@@ -101,12 +102,13 @@ public enum GrassTypeEnum implements GrassType {
             TangentBinormalGenerator.generate(grassBladeNode, true);
             grassBladeNode.updateModelBound();
 
-            grassNode = grassBladeNode;
+            //all quads share the material, so they are batched into a single geometry
+            blade = (Geometry) grassBladeNode.getChild(0);
         }
 
         @Override
-        public Node getGrass() {
-            return (Node) grassNode.clone();
+        public Geometry getBlade() {
+            return blade;
         }
     };
 
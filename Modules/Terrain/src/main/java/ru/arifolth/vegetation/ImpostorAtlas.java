@@ -0,0 +1,143 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.vegetation;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.light.AmbientLight;
+import com.jme3.light.DirectionalLight;
+import com.jme3.material.Material;
+import com.jme3.material.RenderState;
+import com.jme3.math.ColorRGBA;
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.texture.FrameBuffer;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+
+/**
+ * Pre-rendered side views of a tree model, laid out left to right in a single texture.
+ * View i shows the tree as seen from the azimuth i * 360 / VIEWS degrees around its vertical axis.
+ */
+public class ImpostorAtlas {
+    public static final int VIEWS = 8;
+
+    private final Texture2D texture;
+    private final Vector3f center;
+    private final float width;
+    private final float height;
+
+    public ImpostorAtlas(Texture2D texture, BoundingBox bounds) {
+        this.texture = texture;
+        this.center = bounds.getCenter().clone();
+        //any view has to fit the tree turned around, so the width is the diagonal of its footprint
+        this.width = 2 * FastMath.sqrt(bounds.getXExtent() * bounds.getXExtent() + bounds.getZExtent() * bounds.getZExtent());
+        this.height = 2 * bounds.getYExtent();
+    }
+
+    /**
+     * Renders the views of the unscaled tree off screen. Must be called on the render thread.
+     * Without a render manager, e.g. in headless tests, the atlas is left blank.
+     */
+    public static ImpostorAtlas bake(RenderManager renderManager, Node tree, int resolution) {
+        Node scene = new Node("Impostor Scene");
+        Spatial model = tree.clone();
+        model.setLocalScale(1);
+        model.setLocalRotation(Quaternion.IDENTITY);
+        model.setLocalTranslation(0, 0, 0);
+        scene.attachChild(model);
+
+        //light from above, like the midday sun, impostors get no lighting of their own
+        scene.addLight(new DirectionalLight(new Vector3f(-0.3f, -1f, -0.2f).normalizeLocal(), ColorRGBA.White));
+        scene.addLight(new AmbientLight(ColorRGBA.White.mult(0.5f)));
+        scene.updateGeometricState();
+
+        Texture2D texture = new Texture2D(resolution * VIEWS, resolution, Image.Format.RGBA8);
+        texture.setMinFilter(Texture.MinFilter.BilinearNoMipMaps);
+        texture.setMagFilter(Texture.MagFilter.Bilinear);
+        ImpostorAtlas atlas = new ImpostorAtlas(texture, (BoundingBox) model.getWorldBound());
+        if (renderManager == null) {
+            return atlas;
+        }
+
+        FrameBuffer frameBuffer = new FrameBuffer(resolution * VIEWS, resolution, 1);
+        frameBuffer.setDepthTarget(FrameBuffer.FrameBufferTarget.newTarget(Image.Format.Depth));
+        frameBuffer.addColorTarget(FrameBuffer.FrameBufferTarget.newTarget(texture));
+
+        float halfWidth = atlas.width / 2;
+        float halfHeight = atlas.height / 2;
+        float distance = Math.max(halfWidth, halfHeight) * 2;
+        for (int view = 0; view < VIEWS; view++) {
+            Camera camera = new Camera(resolution * VIEWS, resolution);
+            camera.setViewPort(view / (float) VIEWS, (view + 1) / (float) VIEWS, 0, 1);
+            camera.setParallelProjection(true);
+            camera.setFrustum(1, distance * 2, -halfWidth, halfWidth, halfHeight, -halfHeight);
+
+            float azimuth = view * FastMath.TWO_PI / VIEWS;
+            camera.setLocation(atlas.center.add(FastMath.sin(azimuth) * distance, 0, FastMath.cos(azimuth) * distance));
+            camera.lookAt(atlas.center, Vector3f.UNIT_Y);
+
+            ViewPort viewPort = new ViewPort("Impostor View " + view, camera);
+            viewPort.setOutputFrameBuffer(frameBuffer);
+            viewPort.setBackgroundColor(new ColorRGBA(0, 0, 0, 0));
+            //clearing wipes the whole frame buffer, not just the region of the view
+            viewPort.setClearFlags(view == 0, view == 0, view == 0);
+            viewPort.attachScene(scene);
+            renderManager.renderViewPort(viewPort, 0);
+        }
+        renderManager.getRenderer().setFrameBuffer(null);
+
+        return atlas;
+    }
+
+    public Material createMaterial(AssetManager assetManager) {
+        Material material = new Material(assetManager, "MatDefs/Impostor.j3md");
+        material.setTexture("ColorMap", texture);
+        material.setFloat("Views", VIEWS);
+        material.setFloat("AlphaDiscardThreshold", 0.5f);
+        material.getAdditionalRenderState().setFaceCullMode(RenderState.FaceCullMode.Off);
+        return material;
+    }
+
+    public Texture2D getTexture() {
+        return texture;
+    }
+
+    /**
+     * @return center of the unscaled tree bounds, relative to its origin
+     */
+    public Vector3f getCenter() {
+        return center;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+}
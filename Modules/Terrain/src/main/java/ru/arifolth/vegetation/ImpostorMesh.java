@@ -0,0 +1,91 @@
+/**
+ *     ANJRpg - an open source Role Playing Game written in Java.
+ *     Copyright (C) 2014 - 2024 Alexander Nilov
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package ru.arifolth.vegetation;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * Camera facing quads standing in for trees of one type, one quad per tree.
+ * Every vertex carries the bottom center of its tree, the quad is turned towards the camera by MatDefs/Impostor.vert.
+ * Trees are handed out to the fade steps of ForestChunk in list order, the threshold of its step goes with every quad.
+ */
+public class ImpostorMesh extends Mesh {
+    private static final float[] CORNERS = {
+            -0.5f, 0,
+            0.5f, 0,
+            0.5f, 1,
+            -0.5f, 1
+    };
+
+    public ImpostorMesh(List<Spatial> trees, ImpostorAtlas atlas) {
+        FloatBuffer positions = BufferUtils.createFloatBuffer(trees.size() * 4 * 3);
+        FloatBuffer corners = BufferUtils.createFloatBuffer(trees.size() * 4 * 2);
+        FloatBuffer sizes = BufferUtils.createFloatBuffer(trees.size() * 4 * 4);
+        IntBuffer indices = BufferUtils.createIntBuffer(trees.size() * 6);
+
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        Vector3f base = new Vector3f();
+        float[] angles = new float[3];
+
+        for (int tree = 0; tree < trees.size(); tree++) {
+            Spatial spatial = trees.get(tree);
+            Vector3f scale = spatial.getLocalScale();
+            Quaternion rotation = spatial.getLocalRotation();
+
+            float width = atlas.getWidth() * (scale.x + scale.z) / 2;
+            float height = atlas.getHeight() * scale.y;
+            //bottom center of the scaled and turned tree bounds
+            rotation.mult(base.set(atlas.getCenter()).multLocal(scale), base).addLocal(spatial.getLocalTranslation());
+            base.y -= height / 2;
+            float yaw = rotation.toAngles(angles)[1];
+            float threshold = ForestChunk.getFadeThreshold(ForestChunk.getFadeStep(tree));
+
+            for (int corner = 0; corner < 4; corner++) {
+                positions.put(base.x).put(base.y).put(base.z);
+                corners.put(CORNERS[corner * 2]).put(CORNERS[corner * 2 + 1]);
+                sizes.put(width).put(height).put(yaw).put(threshold);
+            }
+            int vertex = tree * 4;
+            indices.put(vertex).put(vertex + 1).put(vertex + 2)
+                    .put(vertex).put(vertex + 2).put(vertex + 3);
+
+            //quad turns around its base, so its bounds are a box of the quad width around it
+            min.minLocal(base.subtract(width / 2, 0, width / 2));
+            max.maxLocal(base.add(width / 2, height, width / 2));
+        }
+
+        setBuffer(VertexBuffer.Type.Position, 3, positions.flip());
+        setBuffer(VertexBuffer.Type.TexCoord, 2, corners.flip());
+        setBuffer(VertexBuffer.Type.TexCoord2, 4, sizes.flip());
+        setBuffer(VertexBuffer.Type.Index, 3, indices.flip());
+        setBound(trees.isEmpty() ? new BoundingBox() : new BoundingBox(min, max));
+        updateCounts();
+    }
+}
@@ -19,14 +19,19 @@
 package ru.arifolth.vegetation;
 
 import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.queue.RenderQueue;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Node;
 import com.jme3.util.TangentBinormalGenerator;
+import ru.arifolth.anjrpg.interfaces.Constants;
 import ru.arifolth.anjrpg.interfaces.LodUtils;
 import ru.arifolth.anjrpg.interfaces.TreeType;
 import ru.arifolth.anjrpg.interfaces.Utils;
 
+import java.util.SplittableRandom;
+
 public enum TreeTypeEnum implements TreeType {
     FIR {
         Node tree = null;
@@ -43,9 +48,9 @@ public enum TreeTypeEnum implements TreeType {
         }
 
         @Override
-        public Node getTree() {
+        public Node getTree(SplittableRandom random) {
             Node node = (Node) tree.clone();
-            node.setLocalScale(Utils.getRandomNumberInRange(1, 2), Utils.getRandomNumberInRange(1, 2), Utils.getRandomNumberInRange(1, 3));
+            node.setLocalScale(Utils.getRandomNumberInRange(random, 1, 2), Utils.getRandomNumberInRange(random, 1, 2), Utils.getRandomNumberInRange(random, 1, 3));
             return node;
         }
 
@@ -76,9 +81,9 @@ public enum TreeTypeEnum implements TreeType {
         }
 
         @Override
-        public Node getTree() {
+        public Node getTree(SplittableRandom random) {
             Node node = (Node) tree.clone();
-            node.setLocalScale(Utils.getRandomNumberInRange(1, 2), Utils.getRandomNumberInRange(1, 2), Utils.getRandomNumberInRange(1, 3));
+            node.setLocalScale(Utils.getRandomNumberInRange(random, 1, 2), Utils.getRandomNumberInRange(random, 1, 2), Utils.getRandomNumberInRange(random, 1, 3));
             return node;
         }
 
@@ -107,9 +112,9 @@ public enum TreeTypeEnum implements TreeType {
         }
 
         @Override
-        public Node getTree() {
+        public Node getTree(SplittableRandom random) {
             Node node = (Node) tree.clone();
-            node.setLocalScale(Utils.getRandomNumberInRange(2, 4), Utils.getRandomNumberInRange(2, 4), Utils.getRandomNumberInRange(2, 5));
+            node.setLocalScale(Utils.getRandomNumberInRange(random, 2, 4), Utils.getRandomNumberInRange(random, 2, 4), Utils.getRandomNumberInRange(random, 2, 5));
             return node;
         }
 
@@ -119,23 +124,48 @@ public enum TreeTypeEnum implements TreeType {
         }
     };
 
+    private static final int IMPOSTOR_RESOLUTION = 256;
+
     private static AssetManager assetManager;
 
+    private ImpostorAtlas impostor;
+    private Material impostorMaterial;
+
     public static void setAssetManager(AssetManager assetManager) {
         TreeTypeEnum.assetManager = assetManager;
     }
 
-    public static Node getRandomTree() {
-        Node tree = null;
+    /**
+     * Renders the impostor atlas of the tree, must be called on the render thread after init().
+     */
+    public void initImpostor(RenderManager renderManager) {
+        impostor = ImpostorAtlas.bake(renderManager, getTree(new SplittableRandom(0)), IMPOSTOR_RESOLUTION);
+        //fade band of the forest is applied per chunk, the material is shared by all of them
+        impostorMaterial = impostor.createMaterial(assetManager);
+    }
+
+    public ImpostorAtlas getImpostor() {
+        return impostor;
+    }
+
+    public Material getImpostorMaterial() {
+        return impostorMaterial;
+    }
+
+    public static Node getRandomTree(SplittableRandom random) {
+        TreeTypeEnum type;
 
-        if(Utils.getRandom(FIR.getProbability())) {
-            tree = FIR.getTree();
-        } else if (Utils.getRandom(OAK.getProbability())) {
-            tree = OAK.getTree();
+        if(Utils.getRandom(random, FIR.getProbability())) {
+            type = FIR;
+        } else if (Utils.getRandom(random, OAK.getProbability())) {
+            type = OAK;
         } else { //other 10%
-            tree = MAPPLE.getTree();
+            type = MAPPLE;
         }
 
+        Node tree = type.getTree(random);
+        //forest needs the type to pick the impostor atlas
+        tree.setUserData(Constants.TREE_TYPE, type.name());
         return tree;
     }
 }